@@ -6,6 +6,8 @@ import org.ethereum.core.Transaction;
 import org.ethereum.core.TransactionExecutor;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.LevelDbDataSource;
+import org.ethereum.datasource.WriteBehindDataSource;
+import org.ethereum.datasource.WriteBehindGroup;
 import org.ethereum.datasource.mapdb.MapDBFactory;
 import org.ethereum.datasource.mapdb.MapDBFactoryImpl;
 import org.ethereum.db.BlockStore;
@@ -38,6 +40,11 @@ public class CommonConfig {
 
     private static CommonConfig defaultInstance;
 
+    private volatile InstanceFactory instanceFactory;
+
+    private WriteBehindGroup writeBehindGroup;
+    private KeyValueDataSource writeBehindLog;
+
     public static CommonConfig getDefault() {
         if (defaultInstance == null && !SystemProperties.isUseOnlySpringConfig()) {
             defaultInstance = new CommonConfig();
@@ -63,6 +70,10 @@ public class CommonConfig {
         try {
             if ("mapdb".equals(dataSource)) {
                 return mapDBFactory().createDataSource();
+            } else if (systemProperties().databaseWriteBehindEnabled()) {
+                // the wrapped source is not a bean so the config is passed explicitly
+                dataSource = "write-behind leveldb";
+                return new WriteBehindDataSource(new LevelDbDataSource(systemProperties()), loggedWriteBehindGroup());
             } else {
                 dataSource = "leveldb";
                 return new LevelDbDataSource();
@@ -72,37 +83,70 @@ public class CommonConfig {
         }
     }
 
+    /**
+     * The write-behind data sources created by {@link #keyValueDataSource()}
+     * are flushed together, so that a block is persisted by all the stores or by none
+     */
+    public synchronized WriteBehindGroup writeBehindGroup() {
+        if (writeBehindGroup == null) {
+            writeBehindGroup = new WriteBehindGroup(systemProperties().databaseWriteBehindMaxPending());
+        }
+        return writeBehindGroup;
+    }
+
+    private synchronized WriteBehindGroup loggedWriteBehindGroup() {
+        if (writeBehindLog == null) {
+            writeBehindLog = new LevelDbDataSource(systemProperties());
+            writeBehindLog.setName("writebehindlog");
+            writeBehindLog.init();
+            writeBehindGroup().withLog(writeBehindLog);
+        }
+        return writeBehindGroup();
+    }
+
+    /**
+     * Singleton which creates the per-transaction objects below,
+     * a bean with this name overrides it
+     */
     @Bean
-    @Scope("prototype")
+    public InstanceFactory instanceFactory() {
+        return new DefaultInstanceFactory(systemProperties(), this);
+    }
+
+    // @Bean methods of the configuration are intercepted by Spring
+    // so the factory is resolved once rather than on every call
+    private InstanceFactory getInstanceFactory() {
+        if (instanceFactory == null) {
+            instanceFactory = instanceFactory();
+        }
+        return instanceFactory;
+    }
+
     public TransactionExecutor transactionExecutor(Transaction tx, byte[] coinbase, Repository track, BlockStore blockStore,
                                                    ProgramInvokeFactory programInvokeFactory, Block currentBlock,
                                                    EthereumListener listener, long gasUsedInTheBlock) {
-        return new TransactionExecutor(tx, coinbase, track, blockStore, programInvokeFactory,
+        return getInstanceFactory().transactionExecutor(tx, coinbase, track, blockStore, programInvokeFactory,
                 currentBlock, listener, gasUsedInTheBlock);
     }
 
-    @Bean
-    @Scope("prototype")
     public VM vm() {
-        return new VM(systemProperties());
+        return getInstanceFactory().vm();
     }
 
-    @Bean
-    @Scope("prototype")
     public Program program(byte[] ops, ProgramInvoke programInvoke, Transaction transaction) {
-        return new Program(ops, programInvoke, transaction, systemProperties());
+        return getInstanceFactory().program(null, ops, programInvoke, transaction);
+    }
+
+    public Program program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke, Transaction transaction) {
+        return getInstanceFactory().program(codeHash, ops, programInvoke, transaction);
     }
 
-    @Bean
-    @Scope("prototype")
     public ContractDetailsImpl contractDetailsImpl() {
-        return new ContractDetailsImpl(this, systemProperties());
+        return getInstanceFactory().contractDetailsImpl();
     }
 
-    @Bean
-    @Scope("prototype")
     public RepositoryTrack repositoryTrack(Repository parent) {
-        return new RepositoryTrack(parent);
+        return getInstanceFactory().repositoryTrack(parent);
     }
 
     @Bean
@@ -0,0 +1,57 @@
+package org.ethereum.config;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Repository;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionExecutor;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ContractDetailsImpl;
+import org.ethereum.db.RepositoryTrack;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.vm.VM;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvoke;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+
+/**
+ * Creates the standard implementations passing them the configuration
+ * which Spring would otherwise autowire
+ */
+public class DefaultInstanceFactory implements InstanceFactory {
+
+    protected final SystemProperties config;
+    protected final CommonConfig commonConfig;
+
+    public DefaultInstanceFactory(SystemProperties config, CommonConfig commonConfig) {
+        this.config = config;
+        this.commonConfig = commonConfig;
+    }
+
+    @Override
+    public TransactionExecutor transactionExecutor(Transaction tx, byte[] coinbase, Repository track, BlockStore blockStore,
+                                                   ProgramInvokeFactory programInvokeFactory, Block currentBlock,
+                                                   EthereumListener listener, long gasUsedInTheBlock) {
+        return new TransactionExecutor(tx, coinbase, track, blockStore, programInvokeFactory,
+                currentBlock, listener, gasUsedInTheBlock).withConfig(config, commonConfig);
+    }
+
+    @Override
+    public VM vm() {
+        return new VM(config);
+    }
+
+    @Override
+    public Program program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke, Transaction transaction) {
+        return new Program(codeHash, ops, programInvoke, transaction, config, commonConfig);
+    }
+
+    @Override
+    public ContractDetailsImpl contractDetailsImpl() {
+        return new ContractDetailsImpl(commonConfig, config);
+    }
+
+    @Override
+    public RepositoryTrack repositoryTrack(Repository parent) {
+        return new RepositoryTrack(parent, config, commonConfig);
+    }
+}
@@ -0,0 +1,41 @@
+package org.ethereum.config;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.Repository;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionExecutor;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.ContractDetailsImpl;
+import org.ethereum.db.RepositoryTrack;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.vm.VM;
+import org.ethereum.vm.program.Program;
+import org.ethereum.vm.program.invoke.ProgramInvoke;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+
+/**
+ * Creates the objects which are instantiated for every transaction,
+ * every nested call and every loaded contract.
+ *
+ * The factory is a singleton bean resolved once by {@link CommonConfig},
+ * so these objects are created with plain constructors rather than looked up
+ * as prototype beans. To replace any of them declare a bean named
+ * {@code instanceFactory}, usually extending {@link DefaultInstanceFactory}.
+ */
+public interface InstanceFactory {
+
+    TransactionExecutor transactionExecutor(Transaction tx, byte[] coinbase, Repository track, BlockStore blockStore,
+                                            ProgramInvokeFactory programInvokeFactory, Block currentBlock,
+                                            EthereumListener listener, long gasUsedInTheBlock);
+
+    VM vm();
+
+    /**
+     * @param codeHash hash of the deployed code being run, null for init code
+     */
+    Program program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke, Transaction transaction);
+
+    ContractDetailsImpl contractDetailsImpl();
+
+    RepositoryTrack repositoryTrack(Repository parent);
+}
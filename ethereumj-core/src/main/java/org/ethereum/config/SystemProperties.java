@@ -375,6 +375,26 @@ public class SystemProperties {
         return config.getBoolean("database.prune.enabled") ? config.getInt("database.prune.maxDepth") : -1;
     }
 
+    @ValidateMe
+    public int databasePruneBatchSize() {
+        return config.getInt("database.prune.batchSize");
+    }
+
+    @ValidateMe
+    public boolean databaseFlatIndexEnabled() {
+        return config.getBoolean("database.flatIndex.enabled");
+    }
+
+    @ValidateMe
+    public boolean databaseWriteBehindEnabled() {
+        return config.getBoolean("database.writeBehind.enabled");
+    }
+
+    @ValidateMe
+    public int databaseWriteBehindMaxPending() {
+        return config.getInt("database.writeBehind.maxPending");
+    }
+
     @ValidateMe
     public List<Node> peerActive() {
         if (!config.hasPath("peer.active")) {
@@ -529,6 +549,16 @@ public class SystemProperties {
         return config.getBoolean("sync.exitOnBlockConflict");
     }
 
+    @ValidateMe
+    public boolean syncPrefetchEnabled() {
+        return config.getBoolean("sync.prefetch.enabled");
+    }
+
+    @ValidateMe
+    public int syncBlockQueueSize() {
+        return config.getInt("sync.blockQueueSize");
+    }
+
     @ValidateMe
     public String projectVersion() {
         return projectVersion;
@@ -569,6 +599,21 @@ public class SystemProperties {
         return config.getBoolean("vm.structured.compressed");
     }
 
+    @ValidateMe
+    public boolean vmPredecode() {
+        return config.getBoolean("vm.predecode");
+    }
+
+    @ValidateMe
+    public boolean vmParallelEnabled() {
+        return config.getBoolean("vm.parallel.enabled");
+    }
+
+    @ValidateMe
+    public int vmParallelThreads() {
+        return config.getInt("vm.parallel.threads");
+    }
+
     @ValidateMe
     public int vmTraceInitStorageLimit() {
         return config.getInt("vm.structured.initStorageLimit");
@@ -589,6 +634,21 @@ public class SystemProperties {
         return config.getInt("cache.flush.blocks");
     }
 
+    @ValidateMe
+    public int cacheFlushWriteCacheSize() {
+        return config.getInt("cache.flush.writeCacheSize");
+    }
+
+    @ValidateMe
+    public int cacheStateSize() {
+        return config.getInt("cache.stateCacheSize");
+    }
+
+    @ValidateMe
+    public int cacheSnapshotLayers() {
+        return config.getInt("cache.snapshotLayers");
+    }
+
     @ValidateMe
     public String vmTraceDir() {
         return config.getString("vm.structured.dir");
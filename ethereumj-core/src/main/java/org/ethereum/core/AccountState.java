@@ -3,6 +3,7 @@ package org.ethereum.core;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPWriter;
 
 import org.spongycastle.util.encoders.Hex;
 
@@ -119,11 +120,15 @@ public class AccountState {
 
     public byte[] getEncoded() {
         if (rlpEncoded == null) {
-            byte[] nonce = RLP.encodeBigInteger(this.nonce);
-            byte[] balance = RLP.encodeBigInteger(this.balance);
-            byte[] stateRoot = RLP.encodeElement(this.stateRoot);
-            byte[] codeHash = RLP.encodeElement(this.codeHash);
-            this.rlpEncoded = RLP.encodeList(nonce, balance, stateRoot, codeHash);
+            int size = RLPWriter.sizeOfBigInteger(nonce) + RLPWriter.sizeOfBigInteger(balance) +
+                    RLPWriter.sizeOfElement(stateRoot) + RLPWriter.sizeOfElement(codeHash);
+            this.rlpEncoded = new RLPWriter(RLPWriter.sizeOfList(size))
+                    .writeListHeader(size)
+                    .writeBigInteger(nonce)
+                    .writeBigInteger(balance)
+                    .writeElement(stateRoot)
+                    .writeElement(codeHash)
+                    .toByteArray();
         }
         return rlpEncoded;
     }
@@ -10,7 +10,6 @@ import org.spongycastle.util.Arrays;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -123,23 +122,18 @@ public class Block {
     private synchronized void parseRLP() {
         if (parsed) return;
 
-        RLPList params = RLP.decode2(rlpEncoded);
-        RLPList block = (RLPList) params.get(0);
+        RLPReader block = new RLPReader(rlpEncoded).readList();
 
         // Parse Header
-        RLPList header = (RLPList) block.get(0);
-        this.header = new BlockHeader(header);
+        this.header = new BlockHeader(block.readList());
 
         // Parse Transactions
-        RLPList txTransactions = (RLPList) block.get(1);
-        this.parseTxs(this.header.getTxTrieRoot(), txTransactions);
+        this.parseTxs(this.header.getTxTrieRoot(), block.readList());
 
         // Parse Uncles
-        RLPList uncleBlocks = (RLPList) block.get(2);
-        for (RLPElement rawUncle : uncleBlocks) {
-
-            RLPList uncleHeader = (RLPList) rawUncle;
-            BlockHeader blockData = new BlockHeader(uncleHeader);
+        RLPReader uncleBlocks = block.readList();
+        while (uncleBlocks.hasNext()) {
+            BlockHeader blockData = new BlockHeader(uncleBlocks.readList());
             this.uncleList.add(blockData);
         }
         this.parsed = true;
@@ -335,18 +329,18 @@ public class Block {
         return toStringBuff.toString();
     }
 
-    private void parseTxs(RLPList txTransactions) {
+    private void parseTxs(RLPReader txTransactions) {
 
         this.txsState = new TrieImpl(null);
-        for (int i = 0; i < txTransactions.size(); i++) {
-            RLPElement transactionRaw = txTransactions.get(i);
-            this.transactionsList.add(new Transaction(transactionRaw.getRLPData()));
-            this.txsState.update(RLP.encodeInt(i), transactionRaw.getRLPData());
+        for (int i = 0; txTransactions.hasNext(); i++) {
+            byte[] transactionRaw = txTransactions.readElement();
+            this.transactionsList.add(new Transaction(transactionRaw));
+            this.txsState.update(RLP.encodeInt(i), transactionRaw);
         }
     }
 
 
-    private boolean parseTxs(byte[] expectedRoot, RLPList txTransactions) {
+    private boolean parseTxs(byte[] expectedRoot, RLPReader txTransactions) {
 
         parseTxs(txTransactions);
         String calculatedRoot = Hex.toHexString(txsState.getRootHash());
@@ -376,17 +370,6 @@ public class Block {
         return Arrays.areEqual(this.getHash(), block.getHash());
     }
 
-    private byte[] getTransactionsEncoded() {
-
-        byte[][] transactionsEncoded = new byte[transactionsList.size()][];
-        int i = 0;
-        for (Transaction tx : transactionsList) {
-            transactionsEncoded[i] = tx.getEncoded();
-            ++i;
-        }
-        return RLP.encodeList(transactionsEncoded);
-    }
-
     private byte[] getUnclesEncoded() {
 
         byte[][] unclesEncoded = new byte[uncleList.size()][];
@@ -406,13 +389,18 @@ public class Block {
 
     public byte[] getEncoded() {
         if (rlpEncoded == null) {
-            byte[] header = this.header.getEncoded();
+            parseRLP();
+
+            int txsSize = getTransactionsSize();
+            int unclesSize = getUnclesSize();
+            int size = header.getEncodedSize(true) + RLPWriter.sizeOfList(txsSize) + RLPWriter.sizeOfList(unclesSize);
 
-            List<byte[]> block = getBodyElements();
-            block.add(0, header);
-            byte[][] elements = block.toArray(new byte[block.size()][]);
+            RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+            writer.writeListHeader(size);
+            header.encode(writer, true);
+            encodeBody(writer, txsSize, unclesSize);
 
-            this.rlpEncoded = RLP.encodeList(elements);
+            this.rlpEncoded = writer.toByteArray();
         }
         return rlpEncoded;
     }
@@ -423,22 +411,44 @@ public class Block {
     }
 
     public byte[] getEncodedBody() {
-        List<byte[]> body = getBodyElements();
-        byte[][] elements = body.toArray(new byte[body.size()][]);
-        return RLP.encodeList(elements);
-    }
-
-    private List<byte[]> getBodyElements() {
         parseRLP();
 
-        byte[] transactions = getTransactionsEncoded();
-        byte[] uncles = getUnclesEncoded();
+        int txsSize = getTransactionsSize();
+        int unclesSize = getUnclesSize();
+        int size = RLPWriter.sizeOfList(txsSize) + RLPWriter.sizeOfList(unclesSize);
 
-        List<byte[]> body = new ArrayList<>();
-        body.add(transactions);
-        body.add(uncles);
+        RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+        writer.writeListHeader(size);
+        encodeBody(writer, txsSize, unclesSize);
 
-        return body;
+        return writer.toByteArray();
+    }
+
+    private int getTransactionsSize() {
+        int size = 0;
+        for (Transaction tx : transactionsList) {
+            size += tx.getEncoded().length;
+        }
+        return size;
+    }
+
+    private int getUnclesSize() {
+        int size = 0;
+        for (BlockHeader uncle : uncleList) {
+            size += uncle.getEncodedSize(true);
+        }
+        return size;
+    }
+
+    private void encodeBody(RLPWriter writer, int txsSize, int unclesSize) {
+        writer.writeListHeader(txsSize);
+        for (Transaction tx : transactionsList) {
+            writer.writeEncoded(tx.getEncoded());
+        }
+        writer.writeListHeader(unclesSize);
+        for (BlockHeader uncle : uncleList) {
+            uncle.encode(writer, true);
+        }
     }
 
     public String getShortHash() {
@@ -476,24 +486,20 @@ public class Block {
             block.header = header;
             block.parsed = true;
 
-            RLPList items = (RLPList) RLP.decode2(body).get(0);
-
-            RLPList transactions = (RLPList) items.get(0);
-            RLPList uncles = (RLPList) items.get(1);
+            RLPReader items = new RLPReader(body).readList();
 
-            if (!block.parseTxs(header.getTxTrieRoot(), transactions)) {
+            if (!block.parseTxs(header.getTxTrieRoot(), items.readList())) {
                 return null;
             }
 
-            byte[] unclesHash = HashUtil.sha3(uncles.getRLPData());
+            byte[] unclesHash = HashUtil.sha3(items.getData(), items.getOffset(), items.getLength());
             if (!java.util.Arrays.equals(header.getUnclesHash(), unclesHash)) {
                 return null;
             }
 
-            for (RLPElement rawUncle : uncles) {
-
-                RLPList uncleHeader = (RLPList) rawUncle;
-                BlockHeader blockData = new BlockHeader(uncleHeader);
+            RLPReader uncles = items.readList();
+            while (uncles.hasNext()) {
+                BlockHeader blockData = new BlockHeader(uncles.readList());
                 block.uncleList.add(blockData);
             }
 
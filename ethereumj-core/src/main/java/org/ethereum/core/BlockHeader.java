@@ -5,6 +5,8 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPReader;
+import org.ethereum.util.RLPWriter;
 import org.ethereum.util.Utils;
 import org.spongycastle.util.Arrays;
 import org.spongycastle.util.BigIntegers;
@@ -74,7 +76,35 @@ public class BlockHeader {
     private byte[] nonce;
 
     public BlockHeader(byte[] encoded) {
-        this((RLPList) RLP.decode2(encoded).get(0));
+        this(new RLPReader(encoded).readList());
+    }
+
+    public BlockHeader(RLPReader rlpHeader) {
+
+        this.parentHash = rlpHeader.readBytes();
+        this.unclesHash = rlpHeader.readBytes();
+        this.coinbase = rlpHeader.readBytes();
+        this.stateRoot = rlpHeader.readBytes();
+
+        this.txTrieRoot = rlpHeader.readBytes();
+        if (this.txTrieRoot == null)
+            this.txTrieRoot = EMPTY_TRIE_HASH;
+
+        this.receiptTrieRoot = rlpHeader.readBytes();
+        if (this.receiptTrieRoot == null)
+            this.receiptTrieRoot = EMPTY_TRIE_HASH;
+
+        this.logsBloom = rlpHeader.readBytes();
+        this.difficulty = rlpHeader.readBytes();
+
+        this.number = rlpHeader.readLong();
+        this.gasLimit = rlpHeader.readBytes();
+        this.gasUsed = rlpHeader.readLong();
+        this.timestamp = rlpHeader.readLong();
+
+        this.extraData = rlpHeader.readBytes();
+        this.mixHash = rlpHeader.readBytes();
+        this.nonce = rlpHeader.readBytes();
     }
 
     public BlockHeader(RLPList rlpHeader) {
@@ -269,38 +299,65 @@ public class BlockHeader {
     }
 
     public byte[] getEncoded(boolean withNonce) {
-        byte[] parentHash = RLP.encodeElement(this.parentHash);
-
-        byte[] unclesHash = RLP.encodeElement(this.unclesHash);
-        byte[] coinbase = RLP.encodeElement(this.coinbase);
-
-        byte[] stateRoot = RLP.encodeElement(this.stateRoot);
+        RLPWriter writer = new RLPWriter(getEncodedSize(withNonce));
+        encode(writer, withNonce);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return size of the {@link #getEncoded(boolean)} output
+     */
+    public int getEncodedSize(boolean withNonce) {
+        return RLPWriter.sizeOfList(getPayloadSize(withNonce));
+    }
+
+    /**
+     * Writes the same as {@link #getEncoded(boolean)} returns,
+     * {@link #getEncodedSize(boolean)} bytes in total
+     */
+    public void encode(RLPWriter writer, boolean withNonce) {
+        writer.writeListHeader(getPayloadSize(withNonce))
+                .writeElement(parentHash)
+                .writeElement(unclesHash)
+                .writeElement(coinbase)
+                .writeElement(stateRoot)
+                .writeElement(txTrieRoot)
+                .writeElement(receiptTrieRoot)
+                .writeElement(logsBloom)
+                .writeElement(difficulty)
+                .writeLong(number)
+                .writeElement(gasLimit)
+                .writeLong(gasUsed)
+                .writeLong(timestamp)
+                .writeElement(extraData);
+        if (withNonce) {
+            writer.writeElement(mixHash)
+                    .writeElement(nonce);
+        }
+    }
 
+    private int getPayloadSize(boolean withNonce) {
         if (txTrieRoot == null) this.txTrieRoot = EMPTY_TRIE_HASH;
-        byte[] txTrieRoot = RLP.encodeElement(this.txTrieRoot);
-
         if (receiptTrieRoot == null) this.receiptTrieRoot = EMPTY_TRIE_HASH;
-        byte[] receiptTrieRoot = RLP.encodeElement(this.receiptTrieRoot);
-
-        byte[] logsBloom = RLP.encodeElement(this.logsBloom);
-        byte[] difficulty = RLP.encodeElement(this.difficulty);
-        byte[] number = RLP.encodeBigInteger(BigInteger.valueOf(this.number));
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] gasUsed = RLP.encodeBigInteger(BigInteger.valueOf(this.gasUsed));
-        byte[] timestamp = RLP.encodeBigInteger(BigInteger.valueOf(this.timestamp));
 
-        byte[] extraData = RLP.encodeElement(this.extraData);
+        int size = RLPWriter.sizeOfElement(parentHash) +
+                RLPWriter.sizeOfElement(unclesHash) +
+                RLPWriter.sizeOfElement(coinbase) +
+                RLPWriter.sizeOfElement(stateRoot) +
+                RLPWriter.sizeOfElement(txTrieRoot) +
+                RLPWriter.sizeOfElement(receiptTrieRoot) +
+                RLPWriter.sizeOfElement(logsBloom) +
+                RLPWriter.sizeOfElement(difficulty) +
+                RLPWriter.sizeOfLong(number) +
+                RLPWriter.sizeOfElement(gasLimit) +
+                RLPWriter.sizeOfLong(gasUsed) +
+                RLPWriter.sizeOfLong(timestamp) +
+                RLPWriter.sizeOfElement(extraData);
         if (withNonce) {
-            byte[] mixHash = RLP.encodeElement(this.mixHash);
-            byte[] nonce = RLP.encodeElement(this.nonce);
-            return RLP.encodeList(parentHash, unclesHash, coinbase,
-                    stateRoot, txTrieRoot, receiptTrieRoot, logsBloom, difficulty, number,
-                    gasLimit, gasUsed, timestamp, extraData, mixHash, nonce);
-        } else {
-            return RLP.encodeList(parentHash, unclesHash, coinbase,
-                    stateRoot, txTrieRoot, receiptTrieRoot, logsBloom, difficulty, number,
-                    gasLimit, gasUsed, timestamp, extraData);
+            size += RLPWriter.sizeOfElement(mixHash) +
+                    RLPWriter.sizeOfElement(nonce);
         }
+        return size;
     }
 
     public byte[] getUnclesEncoded(List<BlockHeader> uncleList) {
@@ -3,6 +3,8 @@ package org.ethereum.core;
 import org.ethereum.config.CommonConfig;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.HashUtil;
+import org.ethereum.datasource.CachingDataSource;
+import org.ethereum.datasource.WriteBehindGroup;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.ByteArrayWrapper;
@@ -156,6 +158,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     private Stack<State> stateStack = new Stack<>();
 
+    private ParallelBlockExecutor parallelExecutor;
+
     /** Tests only **/
     public BlockchainImpl() {
     }
@@ -593,9 +597,16 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     @Override
     public void flush() {
-        repository.flush();
-        blockStore.flush();
-        transactionStore.flush();
+        // the stores are persisted together so the index can't get ahead of the state
+        WriteBehindGroup group = commonConfig.writeBehindGroup();
+        group.beginFlush();
+        try {
+            repository.flush();
+            blockStore.flush();
+            transactionStore.flush();
+        } finally {
+            group.endFlush();
+        }
 
         if (isMemoryBoundFlush()) {
             System.gc();
@@ -603,7 +614,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     private boolean isMemoryBoundFlush() {
-        return !syncManager.isSyncDone() && config.cacheFlushMemory() > 0 || config.cacheFlushBlocks() == 0;
+        return !syncManager.isSyncDone() && config.cacheFlushMemory() > 0 ||
+                config.cacheFlushBlocks() == 0 && config.cacheFlushWriteCacheSize() == 0;
     }
 
     private boolean needFlush(Block block) {
@@ -611,8 +623,9 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             return true;
         } else if (config.cacheFlushMemory() > 0) {
             return needFlushByMemory(config.cacheFlushMemory());
-        } else if (config.cacheFlushBlocks() > 0) {
-            return block.getNumber() % config.cacheFlushBlocks() == 0;
+        } else if (config.cacheFlushWriteCacheSize() > 0 || config.cacheFlushBlocks() > 0) {
+            return needFlushByWriteCacheSize(config.cacheFlushWriteCacheSize()) ||
+                    config.cacheFlushBlocks() > 0 && block.getNumber() % config.cacheFlushBlocks() == 0;
         } else {
             return needFlushByMemory(.7);
         }
@@ -622,6 +635,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         return getRuntime().freeMemory() < (getRuntime().totalMemory() * (1 - maxMemoryPercents));
     }
 
+    private boolean needFlushByWriteCacheSize(int maxSizeMb) {
+        return maxSizeMb > 0 && CachingDataSource.getTotalCacheSize() >= maxSizeMb * 1024L * 1024L;
+    }
+
     public static byte[] calcReceiptsTrie(List<TransactionReceipt> receipts) {
         Trie receiptsTrie = new TrieImpl(null);
 
@@ -829,20 +846,37 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
         long saveTime = System.nanoTime();
         int i = 1;
+        int txIndex = 0;
         long totalGasUsed = 0;
         List<TransactionReceipt> receipts = new ArrayList<>();
         List<TransactionExecutionSummary> summaries = new ArrayList<>();
 
+        ParallelBlockExecutor.Speculation speculation = null;
+        // traces are written by the executors as they go
+        if (config.vmParallelEnabled() && !config.vmTrace() && block.getTransactionsList().size() > 1) {
+            // transactions are speculatively executed right on top of the repository
+            track.commit();
+            speculation = getParallelExecutor().speculate(block, repository, blockStore,
+                    programInvokeFactory, listener);
+        }
+
         for (Transaction tx : block.getTransactionsList()) {
             stateLogger.debug("apply block: [{}] tx: [{}] ", block.getNumber(), i);
 
-            TransactionExecutor executor = commonConfig.transactionExecutor(tx, block.getCoinbase(),
-                    track, blockStore, programInvokeFactory, block, listener, totalGasUsed);
+            TransactionExecutor executor;
+            TransactionExecutionSummary summary;
+            if (speculation != null) {
+                executor = speculation.commit(txIndex++, totalGasUsed);
+                summary = speculation.getSummary();
+            } else {
+                executor = commonConfig.transactionExecutor(tx, block.getCoinbase(),
+                        track, blockStore, programInvokeFactory, block, listener, totalGasUsed);
 
-            executor.init();
-            executor.execute();
-            executor.go();
-            TransactionExecutionSummary summary = executor.finalization();
+                executor.init();
+                executor.execute();
+                executor.go();
+                summary = executor.finalization();
+            }
 
             totalGasUsed += executor.getGasUsed();
 
@@ -867,6 +901,8 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             }
         }
 
+        if (speculation != null) speculation.close();
+
         Map<byte[], BigInteger> rewards = addReward(block, summaries);
 
         track.commit();
@@ -1058,6 +1094,13 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         track.commit();
     }
 
+    public synchronized ParallelBlockExecutor getParallelExecutor() {
+        if (parallelExecutor == null) {
+            parallelExecutor = new ParallelBlockExecutor(config, commonConfig);
+        }
+        return parallelExecutor;
+    }
+
     public void setExitOn(long exitOn) {
         this.exitOn = exitOn;
     }
@@ -0,0 +1,211 @@
+package org.ethereum.core;
+
+import org.ethereum.config.CommonConfig;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.SpeculativeRepositoryTrack;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.util.ByteArrayHashMap;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes the transactions of a block optimistically in parallel.
+ *
+ * Every transaction is first run on its own {@link SpeculativeRepositoryTrack}
+ * on top of the state the block has started with. The results are then
+ * committed one by one in the block order: a transaction which has read
+ * an account or a storage row changed by a preceding transaction is executed
+ * again on the actual state, the others are committed as they are.
+ * Receipts, logs and the state root are thus the same as with the serial
+ * execution.
+ */
+public class ParallelBlockExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger("blockchain");
+
+    private final SystemProperties config;
+    private final CommonConfig commonConfig;
+    private final ExecutorService pool;
+
+    private final AtomicLong speculated = new AtomicLong();
+    private final AtomicLong reexecuted = new AtomicLong();
+
+    public ParallelBlockExecutor(SystemProperties config, CommonConfig commonConfig) {
+        this.config = config;
+        this.commonConfig = commonConfig;
+
+        int threads = config.vmParallelThreads() > 0 ?
+                config.vmParallelThreads() : Runtime.getRuntime().availableProcessors();
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger cnt = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tx-speculation-" + cnt.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts the speculative execution of all the block transactions
+     * on top of the current state of the repository
+     */
+    public Speculation speculate(Block block, Repository repository, BlockStore blockStore,
+                                 ProgramInvokeFactory programInvokeFactory, EthereumListener listener) {
+        return new Speculation(block, repository, blockStore, programInvokeFactory, listener);
+    }
+
+    /**
+     * @return number of transactions committed as they were speculatively executed
+     */
+    public long getSpeculatedCount() {
+        return speculated.get();
+    }
+
+    /**
+     * @return number of transactions executed again because of a conflict
+     */
+    public long getReexecutedCount() {
+        return reexecuted.get();
+    }
+
+    private static class Execution {
+        final SpeculativeRepositoryTrack track;
+        final TransactionExecutor executor;
+        TransactionExecutionSummary summary;
+
+        Execution(SpeculativeRepositoryTrack track, TransactionExecutor executor) {
+            this.track = track;
+            this.executor = executor;
+        }
+    }
+
+    public class Speculation {
+
+        private final Block block;
+        private final Repository repository;
+        private final BlockStore blockStore;
+        private final ProgramInvokeFactory programInvokeFactory;
+        private final EthereumListener listener;
+
+        private final List<Future<Execution>> executions = new ArrayList<>();
+        private TransactionExecutionSummary lastSummary;
+
+        // changes committed so far
+        private final Set<byte[]> writtenAccounts = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(20));
+        private final Map<byte[], Set<DataWord>> writtenStorage = new ByteArrayHashMap<>(20);
+
+        private int blockSpeculated;
+        private int blockReexecuted;
+
+        private Speculation(Block block, Repository repository, BlockStore blockStore,
+                            ProgramInvokeFactory programInvokeFactory, EthereumListener listener) {
+            this.block = block;
+            this.repository = repository;
+            this.blockStore = blockStore;
+            this.programInvokeFactory = programInvokeFactory;
+            this.listener = listener;
+
+            for (final Transaction tx : block.getTransactionsList()) {
+                executions.add(pool.submit(new Callable<Execution>() {
+                    @Override
+                    public Execution call() {
+                        // the listener hears about the transaction once it is committed
+                        return execute(tx, new EthereumListenerAdapter(), 0);
+                    }
+                }));
+            }
+        }
+
+        private Execution execute(Transaction tx, EthereumListener listener, long gasUsedInTheBlock) {
+            SpeculativeRepositoryTrack track = new SpeculativeRepositoryTrack(repository, block.getCoinbase(),
+                    config, commonConfig);
+            TransactionExecutor executor = commonConfig.transactionExecutor(tx, block.getCoinbase(),
+                    track, blockStore, programInvokeFactory, block, listener, gasUsedInTheBlock);
+            Execution execution = new Execution(track, executor);
+
+            executor.init();
+            executor.execute();
+            executor.go();
+            execution.summary = executor.finalization();
+            return execution;
+        }
+
+        /**
+         * Commits the transaction with the given index, executing it again
+         * if the speculative result is no longer valid.
+         * Transactions must be committed in the block order.
+         *
+         * @return executor holding the receipt of the transaction
+         */
+        public TransactionExecutor commit(int index, long gasUsedInTheBlock) {
+            Transaction tx = block.getTransactionsList().get(index);
+
+            Execution execution = null;
+            try {
+                execution = executions.get(index).get();
+            } catch (ExecutionException e) {
+                logger.debug("Speculative execution of tx [{}] failed: {}", index, e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+
+            BigInteger txGasLimit = new BigInteger(1, tx.getGasLimit());
+            BigInteger blockGasLimit = new BigInteger(1, block.getGasLimit());
+            boolean valid = execution != null &&
+                    // was checked against an empty block
+                    txGasLimit.add(BigInteger.valueOf(gasUsedInTheBlock)).compareTo(blockGasLimit) <= 0 &&
+                    !execution.track.hasRead(writtenAccounts, writtenStorage);
+
+            if (valid) {
+                blockSpeculated++;
+            } else {
+                execution = execute(tx, listener, gasUsedInTheBlock);
+                blockReexecuted++;
+            }
+
+            execution.track.collectWrites(writtenAccounts, writtenStorage);
+            execution.track.commit();
+
+            if (valid) {
+                execution.executor.getReceipt().setCumulativeGas(gasUsedInTheBlock + execution.executor.getGasUsed());
+                if (execution.summary != null) listener.onTransactionExecuted(execution.summary);
+            }
+
+            lastSummary = execution.summary;
+            return execution.executor;
+        }
+
+        /**
+         * @return summary of the last committed transaction,
+         *         null if it has been rejected
+         */
+        public TransactionExecutionSummary getSummary() {
+            return lastSummary;
+        }
+
+        /**
+         * Updates the counters, must be called once all the transactions are committed
+         */
+        public void close() {
+            speculated.addAndGet(blockSpeculated);
+            reexecuted.addAndGet(blockReexecuted);
+
+            logger.debug("block: [{}] txs: [{}] speculated: [{}] re-executed: [{}]", block.getNumber(),
+                    executions.size(), blockSpeculated, blockReexecuted);
+        }
+    }
+}
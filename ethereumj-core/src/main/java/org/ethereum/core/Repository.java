@@ -1,12 +1,11 @@
 package org.ethereum.core;
 
-import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.db.ContractDetails;
+import org.ethereum.util.ByteArrayHashMap;
 import org.ethereum.vm.DataWord;
 
 import java.math.BigInteger;
 
-import java.util.HashMap;
 import java.util.Set;
 
 /**
@@ -191,14 +190,14 @@ public interface Repository {
      */
     void reset();
 
-    void updateBatch(HashMap<ByteArrayWrapper, AccountState> accountStates,
-                            HashMap<ByteArrayWrapper, ContractDetails> contractDetailes);
+    void updateBatch(ByteArrayHashMap<AccountState> accountStates,
+                            ByteArrayHashMap<ContractDetails> contractDetailes);
 
 
     byte[] getRoot();
 
-    void loadAccount(byte[] addr, HashMap<ByteArrayWrapper, AccountState> cacheAccounts,
-                     HashMap<ByteArrayWrapper, ContractDetails> cacheDetails);
+    void loadAccount(byte[] addr, ByteArrayHashMap<AccountState> cacheAccounts,
+                     ByteArrayHashMap<ContractDetails> cacheDetails);
 
     Repository getSnapshotTo(byte[] root);
 
@@ -0,0 +1,137 @@
+package org.ethereum.core;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recovers transaction senders from the signatures.
+ *
+ * The same transaction is usually seen several times: received from peers,
+ * included into a block, queried over JSON-RPC. The senders are thus kept by
+ * the transaction hash so that the costly recovery is done once per transaction
+ * whichever object is holding it.
+ *
+ * @see Transaction#getSender()
+ */
+public class SenderRecovery {
+
+    private static final int CACHE_SIZE = 64 * 1024;
+
+    private static final SenderRecovery instance =
+            new SenderRecovery(Runtime.getRuntime().availableProcessors(), CACHE_SIZE);
+
+    private final ExecutorService pool;
+    private final Map<ByteArrayWrapper, byte[]> senders;
+
+    private final AtomicLong recovered = new AtomicLong();
+    private final AtomicLong recoveryTime = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    public SenderRecovery(int threads, int cacheSize) {
+        senders = Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, byte[]>(cacheSize));
+        pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger cnt = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "sender-recovery-" + cnt.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public static SenderRecovery getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the sender of the transaction with the same hash
+     * recovered earlier or recovers it from the signature
+     */
+    public byte[] recoverSender(Transaction tx) throws SignatureException {
+        ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
+        byte[] sender = senders.get(hash);
+        if (sender != null) {
+            cacheHits.incrementAndGet();
+            return sender;
+        }
+
+        long s = System.nanoTime();
+        sender = ECKey.signatureToAddress(tx.getRawHash(), tx.getSignature());
+        recoveryTime.addAndGet(System.nanoTime() - s);
+        recovered.incrementAndGet();
+
+        senders.put(hash, sender);
+        return sender;
+    }
+
+    /**
+     * Recovers the senders of all the transactions on the pool threads,
+     * returns once done. The senders are then returned by
+     * {@link Transaction#getSender()} without waiting
+     */
+    public void recover(List<Transaction> txs) {
+        if (txs.size() < 2) {
+            for (Transaction tx : txs) tx.getSender();
+            return;
+        }
+
+        List<Callable<Object>> tasks = new ArrayList<>(txs.size());
+        for (final Transaction tx : txs) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return tx.getSender();
+                }
+            });
+        }
+
+        try {
+            pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return number of signatures recovered
+     */
+    public long getRecoveredCount() {
+        return recovered.get();
+    }
+
+    /**
+     * @return number of senders found recovered earlier
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return recovery rate of a single thread, signatures per second
+     */
+    public double getRecoveryRate() {
+        long time = recoveryTime.get();
+        return time == 0 ? 0 : recovered.get() * 1_000_000_000d / time;
+    }
+
+    @Override
+    public String toString() {
+        long hits = cacheHits.get();
+        long total = hits + recovered.get();
+        return String.format("Sender recovery: recovered: %d (%.0f/s per thread), cache hits: %d (%.1f%%)",
+                recovered.get(), getRecoveryRate(), hits, total == 0 ? 0 : hits * 100d / total);
+    }
+}
@@ -6,8 +6,8 @@ import org.ethereum.crypto.ECKey.ECDSASignature;
 import org.ethereum.crypto.ECKey.MissingPrivateKeyException;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.util.ByteUtil;
-import org.ethereum.util.RLP;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPReader;
+import org.ethereum.util.RLPWriter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -118,21 +118,20 @@ public class Transaction {
 
     public void rlpParse() {
 
-        RLPList decodedTxList = RLP.decode2(rlpEncoded);
-        RLPList transaction = (RLPList) decodedTxList.get(0);
+        RLPReader transaction = new RLPReader(rlpEncoded).readList();
 
-        this.nonce = transaction.get(0).getRLPData();
-        this.gasPrice = transaction.get(1).getRLPData();
-        this.gasLimit = transaction.get(2).getRLPData();
-        this.receiveAddress = transaction.get(3).getRLPData();
-        this.value = transaction.get(4).getRLPData();
-        this.data = transaction.get(5).getRLPData();
+        this.nonce = transaction.readBytes();
+        this.gasPrice = transaction.readBytes();
+        this.gasLimit = transaction.readBytes();
+        this.receiveAddress = transaction.readBytes();
+        this.value = transaction.readBytes();
+        this.data = transaction.readBytes();
         // only parse signature in case tx is signed
-        if (transaction.get(6).getRLPData() != null) {
-            byte v = transaction.get(6).getRLPData()[0];
-            byte[] r = transaction.get(7).getRLPData();
-            byte[] s = transaction.get(8).getRLPData();
-            this.signature = ECDSASignature.fromComponents(r, s, v);
+        byte[] v = transaction.readBytes();
+        if (v != null) {
+            byte[] r = transaction.readBytes();
+            byte[] s = transaction.readBytes();
+            this.signature = ECDSASignature.fromComponents(r, s, v[0]);
         } else {
             logger.debug("RLP encoded tx is not signed!");
         }
@@ -241,7 +240,7 @@ public class Transaction {
     public synchronized byte[] getSender() {
         try {
             if (sendAddress == null) {
-                sendAddress = ECKey.signatureToAddress(getRawHash(), getSignature());
+                sendAddress = SenderRecovery.getInstance().recoverSender(this);
             }
             return sendAddress;
         } catch (SignatureException e) {
@@ -260,6 +259,9 @@ public class Transaction {
     public void sign(ECKey key) throws MissingPrivateKeyException {
         this.signature = key.sign(this.getRawHash());
         this.rlpEncoded = null;
+        // the senders are looked up by the hash of the signed transaction
+        this.hash = null;
+        this.sendAddress = null;
     }
 
     @Override
@@ -300,21 +302,12 @@ public class Transaction {
         if (!parsed) rlpParse();
         if (rlpRaw != null) return rlpRaw;
 
-        // parse null as 0 for nonce
-        byte[] nonce = null;
-        if (this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0) {
-            nonce = RLP.encodeElement(null);
-        } else {
-            nonce = RLP.encodeElement(this.nonce);
-        }
-        byte[] gasPrice = RLP.encodeElement(this.gasPrice);
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] receiveAddress = RLP.encodeElement(this.receiveAddress);
-        byte[] value = RLP.encodeElement(this.value);
-        byte[] data = RLP.encodeElement(this.data);
-
-        rlpRaw = RLP.encodeList(nonce, gasPrice, gasLimit, receiveAddress,
-                value, data);
+        int size = getFieldsSize();
+        RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+        writer.writeListHeader(size);
+        encodeFields(writer);
+
+        rlpRaw = writer.toByteArray();
         return rlpRaw;
     }
 
@@ -322,39 +315,58 @@ public class Transaction {
 
         if (rlpEncoded != null) return rlpEncoded;
 
-        // parse null as 0 for nonce
-        byte[] nonce = null;
-        if (this.nonce == null || this.nonce.length == 1 && this.nonce[0] == 0) {
-            nonce = RLP.encodeElement(null);
-        } else {
-            nonce = RLP.encodeElement(this.nonce);
-        }
-        byte[] gasPrice = RLP.encodeElement(this.gasPrice);
-        byte[] gasLimit = RLP.encodeElement(this.gasLimit);
-        byte[] receiveAddress = RLP.encodeElement(this.receiveAddress);
-        byte[] value = RLP.encodeElement(this.value);
-        byte[] data = RLP.encodeElement(this.data);
-
-        byte[] v, r, s;
+        int v;
+        byte[] r, s;
 
         if (signature != null) {
-            v = RLP.encodeByte(signature.v);
-            r = RLP.encodeElement(BigIntegers.asUnsignedByteArray(signature.r));
-            s = RLP.encodeElement(BigIntegers.asUnsignedByteArray(signature.s));
+            v = signature.v & 0xFF;
+            r = BigIntegers.asUnsignedByteArray(signature.r);
+            s = BigIntegers.asUnsignedByteArray(signature.s);
         } else {
-            v = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            r = RLP.encodeElement(EMPTY_BYTE_ARRAY);
-            s = RLP.encodeElement(EMPTY_BYTE_ARRAY);
+            v = 0;
+            r = EMPTY_BYTE_ARRAY;
+            s = EMPTY_BYTE_ARRAY;
         }
 
-        this.rlpEncoded = RLP.encodeList(nonce, gasPrice, gasLimit,
-                receiveAddress, value, data, v, r, s);
+        int size = getFieldsSize() + RLPWriter.sizeOfLong(v) +
+                RLPWriter.sizeOfElement(r) + RLPWriter.sizeOfElement(s);
+        RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+        writer.writeListHeader(size);
+        encodeFields(writer);
+        writer.writeLong(v)
+                .writeElement(r)
+                .writeElement(s);
+
+        this.rlpEncoded = writer.toByteArray();
 
         this.hash = this.getHash();
 
         return rlpEncoded;
     }
 
+    // parse null as 0 for nonce
+    private byte[] getNonceToEncode() {
+        return nonce == null || nonce.length == 1 && nonce[0] == 0 ? null : nonce;
+    }
+
+    private int getFieldsSize() {
+        return RLPWriter.sizeOfElement(getNonceToEncode()) +
+                RLPWriter.sizeOfElement(gasPrice) +
+                RLPWriter.sizeOfElement(gasLimit) +
+                RLPWriter.sizeOfElement(receiveAddress) +
+                RLPWriter.sizeOfElement(value) +
+                RLPWriter.sizeOfElement(data);
+    }
+
+    private void encodeFields(RLPWriter writer) {
+        writer.writeElement(getNonceToEncode())
+                .writeElement(gasPrice)
+                .writeElement(gasLimit)
+                .writeElement(receiveAddress)
+                .writeElement(value)
+                .writeElement(data);
+    }
+
     @Override
     public int hashCode() {
 
@@ -15,7 +15,6 @@ import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
-import org.springframework.beans.factory.annotation.Autowired;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -38,10 +37,8 @@ public class TransactionExecutor {
     private static final Logger logger = LoggerFactory.getLogger("execute");
     private static final Logger stateLogger = LoggerFactory.getLogger("state");
 
-    @Autowired
     SystemProperties config = SystemProperties.getDefault();
 
-    @Autowired
     CommonConfig commonConfig = CommonConfig.getDefault();
 
     private Transaction tx;
@@ -215,7 +212,9 @@ public class TransactionExecutor {
                         programInvokeFactory.createProgramInvoke(tx, currentBlock, cacheTrack, blockStore);
 
                 this.vm = commonConfig.vm();
-                this.program = commonConfig.program(code, programInvoke, tx);
+                AccountState targetState = track.getAccountState(targetAddress);
+                byte[] codeHash = targetState == null ? null : targetState.getCodeHash();
+                this.program = commonConfig.program(codeHash, code, programInvoke, tx);
             }
         }
 
@@ -392,6 +391,15 @@ public class TransactionExecutor {
         return summary;
     }
 
+    /**
+     * Sets the configuration when the executor is not created by Spring
+     */
+    public TransactionExecutor withConfig(SystemProperties config, CommonConfig commonConfig) {
+        this.config = config;
+        this.commonConfig = commonConfig;
+        return this;
+    }
+
     public TransactionExecutor setLocalCall(boolean localCall) {
         this.localCall = localCall;
         return this;
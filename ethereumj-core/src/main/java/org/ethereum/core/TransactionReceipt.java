@@ -140,30 +140,44 @@ public class TransactionReceipt {
 
     private byte[] getEncoded(boolean receiptTrie) {
 
-        byte[] postTxStateRLP = RLP.encodeElement(this.postTxState);
-        byte[] cumulativeGasRLP = RLP.encodeElement(this.cumulativeGas);
-        byte[] bloomRLP = RLP.encodeElement(this.bloomFilter.data);
-
-        final byte[] logInfoListRLP;
+        List<byte[]> logInfoListE = new ArrayList<>();
+        int logInfoListSize = 0;
         if (logInfoList != null) {
-            byte[][] logInfoListE = new byte[logInfoList.size()][];
-
-            int i = 0;
             for (LogInfo logInfo : logInfoList) {
-                logInfoListE[i] = logInfo.getEncoded();
-                ++i;
+                byte[] logInfoE = logInfo.getEncoded();
+                logInfoListE.add(logInfoE);
+                logInfoListSize += logInfoE.length;
             }
-            logInfoListRLP = RLP.encodeList(logInfoListE);
-        } else {
-            logInfoListRLP = RLP.encodeList();
         }
 
-        return receiptTrie ?
-                RLP.encodeList(postTxStateRLP, cumulativeGasRLP, bloomRLP, logInfoListRLP):
-                RLP.encodeList(postTxStateRLP, cumulativeGasRLP, bloomRLP, logInfoListRLP,
-                        RLP.encodeElement(gasUsed), RLP.encodeElement(executionResult),
-                        RLP.encodeElement(error.getBytes(StandardCharsets.UTF_8)));
+        byte[] errorBytes = receiptTrie ? null : error.getBytes(StandardCharsets.UTF_8);
+
+        int size = RLPWriter.sizeOfElement(postTxState) +
+                RLPWriter.sizeOfElement(cumulativeGas) +
+                RLPWriter.sizeOfElement(bloomFilter.data) +
+                RLPWriter.sizeOfList(logInfoListSize);
+        if (!receiptTrie) {
+            size += RLPWriter.sizeOfElement(gasUsed) +
+                    RLPWriter.sizeOfElement(executionResult) +
+                    RLPWriter.sizeOfElement(errorBytes);
+        }
+
+        RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+        writer.writeListHeader(size)
+                .writeElement(postTxState)
+                .writeElement(cumulativeGas)
+                .writeElement(bloomFilter.data)
+                .writeListHeader(logInfoListSize);
+        for (byte[] logInfoE : logInfoListE) {
+            writer.writeEncoded(logInfoE);
+        }
+        if (!receiptTrie) {
+            writer.writeElement(gasUsed)
+                    .writeElement(executionResult)
+                    .writeElement(errorBytes);
+        }
 
+        return writer.toByteArray();
     }
 
     public void setPostTxState(byte[] postTxState) {
@@ -1,35 +1,70 @@
 package org.ethereum.datasource;
 
-import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteArrayHashMap;
 
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Keeps the writes in memory until {@link #flush()}, which is passed on
+ * to the underlying source if that one is {@link Flushable} too.
+ *
+ * The size of the pending writes is accounted per instance and summed over
+ * all instances in {@link #getTotalCacheSize()}, so the flush can be driven
+ * by the amount of data waiting to be written rather than by heap usage.
+ *
  * Created by Anton Nashatyrev on 18.02.2016.
  */
 public class CachingDataSource implements KeyValueDataSource, Flushable {
+
+    // rough estimate of the key wrapper and map entry footprint
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private static final AtomicLong totalCacheSize = new AtomicLong();
+
     KeyValueDataSource source;
 
-    Map<ByteArrayWrapper, byte[]> cache = new HashMap<>();
+    ByteArrayHashMap<byte[]> cache = new ByteArrayHashMap<>(32);
+    private long cacheSize;
 
     public CachingDataSource(KeyValueDataSource source) {
         this.source = source;
     }
 
-    public void flush() {
+    public synchronized void flush() {
         Map<byte[], byte[]> records = new HashMap<>();
-        for (Map.Entry<ByteArrayWrapper, byte[]> entry : cache.entrySet()) {
-            records.put(entry.getKey().getData(), entry.getValue());
+        for (Map.Entry<byte[], byte[]> entry : cache.entrySet()) {
+            records.put(entry.getKey(), entry.getValue());
         }
         source.updateBatch(records);
         cache.clear();
+        totalCacheSize.addAndGet(-cacheSize);
+        cacheSize = 0;
+
+        if (source instanceof Flushable) {
+            ((Flushable) source).flush();
+        }
+    }
+
+    /**
+     * @return estimated bytes of the writes pending in this cache
+     */
+    public synchronized long getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @return estimated bytes of the writes pending in all the caching data sources
+     */
+    public static long getTotalCacheSize() {
+        return totalCacheSize.get();
     }
 
     @Override
     public synchronized byte[] get(byte[] key) {
-        byte[] bb = cache.get(new ByteArrayWrapper(key));
+        byte[] bb = cache.get(key);
         if (bb == null) {
             return source.get(key);
         } else {
@@ -39,7 +74,17 @@ public class CachingDataSource implements KeyValueDataSource, Flushable {
 
     @Override
     public synchronized byte[] put(byte[] key, byte[] value) {
-        return cache.put(new ByteArrayWrapper(key), value);
+        boolean existed = cache.containsKey(key);
+        byte[] prev = cache.put(key, value);
+        long delta = value == null ? 0 : value.length;
+        if (existed) {
+            delta -= prev == null ? 0 : prev.length;
+        } else {
+            delta += key.length + ENTRY_OVERHEAD;
+        }
+        cacheSize += delta;
+        totalCacheSize.addAndGet(delta);
+        return prev;
     }
 
     @Override
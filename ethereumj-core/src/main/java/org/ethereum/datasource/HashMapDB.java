@@ -1,32 +1,30 @@
 package org.ethereum.datasource;
 
-import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteArrayHashMap;
 import org.iq80.leveldb.DBException;
 
 import java.util.*;
 
-import static org.ethereum.util.ByteUtil.wrap;
-
 public class HashMapDB implements KeyValueDataSource {
 
-    Map<ByteArrayWrapper, byte[]> storage = new HashMap<>();
+    ByteArrayHashMap<byte[]> storage = new ByteArrayHashMap<>(32);
     private boolean clearOnClose = true;
 
     @Override
     public synchronized void delete(byte[] arg0) throws DBException {
-        storage.remove(wrap(arg0));
+        storage.remove(arg0);
     }
 
 
     @Override
     public synchronized byte[] get(byte[] arg0) throws DBException {
-        return storage.get(wrap(arg0));
+        return storage.get(arg0);
     }
 
 
     @Override
     public synchronized byte[] put(byte[] key, byte[] value) throws DBException {
-        return storage.put(wrap(key), value);
+        return storage.put(key, value);
     }
 
     /**
@@ -60,20 +58,16 @@ public class HashMapDB implements KeyValueDataSource {
 
     @Override
     public synchronized Set<byte[]> keys() {
-        Set<byte[]> keys = new HashSet<>();
-        for (ByteArrayWrapper key : storage.keySet()){
-            keys.add(key.getData());
-        }
-        return keys;
+        return new HashSet<>(storage.keySet());
     }
 
     @Override
     public synchronized void updateBatch(Map<byte[], byte[]> rows) {
         for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
             if (entry.getValue() == null) {
-                storage.remove(wrap(entry.getKey()));
+                storage.remove(entry.getKey());
             } else {
-                storage.put(wrap(entry.getKey()), entry.getValue());
+                storage.put(entry.getKey(), entry.getValue());
             }
         }
     }
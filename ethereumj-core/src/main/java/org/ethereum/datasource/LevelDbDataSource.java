@@ -46,6 +46,10 @@ public class LevelDbDataSource implements KeyValueDataSource {
     public LevelDbDataSource() {
     }
 
+    public LevelDbDataSource(SystemProperties config) {
+        this.config = config;
+    }
+
     public LevelDbDataSource(String name) {
         this.name = name;
         logger.debug("New LevelDbDataSource: " + name);
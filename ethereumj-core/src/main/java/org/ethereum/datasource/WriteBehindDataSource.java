@@ -0,0 +1,235 @@
+package org.ethereum.datasource;
+
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Write-behind decorator which takes the disk writes off the importing thread.
+ *
+ * Writes go to an in-memory memtable which is immediately visible to readers.
+ * On {@link #flush()} the memtables of all the sources of the {@link WriteBehindGroup}
+ * are frozen together and handed over to a background writer which stores
+ * each of them with a single {@link #updateBatch(Map)} call on the underlying
+ * source (i.e. a single LevelDB WriteBatch). Frozen memtables stay readable
+ * until they are persisted. When {@code maxPending} units are waiting to be
+ * written the next flush blocks until the writer catches up.
+ *
+ * A memtable is only frozen between the calls and only on flush, so the changes
+ * made between two flushes (e.g. by a block) are persisted as a whole.
+ * All the groups share one writer thread, so after a crash the database
+ * contains a prefix of the flushes in the order they were submitted.
+ */
+public class WriteBehindDataSource implements KeyValueDataSource, Flushable {
+
+    // rough estimate of the key wrapper and map entry footprint
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final KeyValueDataSource source;
+    private final WriteBehindGroup group;
+
+    // null values are deletions which must hide the record in the source
+    private Map<ByteArrayWrapper, byte[]> memtable = new HashMap<>();
+    private long memtableBytes;
+
+    // memtables waiting to be written, the newest first
+    // the list is replaced rather than modified so that readers don't need the lock
+    private volatile List<Map<ByteArrayWrapper, byte[]>> frozen = Collections.emptyList();
+    private final Map<Map<ByteArrayWrapper, byte[]>, Long> frozenBytes = new IdentityHashMap<>();
+    private long pendingBytes;
+
+    /**
+     * Creates the source which is flushed on its own
+     */
+    public WriteBehindDataSource(KeyValueDataSource source, int maxPending) {
+        this(source, new WriteBehindGroup(maxPending));
+    }
+
+    public WriteBehindDataSource(KeyValueDataSource source, WriteBehindGroup group) {
+        this.source = source;
+        this.group = group;
+        group.add(this);
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        ByteArrayWrapper wrapper = new ByteArrayWrapper(key);
+        synchronized (this) {
+            if (memtable.containsKey(wrapper)) return memtable.get(wrapper);
+        }
+        // a memtable is published to 'frozen' before it is detached from 'memtable'
+        // so the snapshot taken here can't miss it
+        for (Map<ByteArrayWrapper, byte[]> table : frozen) {
+            if (table.containsKey(wrapper)) return table.get(wrapper);
+        }
+        return source.get(key);
+    }
+
+    @Override
+    public synchronized byte[] put(byte[] key, byte[] value) {
+        group.checkWriteError();
+        write(key, value);
+        return value;
+    }
+
+    @Override
+    public synchronized void delete(byte[] key) {
+        group.checkWriteError();
+        write(key, null);
+    }
+
+    @Override
+    public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+        group.checkWriteError();
+        for (Map.Entry<byte[], byte[]> entry : rows.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Hands the memtables of the group over to the background writer
+     * without waiting for them to be persisted
+     */
+    @Override
+    public void flush() {
+        group.flush();
+    }
+
+    /**
+     * Flushes and waits until everything written so far is persisted
+     */
+    public void flushAndWait() {
+        group.flushAndWait();
+    }
+
+    /**
+     * @return the keys of the source with the writes not yet persisted applied,
+     *         nothing is flushed so the group isn't frozen in the middle of a block
+     */
+    @Override
+    public synchronized Set<byte[]> keys() {
+        // a frozen memtable is dropped from 'frozen' under the lock and only
+        // once it is written, so none of the writes can be missed here
+        Set<ByteArrayWrapper> keys = new HashSet<>();
+        for (byte[] key : source.keys()) {
+            keys.add(new ByteArrayWrapper(key));
+        }
+        for (int i = frozen.size() - 1; i >= 0; i--) {
+            apply(keys, frozen.get(i));
+        }
+        apply(keys, memtable);
+
+        Set<byte[]> ret = new HashSet<>();
+        for (ByteArrayWrapper key : keys) {
+            ret.add(key.getData());
+        }
+        return ret;
+    }
+
+    private static void apply(Set<ByteArrayWrapper> keys, Map<ByteArrayWrapper, byte[]> table) {
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : table.entrySet()) {
+            if (entry.getValue() == null) {
+                keys.remove(entry.getKey());
+            } else {
+                keys.add(entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public void setName(String name) {
+        source.setName(name);
+    }
+
+    @Override
+    public String getName() {
+        return source.getName();
+    }
+
+    /**
+     * Also writes the data which the crash has left in the group log
+     */
+    @Override
+    public void init() {
+        source.init();
+        group.recover(this);
+    }
+
+    @Override
+    public boolean isAlive() {
+        return source.isAlive();
+    }
+
+    @Override
+    public void close() {
+        try {
+            flushAndWait();
+        } finally {
+            group.remove(this);
+            source.close();
+        }
+    }
+
+    /**
+     * @return number of frozen memtables which are not yet persisted
+     */
+    public int getPendingCount() {
+        return frozen.size();
+    }
+
+    /**
+     * @return estimated size in bytes of the writes which are not yet persisted
+     */
+    public synchronized long getPendingSize() {
+        return memtableBytes + pendingBytes;
+    }
+
+    KeyValueDataSource getSource() {
+        return source;
+    }
+
+    /**
+     * Detaches the memtable, it stays readable until {@link #persisted} is called
+     *
+     * @return null if there is nothing to write
+     */
+    synchronized Map<ByteArrayWrapper, byte[]> freeze() {
+        if (memtable.isEmpty()) return null;
+
+        Map<ByteArrayWrapper, byte[]> table = memtable;
+
+        List<Map<ByteArrayWrapper, byte[]>> newFrozen = new ArrayList<>(frozen.size() + 1);
+        newFrozen.add(table);
+        newFrozen.addAll(frozen);
+        frozen = newFrozen;
+        frozenBytes.put(table, memtableBytes);
+        pendingBytes += memtableBytes;
+
+        memtable = new HashMap<>();
+        memtableBytes = 0;
+
+        return table;
+    }
+
+    synchronized void persisted(Map<ByteArrayWrapper, byte[]> table) {
+        List<Map<ByteArrayWrapper, byte[]>> newFrozen = new ArrayList<>(frozen.size());
+        for (Map<ByteArrayWrapper, byte[]> t : frozen) {
+            if (t != table) newFrozen.add(t);
+        }
+        frozen = newFrozen;
+        pendingBytes -= frozenBytes.remove(table);
+    }
+
+    private void write(byte[] key, byte[] value) {
+        byte[] old = memtable.put(new ByteArrayWrapper(key), value);
+        if (old == null) memtableBytes += key.length + ENTRY_OVERHEAD;
+        memtableBytes += (value == null ? 0 : value.length) - (old == null ? 0 : old.length);
+    }
+}
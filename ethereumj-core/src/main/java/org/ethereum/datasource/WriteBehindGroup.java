@@ -0,0 +1,286 @@
+package org.ethereum.datasource;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The {@link WriteBehindDataSource}s which are persisted together.
+ *
+ * A flush freezes the memtables of all the sources of the group at once and
+ * hands them over to the background writer as a single unit, so the changes
+ * of a block reach either all the stores or none of them. Between
+ * {@link #beginFlush()} and {@link #endFlush()} the flushes of the separate
+ * sources are deferred, the group is frozen once on the end.
+ *
+ * The stores are separate databases, so with the log set the writer first puts
+ * the whole unit into the log with a single batch, then writes the stores and
+ * drops the log records. A unit left in the log by a crash is written to
+ * the store again when the store is initialized, see {@link #recover}.
+ * Units are persisted one by one in the order they were frozen.
+ */
+public class WriteBehindGroup {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "db-write-behind");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final int maxPending;
+    private final List<WriteBehindDataSource> sources = new CopyOnWriteArrayList<>();
+
+    private volatile KeyValueDataSource log;
+
+    // guarded by this
+    private int flushDepth;
+    private long seq;
+    private int pending;
+
+    private volatile RuntimeException writeError;
+
+    public WriteBehindGroup(int maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+    }
+
+    /**
+     * Makes the units persisted atomically across the stores with the help of the log
+     */
+    public WriteBehindGroup withLog(KeyValueDataSource log) {
+        this.log = log;
+        return this;
+    }
+
+    void add(WriteBehindDataSource source) {
+        sources.add(source);
+    }
+
+    void remove(WriteBehindDataSource source) {
+        sources.remove(source);
+    }
+
+    /**
+     * Starts the flush of the stores, may be nested
+     */
+    public synchronized void beginFlush() {
+        flushDepth++;
+    }
+
+    /**
+     * Finishes the flush started by {@link #beginFlush()}, the outermost call
+     * hands everything written so far over to the background writer
+     */
+    public synchronized void endFlush() {
+        if (flushDepth == 0) throw new IllegalStateException("No flush started");
+        if (--flushDepth == 0) freeze();
+    }
+
+    /**
+     * Hands everything written so far over to the background writer
+     * without waiting for it to be persisted, does nothing inside
+     * the {@link #beginFlush()} / {@link #endFlush()} block
+     */
+    public synchronized void flush() {
+        checkWriteError();
+        if (flushDepth == 0) freeze();
+    }
+
+    /**
+     * Flushes and waits until the frozen units are persisted
+     */
+    public synchronized void flushAndWait() {
+        flush();
+        while (pending > 0 && writeError == null) {
+            waitForWriter();
+        }
+        checkWriteError();
+    }
+
+    /**
+     * @return number of the units which are not yet persisted
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    void checkWriteError() {
+        if (writeError != null) {
+            throw new RuntimeException("Background write failed", writeError);
+        }
+    }
+
+    private void freeze() {
+        while (pending >= maxPending && writeError == null) {
+            waitForWriter();
+        }
+        checkWriteError();
+
+        final List<WriteBehindDataSource> members = new ArrayList<>();
+        final List<Map<ByteArrayWrapper, byte[]>> tables = new ArrayList<>();
+        for (WriteBehindDataSource source : sources) {
+            Map<ByteArrayWrapper, byte[]> table = source.freeze();
+            if (table != null) {
+                members.add(source);
+                tables.add(table);
+            }
+        }
+        if (members.isEmpty()) return;
+
+        final long unitSeq = ++seq;
+        pending++;
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                persist(unitSeq, members, tables);
+            }
+        });
+    }
+
+    private void persist(long unitSeq, List<WriteBehindDataSource> members, List<Map<ByteArrayWrapper, byte[]>> tables) {
+        try {
+            if (writeError == null) {
+                KeyValueDataSource log = this.log;
+
+                List<Map<byte[], byte[]>> records = new ArrayList<>(tables.size());
+                for (Map<ByteArrayWrapper, byte[]> table : tables) {
+                    records.add(toRecords(table));
+                }
+
+                Map<byte[], byte[]> logBatch = new HashMap<>();
+                if (log != null) {
+                    for (int i = 0; i < members.size(); i++) {
+                        logBatch.put(logKey(unitSeq, members.get(i).getName()), encode(records.get(i)));
+                    }
+                    log.updateBatch(logBatch);
+                }
+
+                for (int i = 0; i < members.size(); i++) {
+                    members.get(i).getSource().updateBatch(records.get(i));
+                }
+
+                if (log != null) {
+                    for (Map.Entry<byte[], byte[]> entry : logBatch.entrySet()) {
+                        entry.setValue(null);
+                    }
+                    log.updateBatch(logBatch);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Write-behind failed", e);
+            writeError = e;
+        }
+
+        synchronized (this) {
+            // on failure the data stays readable from memory, the next write will throw
+            if (writeError == null) {
+                for (int i = 0; i < members.size(); i++) {
+                    members.get(i).persisted(tables.get(i));
+                }
+            }
+            pending--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the units which the log holds for the store to the store
+     */
+    void recover(WriteBehindDataSource source) {
+        KeyValueDataSource log = this.log;
+        if (log == null) return;
+
+        byte[] name = source.getName().getBytes(StandardCharsets.UTF_8);
+        TreeMap<Long, byte[]> units = new TreeMap<>();
+        for (byte[] key : log.keys()) {
+            if (key.length == 8 + name.length && Arrays.equals(Arrays.copyOfRange(key, 8, key.length), name)) {
+                units.put(ByteBuffer.wrap(key).getLong(), key);
+            }
+        }
+
+        for (byte[] key : units.values()) {
+            logger.info("Write-behind: recovering unfinished write to " + source.getName());
+            source.getSource().updateBatch(decode(log.get(key)));
+            log.delete(key);
+        }
+    }
+
+    private static Map<byte[], byte[]> toRecords(Map<ByteArrayWrapper, byte[]> table) {
+        Map<byte[], byte[]> records = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : table.entrySet()) {
+            records.put(entry.getKey().getData(), entry.getValue());
+        }
+        return records;
+    }
+
+    private static byte[] logKey(long unitSeq, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + nameBytes.length).putLong(unitSeq).put(nameBytes).array();
+    }
+
+    // [key length, key, value length or -1 for deletion, value]...
+    private static byte[] encode(Map<byte[], byte[]> records) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Map.Entry<byte[], byte[]> entry : records.entrySet()) {
+                out.writeInt(entry.getKey().length);
+                out.write(entry.getKey());
+                byte[] value = entry.getValue();
+                out.writeInt(value == null ? -1 : value.length);
+                if (value != null) out.write(value);
+            }
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Map<byte[], byte[]> decode(byte[] data) {
+        Map<byte[], byte[]> records = new HashMap<>();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            byte[] key = new byte[buf.getInt()];
+            buf.get(key);
+            int len = buf.getInt();
+            byte[] value = null;
+            if (len >= 0) {
+                value = new byte[len];
+                buf.get(value);
+            }
+            records.put(key, value);
+        }
+        return records;
+    }
+
+    private void waitForWriter() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+}
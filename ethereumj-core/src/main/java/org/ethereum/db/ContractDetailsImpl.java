@@ -12,9 +12,6 @@ import org.ethereum.util.RLPList;
 import org.ethereum.vm.DataWord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Scope;
-import org.springframework.stereotype.Component;
 
 import java.util.*;
 
@@ -26,8 +23,6 @@ import static org.ethereum.util.ByteUtil.*;
  * @author Roman Mandeleil
  * @since 24.06.2014
  */
-@Component
-@Scope("prototype")
 public class ContractDetailsImpl extends AbstractContractDetails {
     private static final Logger logger = LoggerFactory.getLogger("general");
 
@@ -47,6 +42,19 @@ public class ContractDetailsImpl extends AbstractContractDetails {
     boolean externalStorage;
     private KeyValueDataSource externalStorageDataSource;
 
+    /**
+     * Reads the storage bypassing the trie, see {@link RepositoryImpl#getContractDetails}
+     */
+    interface StorageReader {
+        /**
+         * @return storage value, {@link DataWord#ZERO} if there is no such row,
+         *         null if the trie is to be read
+         */
+        DataWord get(DataWord key);
+    }
+
+    private StorageReader storageReader;
+
     /** Tests only **/
     public ContractDetailsImpl() {
     }
@@ -89,8 +97,17 @@ public class ContractDetailsImpl extends AbstractContractDetails {
         this.rlpEncoded = null;
     }
 
+    void setStorageReader(StorageReader storageReader) {
+        this.storageReader = storageReader;
+    }
+
     @Override
     public DataWord get(DataWord key) {
+        if (storageReader != null) {
+            DataWord value = storageReader.get(key);
+            if (value != null) return value.isZero() ? null : value;
+        }
+
         DataWord result = null;
 
         byte[] data = storageTrie.get(key.getData());
@@ -1,10 +1,12 @@
 package org.ethereum.db;
 
 import org.ethereum.config.CommonConfig;
+import org.ethereum.config.SystemProperties;
 import org.ethereum.datasource.CachingDataSource;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.trie.JournalPruneDataSource;
+import org.ethereum.util.ByteArrayHashMap;
 import org.ethereum.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,11 +18,11 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.String.format;
 import static org.ethereum.util.ByteUtil.wrap;
@@ -32,13 +34,20 @@ public class DetailsDataStore {
 
     private static final Logger gLogger = LoggerFactory.getLogger("general");
 
+    private static final int PREFETCHED_LIMIT = 10_000;
+
     private KeyValueDataSource detailsDS;
     private KeyValueDataSource storageDS;
     private CachingDataSource storageDSCache;
     private JournalPruneDataSource storageDSPrune;
 
-    private Map<ByteArrayWrapper, ContractDetails> cache = new ConcurrentHashMap<>();
-    private Set<ByteArrayWrapper> removes = new HashSet<>();
+    private Map<byte[], ContractDetails> cache = new ByteArrayHashMap<>(20);
+    private Set<byte[]> removes = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(20));
+
+    // loaded ahead of the execution, moved to the cache once asked for,
+    // the ones not asked for until the flush are dropped
+    private Map<byte[], ContractDetails> prefetched = new ByteArrayHashMap<>(20);
+    private long flushes;
 
     public DetailsDataStore() {
     }
@@ -53,6 +62,15 @@ public class DetailsDataStore {
         storageDS.setName("storage");
         storageDS.init();
         withDb(detailsDS, storageDS);
+
+        SystemProperties config = commonConfig.systemProperties();
+        if (config.databasePruneDepth() >= 0) {
+            KeyValueDataSource journalDS = commonConfig.keyValueDataSource();
+            journalDS.setName("storagejournal");
+            journalDS.init();
+            storageDSPrune.withJournal(journalDS)
+                    .withBackgroundPruning(config.databasePruneBatchSize());
+        }
     }
 
     public DetailsDataStore withDb(KeyValueDataSource detailsDS, KeyValueDataSource storageDS) {
@@ -65,45 +83,77 @@ public class DetailsDataStore {
 
     public synchronized ContractDetails get(byte[] key) {
 
-        ByteArrayWrapper wrappedKey = wrap(key);
-        ContractDetails details = cache.get(wrappedKey);
+        ContractDetails details = cache.get(key);
 
         if (details == null) {
 
-            if (removes.contains(wrappedKey)) return null;
-            byte[] data = detailsDS.get(key);
-            if (data == null) return null;
+            if (removes.contains(key)) return null;
+
+            details = prefetched.remove(key);
+            if (details == null) {
+                byte[] data = detailsDS.get(key);
+                if (data == null) return null;
+                details = decode(key, data);
+            }
+
+            cache.put(key, details);
+        }
 
-            ContractDetailsImpl detailsImpl = commonConfig.contractDetailsImpl();
-            detailsImpl.setDataSource(storageDSPrune);
-            detailsImpl.decode(data);
-            details = detailsImpl;
 
-            cache.put(wrappedKey, details);
+        return details;
+    }
 
-            float out = ((float) data.length) / 1048576;
-            if (out > 10) {
-                String sizeFmt = format("%02.2f", out);
-                gLogger.debug("loaded: key: " + Hex.toHexString(key) + " size: " + sizeFmt + "MB");
+    /**
+     * Reads and decodes the details ahead of the {@link #get} call.
+     * The database is read without holding the store lock
+     * so that the thread executing the block isn't blocked meanwhile.
+     */
+    public void prefetch(byte[] key) {
+        long flushCount;
+        synchronized (this) {
+            if (cache.containsKey(key) || removes.contains(key) || prefetched.containsKey(key)) return;
+            if (prefetched.size() >= PREFETCHED_LIMIT) return;
+            flushCount = flushes;
+        }
+
+        byte[] data = detailsDS.get(key);
+        if (data == null) return;
+        ContractDetails details = decode(key, data);
+
+        synchronized (this) {
+            // the details could have been changed and flushed while read
+            if (flushCount == flushes && !cache.containsKey(key) && !removes.contains(key)) {
+                prefetched.put(key, details);
             }
         }
+    }
 
+    private ContractDetails decode(byte[] key, byte[] data) {
+        ContractDetailsImpl detailsImpl = commonConfig.contractDetailsImpl();
+        detailsImpl.setDataSource(storageDSPrune);
+        detailsImpl.decode(data);
 
-        return details;
+        float out = ((float) data.length) / 1048576;
+        if (out > 10) {
+            String sizeFmt = format("%02.2f", out);
+            gLogger.debug("loaded: key: " + Hex.toHexString(key) + " size: " + sizeFmt + "MB");
+        }
+
+        return detailsImpl;
     }
 
     public synchronized void update(byte[] key, ContractDetails contractDetails) {
         contractDetails.setAddress(key);
 
-        ByteArrayWrapper wrappedKey = wrap(key);
-        cache.put(wrappedKey, contractDetails);
-        removes.remove(wrappedKey);
+        cache.put(key, contractDetails);
+        removes.remove(key);
+        prefetched.remove(key);
     }
 
     public synchronized void remove(byte[] key) {
-        ByteArrayWrapper wrappedKey = wrap(key);
-        cache.remove(wrappedKey);
-        removes.add(wrappedKey);
+        cache.remove(key);
+        removes.add(key);
+        prefetched.remove(key);
     }
 
     public synchronized void flush() {
@@ -124,10 +174,10 @@ public class DetailsDataStore {
         syncLargeStorage();
 
         Map<byte[], byte[]> batch = new HashMap<>();
-        for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cache.entrySet()) {
+        for (Map.Entry<byte[], ContractDetails> entry : cache.entrySet()) {
             ContractDetails details = entry.getValue();
 
-            byte[] key = entry.getKey().getData();
+            byte[] key = entry.getKey();
             byte[] value = details.getEncoded();
 
             batch.put(key, value);
@@ -136,20 +186,22 @@ public class DetailsDataStore {
 
         detailsDS.updateBatch(batch);
         storageDSCache.flush();
+        storageDSPrune.flush();
 
-        for (ByteArrayWrapper key : removes) {
-            detailsDS.delete(key.getData());
+        for (byte[] key : removes) {
+            detailsDS.delete(key);
         }
 
         cache.clear();
         removes.clear();
+        prefetched.clear();
+        flushes++;
 
         return totalSize;
     }
 
     public void syncLargeStorage() {
-        for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cache.entrySet()) {
-            ContractDetails details = entry.getValue();
+        for (ContractDetails details : cache.values()) {
             details.syncStorage();
         }
     }
@@ -160,7 +212,9 @@ public class DetailsDataStore {
 
     public synchronized Set<ByteArrayWrapper> keys() {
         Set<ByteArrayWrapper> keys = new HashSet<>();
-        keys.addAll(cache.keySet());
+        for (byte[] key : cache.keySet()) {
+            keys.add(wrap(key));
+        }
         keys.addAll(Utils.dumpKeys(detailsDS));
 
         return keys;
@@ -181,6 +235,7 @@ public class DetailsDataStore {
         try {
             gLogger.info("Closing DetailsDataStore");
             detailsDS.close();
+            storageDSPrune.closeJournal();
             storageDS.close();
         } catch (Exception e) {
             gLogger.warn("Problems closing DetailsDataStore", e);
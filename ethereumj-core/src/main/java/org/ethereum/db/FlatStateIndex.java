@@ -0,0 +1,297 @@
+package org.ethereum.db;
+
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.util.ByteArrayHashMap;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.DataWord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.*;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * Account states and storage rows of the state at a single root
+ * kept in a plain key-value source, so that they are read with a single
+ * lookup instead of a trie traversal. The trie is still used to compute
+ * the state root.
+ *
+ * The keys are:
+ * <ul>
+ *   <li>address: encoded account state</li>
+ *   <li>address + 'i': incarnation of the account storage</li>
+ *   <li>address + incarnation + slot: storage value</li>
+ * </ul>
+ * Deleting an account or creating it anew starts a new incarnation of
+ * its storage, so the storage is cleared without looking for the rows.
+ * The rows of the old incarnations are left until the index is rebuilt.
+ *
+ * The index is moved from block to block by the changes collected in
+ * {@link SnapshotLayers.Diff}. The previous values of the changed keys are
+ * kept for the last blocks, so on a reorg the index is moved back to
+ * the common state and then forward by the layers of the new branch.
+ *
+ * The writes are kept in memory until {@link #flush()}, which is done
+ * together with the state flush.
+ *
+ * @see RepositoryImpl#verifyFlatIndex()
+ */
+public class FlatStateIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger("repository");
+
+    private static final byte[] ROOT_KEY = "flatStateRoot".getBytes();
+    private static final byte INCARNATION_SUFFIX = 'i';
+
+    // the previous values of the keys changed by the block
+    private static class Undo {
+        final byte[] parentRoot;
+        final Map<byte[], byte[]> values = new ByteArrayHashMap<>(20);
+
+        Undo(byte[] parentRoot) {
+            this.parentRoot = parentRoot;
+        }
+    }
+
+    private final KeyValueDataSource source;
+    // writes not flushed yet, null for the deleted keys
+    private Map<byte[], byte[]> pending = new ByteArrayHashMap<>(20);
+    private final int maxUndos;
+
+    private byte[] root;
+
+    private final Map<byte[], Undo> undos = new ByteArrayHashMap<>(32);
+    private final ArrayDeque<byte[]> undoRoots = new ArrayDeque<>();
+
+    /**
+     * @param maxUndos number of the last blocks which can be reverted
+     */
+    public FlatStateIndex(KeyValueDataSource source, int maxUndos) {
+        this.source = source;
+        this.maxUndos = maxUndos;
+
+        byte[] stored = source.get(ROOT_KEY);
+        // nothing is indexed yet, i.e. the empty state
+        this.root = stored == null ? EMPTY_TRIE_HASH : stored;
+    }
+
+    /**
+     * @return the state root the index is at
+     */
+    public synchronized byte[] getRoot() {
+        return root;
+    }
+
+    public synchronized boolean isAt(byte[] root) {
+        return Arrays.equals(this.root, root);
+    }
+
+    /**
+     * @return encoded account state, empty array if there is no such account
+     */
+    public synchronized byte[] getAccount(byte[] addr) {
+        byte[] ret = read(addr);
+        return ret == null ? EMPTY_BYTE_ARRAY : ret;
+    }
+
+    /**
+     * @return storage value, {@link DataWord#ZERO} if there is no such row
+     */
+    public synchronized DataWord getStorageValue(byte[] addr, DataWord key) {
+        byte[] ret = read(storageKey(addr, getIncarnation(addr), key));
+        return ret == null ? DataWord.ZERO : new DataWord(ret);
+    }
+
+    /**
+     * Applies the changes the block has made on top of the current state
+     */
+    public synchronized void apply(byte[] parentRoot, byte[] root, SnapshotLayers.Diff diff) {
+        if (!isAt(parentRoot)) {
+            throw new IllegalStateException("Flat index is at " + Hex.toHexString(this.root) +
+                    ", not at " + Hex.toHexString(parentRoot));
+        }
+
+        Undo undo = new Undo(parentRoot);
+
+        for (byte[] addr : diff.cleared) {
+            int incarnation = getIncarnation(addr);
+            put(undo, incarnationKey(addr), ByteUtil.intToBytes(incarnation + 1));
+        }
+        for (Map.Entry<byte[], Map<DataWord, DataWord>> rows : diff.storage.entrySet()) {
+            byte[] addr = rows.getKey();
+            int incarnation = getIncarnation(addr);
+            for (Map.Entry<DataWord, DataWord> row : rows.getValue().entrySet()) {
+                DataWord value = row.getValue();
+                put(undo, storageKey(addr, incarnation, row.getKey()), value.isZero() ? null : value.getData());
+            }
+        }
+        for (Map.Entry<byte[], byte[]> account : diff.accounts.entrySet()) {
+            byte[] encoded = account.getValue();
+            put(undo, account.getKey(), encoded.length == 0 ? null : encoded);
+        }
+
+        setRoot(root);
+        undos.put(root, undo);
+        undoRoots.addLast(root);
+        while (undoRoots.size() > maxUndos) {
+            undos.remove(undoRoots.removeFirst());
+        }
+    }
+
+    /**
+     * Moves the index to the given state: reverts the blocks applied since the
+     * common state and then applies the layers leading to the given one
+     *
+     * @return false if the path to the state is unknown, the index is not changed then
+     */
+    public synchronized boolean moveTo(byte[] target, SnapshotLayers layers) {
+        if (isAt(target)) return true;
+
+        // states the index can be reverted to
+        Set<byte[]> reachable = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(32));
+        reachable.add(root);
+        for (Undo undo = undos.get(root); undo != null; undo = undos.get(undo.parentRoot)) {
+            if (!reachable.add(undo.parentRoot)) break;
+        }
+
+        // layers from the target down to a reachable state
+        List<SnapshotLayers.Layer> forward = new ArrayList<>();
+        byte[] common = target;
+        while (!reachable.contains(common)) {
+            SnapshotLayers.Layer layer = layers.getLayer(common);
+            if (layer == null || forward.size() > undos.size() + layers.size()) return false;
+            forward.add(layer);
+            common = layer.getParentRoot();
+        }
+
+        int reverted = 0;
+        while (!isAt(common)) {
+            reverted++;
+            Undo undo = undos.remove(root);
+            undoRoots.removeLast();
+            for (Map.Entry<byte[], byte[]> entry : undo.values.entrySet()) {
+                write(entry.getKey(), entry.getValue());
+            }
+            setRoot(undo.parentRoot);
+        }
+
+        for (int i = forward.size() - 1; i >= 0; i--) {
+            SnapshotLayers.Layer layer = forward.get(i);
+            apply(layer.getParentRoot(), layer.getRoot(), layer.getDiff());
+        }
+
+        logger.info("Flat index moved back {} and forward {} blocks to {}",
+                reverted, forward.size(), Hex.toHexString(target));
+        return true;
+    }
+
+    /**
+     * Drops everything indexed, the index is then to be filled with
+     * {@link #putAccount} and {@link #putStorageValue} and then set to the root
+     */
+    public synchronized void clear() {
+        flush();
+        for (byte[] key : source.keys()) {
+            source.delete(key);
+        }
+        undos.clear();
+        undoRoots.clear();
+        root = null;
+    }
+
+    public synchronized void putAccount(byte[] addr, byte[] encoded) {
+        write(addr, encoded);
+    }
+
+    public synchronized void putStorageValue(byte[] addr, DataWord key, DataWord value) {
+        write(storageKey(addr, getIncarnation(addr), key), value.isZero() ? null : value.getData());
+    }
+
+    public synchronized void setRoot(byte[] root) {
+        this.root = root;
+        write(ROOT_KEY, root);
+    }
+
+    /**
+     * @return all the keys indexed, the index is flushed first
+     */
+    public synchronized Set<byte[]> keys() {
+        flush();
+        return source.keys();
+    }
+
+    public static boolean isAccountKey(byte[] key, int addrLength) {
+        return key.length == addrLength;
+    }
+
+    public static boolean isStorageKey(byte[] key, int addrLength) {
+        return key.length == addrLength + 4 + 32;
+    }
+
+    /**
+     * @return true if the storage key belongs to the current incarnation of its account
+     */
+    public synchronized boolean isCurrent(byte[] storageKey, int addrLength) {
+        byte[] addr = Arrays.copyOfRange(storageKey, 0, addrLength);
+        int incarnation = ByteUtil.byteArrayToInt(Arrays.copyOfRange(storageKey, addrLength, addrLength + 4));
+        return incarnation == getIncarnation(addr);
+    }
+
+    public synchronized byte[] get(byte[] key) {
+        return read(key);
+    }
+
+    /**
+     * @return number of the writes not flushed yet
+     */
+    public synchronized int getPendingSize() {
+        return pending.size();
+    }
+
+    public synchronized void flush() {
+        if (pending.isEmpty()) return;
+        source.updateBatch(pending);
+        pending = new ByteArrayHashMap<>(20);
+    }
+
+    public synchronized void close() {
+        source.close();
+    }
+
+    private byte[] read(byte[] key) {
+        byte[] ret = pending.get(key);
+        return ret != null || pending.containsKey(key) ? ret : source.get(key);
+    }
+
+    private void write(byte[] key, byte[] value) {
+        pending.put(key, value);
+    }
+
+    private void put(Undo undo, byte[] key, byte[] value) {
+        byte[] prev = read(key);
+        if (!undo.values.containsKey(key)) undo.values.put(key, prev);
+        write(key, value);
+    }
+
+    private int getIncarnation(byte[] addr) {
+        byte[] incarnation = read(incarnationKey(addr));
+        return incarnation == null ? 0 : ByteUtil.byteArrayToInt(incarnation);
+    }
+
+    private static byte[] incarnationKey(byte[] addr) {
+        byte[] key = Arrays.copyOf(addr, addr.length + 1);
+        key[addr.length] = INCARNATION_SUFFIX;
+        return key;
+    }
+
+    static byte[] storageKey(byte[] addr, int incarnation, DataWord slot) {
+        byte[] key = new byte[addr.length + 4 + 32];
+        System.arraycopy(addr, 0, key, 0, addr.length);
+        System.arraycopy(ByteUtil.intToBytes(incarnation), 0, key, addr.length, 4);
+        System.arraycopy(slot.getData(), 0, key, addr.length + 4, 32);
+        return key;
+    }
+}
@@ -4,25 +4,54 @@ import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.datasource.*;
 import org.ethereum.datasource.Flushable;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
 
 import java.io.*;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static java.math.BigInteger.ZERO;
 import static org.ethereum.crypto.HashUtil.shortHash;
-import static org.spongycastle.util.Arrays.areEqual;
-
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * The index is kept as fixed-width records, so the hash and the total difficulty
+ * are looked up by the block number or by the hash without decoding anything:
+ * <ul>
+ *   <li>'m' + number: hash and total difficulty of the main chain block</li>
+ *   <li>'f' + number: hashes of the other blocks of that number</li>
+ *   <li>'b' + hash: number and total difficulty of the block</li>
+ * </ul>
+ * The java serialized index of the previous versions is converted on {@link #init}.
+ */
 public class IndexedBlockStore extends AbstractBlockstore{
 
     private static final Logger logger = LoggerFactory.getLogger("general");
 
+    private static final byte[] VERSION_KEY = "indexVersion".getBytes();
+    private static final byte[] MAX_NUMBER_KEY = "maxNumber".getBytes();
+    private static final byte MAIN_PREFIX = 'm';
+    private static final byte FORKS_PREFIX = 'f';
+    private static final byte BLOCK_PREFIX = 'b';
+    private static final int VERSION = 1;
+
+    private static final int HASH_LENGTH = 32;
+    private static final int TD_LENGTH = 32;
+    private static final int NUMBER_LENGTH = 8;
+
+    // size of the DataSourceArray the previous versions kept the index in
+    private static final byte[] OLD_SIZE_KEY = Hex.decode("FFFFFFFFFFFFFFFF");
+
     KeyValueDataSource indexDS;
-    DataSourceArray<List<BlockInfo>> index;
+    private long maxNumber = -1;
     KeyValueDataSource blocksDS;
     ObjectDataSource<Block> blocks;
 
@@ -35,8 +64,12 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     public void init(KeyValueDataSource index, KeyValueDataSource blocks) {
         indexDS = index;
-        this.index = new DataSourceArray<>(
-                new ObjectDataSource<>(index, BLOCK_INFO_SERIALIZER).withCacheSize(256));
+        if (indexDS.get(VERSION_KEY) == null) {
+            convertIndex();
+        }
+        byte[] max = indexDS.get(MAX_NUMBER_KEY);
+        maxNumber = max == null ? -1 : ByteUtil.byteArrayToLong(max);
+
         this.blocksDS = blocks;
         this.blocks = new ObjectDataSource<>(blocks, new Serializer<Block, byte[]>() {
             @Override
@@ -72,15 +105,14 @@ public class IndexedBlockStore extends AbstractBlockstore{
     }
 
     public byte[] getBlockHashByNumber(long blockNumber){
-        Block chainBlock = getChainBlockByNumber(blockNumber);
-        return chainBlock == null ? null : chainBlock.getHash(); // FIXME: can be improved by accessing the hash directly in the index
+        byte[] main = getMainRecord(blockNumber);
+        return main == null ? null : Arrays.copyOf(main, HASH_LENGTH);
     }
 
 
     @Override
     public void flush(){
         blocks.flush();
-        index.flush();
         if (blocksDS instanceof Flushable) {
             ((Flushable)blocksDS).flush();
         }
@@ -97,18 +129,19 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     private void addInternalBlock(Block block, BigInteger cummDifficulty, boolean mainChain){
 
-        List<BlockInfo> blockInfos = block.getNumber() >= index.size() ?  new ArrayList<BlockInfo>() :
-                index.get((int) block.getNumber());
+        long number = block.getNumber();
+        byte[] hash = block.getHash();
 
-        BlockInfo blockInfo = new BlockInfo();
-        blockInfo.setCummDifficulty(cummDifficulty);
-        blockInfo.setHash(block.getHash());
-        blockInfo.setMainChain(mainChain); // FIXME:maybe here I should force reset main chain for all uncles on that level
+        indexDS.put(blockKey(hash), encodeBlockRecord(number, cummDifficulty));
+        // the previous main chain block of that number becomes a fork one
+        setMainChain(number, hash, mainChain);
 
-        blockInfos.add(blockInfo);
-        index.set((int) block.getNumber(), blockInfos);
+        if (number > maxNumber) {
+            maxNumber = number;
+            indexDS.put(MAX_NUMBER_KEY, ByteUtil.longToBytes(maxNumber));
+        }
 
-        blocks.put(block.getHash(), block);
+        blocks.put(hash, block);
     }
 
 
@@ -116,15 +149,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
         List<Block> result = new ArrayList<>();
 
-        if (number >= index.size()) {
-            return result;
-        }
-
-        List<BlockInfo> blockInfos = index.get((int) number);
-
-        for (BlockInfo blockInfo : blockInfos){
-
-            byte[] hash = blockInfo.getHash();
+        for (byte[] hash : getHashesByNumber(number)){
             Block block = blocks.get(hash);
 
             result.add(block);
@@ -134,22 +159,8 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     @Override
     public Block getChainBlockByNumber(long number){
-        if (number >= index.size()){
-            return null;
-        }
-
-        List<BlockInfo> blockInfos = index.get((int) number);
-
-        for (BlockInfo blockInfo : blockInfos){
-
-            if (blockInfo.isMainChain()){
-
-                byte[] hash = blockInfo.getHash();
-                return blocks.get(hash);
-            }
-        }
-
-        return null;
+        byte[] hash = getBlockHashByNumber(number);
+        return hash == null ? null : blocks.get(hash);
     }
 
     @Override
@@ -165,53 +176,31 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
     @Override
     public BigInteger getTotalDifficultyForHash(byte[] hash){
-        Block block = this.getBlockByHash(hash);
-        if (block == null) return ZERO;
-
-        Long level  =  block.getNumber();
-        List<BlockInfo> blockInfos =  index.get(level.intValue());
-        for (BlockInfo blockInfo : blockInfos)
-                 if (areEqual(blockInfo.getHash(), hash)) {
-                     return blockInfo.cummDifficulty;
-                 }
+        byte[] record = indexDS.get(blockKey(hash));
+        if (record == null) return ZERO;
 
-        return ZERO;
+        return new BigInteger(1, Arrays.copyOfRange(record, NUMBER_LENGTH, NUMBER_LENGTH + TD_LENGTH));
     }
 
 
-        @Override
+    @Override
     public BigInteger getTotalDifficulty(){
-        long maxNumber = getMaxNumber();
-
-        List<BlockInfo> blockInfos = index.get((int) maxNumber);
-        for (BlockInfo blockInfo : blockInfos){
-            if (blockInfo.isMainChain()){
-                return blockInfo.getCummDifficulty();
-            }
-        }
-
-        while (true){
-            --maxNumber;
-            List<BlockInfo> infos = getBlockInfoForLevel(maxNumber);
+        long number = getMaxNumber();
 
-            for (BlockInfo blockInfo : infos) {
-                if (blockInfo.isMainChain()) {
-                    return blockInfo.getCummDifficulty();
-                }
+        // there can be fork blocks above the main chain
+        while (number >= 0){
+            byte[] main = getMainRecord(number);
+            if (main != null) {
+                return new BigInteger(1, Arrays.copyOfRange(main, HASH_LENGTH, HASH_LENGTH + TD_LENGTH));
             }
+            --number;
         }
+        return ZERO;
     }
 
     @Override
     public long getMaxNumber(){
-
-        Long bestIndex = 0L;
-
-        if (index.size() > 0){
-            bestIndex = (long) index.size();
-        }
-
-        return bestIndex - 1L;
+        return maxNumber;
     }
 
     @Override
@@ -275,12 +264,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
         if (forkBlock.getNumber() > bestBlock.getNumber()){
 
             while(currentLevel > bestBlock.getNumber()){
-                List<BlockInfo> blocks =  getBlockInfoForLevel(currentLevel);
-                BlockInfo blockInfo = getBlockInfoForHash(blocks, forkLine.getHash());
-                if (blockInfo != null)  {
-                    blockInfo.setMainChain(true);
-                    setBlockInfoForLevel(currentLevel, blocks);
-                }
+                setMainChain(currentLevel, forkLine.getHash(), true);
                 forkLine = getBlockByHash(forkLine.getParentHash());
                 --currentLevel;
             }
@@ -290,13 +274,7 @@ public class IndexedBlockStore extends AbstractBlockstore{
         if (bestBlock.getNumber() > forkBlock.getNumber()){
 
             while(currentLevel > forkBlock.getNumber()){
-
-                List<BlockInfo> blocks =  getBlockInfoForLevel(currentLevel);
-                BlockInfo blockInfo = getBlockInfoForHash(blocks, bestLine.getHash());
-                if (blockInfo != null)  {
-                    blockInfo.setMainChain(false);
-                    setBlockInfoForLevel(currentLevel, blocks);
-                }
+                setMainChain(currentLevel, bestLine.getHash(), false);
                 bestLine = getBlockByHash(bestLine.getParentHash());
                 --currentLevel;
             }
@@ -306,19 +284,8 @@ public class IndexedBlockStore extends AbstractBlockstore{
         // 2. Loop back on each level until common block
         while( !bestLine.isEqual(forkLine) ) {
 
-            List<BlockInfo> levelBlocks = getBlockInfoForLevel(currentLevel);
-            BlockInfo bestInfo = getBlockInfoForHash(levelBlocks, bestLine.getHash());
-            if (bestInfo != null) {
-                bestInfo.setMainChain(false);
-                setBlockInfoForLevel(currentLevel, levelBlocks);
-            }
-
-            BlockInfo forkInfo = getBlockInfoForHash(levelBlocks, forkLine.getHash());
-            if (forkInfo != null) {
-                forkInfo.setMainChain(true);
-                setBlockInfoForLevel(currentLevel, levelBlocks);
-            }
-
+            setMainChain(currentLevel, bestLine.getHash(), false);
+            setMainChain(currentLevel, forkLine.getHash(), true);
 
             bestLine = getBlockByHash(bestLine.getParentHash());
             forkLine = getBlockByHash(forkLine.getParentHash());
@@ -334,24 +301,34 @@ public class IndexedBlockStore extends AbstractBlockstore{
 
         List<byte[]> result = new ArrayList<>();
 
-        int i;
-        for ( i = 0; i < maxBlocks; ++i){
-            List<BlockInfo> blockInfos =  index.get((int) number);
-            if (blockInfos == null) break;
-
-            for (BlockInfo blockInfo : blockInfos)
-               if (blockInfo.isMainChain()){
-                   result.add(blockInfo.getHash());
-                   break;
-               }
+        for (long i = 0; i < maxBlocks && number <= maxNumber; ++i){
+            byte[] hash = getBlockHashByNumber(number);
+            if (hash != null) result.add(hash);
 
             ++number;
         }
-        maxBlocks -= i;
 
         return result;
     }
 
+    /**
+     * @return hashes of the blocks of the number, the main chain one first
+     */
+    public List<byte[]> getHashesByNumber(long number){
+        List<byte[]> ret = new ArrayList<>();
+
+        byte[] main = getBlockHashByNumber(number);
+        if (main != null) ret.add(main);
+
+        byte[] forks = indexDS.get(numberKey(FORKS_PREFIX, number));
+        if (forks != null) {
+            for (int i = 0; i < forks.length; i += HASH_LENGTH) {
+                ret.add(Arrays.copyOfRange(forks, i, i + HASH_LENGTH));
+            }
+        }
+        return ret;
+    }
+
     public static class BlockInfo implements Serializable {
         byte[] hash;
         BigInteger cummDifficulty;
@@ -417,37 +394,149 @@ public class IndexedBlockStore extends AbstractBlockstore{
         Long number = getMaxNumber();
 
         for (int i = 0; i < number; ++i){
-            List<BlockInfo> levelInfos = index.get(i);
-
-            if (levelInfos != null) {
-                System.out.print(i);
-                for (BlockInfo blockInfo : levelInfos){
-                    if (blockInfo.isMainChain())
-                        System.out.print(" [" + shortHash(blockInfo.getHash()) + "] ");
-                    else
-                        System.out.print(" " + shortHash(blockInfo.getHash()) + " ");
-                }
-                System.out.println();
+            byte[] main = getBlockHashByNumber(i);
+
+            System.out.print(i);
+            for (byte[] hash : getHashesByNumber(i)){
+                if (Arrays.equals(hash, main))
+                    System.out.print(" [" + shortHash(hash) + "] ");
+                else
+                    System.out.print(" " + shortHash(hash) + " ");
             }
+            System.out.println();
+        }
+
+    }
+
+    // moves the block of the number to the main chain or out of it
+    private void setMainChain(long number, byte[] hash, boolean mainChain){
+        byte[] record = indexDS.get(blockKey(hash));
+        if (record == null) return;
+
+        byte[] main = getMainRecord(number);
+        boolean isMain = main != null && Arrays.equals(hash, Arrays.copyOf(main, HASH_LENGTH));
+        if (isMain == mainChain && (isMain || isFork(number, hash))) return;
+
+        if (mainChain) {
+            removeFork(number, hash);
+            if (main != null) addFork(number, Arrays.copyOf(main, HASH_LENGTH));
+
+            byte[] newMain = Arrays.copyOf(hash, HASH_LENGTH + TD_LENGTH);
+            System.arraycopy(record, NUMBER_LENGTH, newMain, HASH_LENGTH, TD_LENGTH);
+            indexDS.put(numberKey(MAIN_PREFIX, number), newMain);
+        } else {
+            if (isMain) indexDS.put(numberKey(MAIN_PREFIX, number), EMPTY_BYTE_ARRAY);
+            addFork(number, hash);
+        }
+    }
 
+    // the records are emptied rather than deleted, see CachingDataSource.get()
+    private byte[] getMainRecord(long number){
+        if (number < 0 || number > maxNumber) return null;
+        byte[] main = indexDS.get(numberKey(MAIN_PREFIX, number));
+        return main == null || main.length == 0 ? null : main;
+    }
+
+    private boolean isFork(long number, byte[] hash){
+        return indexOf(indexDS.get(numberKey(FORKS_PREFIX, number)), hash) >= 0;
+    }
+
+    private void addFork(long number, byte[] hash){
+        byte[] key = numberKey(FORKS_PREFIX, number);
+        byte[] forks = indexDS.get(key);
+        if (forks == null) forks = EMPTY_BYTE_ARRAY;
+        if (indexOf(forks, hash) >= 0) return;
+
+        byte[] newForks = Arrays.copyOf(forks, forks.length + HASH_LENGTH);
+        System.arraycopy(hash, 0, newForks, forks.length, HASH_LENGTH);
+        indexDS.put(key, newForks);
+    }
+
+    private void removeFork(long number, byte[] hash){
+        byte[] key = numberKey(FORKS_PREFIX, number);
+        byte[] forks = indexDS.get(key);
+        int idx = indexOf(forks, hash);
+        if (idx < 0) return;
+
+        byte[] newForks = new byte[forks.length - HASH_LENGTH];
+        System.arraycopy(forks, 0, newForks, 0, idx);
+        System.arraycopy(forks, idx + HASH_LENGTH, newForks, idx, forks.length - idx - HASH_LENGTH);
+        indexDS.put(key, newForks);
+    }
+
+    private static int indexOf(byte[] hashes, byte[] hash){
+        if (hashes == null) return -1;
+        for (int i = 0; i < hashes.length; i += HASH_LENGTH) {
+            if (FastByteComparisons.compareTo(hashes, i, HASH_LENGTH, hash, 0, hash.length) == 0) return i;
         }
+        return -1;
+    }
 
+    private static byte[] numberKey(byte prefix, long number){
+        byte[] key = new byte[1 + NUMBER_LENGTH];
+        key[0] = prefix;
+        System.arraycopy(ByteUtil.longToBytes(number), 0, key, 1, NUMBER_LENGTH);
+        return key;
     }
 
-    private List<BlockInfo> getBlockInfoForLevel(long level){
-        return index.get((int) level);
+    private static byte[] blockKey(byte[] hash){
+        byte[] key = new byte[1 + hash.length];
+        key[0] = BLOCK_PREFIX;
+        System.arraycopy(hash, 0, key, 1, hash.length);
+        return key;
     }
 
-    private void setBlockInfoForLevel(long level, List<BlockInfo> infos){
-        index.set((int) level, infos);
+    private static byte[] encodeBlockRecord(long number, BigInteger cummDifficulty){
+        byte[] record = Arrays.copyOf(ByteUtil.longToBytes(number), NUMBER_LENGTH + TD_LENGTH);
+        System.arraycopy(ByteUtil.bigIntegerToBytes(cummDifficulty, TD_LENGTH), 0, record, NUMBER_LENGTH, TD_LENGTH);
+        return record;
     }
 
-    private static BlockInfo getBlockInfoForHash(List<BlockInfo> blocks, byte[] hash){
+    // converts the java serialized index of the previous versions
+    private void convertIndex(){
+        byte[] sizeBytes = indexDS.get(OLD_SIZE_KEY);
+        int size = sizeBytes == null ? 0 : ByteUtil.byteArrayToInt(sizeBytes);
+        if (size > 0) logger.info("Converting the block index of {} blocks...", size);
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (int number = 0; number < size; number++) {
+            byte[] oldKey = ByteUtil.intToBytes(number);
+            byte[] data = indexDS.get(oldKey);
+            if (data != null) {
+                byte[] main = null;
+                List<byte[]> forks = new ArrayList<>();
+                for (BlockInfo blockInfo : BLOCK_INFO_SERIALIZER.deserialize(data)) {
+                    byte[] record = encodeBlockRecord(number, blockInfo.getCummDifficulty());
+                    batch.put(blockKey(blockInfo.getHash()), record);
+
+                    if (blockInfo.isMainChain() && main == null) {
+                        main = Arrays.copyOf(blockInfo.getHash(), HASH_LENGTH + TD_LENGTH);
+                        System.arraycopy(record, NUMBER_LENGTH, main, HASH_LENGTH, TD_LENGTH);
+                    } else {
+                        forks.add(blockInfo.getHash());
+                    }
+                }
+                if (main != null) batch.put(numberKey(MAIN_PREFIX, number), main);
+                if (!forks.isEmpty()) batch.put(numberKey(FORKS_PREFIX, number), ByteUtil.merge(forks.toArray(new byte[0][])));
+            }
+            batch.put(oldKey, null);
 
-        for (BlockInfo blockInfo : blocks)
-            if (areEqual(hash, blockInfo.getHash())) return blockInfo;
+            if (batch.size() >= 10_000) {
+                indexDS.updateBatch(batch);
+                batch = new HashMap<>();
+                if (number % 100_000 == 0) logger.info("Block index converted up to block #{}", number);
+            }
+        }
+
+        batch.put(OLD_SIZE_KEY, null);
+        if (size > 0) batch.put(MAX_NUMBER_KEY, ByteUtil.longToBytes(size - 1));
+        batch.put(VERSION_KEY, ByteUtil.intToBytes(VERSION));
+        indexDS.updateBatch(batch);
+        if (indexDS instanceof Flushable) {
+            ((Flushable) indexDS).flush();
+        }
 
-        return null;
+        if (size > 0) logger.info("Block index converted");
     }
 
     @Override
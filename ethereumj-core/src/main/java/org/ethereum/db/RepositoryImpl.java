@@ -9,6 +9,7 @@ import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
 import org.ethereum.core.Repository;
 import org.ethereum.datasource.CachingDataSource;
+import org.ethereum.datasource.WriteBehindGroup;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.json.EtherObjectMapper;
@@ -16,7 +17,9 @@ import org.ethereum.json.JSONHelper;
 import org.ethereum.trie.JournalPruneDataSource;
 import org.ethereum.trie.SecureTrie;
 import org.ethereum.trie.Trie;
+import org.ethereum.trie.TrieImpl;
 import org.ethereum.vm.DataWord;
+import org.ethereum.util.ByteArrayHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -38,7 +41,6 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
-import static org.ethereum.util.ByteUtil.wrap;
 
 /**
  * @author Roman Mandeleil
@@ -48,10 +50,14 @@ import static org.ethereum.util.ByteUtil.wrap;
 public class RepositoryImpl implements Repository , org.ethereum.facade.Repository{
 
     public final static String STATE_DB = "state";
+    public final static String FLAT_STATE_DB = "flatstate";
+    public final static String STATE_JOURNAL_DB = "statejournal";
 
     private static final Logger logger = LoggerFactory.getLogger("repository");
     private static final Logger gLogger = LoggerFactory.getLogger("general");
 
+    private static final int ADDRESS_LENGTH = 20;
+
     CommonConfig commonConfig = new CommonConfig();
 
     private SystemProperties config = SystemProperties.getDefault();
@@ -70,6 +76,21 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
     ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
     private boolean isSnapshot = false;
+
+    private SnapshotLayers snapshotLayers;
+    // changes since the state was at diffRoot, added as a layer on commitBlock
+    private SnapshotLayers.Diff diff;
+    private byte[] diffRoot;
+    // the snapshot state is read from the layer until it is changed
+    private SnapshotLayers.Layer snapshotLayer;
+    // the state at diffRoot if enabled, the main repository only
+    private FlatStateIndex flatIndex;
+    // the flat index is being rebuilt in the background, the state is read from the trie meanwhile
+    private boolean flatIndexRebuilding;
+    // the rebuilt index couldn't catch up with the state, it is left until rebuildFlatIndex()
+    private boolean flatIndexFailed;
+    // the first block not pruned while the flat index was rebuilt, -1 if none
+    private long pruneBacklogFrom = -1;
     private long bestBlockNumber = 0;
     private long pruneBlockCount;
     private boolean pruneEnabled = true;
@@ -86,6 +107,21 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         this.stateDS.init();
 
         init();
+
+        if (pruneBlockCount >= 0) {
+            KeyValueDataSource journalDS = commonConfig.keyValueDataSource();
+            journalDS.setName(STATE_JOURNAL_DB);
+            journalDS.init();
+            stateDSPrune.withJournal(journalDS)
+                    .withBackgroundPruning(config.databasePruneBatchSize());
+        }
+
+        if (config.databaseFlatIndexEnabled()) {
+            KeyValueDataSource flatStateDS = commonConfig.keyValueDataSource();
+            flatStateDS.setName(FLAT_STATE_DB);
+            flatStateDS.init();
+            withFlatIndex(flatStateDS);
+        }
     }
 
     /** Tests only  **/
@@ -109,20 +145,34 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         return this;
     }
 
+    /**
+     * Keeps the flat index of the state in the given source,
+     * the reverts beyond the kept snapshot layers need the index rebuilt
+     */
+    public synchronized RepositoryImpl withFlatIndex(KeyValueDataSource flatStateDS) {
+        flatIndex = new FlatStateIndex(flatStateDS, config.cacheSnapshotLayers());
+        resetDiff(worldState.getRootHash());
+        return this;
+    }
+
     private void init() {
         stateDSCache = new CachingDataSource(stateDS);
         stateDSPrune = new JournalPruneDataSource(stateDSCache);
 
         pruneBlockCount = pruneEnabled ? config.databasePruneDepth() : -1;
 
-        worldState = createStateTrie();
+        // only the main state trie keeps clean nodes, snapshots are short lived
+        worldState = createStateTrie().withCacheSize(config.cacheStateSize() * 1024L * 1024L);
+
+        snapshotLayers = new SnapshotLayers(config.cacheSnapshotLayers());
+        resetDiff(worldState.getRootHash());
     }
 
     public DetailsDataStore getDetailsDataStore() {
         return dds;
     }
 
-    private Trie createStateTrie() {
+    private TrieImpl createStateTrie() {
         return new SecureTrie(stateDSPrune).withPruningEnabled(pruneBlockCount >= 0);
     }
 
@@ -142,9 +192,15 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
 
             if (stateDS != null) {
+                stateDSPrune.closeJournal();
                 stateDS.close();
                 stateDS = null;
             }
+
+            if (flatIndex != null) {
+                flatIndex.close();
+                flatIndex = null;
+            }
         } finally {
             rwLock.writeLock().unlock();
         }
@@ -156,45 +212,50 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
     }
 
     @Override
-    public synchronized void updateBatch(HashMap<ByteArrayWrapper, AccountState> stateCache,
-                            HashMap<ByteArrayWrapper, ContractDetails> detailsCache) {
+    public synchronized void updateBatch(ByteArrayHashMap<AccountState> stateCache,
+                            ByteArrayHashMap<ContractDetails> detailsCache) {
 
         logger.trace("updatingBatch: detailsCache.size: {}", detailsCache.size());
 
-        for (ByteArrayWrapper hash : stateCache.keySet()) {
+        for (byte[] hash : stateCache.keySet()) {
 
             AccountState accountState = stateCache.get(hash);
             ContractDetails contractDetails = detailsCache.get(hash);
 
             if (accountState.isDeleted()) {
-                delete(hash.getData());
+                delete(hash);
                 logger.debug("delete: [{}]",
-                        Hex.toHexString(hash.getData()));
+                        Hex.toHexString(hash));
 
             } else {
 
                 if (!contractDetails.isDirty()) continue;
 
                 ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) contractDetails;
+                if (diff != null) {
+                    for (Map.Entry<DataWord, DataWord> row : contractDetailsCache.getStorage().entrySet()) {
+                        diff.updateStorage(hash, row.getKey(), row.getValue());
+                    }
+                }
+
                 if (contractDetailsCache.origContract == null) {
                     contractDetailsCache.origContract = commonConfig.contractDetailsImpl();
-                    contractDetailsCache.origContract.setAddress(hash.getData());
+                    contractDetailsCache.origContract.setAddress(hash);
                     contractDetailsCache.commit();
                 }
 
                 contractDetails = contractDetailsCache.origContract;
 
-                byte[] data = hash.getData();
-                updateContractDetails(data, contractDetails);
+                updateContractDetails(hash, contractDetails);
 
                 if ( !Arrays.equals(accountState.getCodeHash(), EMPTY_TRIE_HASH) )
                     accountState.setStateRoot(contractDetails.getStorageHash());
 
-                updateAccountState(hash.getData(), accountState);
+                updateAccountState(hash, accountState);
 
                 if (logger.isTraceEnabled()) {
                     logger.trace("update: [{}],nonce: [{}] balance: [{}] [{}]",
-                            Hex.toHexString(hash.getData()),
+                            Hex.toHexString(hash),
                             accountState.getNonce(),
                             accountState.getBalance(),
                             contractDetails.getStorage());
@@ -210,6 +271,7 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
     }
 
     private synchronized void updateContractDetails(final byte[] address, final ContractDetails contractDetails) {
+        snapshotLayer = null;
         rwLock.readLock().lock();
         try {
             dds.update(address, contractDetails);
@@ -236,6 +298,9 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public synchronized void flush() {
+        // the state, storage, journals and flat index are persisted together
+        WriteBehindGroup group = commonConfig.writeBehindGroup();
+        group.beginFlush();
         rwLock.writeLock().lock();
         try {
                 gLogger.debug("flushing to disk");
@@ -244,10 +309,17 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
                 dds.flush();
                 worldState.sync();
                 stateDSCache.flush();
+                stateDSPrune.flush();
+                if (flatIndex != null) flatIndex.flush();
 
                 gLogger.info("RepositoryImpl.flush took " + (System.currentTimeMillis() - s) + " ms");
+                if (pruneBlockCount >= 0) {
+                    gLogger.info("State pruning: " + pruneStats(stateDSPrune) +
+                            ", storage pruning: " + pruneStats(dds.getStorageDSPrune()));
+                }
         } finally {
             rwLock.writeLock().unlock();
+            group.endFlush();
         }
     }
 
@@ -266,6 +338,8 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         rwLock.readLock().lock();
         try {
                 worldState.setRoot(root);
+                resetDiff(root);
+                syncFlatIndex(root);
         } finally {
             rwLock.readLock().unlock();
         }
@@ -421,6 +495,17 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public synchronized DataWord getStorageValue(byte[] addr, DataWord key) {
+        if (snapshotLayer != null) {
+            DataWord value = snapshotLayer.getStorageValue(addr, key);
+            if (value != null) return value.isZero() ? null : value;
+        }
+
+        if (isFlatIndexValid()) {
+            DataWord value = diff.getStorageValue(addr, key);
+            if (value == null) value = flatIndex.getStorageValue(addr, key);
+            return value.isZero() ? null : value;
+        }
+
         ContractDetails details = getContractDetails(addr);
         return (details == null) ? null : details.get(key);
     }
@@ -452,6 +537,7 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         }
 
         details.put(key, value);
+        if (diff != null) diff.updateStorage(addr, key, value);
 
         updateContractDetails(addr, details);
     }
@@ -510,9 +596,11 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
     }
 
     private synchronized void updateAccountState(final byte[] addr, final AccountState accountState) {
+        snapshotLayer = null;
         rwLock.readLock().lock();
         try {
                 worldState.update(addr, accountState.getEncoded());
+                if (diff != null) diff.updateAccount(addr, accountState.getEncoded());
         } finally {
             rwLock.readLock().unlock();
         }
@@ -529,9 +617,11 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public synchronized void delete(final byte[] addr) {
+        snapshotLayer = null;
         rwLock.readLock().lock();
         try {
                 worldState.delete(addr);
+                if (diff != null) diff.deleteAccount(addr);
         } finally {
             rwLock.readLock().unlock();
         }
@@ -553,12 +643,31 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
                 if (details != null)
                     details = details.getSnapshotTo(storageRoot);
 
+                // the storage reads (SLOAD) go to the flat index rather than the trie
+                if (details instanceof ContractDetailsImpl && isFlatIndexValid())
+                    ((ContractDetailsImpl) details).setStorageReader(flatStorageReader(addr));
+
                 return  details;
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
+    // reads the storage of the account from the flat index as long as the state is not moved
+    private ContractDetailsImpl.StorageReader flatStorageReader(final byte[] addr) {
+        final SnapshotLayers.Diff current = diff;
+        return new ContractDetailsImpl.StorageReader() {
+            @Override
+            public DataWord get(DataWord key) {
+                synchronized (RepositoryImpl.this) {
+                    if (diff != current || !isFlatIndexValid()) return null;
+                    DataWord value = current.getStorageValue(addr, key);
+                    return value != null ? value : flatIndex.getStorageValue(addr, key);
+                }
+            }
+        };
+    }
+
     @Override
     public boolean hasContractDetails(byte[] addr) {
         return dds.get(addr) != null;
@@ -566,6 +675,17 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public synchronized AccountState getAccountState(final byte[] addr) {
+        if (snapshotLayer != null) {
+            byte[] accountData = snapshotLayer.getAccount(addr);
+            if (accountData != null) return accountData.length == 0 ? null : new AccountState(accountData);
+        }
+
+        if (isFlatIndexValid()) {
+            byte[] accountData = diff.getAccount(addr);
+            if (accountData == null) accountData = flatIndex.getAccount(addr);
+            return accountData.length == 0 ? null : new AccountState(accountData);
+        }
+
         rwLock.readLock().lock();
         try {
                 AccountState result = null;
@@ -580,6 +700,25 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         }
     }
 
+    /**
+     * Loads the state trie nodes and the contract details of the given
+     * accounts into the caches ahead of the execution.
+     * Doesn't lock the repository so that the block being imported
+     * can be executed meanwhile
+     */
+    public void prefetch(Collection<byte[]> addrs) {
+        rwLock.readLock().lock();
+        try {
+            for (byte[] addr : addrs) {
+                if (worldState.get(addr).length != 0) {
+                    dds.prefetch(addr);
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
     @Override
     public synchronized AccountState createAccount(final byte[] addr) {
         AccountState accountState = new AccountState(
@@ -587,6 +726,7 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
         updateAccountState(addr, accountState);
         updateContractDetails(addr, commonConfig.contractDetailsImpl());
+        if (diff != null) diff.clearStorage(addr);
 
         return accountState;
     }
@@ -598,8 +738,8 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     @Override
     public synchronized void loadAccount(byte[] addr,
-                            HashMap<ByteArrayWrapper, AccountState> cacheAccounts,
-                            HashMap<ByteArrayWrapper, ContractDetails> cacheDetails) {
+                            ByteArrayHashMap<AccountState> cacheAccounts,
+                            ByteArrayHashMap<ContractDetails> cacheDetails) {
 
         AccountState account = getAccountState(addr);
         ContractDetails details = getContractDetails(addr);
@@ -609,9 +749,8 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         details = new ContractDetailsCacheImpl(details);
 //        details.setAddress(addr);
 
-        ByteArrayWrapper wrappedAddress = wrap(addr);
-        cacheAccounts.put(wrappedAddress, account);
-        cacheDetails.put(wrappedAddress, details);
+        cacheAccounts.put(addr, account);
+        cacheDetails.put(addr, details);
     }
 
     @Override
@@ -621,6 +760,8 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
 
     public synchronized void setRoot(byte[] root) {
         worldState.setRoot(root);
+        resetDiff(root);
+        syncFlatIndex(root);
     }
 
     public void setPruneBlockCount(long pruneBlockCount) {
@@ -631,6 +772,14 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         worldState.sync();
         dds.syncLargeStorage();
 
+        if (diff != null) {
+            byte[] root = worldState.getRootHash();
+            snapshotLayers.addLayer(diffRoot, root, diff);
+            if (isFlatIndexValid()) flatIndex.apply(diffRoot, root, diff);
+            resetDiff(root);
+            syncFlatIndex(root);
+        }
+
         if (pruneBlockCount >= 0) {
             stateDSPrune.storeBlockChanges(blockHeader);
             dds.getStorageDSPrune().storeBlockChanges(blockHeader);
@@ -641,22 +790,254 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
     private void pruneBlocks(BlockHeader curBlock) {
         if (curBlock.getNumber() > bestBlockNumber) { // pruning only on increasing blocks
             long pruneBlockNumber = curBlock.getNumber() - pruneBlockCount;
-            if (pruneBlockNumber >= 0) {
-                byte[] pruneBlockHash = blockStore.getBlockHashByNumber(pruneBlockNumber);
-                if (pruneBlockHash != null) {
-                    BlockHeader header = blockStore.getBlockByHash(pruneBlockHash).getHeader();
-                    stateDSPrune.prune(header);
-                    dds.getStorageDSPrune().prune(header);
+            if (flatIndexRebuilding) {
+                // the rebuild reads an older state, its nodes are kept until it is done
+                if (pruneBacklogFrom < 0) pruneBacklogFrom = pruneBlockNumber;
+            } else {
+                long from = pruneBacklogFrom >= 0 ? pruneBacklogFrom : pruneBlockNumber;
+                pruneBacklogFrom = -1;
+                for (long number = Math.max(from, 0); number <= pruneBlockNumber; number++) {
+                    pruneBlock(number);
                 }
             }
         }
         bestBlockNumber = curBlock.getNumber();
     }
 
+    private void pruneBlock(long number) {
+        byte[] pruneBlockHash = blockStore.getBlockHashByNumber(number);
+        if (pruneBlockHash != null) {
+            BlockHeader header = blockStore.getBlockByHash(pruneBlockHash).getHeader();
+            stateDSPrune.prune(header);
+            dds.getStorageDSPrune().prune(header);
+        }
+    }
+
+    private static String pruneStats(JournalPruneDataSource ds) {
+        return String.format("%d blocks, %d keys deleted (%.2f MB), %d pending",
+                ds.getPrunedBlocks(), ds.getDeletedKeys(), ds.getReclaimedBytes() / 1_048_576d, ds.getPendingDeletes());
+    }
+
+    // starts collecting the changes made on top of the given state
+    private void resetDiff(byte[] root) {
+        snapshotLayer = null;
+        if (snapshotLayers.isEnabled() || flatIndex != null) {
+            diff = new SnapshotLayers.Diff();
+            diffRoot = root;
+        }
+    }
+
+    // the state is the flat index with the changes made since
+    private boolean isFlatIndexValid() {
+        return flatIndex != null && !flatIndexRebuilding && flatIndex.isAt(diffRoot);
+    }
+
+    // brings the flat index to the state of the trie, the index is rebuilt
+    // in the background if it can't be moved there
+    private void syncFlatIndex(byte[] root) {
+        if (flatIndex == null || flatIndexRebuilding || flatIndexFailed) return;
+        if (!flatIndex.moveTo(root, snapshotLayers)) {
+            startFlatIndexRebuild(root);
+        }
+    }
+
+    private void startFlatIndexRebuild(final byte[] root) {
+        // the accounts of the state, taken under the lock so that
+        // no details flush or account creation is seen halfway
+        final Set<ByteArrayWrapper> keys;
+        rwLock.readLock().lock();
+        try {
+            keys = dds.keys();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        // the pruning is held back meanwhile, see pruneBlocks()
+        flatIndexRebuilding = true;
+        final FlatStateIndex index = flatIndex;
+        Thread rebuild = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean done = false;
+                try {
+                    done = fillFlatIndex(index, root, keys);
+                } catch (RuntimeException e) {
+                    gLogger.error("Flat state index rebuild failed at root " + Hex.toHexString(root), e);
+                }
+                synchronized (RepositoryImpl.this) {
+                    flatIndexRebuilding = false;
+                    RepositoryImpl.this.notifyAll();
+                    if (flatIndex != index || isClosed()) return;
+
+                    // catching up with the blocks imported meanwhile, the rebuild
+                    // isn't repeated if they are no longer kept as the snapshot layers
+                    if (!done || !flatIndex.moveTo(diffRoot, snapshotLayers)) {
+                        flatIndexFailed = true;
+                        gLogger.error("Flat state index couldn't catch up with the state, the trie is read " +
+                                "instead; more blocks are to be kept as the snapshot layers");
+                    }
+                }
+            }
+        }, "flat-index-rebuild");
+        rebuild.setDaemon(true);
+        rebuild.start();
+    }
+
+    /**
+     * @return true if the flat index is being rebuilt in the background
+     */
+    public synchronized boolean isFlatIndexRebuilding() {
+        return flatIndexRebuilding;
+    }
+
+    /**
+     * Fills the flat index anew from the state trie and the contract details,
+     * waits for the background rebuild if there is one
+     */
+    public synchronized void rebuildFlatIndex() {
+        while (flatIndexRebuilding) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        rwLock.readLock().lock();
+        try {
+            fillFlatIndex(flatIndex, worldState.getRootHash(), dds.keys());
+            flatIndexFailed = false;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fills the index with the state at the root, doesn't lock the repository,
+     * the state nodes are to be kept from pruning meanwhile
+     *
+     * @param keys addresses of the contract details taken at the root
+     * @return false if the repository is closed meanwhile
+     */
+    private boolean fillFlatIndex(FlatStateIndex index, byte[] root, Set<ByteArrayWrapper> keys) {
+        gLogger.info("Rebuilding flat state index at root {}", Hex.toHexString(root));
+        long s = System.currentTimeMillis();
+
+        TrieImpl trie = createStateTrie();
+        trie.setRoot(root);
+
+        index.clear();
+        int accounts = 0;
+        for (ByteArrayWrapper key : keys) {
+            rwLock.readLock().lock();
+            try {
+                if (isClosed()) return false;
+
+                byte[] addr = key.getData();
+                byte[] accountData = trie.get(addr);
+                if (accountData.length == 0) continue;
+
+                index.putAccount(addr, accountData);
+                ContractDetails details = dds.get(addr);
+                if (details != null) {
+                    details = details.getSnapshotTo(new AccountState(accountData).getStateRoot());
+                    for (DataWord storageKey : details.getStorageKeys()) {
+                        DataWord value = details.get(storageKey);
+                        if (value != null) index.putStorageValue(addr, storageKey, value);
+                    }
+                }
+            } finally {
+                rwLock.readLock().unlock();
+            }
+
+            if (++accounts % 10_000 == 0) {
+                index.flush();
+                gLogger.info("Flat state index: {} accounts indexed", accounts);
+            }
+        }
+        index.setRoot(root);
+        index.flush();
+
+        gLogger.info("Flat state index rebuilt: {} accounts in {} ms", accounts, System.currentTimeMillis() - s);
+        return true;
+    }
+
+    /**
+     * Cross-checks the flat index against the state trie and
+     * the contract details at the index root
+     *
+     * @return number of the entries which differ
+     */
+    public synchronized int verifyFlatIndex() {
+        rwLock.readLock().lock();
+        try {
+            TrieImpl trie = createStateTrie();
+            trie.setRoot(flatIndex.getRoot());
+
+            int mismatches = 0;
+            // nothing is missed from the index
+            for (ByteArrayWrapper key : dds.keys()) {
+                byte[] addr = key.getData();
+                byte[] accountData = trie.get(addr);
+                if (accountData.length == 0) continue;
+
+                if (!Arrays.equals(accountData, flatIndex.getAccount(addr))) {
+                    logger.warn("Flat index account mismatch: {}", Hex.toHexString(addr));
+                    mismatches++;
+                }
+                ContractDetails details = dds.get(addr);
+                if (details == null) continue;
+                details = details.getSnapshotTo(new AccountState(accountData).getStateRoot());
+                for (DataWord storageKey : details.getStorageKeys()) {
+                    DataWord value = details.get(storageKey);
+                    if (!flatIndex.getStorageValue(addr, storageKey).equals(value == null ? DataWord.ZERO : value)) {
+                        logger.warn("Flat index storage mismatch: {} {}", Hex.toHexString(addr), storageKey);
+                        mismatches++;
+                    }
+                }
+            }
+
+            // and nothing else is there
+            for (byte[] key : flatIndex.keys()) {
+                if (FlatStateIndex.isAccountKey(key, ADDRESS_LENGTH)) {
+                    if (trie.get(key).length == 0) {
+                        logger.warn("Flat index has a deleted account: {}", Hex.toHexString(key));
+                        mismatches++;
+                    }
+                } else if (FlatStateIndex.isStorageKey(key, ADDRESS_LENGTH) && flatIndex.isCurrent(key, ADDRESS_LENGTH)) {
+                    byte[] addr = Arrays.copyOfRange(key, 0, ADDRESS_LENGTH);
+                    DataWord storageKey = new DataWord(Arrays.copyOfRange(key, key.length - 32, key.length));
+                    byte[] accountData = trie.get(addr);
+                    ContractDetails details = accountData.length == 0 ? null : dds.get(addr);
+                    DataWord value = details == null ? null :
+                            details.getSnapshotTo(new AccountState(accountData).getStateRoot()).get(storageKey);
+                    if (value == null) {
+                        logger.warn("Flat index has a deleted storage row: {} {}", Hex.toHexString(addr), storageKey);
+                        mismatches++;
+                    }
+                }
+            }
+
+            gLogger.info("Flat state index verified at root {}: {} mismatches",
+                    Hex.toHexString(flatIndex.getRoot()), mismatches);
+            return mismatches;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    public FlatStateIndex getFlatIndex() {
+        return flatIndex;
+    }
+
     public Trie getWorldState() {
         return worldState;
     }
 
+    public SnapshotLayers getSnapshotLayers() {
+        return snapshotLayers;
+    }
+
     @Override
     public synchronized Repository getSnapshotTo(byte[] root){
 
@@ -670,9 +1051,13 @@ public class RepositoryImpl implements Repository , org.ethereum.facade.Reposito
         repo.pruneBlockCount = this.pruneBlockCount;
         repo.dds = this.dds;
         repo.isSnapshot = true;
+        repo.snapshotLayers = this.snapshotLayers;
 
         repo.worldState = repo.createStateTrie();
         repo.worldState.setRoot(root);
+        // the changes of a block imported into the snapshot are added as a layer too
+        repo.resetDiff(root);
+        repo.snapshotLayer = snapshotLayers.getLayer(root);
 
 
         return repo;
@@ -1,19 +1,17 @@
 package org.ethereum.db;
 
+import org.ethereum.config.CommonConfig;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Block;
 import org.ethereum.core.Repository;
+import org.ethereum.util.ByteArrayHashMap;
 import org.ethereum.vm.DataWord;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.spongycastle.util.encoders.Hex;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.annotation.Scope;
-import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
 import java.math.BigInteger;
@@ -22,33 +20,35 @@ import java.util.*;
 
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
-import static org.ethereum.util.ByteUtil.wrap;
 
 /**
  * @author Roman Mandeleil
  * @since 17.11.2014
  */
-@Component
-@Scope("prototype")
 public class RepositoryTrack implements Repository, org.ethereum.facade.Repository {
 
     private static final Logger logger = LoggerFactory.getLogger("repository");
 
-    HashMap<ByteArrayWrapper, AccountState> cacheAccounts = new HashMap<>();
-    HashMap<ByteArrayWrapper, ContractDetails> cacheDetails = new HashMap<>();
+    ByteArrayHashMap<AccountState> cacheAccounts = new ByteArrayHashMap<>(20);
+    ByteArrayHashMap<ContractDetails> cacheDetails = new ByteArrayHashMap<>(20);
 
     Repository repository;
 
-    @Autowired
-    ApplicationContext applicationContext;
+    // creates the nested tracks, if set
+    CommonConfig commonConfig;
 
-    @Autowired
     SystemProperties config = SystemProperties.getDefault();
 
     public RepositoryTrack(Repository repository) {
         this.repository = repository;
     }
 
+    public RepositoryTrack(Repository repository, SystemProperties config, CommonConfig commonConfig) {
+        this.repository = repository;
+        this.config = config;
+        this.commonConfig = commonConfig;
+    }
+
     @Override
     public AccountState createAccount(byte[] addr) {
 
@@ -57,11 +57,11 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
 
             AccountState accountState = new AccountState(config.getBlockchainConfig().getCommonConstants().getInitialNonce(),
                     BigInteger.ZERO);
-            cacheAccounts.put(wrap(addr), accountState);
+            cacheAccounts.put(addr, accountState);
 
             ContractDetails contractDetails = new ContractDetailsCacheImpl(null);
             contractDetails.setDirty(true);
-            cacheDetails.put(wrap(addr), contractDetails);
+            cacheDetails.put(addr, contractDetails);
 
             return accountState;
         }
@@ -72,12 +72,12 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
 
         synchronized (repository) {
 
-            AccountState accountState = cacheAccounts.get(wrap(addr));
+            AccountState accountState = cacheAccounts.get(addr);
 
             if (accountState == null) {
-                repository.loadAccount(addr, cacheAccounts, cacheDetails);
+                loadFromParent(addr);
 
-                accountState = cacheAccounts.get(wrap(addr));
+                accountState = cacheAccounts.get(addr);
             }
             return accountState;
         }
@@ -87,7 +87,7 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     public boolean isExist(byte[] addr) {
 
         synchronized (repository) {
-            AccountState accountState = cacheAccounts.get(wrap(addr));
+            AccountState accountState = cacheAccounts.get(addr);
             if (accountState != null) return !accountState.isDeleted();
 
             return repository.isExist(addr);
@@ -98,11 +98,11 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     public ContractDetails getContractDetails(byte[] addr) {
 
         synchronized (repository) {
-            ContractDetails contractDetails = cacheDetails.get(wrap(addr));
+            ContractDetails contractDetails = cacheDetails.get(addr);
 
             if (contractDetails == null) {
-                repository.loadAccount(addr, cacheAccounts, cacheDetails);
-                contractDetails = cacheDetails.get(wrap(addr));
+                loadFromParent(addr);
+                contractDetails = cacheDetails.get(addr);
             }
 
             return contractDetails;
@@ -112,7 +112,7 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     @Override
     public boolean hasContractDetails(byte[] addr) {
         synchronized (repository) {
-            ContractDetails contractDetails = cacheDetails.get(wrap(addr));
+            ContractDetails contractDetails = cacheDetails.get(addr);
 
             if (contractDetails == null) {
                 return repository.hasContractDetails(addr);
@@ -123,26 +123,34 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     }
 
     @Override
-    public void loadAccount(byte[] addr, HashMap<ByteArrayWrapper, AccountState> cacheAccounts,
-                            HashMap<ByteArrayWrapper, ContractDetails> cacheDetails) {
+    public void loadAccount(byte[] addr, ByteArrayHashMap<AccountState> cacheAccounts,
+                            ByteArrayHashMap<ContractDetails> cacheDetails) {
 
         synchronized (repository) {
-            AccountState accountState = this.cacheAccounts.get(wrap(addr));
-            ContractDetails contractDetails = this.cacheDetails.get(wrap(addr));
+            AccountState accountState = this.cacheAccounts.get(addr);
+            ContractDetails contractDetails = this.cacheDetails.get(addr);
 
             if (accountState == null) {
-                repository.loadAccount(addr, this.cacheAccounts, this.cacheDetails);
-                accountState = this.cacheAccounts.get(wrap(addr));
-                contractDetails = this.cacheDetails.get(wrap(addr));
+                loadFromParent(addr);
+                accountState = this.cacheAccounts.get(addr);
+                contractDetails = this.cacheDetails.get(addr);
             }
 
-            cacheAccounts.put(wrap(addr), accountState.clone());
+            cacheAccounts.put(addr, accountState.clone());
             ContractDetails contractDetailsLvl2 = new ContractDetailsCacheImpl(contractDetails);
-            cacheDetails.put(wrap(addr), contractDetailsLvl2);
+            cacheDetails.put(addr, contractDetailsLvl2);
         }
     }
 
 
+    /**
+     * Brings the account and its details from the parent repository
+     * into the caches of this track
+     */
+    protected void loadFromParent(byte[] addr) {
+        repository.loadAccount(addr, cacheAccounts, cacheDetails);
+    }
+
     @Override
     public void delete(byte[] addr) {
         logger.trace("delete account: [{}]", Hex.toHexString(addr));
@@ -299,7 +307,7 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     }
 
 
-    public Set<ByteArrayWrapper> getFullAddressSet() {
+    public Set<byte[]> getFullAddressSet() {
         return cacheAccounts.keySet();
     }
 
@@ -313,8 +321,8 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     public Repository startTracking() {
         logger.trace("start tracking: {}", this);
 
-        Repository repository = applicationContext == null ? new RepositoryTrack(this) :
-                applicationContext.getBean(RepositoryTrack.class, this);
+        Repository repository = commonConfig == null ? new RepositoryTrack(this) :
+                commonConfig.repositoryTrack(this);
 
         return repository;
     }
@@ -334,15 +342,15 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     public void commit() {
 
         synchronized (repository) {
-            for (Map.Entry<ByteArrayWrapper, ContractDetails> entry : cacheDetails.entrySet()) {
+            for (Map.Entry<byte[], ContractDetails> entry : cacheDetails.entrySet()) {
                 ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) entry.getValue();
                 contractDetailsCache.commit();
 
-                if (contractDetailsCache.origContract == null && repository.hasContractDetails(entry.getKey().getData())) {
+                if (contractDetailsCache.origContract == null && repository.hasContractDetails(entry.getKey())) {
                     // in forked block the contract account might not exist thus it is created without
                     // origin, but on the main chain details can contain data which should be merged
                     // into a single storage trie so both branches with different stateRoots are valid
-                    contractDetailsCache.origContract = repository.getContractDetails(entry.getKey().getData());
+                    contractDetailsCache.origContract = repository.getContractDetails(entry.getKey());
                     contractDetailsCache.commit();
                 }
             }
@@ -369,17 +377,16 @@ public class RepositoryTrack implements Repository, org.ethereum.facade.Reposito
     }
 
     @Override
-    public void updateBatch(HashMap<ByteArrayWrapper, AccountState> accountStates,
-                            HashMap<ByteArrayWrapper, ContractDetails> contractDetailes) {
+    public void updateBatch(ByteArrayHashMap<AccountState> accountStates,
+                            ByteArrayHashMap<ContractDetails> contractDetailes) {
 
         synchronized (repository) {
-            for (ByteArrayWrapper hash : accountStates.keySet()) {
-                cacheAccounts.put(hash, accountStates.get(hash));
-            }
+            cacheAccounts.putAll(accountStates);
 
-            for (ByteArrayWrapper hash : contractDetailes.keySet()) {
+            for (Map.Entry<byte[], ContractDetails> entry : contractDetailes.entrySet()) {
 
-                ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) contractDetailes.get(hash);
+                byte[] hash = entry.getKey();
+                ContractDetailsCacheImpl contractDetailsCache = (ContractDetailsCacheImpl) entry.getValue();
                 if (contractDetailsCache.origContract != null && !(contractDetailsCache.origContract instanceof ContractDetailsImpl))
                     cacheDetails.put(hash, contractDetailsCache.origContract);
                 else
@@ -4,6 +4,7 @@ import org.ethereum.core.AccountState;
 import org.ethereum.core.Block;
 import org.ethereum.core.Repository;
 import org.ethereum.vm.DataWord;
+import org.ethereum.util.ByteArrayHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -45,13 +46,13 @@ public class RepositoryVMTestDummy extends RepositoryImpl{
 
 
     @Override
-    public void updateBatch(HashMap<ByteArrayWrapper, AccountState> stateCache, HashMap<ByteArrayWrapper,
-            ContractDetails> detailsCache) {
+    public void updateBatch(ByteArrayHashMap<AccountState> stateCache, ByteArrayHashMap<ContractDetails> detailsCache) {
 
-        for (ByteArrayWrapper hash : stateCache.keySet()) {
+        for (byte[] key : stateCache.keySet()) {
 
-            AccountState accountState = stateCache.get(hash);
-            ContractDetails contractDetails = detailsCache.get(hash);
+            ByteArrayWrapper hash = wrap(key);
+            AccountState accountState = stateCache.get(key);
+            ContractDetails contractDetails = detailsCache.get(key);
 
             if (accountState.isDeleted()) {
                 worldState.remove(hash);
@@ -280,7 +281,7 @@ public class RepositoryVMTestDummy extends RepositoryImpl{
     }
 
     @Override
-    public void loadAccount(byte[] addr, HashMap<ByteArrayWrapper, AccountState> cacheAccounts, HashMap<ByteArrayWrapper, ContractDetails> cacheDetails) {
+    public void loadAccount(byte[] addr, ByteArrayHashMap<AccountState> cacheAccounts, ByteArrayHashMap<ContractDetails> cacheDetails) {
 
         AccountState account = getAccountState(addr);
         ContractDetails details = getContractDetails(addr);
@@ -295,7 +296,7 @@ public class RepositoryVMTestDummy extends RepositoryImpl{
         else
             details = details.clone();
 
-        cacheAccounts.put(wrap(addr), account);
-        cacheDetails.put(wrap(addr), details);
+        cacheAccounts.put(addr, account);
+        cacheDetails.put(addr, details);
     }
 }
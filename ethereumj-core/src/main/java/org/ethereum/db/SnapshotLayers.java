@@ -0,0 +1,287 @@
+package org.ethereum.db;
+
+import org.ethereum.util.ByteArrayHashMap;
+import org.ethereum.vm.DataWord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * State changes of the recently imported blocks kept in memory.
+ *
+ * Every block adds a layer with the accounts and the storage rows it has
+ * changed on top of the layer of its parent state. The layers are keyed by the
+ * state root the block results in, so the blocks of different branches share
+ * the layers of the common states and a reorg doesn't invalidate anything:
+ * the layers of the abandoned branch just age out.
+ *
+ * The state at a recent root is read from its layer and the layers below,
+ * the trie at that root is only looked into for the data not changed
+ * within the kept blocks. Every changed account and storage row is indexed
+ * with the layers changing it, so the data not changed within the kept blocks
+ * is told apart without looking into the layers at all.
+ *
+ * @see RepositoryImpl#getSnapshotTo(byte[])
+ */
+public class SnapshotLayers {
+
+    /**
+     * Changes collected while a block is being imported
+     */
+    public static class Diff {
+        // encoded account state, empty if deleted
+        final Map<byte[], byte[]> accounts = new ByteArrayHashMap<>(20);
+        final Map<byte[], Map<DataWord, DataWord>> storage = new ByteArrayHashMap<>(20);
+        // accounts deleted or created anew, i.e. with the storage cleared
+        final Set<byte[]> cleared = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(20));
+
+        public void updateAccount(byte[] addr, byte[] encoded) {
+            accounts.put(addr, encoded);
+        }
+
+        public void deleteAccount(byte[] addr) {
+            accounts.put(addr, EMPTY_BYTE_ARRAY);
+            clearStorage(addr);
+        }
+
+        public void clearStorage(byte[] addr) {
+            storage.remove(addr);
+            cleared.add(addr);
+        }
+
+        public void updateStorage(byte[] addr, DataWord key, DataWord value) {
+            Map<DataWord, DataWord> rows = storage.get(addr);
+            if (rows == null) {
+                rows = new HashMap<>();
+                storage.put(addr, rows);
+            }
+            rows.put(key.clone(), value == null ? DataWord.ZERO : value.clone());
+        }
+
+        public boolean isEmpty() {
+            return accounts.isEmpty() && storage.isEmpty() && cleared.isEmpty();
+        }
+
+        /**
+         * @return encoded account state, empty array if the account is deleted,
+         *         null if the account is not changed
+         */
+        public byte[] getAccount(byte[] addr) {
+            return accounts.get(addr);
+        }
+
+        /**
+         * @return storage value, {@link DataWord#ZERO} if the row is deleted,
+         *         null if the row is not changed
+         */
+        public DataWord getStorageValue(byte[] addr, DataWord key) {
+            Map<DataWord, DataWord> rows = storage.get(addr);
+            if (rows != null) {
+                DataWord value = rows.get(key);
+                if (value != null) return value.clone();
+            }
+            return cleared.contains(addr) ? DataWord.ZERO : null;
+        }
+    }
+
+    /**
+     * State at a root, read only
+     */
+    public class Layer {
+        private final byte[] root;
+        private final byte[] parentRoot;
+        private final Diff diff;
+        // number of the layers below, counted from the first kept one
+        private final int depth;
+        // the layer itself and then the layers below, up to the kept number
+        private final Layer[] ancestors;
+        private boolean evicted;
+
+        private Layer(byte[] root, byte[] parentRoot, Diff diff, Layer parent, int depth) {
+            this.root = root;
+            this.parentRoot = parentRoot;
+            this.diff = diff;
+            this.depth = depth;
+            int size = parent == null ? 1 : Math.min(parent.ancestors.length + 1, maxLayers);
+            this.ancestors = new Layer[size];
+            this.ancestors[0] = this;
+            if (parent != null) System.arraycopy(parent.ancestors, 0, ancestors, 1, size - 1);
+        }
+
+        public byte[] getRoot() {
+            return root;
+        }
+
+        public byte[] getParentRoot() {
+            return parentRoot;
+        }
+
+        /**
+         * @return changes made on top of the parent state
+         */
+        public Diff getDiff() {
+            return diff;
+        }
+
+        /**
+         * @return encoded account state, empty array if there is no such account,
+         *         null if the account is not found in the kept layers
+         */
+        public byte[] getAccount(byte[] addr) {
+            synchronized (SnapshotLayers.this) {
+                Layer layer = nearest(accountIndex.get(addr), null);
+                return layer == null ? null : layer.diff.getAccount(addr);
+            }
+        }
+
+        /**
+         * @return storage value, {@link DataWord#ZERO} if there is no such row,
+         *         null if the row is not found in the kept layers
+         */
+        public DataWord getStorageValue(byte[] addr, DataWord key) {
+            synchronized (SnapshotLayers.this) {
+                Layer layer = nearest(storageIndex.get(storageKey(addr, key)), clearedIndex.get(addr));
+                return layer == null ? null : layer.diff.getStorageValue(addr, key);
+            }
+        }
+
+        // the closest layer of the given ones this layer is built on, the layer itself included
+        private Layer nearest(List<Layer> changed, List<Layer> cleared) {
+            Layer nearest = null;
+            if (changed != null) {
+                for (Layer layer : changed) {
+                    if (isBuiltOn(layer) && (nearest == null || layer.depth > nearest.depth)) nearest = layer;
+                }
+            }
+            if (cleared != null) {
+                for (Layer layer : cleared) {
+                    if (isBuiltOn(layer) && (nearest == null || layer.depth > nearest.depth)) nearest = layer;
+                }
+            }
+            return nearest;
+        }
+
+        private boolean isBuiltOn(Layer layer) {
+            int distance = depth - layer.depth;
+            return distance >= 0 && distance < ancestors.length && ancestors[distance] == layer && !layer.evicted;
+        }
+    }
+
+    private final int maxLayers;
+
+    // guarded by this
+    private final Map<byte[], Layer> layers = new ByteArrayHashMap<>(32);
+    private final TreeMap<Integer, List<Layer>> depths = new TreeMap<>();
+    private int headDepth = -1;
+
+    // the layers changing the account, the storage row [address, key] and clearing the storage
+    private final Map<byte[], List<Layer>> accountIndex = new ByteArrayHashMap<>(20);
+    private final Map<byte[], List<Layer>> storageIndex = new ByteArrayHashMap<>(20 + 32);
+    private final Map<byte[], List<Layer>> clearedIndex = new ByteArrayHashMap<>(20);
+
+    /**
+     * @param maxLayers number of the last blocks kept, 0 to keep none
+     */
+    public SnapshotLayers(int maxLayers) {
+        this.maxLayers = maxLayers;
+    }
+
+    public boolean isEnabled() {
+        return maxLayers > 0;
+    }
+
+    /**
+     * Adds the state resulting from the block applied on top of the parent state.
+     * The layers are kept as long as they are within the configured number of
+     * blocks from the head, so the layers of an abandoned branch are dropped
+     * once the head is far enough and the layers of the head are never dropped for them
+     */
+    public synchronized void addLayer(byte[] parentRoot, byte[] root, Diff diff) {
+        if (!isEnabled() || layers.containsKey(root)) return;
+        // the state wasn't changed, the layer would refer to itself
+        if (Arrays.equals(parentRoot, root)) return;
+
+        Layer parent = layers.get(parentRoot);
+        // a layer not built on the kept ones starts from the head
+        Layer layer = new Layer(root, parentRoot, diff, parent, parent == null ? headDepth + 1 : parent.depth + 1);
+        layers.put(root, layer);
+        add(depths, layer.depth, layer);
+        for (byte[] addr : diff.accounts.keySet()) {
+            add(accountIndex, addr, layer);
+        }
+        for (Map.Entry<byte[], Map<DataWord, DataWord>> entry : diff.storage.entrySet()) {
+            for (DataWord key : entry.getValue().keySet()) {
+                add(storageIndex, storageKey(entry.getKey(), key), layer);
+            }
+        }
+        for (byte[] addr : diff.cleared) {
+            add(clearedIndex, addr, layer);
+        }
+
+        headDepth = Math.max(headDepth, layer.depth);
+        while (!depths.isEmpty() && depths.firstKey() <= headDepth - maxLayers) {
+            for (Layer evicted : depths.pollFirstEntry().getValue()) {
+                evict(evicted);
+            }
+        }
+    }
+
+    private void evict(Layer layer) {
+        layer.evicted = true;
+        // the layers below are not to be held in memory by the ones above
+        Arrays.fill(layer.ancestors, 1, layer.ancestors.length, null);
+        layers.remove(layer.root);
+        for (byte[] addr : layer.diff.accounts.keySet()) {
+            remove(accountIndex, addr, layer);
+        }
+        for (Map.Entry<byte[], Map<DataWord, DataWord>> entry : layer.diff.storage.entrySet()) {
+            for (DataWord key : entry.getValue().keySet()) {
+                remove(storageIndex, storageKey(entry.getKey(), key), layer);
+            }
+        }
+        for (byte[] addr : layer.diff.cleared) {
+            remove(clearedIndex, addr, layer);
+        }
+    }
+
+    private static <K> void add(Map<K, List<Layer>> index, K key, Layer layer) {
+        List<Layer> list = index.get(key);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            index.put(key, list);
+        }
+        list.add(layer);
+    }
+
+    private static <K> void remove(Map<K, List<Layer>> index, K key, Layer layer) {
+        List<Layer> list = index.get(key);
+        if (list == null) return;
+        list.remove(layer);
+        if (list.isEmpty()) index.remove(key);
+    }
+
+    private static byte[] storageKey(byte[] addr, DataWord key) {
+        byte[] ret = Arrays.copyOf(addr, 20 + 32);
+        System.arraycopy(key.getData(), 0, ret, 20, 32);
+        return ret;
+    }
+
+    /**
+     * @return the layer of the state, null if it is not kept
+     */
+    public synchronized Layer getLayer(byte[] root) {
+        return root == null ? null : layers.get(root);
+    }
+
+    public synchronized int size() {
+        return layers.size();
+    }
+}
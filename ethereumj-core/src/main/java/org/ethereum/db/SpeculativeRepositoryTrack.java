@@ -0,0 +1,269 @@
+package org.ethereum.db;
+
+import org.ethereum.config.CommonConfig;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.core.AccountState;
+import org.ethereum.core.Repository;
+import org.ethereum.util.ByteArrayHashMap;
+import org.ethereum.vm.DataWord;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Track used to run a transaction speculatively, concurrently with the other
+ * transactions of the block, on top of the state the block has started with.
+ *
+ * Records the accounts and storage rows the transaction has read and the ones
+ * it has changed, so that once the preceding transactions are committed it can
+ * be told whether the result is still the one of the serial execution.
+ *
+ * Every transaction pays its fee to the coinbase which would make any two of
+ * them conflict. Thus unless the transaction looks at the coinbase account
+ * itself the fees are summed up here and paid on commit.
+ *
+ * All the reads of the shared state are done under the parent repository lock,
+ * the same one {@link RepositoryTrack} synchronizes on.
+ *
+ * @see org.ethereum.core.ParallelBlockExecutor
+ */
+public class SpeculativeRepositoryTrack extends RepositoryTrack {
+
+    private final byte[] coinbase;
+
+    // accounts as they were loaded, null for the ones which didn't exist
+    private final ByteArrayHashMap<AccountState> loaded = new ByteArrayHashMap<>(20);
+    // accounts checked for existence without being loaded
+    private final Set<byte[]> checked = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(20));
+    private final ByteArrayHashMap<RecordingDetails> recorded = new ByteArrayHashMap<>(20);
+
+    private BigInteger coinbaseFee = BigInteger.ZERO;
+    private boolean coinbasePaid;
+
+    public SpeculativeRepositoryTrack(Repository repository, byte[] coinbase,
+                                      SystemProperties config, CommonConfig commonConfig) {
+        super(repository, config, commonConfig);
+        this.coinbase = coinbase;
+    }
+
+    @Override
+    protected void loadFromParent(byte[] addr) {
+        boolean exists = repository.isExist(addr);
+        super.loadFromParent(addr);
+
+        AccountState accountState = cacheAccounts.get(addr);
+        loaded.put(addr, exists ? accountState.clone() : null);
+
+        ContractDetailsCacheImpl details = (ContractDetailsCacheImpl) cacheDetails.get(addr);
+        RecordingDetails recordingDetails = new RecordingDetails(details.origContract, repository);
+        cacheDetails.put(addr, recordingDetails);
+        recorded.put(addr, recordingDetails);
+
+        if (coinbasePaid && Arrays.equals(addr, coinbase)) {
+            accountState.addToBalance(coinbaseFee);
+            recordingDetails.setDirty(true);
+            coinbaseFee = BigInteger.ZERO;
+            coinbasePaid = false;
+        }
+    }
+
+    @Override
+    public boolean isExist(byte[] addr) {
+        synchronized (repository) {
+            checkAccount(addr);
+            return super.isExist(addr);
+        }
+    }
+
+    @Override
+    public boolean hasContractDetails(byte[] addr) {
+        synchronized (repository) {
+            checkAccount(addr);
+            return super.hasContractDetails(addr);
+        }
+    }
+
+    private void checkAccount(byte[] addr) {
+        if (cacheAccounts.containsKey(addr)) return;
+
+        if (coinbasePaid && Arrays.equals(addr, coinbase)) {
+            // the fee may have created the account
+            getAccountState(addr);
+        } else {
+            checked.add(addr);
+        }
+    }
+
+    /**
+     * Fees paid to the coinbase which hasn't been loaded are only summed up,
+     * the sum is returned instead of the balance in that case
+     */
+    @Override
+    public BigInteger addBalance(byte[] addr, BigInteger value) {
+        synchronized (repository) {
+            if (Arrays.equals(addr, coinbase) && !cacheAccounts.containsKey(addr)) {
+                coinbaseFee = coinbaseFee.add(value);
+                coinbasePaid = true;
+                return coinbaseFee;
+            }
+            return super.addBalance(addr, value);
+        }
+    }
+
+    /**
+     * @return true if the transaction has read any of the given accounts
+     *         or storage rows
+     */
+    public boolean hasRead(Set<byte[]> accounts, Map<byte[], Set<DataWord>> storage) {
+        synchronized (repository) {
+            for (byte[] addr : loaded.keySet()) {
+                if (accounts.contains(addr)) return true;
+            }
+            for (byte[] addr : checked) {
+                if (accounts.contains(addr)) return true;
+            }
+            for (Map.Entry<byte[], RecordingDetails> entry : recorded.entrySet()) {
+                Set<DataWord> keys = storage.get(entry.getKey());
+                if (keys != null && entry.getValue().hasRead(keys)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Adds the accounts and storage rows changed by the transaction
+     * to the given ones
+     */
+    public void collectWrites(Set<byte[]> accounts, Map<byte[], Set<DataWord>> storage) {
+        synchronized (repository) {
+            if (coinbasePaid) accounts.add(coinbase);
+
+            for (Map.Entry<byte[], AccountState> entry : cacheAccounts.entrySet()) {
+                byte[] addr = entry.getKey();
+                AccountState accountState = entry.getValue();
+
+                boolean changed;
+                if (!loaded.containsKey(addr)) {
+                    // created without looking at the previous state
+                    changed = true;
+                } else if (loaded.get(addr) == null) {
+                    changed = accountState.isDeleted() || cacheDetails.get(addr).isDirty();
+                } else {
+                    changed = accountState.isDeleted() ||
+                            !Arrays.equals(accountState.getEncoded(), loaded.get(addr).getEncoded());
+                }
+                if (changed) accounts.add(addr);
+            }
+
+            for (Map.Entry<byte[], RecordingDetails> entry : recorded.entrySet()) {
+                Set<DataWord> writes = entry.getValue().writes;
+                if (writes.isEmpty()) continue;
+
+                Set<DataWord> keys = storage.get(entry.getKey());
+                if (keys == null) {
+                    keys = new HashSet<>();
+                    storage.put(entry.getKey(), keys);
+                }
+                keys.addAll(writes);
+            }
+        }
+    }
+
+    /**
+     * Pays the collected fees to the coinbase and commits the changes
+     * on top of the current state of the parent
+     */
+    @Override
+    public void commit() {
+        synchronized (repository) {
+            if (coinbasePaid) getAccountState(coinbase);
+
+            // the details were loaded from the state the block started with
+            // while the storage may have been changed by the preceding transactions
+            for (Map.Entry<byte[], ContractDetails> entry : cacheDetails.entrySet()) {
+                if (entry.getValue() instanceof RecordingDetails) {
+                    RecordingDetails details = (RecordingDetails) entry.getValue();
+                    if (details.origContract != null) {
+                        details.origContract = repository.getContractDetails(entry.getKey());
+                    }
+                }
+            }
+
+            super.commit();
+        }
+    }
+
+    /**
+     * Remembers the storage rows read from the parent and the ones changed
+     */
+    static class RecordingDetails extends ContractDetailsCacheImpl {
+
+        // the details of the parent are shared between the speculative tracks
+        private final Object lock;
+
+        final Set<DataWord> reads = new HashSet<>();
+        final Set<DataWord> writes = new HashSet<>();
+        // the whole storage has been looked at
+        boolean allRead;
+
+        RecordingDetails(ContractDetails origContract, Object lock) {
+            super(origContract);
+            this.lock = lock;
+        }
+
+        @Override
+        public DataWord get(DataWord key) {
+            synchronized (lock) {
+                reads.add(key.clone());
+                return super.get(key);
+            }
+        }
+
+        @Override
+        public void put(DataWord key, DataWord value) {
+            synchronized (lock) {
+                // child tracks put back the rows they have only read too
+                if (!sameValue(super.get(key), value)) writes.add(key.clone());
+                super.put(key, value);
+            }
+        }
+
+        @Override
+        public int getStorageSize() {
+            synchronized (lock) {
+                allRead = true;
+                return super.getStorageSize();
+            }
+        }
+
+        @Override
+        public Set<DataWord> getStorageKeys() {
+            synchronized (lock) {
+                allRead = true;
+                return super.getStorageKeys();
+            }
+        }
+
+        @Override
+        public void commit() {
+            synchronized (lock) {
+                super.commit();
+            }
+        }
+
+        boolean hasRead(Set<DataWord> keys) {
+            if (keys.isEmpty()) return false;
+            if (allRead) return true;
+            for (DataWord key : reads) {
+                if (keys.contains(key)) return true;
+            }
+            return false;
+        }
+
+        private static boolean sameValue(DataWord a, DataWord b) {
+            boolean aZero = a == null || a.isZero();
+            boolean bZero = b == null || b.isZero();
+            return aZero || bZero ? aZero == bZero : a.equals(b);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.ethereum.manager;
 
+import org.ethereum.vm.program.ProgramPrecompile;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
@@ -59,4 +60,21 @@ public class AdminInfo {
     public List<Long> getBlockExecTime(){
         return blockExecTime;
     }
+
+    /**
+     * Number of program runs which reused a cached code analysis
+     */
+    public long getCodeAnalysisCacheHits() {
+        return ProgramPrecompile.getCacheHits();
+    }
+
+    public long getCodeAnalysisCacheMisses() {
+        return ProgramPrecompile.getCacheMisses();
+    }
+
+    public double getCodeAnalysisCacheHitRate() {
+        long hits = getCodeAnalysisCacheHits();
+        long total = hits + getCodeAnalysisCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
 }
@@ -61,9 +61,7 @@ public class BlockLoader {
         exec1 = new ExecutorPipeline(8, 1000, true, new Functional.Function<Block, Block>() {
             @Override
             public Block apply(Block b) {
-                for (Transaction tx : b.getTransactionsList()) {
-                    tx.getSender();
-                }
+                SenderRecovery.getInstance().recover(b.getTransactionsList());
                 return b;
             }
         }, new Functional.Consumer<Throwable>() {
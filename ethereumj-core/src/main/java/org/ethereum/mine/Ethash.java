@@ -13,13 +13,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.longToBytes;
 
 /**
- * More high level validator/miner class which keeps a cache for the last requested block epoch
+ * More high level validator/miner class which keeps caches for the recently requested block epochs
  *
  * Created by Anton Nashatyrev on 04.12.2015.
  */
@@ -27,114 +32,234 @@ public class Ethash {
     private static final Logger logger = LoggerFactory.getLogger("mine");
     private static EthashParams ethashParams = new EthashParams();
 
-    private static Ethash cachedInstance = null;
-    private static long cachedBlockEpoch = 0;
+    // the previous, the current and the next epochs
+    private static final int MAX_CACHED_EPOCHS = 3;
+    // the next epoch is prepared when the block is that close to it
+    private static final long NEXT_EPOCH_PREPARE_BLOCKS = 1000;
+    // the files of the light cache and the full dataset of an epoch, see getFile()
+    private static final Pattern EPOCH_FILE = Pattern.compile("mine-dag(-light)?-(\\d{1,9})\\.dat");
+    private static final AtomicBoolean legacyFilesDeleted = new AtomicBoolean();
+
+    private static final ConcurrentMap<Long, Ethash> cachedInstances = new ConcurrentHashMap<>();
+    private static final AtomicLong useCounter = new AtomicLong();
+
 //    private static ExecutorService executor = Executors.newSingleThreadExecutor();
     private static ListeningExecutorService executor = MoreExecutors.listeningDecorator(
         new ThreadPoolExecutor(8, 8, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()));
 
+    private static final ExecutorService prepareExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ethash-prepare");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     public static boolean fileCacheEnabled = true;
 
     /**
-     * Returns instance for the specified block number either from cache or calculates a new one
+     * Returns instance for the specified block number either from cache or creates a new one.
+     * When the block is close to the next epoch the next epoch light cache is calculated
+     * in background
      */
     public static Ethash getForBlock(SystemProperties config, long blockNumber) {
-        long epoch = blockNumber / ethashParams.getEPOCH_LENGTH();
-        if (cachedInstance == null || epoch != cachedBlockEpoch) {
-            cachedInstance = new Ethash(config, epoch * ethashParams.getEPOCH_LENGTH());
-            cachedBlockEpoch = epoch;
+        return getForBlock(config, blockNumber, false);
+    }
+
+    /**
+     * @param prepareFull whether the full dataset is to be prepared for the next epoch
+     *                    in addition to the light cache
+     */
+    public static Ethash getForBlock(SystemProperties config, long blockNumber, boolean prepareFull) {
+        long epochLength = ethashParams.getEPOCH_LENGTH();
+        Ethash ethash = getForEpoch(config, blockNumber / epochLength);
+        if (blockNumber % epochLength >= epochLength - NEXT_EPOCH_PREPARE_BLOCKS) {
+            getForEpoch(config, blockNumber / epochLength + 1).prepare(prepareFull);
+        }
+        return ethash;
+    }
+
+    private static Ethash getForEpoch(SystemProperties config, long epoch) {
+        Ethash ethash = cachedInstances.get(epoch);
+        if (ethash == null) {
+            Ethash newInstance = new Ethash(config, epoch * ethashParams.getEPOCH_LENGTH());
+            ethash = cachedInstances.putIfAbsent(epoch, newInstance);
+            if (ethash == null) {
+                ethash = newInstance;
+                evictInstances(epoch);
+                deleteOldFiles(config, epoch);
+            }
+        }
+        ethash.lastUsed = useCounter.incrementAndGet();
+        return ethash;
+    }
+
+    private static synchronized void evictInstances(long keepEpoch) {
+        while (cachedInstances.size() > MAX_CACHED_EPOCHS) {
+            Map.Entry<Long, Ethash> lru = null;
+            for (Map.Entry<Long, Ethash> entry : cachedInstances.entrySet()) {
+                if (entry.getKey() != keepEpoch && (lru == null || entry.getValue().lastUsed < lru.getValue().lastUsed)) {
+                    lru = entry;
+                }
+            }
+            if (lru == null || !cachedInstances.remove(lru.getKey(), lru.getValue())) return;
+            // the files are kept, the epoch may be needed again
+            logger.info("Ethash epoch " + lru.getKey() + " evicted from cache");
         }
-        return cachedInstance;
+    }
+
+    /**
+     * Deletes the files of the epochs which are older than the kept ones
+     * relative to the given epoch, and the files of the single epoch
+     * cache of the earlier versions once
+     */
+    private static void deleteOldFiles(final SystemProperties config, final long epoch) {
+        if (!fileCacheEnabled) return;
+
+        prepareExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = new File(config.databaseDir()).listFiles();
+                if (files == null) return;
+
+                boolean legacy = legacyFilesDeleted.compareAndSet(false, true);
+                for (File file : files) {
+                    Matcher m = EPOCH_FILE.matcher(file.getName());
+                    boolean old = m.matches() && Long.parseLong(m.group(2)) <= epoch - MAX_CACHED_EPOCHS;
+                    boolean legacyFile = legacy &&
+                            (file.getName().equals("mine-dag.dat") || file.getName().equals("mine-dag-light.dat"));
+                    if (old || legacyFile) {
+                        logger.info("Deleting Ethash file " + file.getAbsolutePath());
+                        if (!file.delete()) logger.warn("Couldn't delete " + file.getAbsolutePath());
+                    }
+                }
+            }
+        });
     }
 
     private EthashAlgo ethashAlgo = new EthashAlgo(ethashParams);
 
     private long blockNumber;
-    private int[] cacheLight = null;
-    private int[] fullData = null;
+    private volatile int[] cacheLight = null;
+    private volatile EthashDataset fullData = null;
     private SystemProperties config;
 
+    private final Object lightLock = new Object();
+    private final Object fullLock = new Object();
+    private final AtomicBoolean lightPrepared = new AtomicBoolean();
+    private final AtomicBoolean fullPrepared = new AtomicBoolean();
+    private volatile long lastUsed;
+
     public Ethash(SystemProperties config, long blockNumber) {
         this.config = config;
         this.blockNumber = blockNumber;
     }
 
-    public synchronized int[] getCacheLight() {
-        if (cacheLight == null) {
-            File file = new File(config.databaseDir(), "mine-dag-light.dat");
-            if (fileCacheEnabled && file.canRead()) {
-                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+    private File getFile(String name) {
+        return new File(config.databaseDir(), name + "-" + blockNumber / ethashParams.getEPOCH_LENGTH() + ".dat");
+    }
+
+    /**
+     * Calculates the light cache and optionally the full dataset in background
+     * unless they are being calculated already
+     */
+    private void prepare(final boolean full) {
+        boolean lightNew = lightPrepared.compareAndSet(false, true);
+        boolean fullNew = full && fullPrepared.compareAndSet(false, true);
+        if (!lightNew && !fullNew) return;
+
+        prepareExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    logger.info("Preparing Ethash for block " + blockNumber + (full ? " with full dataset" : ""));
+                    getCacheLight();
+                    if (full) getFullDataset();
+                } catch (Exception e) {
+                    logger.error("Error preparing Ethash for block " + blockNumber, e);
+                }
+            }
+        });
+    }
+
+    public int[] getCacheLight() {
+        if (cacheLight != null) return cacheLight;
+
+        synchronized (lightLock) {
+            if (cacheLight != null) return cacheLight;
+
+            int[] cache = null;
+            File file = getFile("mine-dag-light");
+            long cacheSize = getEthashAlgo().getParams().getCacheSize(blockNumber);
+            if (fileCacheEnabled) {
+                try {
                     logger.info("Loading light dataset from " + file.getAbsolutePath());
-                    long bNum = ois.readLong();
-                    if (bNum == blockNumber) {
-                        cacheLight = (int[]) ois.readObject();
-                        logger.info("Dataset loaded.");
-                    } else {
-                        logger.info("Dataset block number miss: " + bNum + " != " + blockNumber);
-                    }
-                } catch (IOException | ClassNotFoundException e) {
+                    cache = EthashDataset.readCache(file, blockNumber, cacheSize);
+                    logger.info(cache != null ? "Dataset loaded." : "No light dataset for block " + blockNumber);
+                } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }
 
-            if (cacheLight == null) {
+            if (cache == null) {
                 logger.info("Calculating light dataset...");
-                cacheLight = getEthashAlgo().makeCache(getEthashAlgo().getParams().getCacheSize(blockNumber),
-                        getEthashAlgo().getSeedHash(blockNumber));
+                cache = getEthashAlgo().makeCache(cacheSize, getEthashAlgo().getSeedHash(blockNumber));
                 logger.info("Light dataset calculated.");
 
                 if (fileCacheEnabled) {
-                    file.getParentFile().mkdirs();
-                    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))){
+                    try {
                         logger.info("Writing light dataset to " + file.getAbsolutePath());
-                        oos.writeLong(blockNumber);
-                        oos.writeObject(cacheLight);
+                        EthashDataset.writeCache(file, blockNumber, cache);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
                 }
             }
+            cacheLight = cache;
+            return cache;
         }
-        return cacheLight;
     }
 
-    public synchronized int[] getFullDataset() {
-        if (fullData == null) {
-            File file = new File(config.databaseDir(), "mine-dag.dat");
-            if (fileCacheEnabled && file.canRead()) {
-                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                    logger.info("Loading dataset from " + file.getAbsolutePath());
-                    long bNum = ois.readLong();
-                    if (bNum == blockNumber) {
-                        fullData = (int[]) ois.readObject();
-                        logger.info("Dataset loaded.");
-                    } else {
-                        logger.info("Dataset block number miss: " + bNum + " != " + blockNumber);
-                    }
-                } catch (IOException | ClassNotFoundException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-
-            if (fullData == null){
+    /**
+     * Returns the full dataset. With the file cache enabled the dataset is generated
+     * right into the file and is mapped from it then, so it is not kept on the heap
+     */
+    public EthashDataset getFullDataset() {
+        if (fullData != null) return fullData;
 
-                logger.info("Calculating full dataset...");
-                fullData = getEthashAlgo().calcDataset(getFullSize(), getCacheLight());
-                logger.info("Full dataset calculated.");
+        synchronized (fullLock) {
+            if (fullData != null) return fullData;
 
+            EthashDataset dataset = null;
+            File file = getFile("mine-dag");
+            int hashBytes = getEthashAlgo().getParams().getHASH_BYTES();
+            try {
                 if (fileCacheEnabled) {
-                    file.getParentFile().mkdirs();
-                    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                        logger.info("Writing dataset to " + file.getAbsolutePath());
-                        oos.writeLong(blockNumber);
-                        oos.writeObject(fullData);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
+                    logger.info("Loading dataset from " + file.getAbsolutePath());
+                    dataset = EthashDataset.open(file, blockNumber, getFullSize(), hashBytes);
+                    logger.info(dataset != null ? "Dataset loaded." : "No dataset for block " + blockNumber);
+                }
+
+                if (dataset == null) {
+                    int[] cache = getCacheLight();
+                    dataset = fileCacheEnabled ?
+                            EthashDataset.create(file, blockNumber, getFullSize(), hashBytes) :
+                            EthashDataset.allocate(getFullSize(), hashBytes);
+
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    logger.info("Calculating full dataset on " + threads + " threads...");
+                    long s = System.currentTimeMillis();
+                    getEthashAlgo().calcDataset(cache, dataset, threads);
+                    dataset.complete();
+                    logger.info("Full dataset calculated in " + (System.currentTimeMillis() - s) / 1000 + " sec.");
                 }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
+            fullData = dataset;
+            return dataset;
         }
-        return fullData;
     }
 
     private long getFullSize() {
@@ -2,18 +2,21 @@ package org.ethereum.mine;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.crypto.HashUtil;
-import org.spongycastle.util.Arrays;
+import org.spongycastle.util.BigIntegers;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.System.arraycopy;
 import static java.math.BigInteger.valueOf;
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.*;
-import static org.spongycastle.util.Arrays.reverse;
 
 /**
  * The Ethash algorithm described in https://github.com/ethereum/wiki/wiki/Ethash
@@ -23,6 +26,34 @@ import static org.spongycastle.util.Arrays.reverse;
 public class EthashAlgo {
     EthashParams params;
 
+    /**
+     * Preallocated buffers of the hashimoto loop, so that no objects are created per hash
+     */
+    private static class Context {
+        final long[] state = new long[25];
+        final int[] headerHash = new int[8];
+        // header hash with nonce, then seed with compressed mix
+        final int[] input = new int[24];
+        final int[] seed = new int[16];
+        final int[] mix;
+        final int[] item;
+        final int[] cmix;
+        final int[] result = new int[8];
+
+        Context(EthashParams params) {
+            mix = new int[params.getMIX_BYTES() / 4];
+            item = new int[params.getHASH_BYTES() / 4];
+            cmix = new int[mix.length / 4];
+        }
+    }
+
+    private final ThreadLocal<Context> contexts = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context(params);
+        }
+    };
+
     public EthashAlgo() {
         this(new EthashParams());
     }
@@ -97,53 +128,127 @@ public class EthashAlgo {
         return (v1 * FNV_PRIME) ^ v2;
     }
 
-    int[] sha512(int[] arr, boolean bigEndian) {
-        byte[] bytesTmp = new byte[arr.length << 2];
-        intsToBytes(arr, bytesTmp, bigEndian);
-        bytesTmp = HashUtil.sha512(bytesTmp);
-        bytesToInts(bytesTmp, arr, bigEndian);
-        return arr;
+    public final int[] calcDatasetItem(final int[] cache, final int i) {
+        return calcDatasetItem(cache, i, new int[params.getHASH_BYTES() / params.getWORD_BYTES()]);
     }
 
-    public final int[] calcDatasetItem(final int[] cache, final int i) {
+    /**
+     * Calculates the dataset item into the mix array of HASH_BYTES / WORD_BYTES length
+     */
+    public final int[] calcDatasetItem(final int[] cache, final int i, int[] mix) {
+        return calcDatasetItem(cache, i, mix, contexts.get().state);
+    }
+
+    private int[] calcDatasetItem(final int[] cache, final int i, final int[] mix, final long[] state) {
         final int r = params.getHASH_BYTES() / params.getWORD_BYTES();
         final int n = cache.length / r;
-        int[] mix = Arrays.copyOfRange(cache, i % n * r, (i % n + 1) * r);
+        arraycopy(cache, i % n * r, mix, 0, r);
 
         mix[0] = i ^ mix[0];
-        mix = sha512(mix, false);
+        EthashKeccak.sha512(state, mix, 0, r, mix, 0);
         final int dsParents = (int) params.getDATASET_PARENTS();
-        final int mixLen = mix.length;
         for (int j = 0; j < dsParents; j++) {
             int cacheIdx = fnv(i ^ j, mix[j % r]);
             cacheIdx = remainderUnsigned(cacheIdx, n);
             int off = cacheIdx * r;
-            for (int k = 0; k < mixLen; k++) {
+            for (int k = 0; k < r; k++) {
                 mix[k] = fnv(mix[k], cache[off + k]);
             }
         }
-        return sha512(mix, false);
+        EthashKeccak.sha512(state, mix, 0, r, mix, 0);
+        return mix;
     }
 
     public int[] calcDataset(long fullSize, int[] cache) {
         int hashesCount = (int) (fullSize / params.getHASH_BYTES());
         int[] ret = new int[hashesCount * (params.getHASH_BYTES() / 4)];
-        for (int i = 0; i < hashesCount; i++) {
-            int[] item = calcDatasetItem(cache, i);
-            arraycopy(item, 0, ret, i * (params.getHASH_BYTES() / 4), item.length);
-        }
+        calcDataset(cache, EthashDataset.wrap(ret, params.getHASH_BYTES()), Runtime.getRuntime().availableProcessors());
         return ret;
     }
 
+    /**
+     * Calculates the dataset items in parallel, each thread fills its own range of items
+     */
+    public void calcDataset(final int[] cache, final EthashDataset dataset, int threads) {
+        final int hashesCount = dataset.getItemCount();
+        final int perThread = (hashesCount + threads - 1) / threads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private AtomicInteger cnt = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ethash-dag-" + cnt.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int from = t * perThread;
+                final int to = Math.min(hashesCount, from + perThread);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int[] item = new int[params.getHASH_BYTES() / params.getWORD_BYTES()];
+                        for (int i = from; i < to; i++) {
+                            dataset.setItem(i, calcDatasetItem(cache, i, item));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     public Pair<byte[], byte[]> hashimoto(byte[] blockHeaderTruncHash, byte[] nonce, long fullSize,
                                           int[] cacheOrDataset, boolean full) {
+        return full ? hashimoto(blockHeaderTruncHash, nonce, fullSize, null,
+                EthashDataset.wrap(cacheOrDataset, params.getHASH_BYTES())) :
+                hashimoto(blockHeaderTruncHash, nonce, fullSize, cacheOrDataset, null);
+    }
+
+    /**
+     * Takes the items from the dataset if it's specified, calculates them from the cache otherwise
+     */
+    private Pair<byte[], byte[]> hashimoto(byte[] blockHeaderTruncHash, byte[] nonce, long fullSize,
+                                           int[] cache, EthashDataset dataset) {
         if (nonce.length != 8) throw new RuntimeException("nonce.length != 8");
 
+        Context ctx = contexts.get();
+        bytesToInts(blockHeaderTruncHash, ctx.headerHash, false);
+        hashimoto(ctx, byteArrayToLong(nonce), fullSize, cache, dataset);
+
+        return Pair.of(intsToBytes(ctx.cmix, false), intsToBytes(ctx.result, false));
+    }
+
+    /**
+     * Hashes the ctx.headerHash with the nonce leaving the mix hash in ctx.cmix and
+     * the result in ctx.result
+     */
+    private void hashimoto(Context ctx, long nonce, long fullSize, int[] cache, EthashDataset dataset) {
         int hashWords = params.getHASH_BYTES() / 4;
         int w = params.getMIX_BYTES() / params.getWORD_BYTES();
         int mixhashes = params.getMIX_BYTES() / params.getHASH_BYTES();
-        int[] s = bytesToInts(HashUtil.sha512(merge(blockHeaderTruncHash, reverse(nonce))), false);
-        int[] mix = new int[params.getMIX_BYTES() / 4];
+        int[] s = ctx.seed;
+        int[] mix = ctx.mix;
+        int[] item = ctx.item;
+
+        // the nonce bytes are taken in Little Endian order
+        int[] input = ctx.input;
+        arraycopy(ctx.headerHash, 0, input, 0, 8);
+        input[8] = (int) nonce;
+        input[9] = (int) (nonce >>> 32);
+        EthashKeccak.sha512(ctx.state, input, 0, 10, s, 0);
         for (int i = 0; i < mixhashes; i++) {
             arraycopy(s, 0, mix, i * s.length, s.length);
         }
@@ -151,23 +256,22 @@ public class EthashAlgo {
         int numFullPages = (int) (fullSize / params.getMIX_BYTES());
         for (int i = 0; i < params.getACCESSES(); i++) {
             int p = remainderUnsigned(fnv(i ^ s[0], mix[i % w]), numFullPages);
-            int[] newData = new int[mix.length];
             int off = p * mixhashes;
             for (int j = 0; j < mixhashes; j++) {
                 int itemIdx = off + j;
-                if (!full) {
-                    int[] lookup1 = calcDatasetItem(cacheOrDataset, itemIdx);
-                    arraycopy(lookup1, 0, newData, j * lookup1.length, lookup1.length);
+                if (dataset == null) {
+                    calcDatasetItem(cache, itemIdx, item, ctx.state);
                 } else {
-                    arraycopy(cacheOrDataset, itemIdx * hashWords, newData, j * hashWords, hashWords);
+                    dataset.getItem(itemIdx, item, 0);
+                }
+                int mixOff = j * hashWords;
+                for (int k = 0; k < hashWords; k++) {
+                    mix[mixOff + k] = fnv(mix[mixOff + k], item[k]);
                 }
-            }
-            for (int i1 = 0; i1 < mix.length; i1++) {
-                mix[i1] = fnv(mix[i1], newData[i1]);
             }
         }
 
-        int[] cmix = new int[mix.length / 4];
+        int[] cmix = ctx.cmix;
         for (int i = 0; i < mix.length; i += 4 /* ? */) {
             int fnv1 = fnv(mix[i], mix[i + 1]);
             int fnv2 = fnv(fnv1, mix[i + 2]);
@@ -175,7 +279,9 @@ public class EthashAlgo {
             cmix[i >> 2] = fnv3;
         }
 
-        return Pair.of(intsToBytes(cmix, false), sha3(merge(intsToBytes(s, false), intsToBytes(cmix, false))));
+        arraycopy(s, 0, input, 0, s.length);
+        arraycopy(cmix, 0, input, s.length, cmix.length);
+        EthashKeccak.sha3(ctx.state, input, 0, s.length + cmix.length, ctx.result, 0);
     }
 
     public Pair<byte[], byte[]> hashimotoLight(long fullSize, final int[] cache, byte[] blockHeaderTruncHash,
@@ -188,16 +294,20 @@ public class EthashAlgo {
         return hashimoto(blockHeaderTruncHash, nonce, fullSize, dataset, true);
     }
 
+    /**
+     * Reads the items from the dataset which may be mapped from the file
+     */
+    public Pair<byte[], byte[]> hashimotoFull(long fullSize, final EthashDataset dataset, byte[] blockHeaderTruncHash,
+                                              byte[]  nonce) {
+        return hashimoto(blockHeaderTruncHash, nonce, fullSize, null, dataset);
+    }
+
     public long mine(long fullSize, int[] dataset, byte[] blockHeaderTruncHash, long difficulty) {
-        BigInteger target = valueOf(2).pow(256).divide(valueOf(difficulty));
-        long nonce = new Random().nextLong();
-        while(!Thread.currentThread().isInterrupted()) {
-            nonce++;
-            Pair<byte[], byte[]> pair = hashimotoFull(fullSize, dataset, blockHeaderTruncHash, longToBytes(nonce));
-            BigInteger h = new BigInteger(1, pair.getRight() /* ?? */);
-            if (h.compareTo(target) < 0) break;
-        }
-        return nonce;
+        return mine(fullSize, EthashDataset.wrap(dataset, params.getHASH_BYTES()), blockHeaderTruncHash, difficulty);
+    }
+
+    public long mine(long fullSize, EthashDataset dataset, byte[] blockHeaderTruncHash, long difficulty) {
+        return mine(fullSize, null, dataset, blockHeaderTruncHash, difficulty);
     }
 
     /**
@@ -205,17 +315,51 @@ public class EthashAlgo {
      * regular {@link #mine} method
      */
     public long mineLight(long fullSize, final int[] cache, byte[] blockHeaderTruncHash, long difficulty) {
-        BigInteger target = valueOf(2).pow(256).divide(valueOf(difficulty));
+        return mine(fullSize, cache, null, blockHeaderTruncHash, difficulty);
+    }
+
+    private long mine(long fullSize, int[] cache, EthashDataset dataset, byte[] blockHeaderTruncHash, long difficulty) {
+        long[] boundary = getBoundary(difficulty);
+        Context ctx = contexts.get();
+        bytesToInts(blockHeaderTruncHash, ctx.headerHash, false);
         long nonce = new Random().nextLong();
         while(!Thread.currentThread().isInterrupted()) {
             nonce++;
-            Pair<byte[], byte[]> pair = hashimotoLight(fullSize, cache, blockHeaderTruncHash, longToBytes(nonce));
-            BigInteger h = new BigInteger(1, pair.getRight() /* ?? */);
-            if (h.compareTo(target) < 0) break;
+            hashimoto(ctx, nonce, fullSize, cache, dataset);
+            if (isBelowBoundary(ctx.result, boundary)) break;
         }
         return nonce;
     }
 
+    /**
+     * @return the largest hash meeting the difficulty, i.e. 2^256 / difficulty - 1,
+     * as four big-endian longs
+     */
+    static long[] getBoundary(long difficulty) {
+        BigInteger target = valueOf(2).pow(256).divide(valueOf(difficulty)).subtract(BigInteger.ONE);
+        byte[] bytes = BigIntegers.asUnsignedByteArray(32, target);
+        long[] ret = new long[4];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ByteBuffer.wrap(bytes).getLong(i * 8);
+        }
+        return ret;
+    }
+
+    /**
+     * Compares the hash words as unsigned big-endian number with the boundary
+     * from {@link #getBoundary}
+     */
+    static boolean isBelowBoundary(int[] hash, long[] boundary) {
+        for (int i = 0; i < boundary.length; i++) {
+            // the words are Little-Endian
+            long h = Long.reverseBytes((hash[i * 2] & 0xFFFFFFFFL) | ((long) hash[i * 2 + 1] << 32));
+            if (h != boundary[i]) {
+                return h + Long.MIN_VALUE < boundary[i] + Long.MIN_VALUE;
+            }
+        }
+        return true;
+    }
+
     public byte[] getSeedHash(long blockNumber) {
         byte[] ret = new byte[32];
         for (int i = 0; i < blockNumber / params.getEPOCH_LENGTH(); i++) {
@@ -0,0 +1,213 @@
+package org.ethereum.mine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The Ethash full dataset (DAG) either kept in a file mapped into memory
+ * or on the heap when the file cache is disabled
+ *
+ * The file layout is a header of three longs: magic, block number and dataset size,
+ * followed by the dataset items as little-endian ints. The magic is written
+ * after the whole dataset is, so the partially written file isn't loaded.
+ * The file is mapped by chunks since a single mapping is limited to 2Gb.
+ *
+ * The light cache is kept in the same layout, see {@link #writeCache} and {@link #readCache}
+ */
+public class EthashDataset implements Closeable {
+
+    private static final long MAGIC = 0x45746861736844L; // "EthashD"
+    private static final int HEADER_SIZE = 24;
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final IntBuffer[] chunks;
+    private final int chunkItems;
+    private final int itemWords;
+    private final long fullSize;
+
+    private RandomAccessFile file;
+
+    private EthashDataset(IntBuffer[] chunks, int chunkItems, int itemWords, long fullSize, RandomAccessFile file) {
+        this.chunks = chunks;
+        this.chunkItems = chunkItems;
+        this.itemWords = itemWords;
+        this.fullSize = fullSize;
+        this.file = file;
+    }
+
+    /**
+     * Creates the dataset on the heap
+     */
+    public static EthashDataset allocate(long fullSize, int hashBytes) {
+        int chunkItems = (int) (CHUNK_SIZE / hashBytes);
+        IntBuffer[] chunks = new IntBuffer[chunkCount(fullSize)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = IntBuffer.allocate((int) (chunkSize(fullSize, i) / 4));
+        }
+        return new EthashDataset(chunks, chunkItems, hashBytes / 4, fullSize, null);
+    }
+
+    /**
+     * Wraps the dataset calculated into an array
+     */
+    public static EthashDataset wrap(int[] dataset, int hashBytes) {
+        int itemWords = hashBytes / 4;
+        return new EthashDataset(new IntBuffer[] {IntBuffer.wrap(dataset)}, dataset.length / itemWords,
+                itemWords, dataset.length * 4L, null);
+    }
+
+    /**
+     * Creates the file and maps it for the dataset to be written.
+     * The dataset is loaded by {@link #open} only after {@link #complete} is called
+     */
+    public static EthashDataset create(File file, long blockNumber, long fullSize, int hashBytes) throws IOException {
+        file.getParentFile().mkdirs();
+        file.delete();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(HEADER_SIZE + fullSize);
+            raf.writeLong(0);
+            raf.writeLong(blockNumber);
+            raf.writeLong(fullSize);
+            return map(raf, FileChannel.MapMode.READ_WRITE, fullSize, hashBytes);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps the dataset written earlier
+     *
+     * @return null if there is no complete dataset for the block in the file
+     */
+    public static EthashDataset open(File file, long blockNumber, long fullSize, int hashBytes) throws IOException {
+        if (!file.canRead()) return null;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() != HEADER_SIZE + fullSize || raf.readLong() != MAGIC ||
+                    raf.readLong() != blockNumber || raf.readLong() != fullSize) {
+                raf.close();
+                return null;
+            }
+            return map(raf, FileChannel.MapMode.READ_ONLY, fullSize, hashBytes);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private static EthashDataset map(RandomAccessFile raf, FileChannel.MapMode mode, long fullSize, int hashBytes)
+            throws IOException {
+        IntBuffer[] chunks = new IntBuffer[chunkCount(fullSize)];
+        for (int i = 0; i < chunks.length; i++) {
+            MappedByteBuffer mapped = raf.getChannel().map(mode, HEADER_SIZE + i * CHUNK_SIZE, chunkSize(fullSize, i));
+            chunks[i] = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        return new EthashDataset(chunks, (int) (CHUNK_SIZE / hashBytes), hashBytes / 4, fullSize, raf);
+    }
+
+    private static int chunkCount(long fullSize) {
+        return (int) ((fullSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+    }
+
+    private static long chunkSize(long fullSize, int chunk) {
+        return Math.min(CHUNK_SIZE, fullSize - chunk * CHUNK_SIZE);
+    }
+
+    public long getFullSize() {
+        return fullSize;
+    }
+
+    public int getItemCount() {
+        return (int) (fullSize / (itemWords * 4));
+    }
+
+    /**
+     * Copies the item into the array. Safe to be called concurrently
+     */
+    public void getItem(int idx, int[] dst, int dstOff) {
+        IntBuffer chunk = chunks[idx / chunkItems];
+        int off = (idx % chunkItems) * itemWords;
+        for (int i = 0; i < itemWords; i++) {
+            dst[dstOff + i] = chunk.get(off + i);
+        }
+    }
+
+    /**
+     * Sets the item. Different items may be set concurrently
+     */
+    public void setItem(int idx, int[] src) {
+        IntBuffer chunk = chunks[idx / chunkItems];
+        int off = (idx % chunkItems) * itemWords;
+        for (int i = 0; i < itemWords; i++) {
+            chunk.put(off + i, src[i]);
+        }
+    }
+
+    /**
+     * Flushes the items written to the file and marks the file as complete
+     */
+    public synchronized void complete() throws IOException {
+        if (file == null) return;
+        file.getChannel().force(false);
+        file.seek(0);
+        file.writeLong(MAGIC);
+        file.getChannel().force(false);
+    }
+
+    /**
+     * Closes the file. The mapping is released when the dataset is garbage collected
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    /**
+     * Writes the light cache in the dataset file layout
+     */
+    public static void writeCache(File file, long blockNumber, int[] cache) throws IOException {
+        EthashDataset dataset = create(file, blockNumber, cache.length * 4L, 4);
+        try {
+            int pos = 0;
+            for (IntBuffer chunk : dataset.chunks) {
+                int len = chunk.capacity();
+                chunk.put(cache, pos, len);
+                pos += len;
+            }
+            dataset.complete();
+        } finally {
+            dataset.close();
+        }
+    }
+
+    /**
+     * @return the light cache written by {@link #writeCache}, null if there is no cache for the block
+     */
+    public static int[] readCache(File file, long blockNumber, long cacheSize) throws IOException {
+        EthashDataset dataset = open(file, blockNumber, cacheSize, 4);
+        if (dataset == null) return null;
+        try {
+            int[] cache = new int[(int) (cacheSize / 4)];
+            int pos = 0;
+            for (IntBuffer chunk : dataset.chunks) {
+                int len = chunk.capacity();
+                chunk.get(cache, pos, len);
+                pos += len;
+            }
+            return cache;
+        } finally {
+            dataset.close();
+        }
+    }
+}
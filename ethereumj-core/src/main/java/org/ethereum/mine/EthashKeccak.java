@@ -0,0 +1,113 @@
+package org.ethereum.mine;
+
+/**
+ * Keccak-256 and Keccak-512 of the short inputs Ethash hashes, operating on
+ * the little-endian int words Ethash keeps its data in. The input must fit into
+ * a single block and consist of an even number of words. No objects are allocated,
+ * the state array is supplied by the caller.
+ *
+ * Same results as {@link org.ethereum.crypto.HashUtil#sha3} and {@link org.ethereum.crypto.HashUtil#sha512}
+ * for the bytes of the words.
+ */
+final class EthashKeccak {
+
+    private static final long[] RC = {
+        0x0000000000000001L, 0x0000000000008082L, 0x800000000000808AL, 0x8000000080008000L,
+        0x000000000000808BL, 0x0000000080000001L, 0x8000000080008081L, 0x8000000000008009L,
+        0x000000000000008AL, 0x0000000000000088L, 0x0000000080008009L, 0x000000008000000AL,
+        0x000000008000808BL, 0x800000000000008BL, 0x8000000000008089L, 0x8000000000008003L,
+        0x8000000000008002L, 0x8000000000000080L, 0x000000000000800AL, 0x800000008000000AL,
+        0x8000000080008081L, 0x8000000000008080L, 0x0000000080000001L, 0x8000000080008008L
+    };
+
+    private static final int[] ROTC = {
+        1, 3, 6, 10, 15, 21, 28, 36, 45, 55, 2, 14, 27, 41, 56, 8, 25, 43, 62, 18, 39, 61, 20, 44
+    };
+
+    private static final int[] PILN = {
+        10, 7, 11, 17, 18, 3, 5, 16, 8, 21, 24, 4, 15, 23, 19, 13, 12, 2, 20, 14, 22, 9, 6, 1
+    };
+
+    private EthashKeccak() {
+    }
+
+    /**
+     * Keccak-512 of len words, the 16 words of the hash are written to out
+     */
+    static void sha512(long[] state, int[] in, int inOff, int len, int[] out, int outOff) {
+        hash(state, in, inOff, len, 72, out, outOff, 16);
+    }
+
+    /**
+     * Keccak-256 of len words, the 8 words of the hash are written to out
+     */
+    static void sha3(long[] state, int[] in, int inOff, int len, int[] out, int outOff) {
+        hash(state, in, inOff, len, 136, out, outOff, 8);
+    }
+
+    private static void hash(long[] state, int[] in, int inOff, int len, int rate, int[] out, int outOff, int outLen) {
+        if ((len & 1) != 0 || len * 4 >= rate) {
+            throw new IllegalArgumentException("Unsupported input length: " + len);
+        }
+
+        for (int i = 0; i < 25; i++) state[i] = 0;
+        for (int i = 0; i < len; i += 2) {
+            state[i >> 1] = (in[inOff + i] & 0xFFFFFFFFL) | ((long) in[inOff + i + 1] << 32);
+        }
+        state[len >> 1] ^= 0x01L;
+        state[(rate >> 3) - 1] ^= 0x80L << 56;
+
+        keccakf(state);
+
+        for (int i = 0; i < outLen; i += 2) {
+            long lane = state[i >> 1];
+            out[outOff + i] = (int) lane;
+            out[outOff + i + 1] = (int) (lane >>> 32);
+        }
+    }
+
+    private static void keccakf(long[] st) {
+        for (int round = 0; round < 24; round++) {
+            // theta
+            long c0 = st[0] ^ st[5] ^ st[10] ^ st[15] ^ st[20];
+            long c1 = st[1] ^ st[6] ^ st[11] ^ st[16] ^ st[21];
+            long c2 = st[2] ^ st[7] ^ st[12] ^ st[17] ^ st[22];
+            long c3 = st[3] ^ st[8] ^ st[13] ^ st[18] ^ st[23];
+            long c4 = st[4] ^ st[9] ^ st[14] ^ st[19] ^ st[24];
+            long d0 = c4 ^ Long.rotateLeft(c1, 1);
+            long d1 = c0 ^ Long.rotateLeft(c2, 1);
+            long d2 = c1 ^ Long.rotateLeft(c3, 1);
+            long d3 = c2 ^ Long.rotateLeft(c4, 1);
+            long d4 = c3 ^ Long.rotateLeft(c0, 1);
+            for (int i = 0; i < 25; i += 5) {
+                st[i] ^= d0;
+                st[i + 1] ^= d1;
+                st[i + 2] ^= d2;
+                st[i + 3] ^= d3;
+                st[i + 4] ^= d4;
+            }
+
+            // rho and pi
+            long t = st[1];
+            for (int i = 0; i < 24; i++) {
+                int j = PILN[i];
+                long tmp = st[j];
+                st[j] = Long.rotateLeft(t, ROTC[i]);
+                t = tmp;
+            }
+
+            // chi
+            for (int i = 0; i < 25; i += 5) {
+                long b0 = st[i], b1 = st[i + 1], b2 = st[i + 2], b3 = st[i + 3], b4 = st[i + 4];
+                st[i] = b0 ^ (~b1 & b2);
+                st[i + 1] = b1 ^ (~b2 & b3);
+                st[i + 2] = b2 ^ (~b3 & b4);
+                st[i + 3] = b3 ^ (~b4 & b0);
+                st[i + 4] = b4 ^ (~b0 & b1);
+            }
+
+            // iota
+            st[0] ^= RC[round];
+        }
+    }
+}
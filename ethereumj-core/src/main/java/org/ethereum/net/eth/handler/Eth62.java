@@ -228,6 +228,7 @@ public class Eth62 extends EthHandler {
         GetBlockBodiesMessage msg = new GetBlockBodiesMessage(hashes);
 
         sendMessage(msg);
+        syncStats.onRequestSent();
     }
 
     @Override
@@ -314,6 +315,8 @@ public class Eth62 extends EthHandler {
         }
 
         List<Transaction> txSet = msg.getTransactions();
+        // not holding the pending state lock meanwhile
+        SenderRecovery.getInstance().recover(txSet);
         List<Transaction> newPending = pendingState.addPendingTransactions(txSet);
         if (!newPending.isEmpty()) {
             TransactionTask transactionTask = new TransactionTask(newPending, channel.getChannelManager(), channel);
@@ -354,7 +357,7 @@ public class Eth62 extends EthHandler {
         if (ethState == EthState.STATUS_SENT || ethState == EthState.HASH_CONSTRAINTS_CHECK)
             processInitHeaders(received);
         else {
-            syncStats.addHeaders(received.size());
+            syncStats.addHeaders(received.size(), msg.getEncoded().length);
 
             logger.debug("Adding " + received.size() + " headers to the queue.");
 
@@ -389,7 +392,9 @@ public class Eth62 extends EthHandler {
             return;
         }
 
-        syncStats.addBlocks(msg.getBlockBodies().size());
+        long bytes = 0;
+        for (byte[] body : msg.getBlockBodies()) bytes += body.length;
+        syncStats.addBlocks(msg.getBlockBodies().size(), bytes);
 
         List<Block> blocks = validateAndMerge(msg);
 
@@ -448,6 +453,7 @@ public class Eth62 extends EthHandler {
 
         wrapper.send();
         sendMessage(wrapper.getMessage());
+        syncStats.onRequestSent();
     }
 
     protected synchronized void processInitHeaders(List<BlockHeader> received) {
@@ -773,11 +779,13 @@ public class Eth62 extends EthHandler {
     public String getSyncStats() {
 
         return String.format(
-                "Peer %s: [ %s, %16s, ping %6s ms, difficulty %s, best block %s ]: %s",
+                "Peer %s: [ %s, %16s, ping %6s ms, response %6s ms, %6s kB/s, difficulty %s, best block %s ]: %s",
                 version,
                 channel.getPeerIdShort(),
                 syncState,
                 (int)channel.getPeerStats().getAvgLatency(),
+                (int)syncStats.getAvgLatency(),
+                (int)(syncStats.getAvgBytesPerSecond() / 1024),
                 getTotalDifficulty(),
                 getBestKnownBlock().getNumber(),
                 channel.getNodeStatistics().getClientId());
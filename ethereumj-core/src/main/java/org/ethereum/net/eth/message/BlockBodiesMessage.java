@@ -2,7 +2,7 @@ package org.ethereum.net.eth.message;
 
 import org.ethereum.core.Block;
 import org.ethereum.util.RLP;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPReader;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.ArrayList;
@@ -31,12 +31,11 @@ public class BlockBodiesMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+        RLPReader paramsList = new RLPReader(encoded).readList();
 
         blockBodies = new ArrayList<>();
-        for (int i = 0; i < paramsList.size(); ++i) {
-            RLPList rlpData = ((RLPList) paramsList.get(i));
-            blockBodies.add(rlpData.getRLPData());
+        while (paramsList.hasNext()) {
+            blockBodies.add(paramsList.readElement());
         }
         parsed = true;
     }
@@ -2,7 +2,7 @@ package org.ethereum.net.eth.message;
 
 import org.ethereum.core.BlockHeader;
 import org.ethereum.util.RLP;
-import org.ethereum.util.RLPList;
+import org.ethereum.util.RLPReader;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.ArrayList;
@@ -34,12 +34,11 @@ public class BlockHeadersMessage extends EthMessage {
 
     private synchronized void parse() {
         if (parsed) return;
-        RLPList paramsList = (RLPList) RLP.decode2(encoded).get(0);
+        RLPReader paramsList = new RLPReader(encoded).readList();
 
         blockHeaders = new ArrayList<>();
-        for (int i = 0; i < paramsList.size(); ++i) {
-            RLPList rlpData = ((RLPList) paramsList.get(i));
-            blockHeaders.add(new BlockHeader(rlpData));
+        while (paramsList.hasNext()) {
+            blockHeaders.add(new BlockHeader(paramsList.readList()));
         }
         parsed = true;
     }
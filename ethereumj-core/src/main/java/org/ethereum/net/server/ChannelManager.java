@@ -7,13 +7,13 @@ import org.ethereum.core.Block;
 import org.ethereum.core.BlockWrapper;
 import org.ethereum.core.PendingState;
 import org.ethereum.core.Transaction;
-import org.ethereum.db.ByteArrayWrapper;
 
 import org.ethereum.facade.Ethereum;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.rlpx.Node;
 import org.ethereum.sync.SyncManager;
 import org.ethereum.sync.SyncPool;
+import org.ethereum.util.ByteArrayHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +42,8 @@ public class ChannelManager {
     private static final int inboundConnectionBanTimeout = 10 * 1000;
 
     private List<Channel> newPeers = new CopyOnWriteArrayList<>();
-    private final Map<ByteArrayWrapper, Channel> activePeers = Collections.synchronizedMap(new HashMap<ByteArrayWrapper, Channel>());
+    // keyed by node id, iterated under the map monitor
+    private final Map<byte[], Channel> activePeers = new ByteArrayHashMap<>(64);
 
     private ScheduledExecutorService mainWorker = Executors.newSingleThreadScheduledExecutor();
     private int maxActivePeers;
@@ -163,7 +164,7 @@ public class ChannelManager {
 
             if(peer.isProtocolsInitialized()) {
 
-                if (!activePeers.containsKey(peer.getNodeIdWrapper())) {
+                if (!activePeers.containsKey(peer.getNodeId())) {
                     if (!peer.isActive() &&
                         activePeers.size() >= maxActivePeers &&
                         !trustedPeers.accept(peer.getNode())) {
@@ -216,7 +217,7 @@ public class ChannelManager {
                 newActivePeers.add(peer);
             }
             synchronized (activePeers) {
-                activePeers.put(peer.getNodeIdWrapper(), peer);
+                activePeers.put(peer.getNodeId(), peer);
             }
         }
     }
@@ -354,7 +355,7 @@ public class ChannelManager {
     }
 
     public Channel getActivePeer(byte[] nodeId) {
-        return activePeers.get(new ByteArrayWrapper(nodeId));
+        return activePeers.get(nodeId);
     }
 
     public void close() {
@@ -0,0 +1,68 @@
+package org.ethereum.sync;
+
+import org.ethereum.core.BlockWrapper;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Queue of the downloaded blocks waiting to be imported <br>
+ * The queue is bounded by the total size of the encoded blocks:
+ * {@link #put(BlockWrapper)} blocks while the size is over the limit,
+ * so the downloading is held back when the import can't keep up.
+ * A block is accepted by the empty queue whatever its size is
+ */
+public class BlockImportQueue {
+
+    private final long maxBytes;
+
+    private final Deque<BlockWrapper> queue = new ArrayDeque<>();
+    private final Deque<Integer> sizes = new ArrayDeque<>();
+    private long bytes = 0;
+
+    public BlockImportQueue(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void put(BlockWrapper wrapper) throws InterruptedException {
+        int size = wrapper.getBlock().getEncoded().length;
+        synchronized (this) {
+            while (!queue.isEmpty() && bytes >= maxBytes) {
+                wait();
+            }
+            queue.add(wrapper);
+            sizes.add(size);
+            bytes += size;
+            notifyAll();
+        }
+    }
+
+    public synchronized BlockWrapper take() throws InterruptedException {
+        while (queue.isEmpty()) {
+            wait();
+        }
+        BlockWrapper wrapper = queue.poll();
+        bytes -= sizes.poll();
+        notifyAll();
+        return wrapper;
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return true if no more blocks are accepted without waiting
+     */
+    public synchronized boolean isFull() {
+        return bytes >= maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -2,13 +2,16 @@ package org.ethereum.sync;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.*;
+import org.ethereum.db.RepositoryImpl;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.server.Channel;
 import org.ethereum.net.server.ChannelManager;
+import org.ethereum.util.ByteArrayHashMap;
 import org.ethereum.util.ExecutorPipeline;
 import org.ethereum.util.Functional;
 import org.ethereum.validator.BlockHeaderValidator;
+import org.ethereum.validator.ParentBlockHeaderValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
@@ -17,10 +20,15 @@ import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.util.Collections.singletonList;
 import static org.ethereum.core.ImportResult.*;
 
@@ -34,17 +42,29 @@ public class SyncManager {
     private final static Logger logger = LoggerFactory.getLogger("sync");
 
 
-    private static final int BLOCK_QUEUE_LIMIT = 20000;
     private static final int HEADER_QUEUE_LIMIT = 20000;
+    // the state loaded for blocks further ahead would be evicted before used
+    private static final int PREFETCH_QUEUE_LIMIT = 200;
+
+    // requests are sized to what the peer is expected to deliver within this time [ms],
+    // the default sizes are used until the peer throughput is measured
+    private static final long REQUEST_TIME = 2000;
+    private static final int MIN_HEADERS_REQUEST = 32;
+    private static final int MIN_BODIES_REQUEST = 16;
+    private static final int MAX_BODIES_REQUEST = 128;
+    private static final int DEFAULT_BODIES_REQUEST = 100;
+    // bodies are requested from other peers when the response takes
+    // that many times longer than expected from the peer throughput
+    private static final int STALL_FACTOR = 3;
+    private static final long MIN_STALL_TIMEOUT = 1000;
+    private static final long DEFAULT_STALL_TIMEOUT = 5000;
 
     // Transaction.getSender() is quite heavy operation so we are prefetching this value on several threads
-    // to unload the main block importing cycle
+    // to unload the main block importing cycle, senders of the transactions seen as pending are not recovered again
     private ExecutorPipeline<BlockWrapper,BlockWrapper> exec1 = new ExecutorPipeline<>
             (4, 1000, true, new Functional.Function<BlockWrapper,BlockWrapper>() {
                 public BlockWrapper apply(BlockWrapper blockWrapper) {
-                    for (Transaction tx : blockWrapper.getBlock().getTransactionsList()) {
-                        tx.getSender();
-                    }
+                    SenderRecovery.getInstance().recover(blockWrapper.getBlock().getTransactionsList());
                     return blockWrapper;
                 }
             }, new Functional.Consumer<Throwable>() {
@@ -53,17 +73,49 @@ public class SyncManager {
                 }
             });
 
-    private ExecutorPipeline<BlockWrapper, Void> exec2 = exec1.add(1, 1, new Functional.Consumer<BlockWrapper>() {
+    // Accounts touched by the block are loaded from the database into the state caches
+    // while the preceding blocks are being imported
+    private ExecutorPipeline<BlockWrapper,BlockWrapper> exec2 = exec1.add(4, 1000, true,
+            new Functional.Function<BlockWrapper,BlockWrapper>() {
+                public BlockWrapper apply(BlockWrapper blockWrapper) {
+                    prefetchState(blockWrapper.getBlock());
+                    return blockWrapper;
+                }
+            });
+
+    // downloaded headers are validated on several threads, PoW check being the heaviest one
+    private ExecutorService headerValidationExec = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private AtomicInteger cnt = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "sync-header-validator-" + cnt.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private ExecutorPipeline<BlockWrapper, Void> exec3 = exec2.add(1, 1, new Functional.Consumer<BlockWrapper>() {
         @Override
         public void accept(BlockWrapper blockWrapper) {
-            blockQueue.add(blockWrapper);
+            try {
+                blockQueue.put(blockWrapper);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     });
 
     /**
      * Queue with validated blocks to be added to the blockchain
      */
-    private BlockingQueue<BlockWrapper> blockQueue = new LinkedBlockingQueue<>();
+    private BlockImportQueue blockQueue;
+
+    /**
+     * Bodies requested from the peers and not received yet
+     */
+    private final ByteArrayHashMap<BodiesRequest> requestedBodies = new ByteArrayHashMap<>(32);
 
     private long lastKnownBlockNumber = 0;
     private boolean syncDone = false;
@@ -71,9 +123,15 @@ public class SyncManager {
     @Autowired
     private Blockchain blockchain;
 
+    @Autowired
+    private Repository repository;
+
     @Autowired
     private BlockHeaderValidator headerValidator;
 
+    @Autowired
+    private ParentBlockHeaderValidator parentHeaderValidator;
+
     @Autowired
     private CompositeEthereumListener compositeEthereumListener;
 
@@ -116,6 +174,8 @@ public class SyncManager {
         logger.info("Initializing SyncManager.");
         pool.init(channelManager);
 
+        blockQueue = new BlockImportQueue(config.syncBlockQueueSize() * 1024L * 1024L);
+
         Runnable queueProducer = new Runnable(){
 
             @Override
@@ -155,12 +215,15 @@ public class SyncManager {
             try {
 
                 if (syncQueue.getHeadersCount() < HEADER_QUEUE_LIMIT) {
-                    Channel any = pool.getAnyIdle();
+                    List<Channel> idle = pool.getAllIdle();
 
-                    if (any != null) {
+                    if (!idle.isEmpty()) {
+                        Channel peer = idle.get(0);
                         SyncQueueIfc.HeadersRequest hReq = syncQueue.requestHeaders();
-                        logger.debug("headerRetrieveLoop: request headers (" + hReq.getStart() + ") from " + any.getNode());
-                        any.getEthHandler().sendGetBlockHeaders(hReq.getStart(), hReq.getCount(), hReq.isReverse());
+                        int count = requestSize(peer.getSyncStats().getAvgHeadersPerSecond(),
+                                hReq.getCount(), MIN_HEADERS_REQUEST, hReq.getCount());
+                        logger.debug("headerRetrieveLoop: request " + count + " headers (" + hReq.getStart() + ") from " + peer.getNode());
+                        peer.getEthHandler().sendGetBlockHeaders(hReq.getStart(), count, hReq.isReverse());
                     } else {
                         logger.debug("headerRetrieveLoop: No IDLE peers found");
                     }
@@ -182,39 +245,59 @@ public class SyncManager {
         while(!Thread.currentThread().isInterrupted()) {
             try {
 
-                if (blockQueue.size() < BLOCK_QUEUE_LIMIT) {
-                    SyncQueueIfc.BlocksRequest bReq = syncQueue.requestBlocks(1000);
+                long waitTime = 2000;
+
+                if (!blockQueue.isFull()) {
+                    int stalled = releaseStalledBodies();
+                    if (stalled > 0) {
+                        logger.debug("blockRetrieveLoop: " + stalled + " blocks are late, requesting them from other peers");
+                    }
+
+                    List<BlockHeaderWrapper> wanted = getWantedBodies(1000);
 
-                    if (bReq.getBlockHeaders().size() <= 3) {
+                    if (wanted.size() <= 3) {
                         // new blocks are better to request from the header senders first
                         // to get more chances to receive block body promptly
-                        for (BlockHeaderWrapper blockHeaderWrapper : bReq.getBlockHeaders()) {
+                        for (BlockHeaderWrapper blockHeaderWrapper : new ArrayList<>(wanted)) {
                             Channel channel = pool.getByNodeId(blockHeaderWrapper.getNodeId());
                             if (channel != null && channel.isIdle()) {
-                                channel.getEthHandler().sendGetBlockBodies(singletonList(blockHeaderWrapper));
+                                requestBodies(channel, singletonList(blockHeaderWrapper));
+                                wanted.remove(blockHeaderWrapper);
                             }
                         }
                     }
 
+                    // the fastest peers get the blocks which are imported first
                     int reqBlocksCounter = 0;
-                    for (SyncQueueIfc.BlocksRequest blocksRequest : bReq.split(100)) {
-                        Channel any = pool.getAnyIdle();
-                        if (any == null) {
-                            logger.debug("blockRetrieveLoop: No IDLE peers found");
-                            break;
-                        } else {
-                            logger.debug("blockRetrieveLoop: Requesting " + blocksRequest.getBlockHeaders().size() + " blocks from " + any.getNode());
-                            any.getEthHandler().sendGetBlockBodies(blocksRequest.getBlockHeaders());
-                            reqBlocksCounter++;
-                        }
+                    int pos = 0;
+                    for (Channel peer : pool.getAllIdle()) {
+                        if (pos >= wanted.size()) break;
+
+                        int count = requestSize(peer.getSyncStats().getAvgBlocksPerSecond(),
+                                DEFAULT_BODIES_REQUEST, MIN_BODIES_REQUEST, MAX_BODIES_REQUEST);
+                        List<BlockHeaderWrapper> headers = new ArrayList<>(wanted.subList(pos, min(pos + count, wanted.size())));
+                        logger.debug("blockRetrieveLoop: Requesting " + headers.size() + " blocks from " + peer.getNode());
+                        requestBodies(peer, headers);
+                        pos += headers.size();
+                        reqBlocksCounter++;
+                    }
+                    if (pos < wanted.size() && reqBlocksCounter == 0) {
+                        logger.debug("blockRetrieveLoop: No IDLE peers found");
+                    }
+                    // wake up once any peer responds to hand it the next request
+                    receivedBlocksLatch = new CountDownLatch(1);
+
+                    // or in time to take the bodies away from the stalled peers
+                    long deadline = getNextStallDeadline();
+                    if (deadline > 0) {
+                        waitTime = min(waitTime, max(deadline - System.currentTimeMillis(), 100));
                     }
-                    receivedBlocksLatch = new CountDownLatch(max(reqBlocksCounter, 1));
                 } else {
                     logger.debug("blockRetrieveLoop: BlockQueue is full");
                     receivedBlocksLatch = new CountDownLatch(1);
                 }
 
-                receivedBlocksLatch.await(2000, TimeUnit.MILLISECONDS);
+                receivedBlocksLatch.await(waitTime, TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
                 break;
             } catch (Exception e) {
@@ -223,6 +306,106 @@ public class SyncManager {
         }
     }
 
+    /**
+     * @return the count the peer is expected to deliver within {@link #REQUEST_TIME},
+     *         the default one if the peer isn't measured yet
+     */
+    private static int requestSize(double itemsPerSecond, int defaultSize, int minSize, int maxSize) {
+        if (itemsPerSecond < 0) return min(defaultSize, maxSize);
+        return (int) max(minSize, min(maxSize, itemsPerSecond * REQUEST_TIME / 1000));
+    }
+
+    /**
+     * @return wanted bodies which are not requested yet
+     */
+    private List<BlockHeaderWrapper> getWantedBodies(int maxSize) {
+        synchronized (requestedBodies) {
+            SyncQueueIfc.BlocksRequest bReq = syncQueue.requestBlocks(maxSize + requestedBodies.size());
+            List<BlockHeaderWrapper> ret = new ArrayList<>(maxSize);
+            for (BlockHeaderWrapper header : bReq.getBlockHeaders()) {
+                if (!requestedBodies.containsKey(header.getHash())) {
+                    ret.add(header);
+                    if (ret.size() >= maxSize) break;
+                }
+            }
+            return ret;
+        }
+    }
+
+    private void requestBodies(Channel peer, List<BlockHeaderWrapper> headers) {
+        double rate = peer.getSyncStats().getAvgBlocksPerSecond();
+        long timeout = rate > 0 ? max(MIN_STALL_TIMEOUT, (long) (headers.size() * 1000 / rate) * STALL_FACTOR) :
+                DEFAULT_STALL_TIMEOUT;
+        BodiesRequest request = new BodiesRequest(peer.getNodeId(), System.currentTimeMillis() + timeout);
+
+        synchronized (requestedBodies) {
+            for (BlockHeaderWrapper header : headers) {
+                requestedBodies.put(header.getHash(), request);
+            }
+        }
+
+        peer.getEthHandler().sendGetBlockBodies(headers);
+    }
+
+    /**
+     * Forgets bodies requested from the peer once it responds,
+     * those missing in the response become wanted again
+     */
+    private void releaseBodies(byte[] nodeId) {
+        synchronized (requestedBodies) {
+            Iterator<BodiesRequest> it = requestedBodies.values().iterator();
+            while (it.hasNext()) {
+                if (Arrays.equals(it.next().nodeId, nodeId)) it.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets bodies which the peers failed to deliver in time,
+     * so they are requested from other peers
+     *
+     * @return number of the bodies released
+     */
+    private int releaseStalledBodies() {
+        long now = System.currentTimeMillis();
+        int cnt = 0;
+        synchronized (requestedBodies) {
+            Iterator<BodiesRequest> it = requestedBodies.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().deadline < now) {
+                    it.remove();
+                    cnt++;
+                }
+            }
+        }
+        return cnt;
+    }
+
+    private long getNextStallDeadline() {
+        long ret = 0;
+        synchronized (requestedBodies) {
+            for (BodiesRequest request : requestedBodies.values()) {
+                if (ret == 0 || request.deadline < ret) ret = request.deadline;
+            }
+        }
+        return ret;
+    }
+
+    private void prefetchState(Block block) {
+        if (!config.syncPrefetchEnabled() || blockQueue.size() > PREFETCH_QUEUE_LIMIT) return;
+        // only the database backed repository has the caches to load the state into
+        if (!(repository instanceof RepositoryImpl)) return;
+
+        Set<byte[]> accounts = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(20));
+        accounts.add(block.getCoinbase());
+        for (Transaction tx : block.getTransactionsList()) {
+            if (tx.getSender() != null) accounts.add(tx.getSender());
+            if (!tx.isContractCreation()) accounts.add(tx.getReceiveAddress());
+        }
+
+        ((RepositoryImpl) repository).prefetch(accounts);
+    }
+
     /**
      * Processing the queue adding blocks to the chain.
      */
@@ -289,6 +472,8 @@ public class SyncManager {
      */
     public void addList(List<Block> blocks, byte[] nodeId) {
 
+        releaseBodies(nodeId);
+
         if (blocks.isEmpty()) {
             return;
         }
@@ -379,27 +564,85 @@ public class SyncManager {
 
         if (headers.isEmpty()) return true;
 
+        if (!isValid(headers)) return false;
+
         List<BlockHeaderWrapper> wrappers = new ArrayList<>(headers.size());
 
         for (BlockHeader header : headers) {
+            wrappers.add(new BlockHeaderWrapper(header, nodeId));
+        }
 
-            if (!isValid(header)) {
+        syncQueue.addHeaders(wrappers);
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Invalid header RLP: {}", Hex.toHexString(header.getEncoded()));
+        receivedHeadersLatch.countDown();
+
+        logger.debug("{} headers added", headers.size());
+
+        return true;
+    }
+
+    /**
+     * Runs checks against the batch of headers. <br>
+     * Checks of separate headers are spread over the worker threads,
+     * then the headers which parents are in the batch too are checked
+     * against their parents in the batch order
+     *
+     * @param headers list of headers got from remote host
+     * @return true if all the headers are valid, false otherwise
+     */
+    private boolean isValid(List<BlockHeader> headers) {
+
+        List<Future<Boolean>> results = new ArrayList<>(headers.size());
+        for (final BlockHeader header : headers) {
+            results.add(headerValidationExec.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return isValid(header);
                 }
+            }));
+        }
 
-                return false;
+        try {
+            for (int i = 0; i < headers.size(); i++) {
+                if (!results.get(i).get()) {
+
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Invalid header RLP: {}", Hex.toHexString(headers.get(i).getEncoded()));
+                    }
+
+                    return false;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            logger.error("Unexpected exception validating headers: ", e.getCause());
+            return false;
+        } finally {
+            for (Future<Boolean> result : results) result.cancel(false);
+        }
 
-            wrappers.add(new BlockHeaderWrapper(header, nodeId));
+        if (parentHeaderValidator == null) return true;
+
+        ByteArrayHashMap<BlockHeader> batch = new ByteArrayHashMap<>(32);
+        for (BlockHeader header : headers) {
+            batch.put(header.getHash(), header);
         }
 
-        syncQueue.addHeaders(wrappers);
+        for (BlockHeader header : headers) {
+            BlockHeader parent = batch.get(header.getParentHash());
+            if (parent != null && !parentHeaderValidator.validate(header, parent)) {
 
-        receivedHeadersLatch.countDown();
+                parentHeaderValidator.logErrors(logger);
 
-        logger.debug("{} headers added", headers.size());
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Invalid header RLP: {}", Hex.toHexString(header.getEncoded()));
+                }
+
+                return false;
+            }
+        }
 
         return true;
     }
@@ -437,6 +680,7 @@ public class SyncManager {
             public void run() {
                 try {
                     pool.logActivePeers();
+                    logger.info(SenderRecovery.getInstance().toString());
                     logger.info("\n");
                 } catch (Throwable t) {
                     t.printStackTrace();
@@ -450,6 +694,7 @@ public class SyncManager {
         pool.close();
         try {
             exec1.shutdown();
+            headerValidationExec.shutdownNow();
             if (getHeadersThread != null) getHeadersThread.interrupt();
             if (getBodiesThread != null) getBodiesThread.interrupt();
             if (syncQueueThread != null) syncQueueThread.interrupt();
@@ -458,4 +703,14 @@ public class SyncManager {
             logger.warn("Problems closing SyncManager", e);
         }
     }
+
+    private static class BodiesRequest {
+        final byte[] nodeId;
+        final long deadline;
+
+        BodiesRequest(byte[] nodeId, long deadline) {
+            this.nodeId = nodeId;
+            this.deadline = deadline;
+        }
+    }
 }
@@ -118,6 +118,46 @@ public class SyncPool {
         return null;
     }
 
+    /**
+     * @return idle peers, the ones having higher measured throughput go first,
+     *         peers which aren't measured yet go last in the order of their ping
+     */
+    public synchronized List<Channel> getAllIdle() {
+        // the stats are updated concurrently, so they are taken once before sorting
+        List<IdlePeer> idle = new ArrayList<>();
+        for (Channel peer : activePeers) {
+            if (peer.isIdle())
+                idle.add(new IdlePeer(peer));
+        }
+        Collections.sort(idle, new Comparator<IdlePeer>() {
+            @Override
+            public int compare(IdlePeer p1, IdlePeer p2) {
+                boolean measured1 = p1.bytesPerSecond >= 0;
+                boolean measured2 = p2.bytesPerSecond >= 0;
+                if (measured1 != measured2) return measured1 ? -1 : 1;
+                return measured1 ? Double.compare(p2.bytesPerSecond, p1.bytesPerSecond) :
+                        Double.compare(p1.latency, p2.latency);
+            }
+        });
+        List<Channel> ret = new ArrayList<>(idle.size());
+        for (IdlePeer peer : idle) {
+            ret.add(peer.channel);
+        }
+        return ret;
+    }
+
+    private static class IdlePeer {
+        final Channel channel;
+        final double bytesPerSecond;
+        final double latency;
+
+        IdlePeer(Channel channel) {
+            this.channel = channel;
+            this.bytesPerSecond = channel.getSyncStats().getAvgBytesPerSecond();
+            this.latency = channel.getPeerStats().getAvgLatency();
+        }
+    }
+
     @Nullable
     public synchronized Channel getByNodeId(byte[] nodeId) {
         return channelManager.getActivePeer(nodeId);
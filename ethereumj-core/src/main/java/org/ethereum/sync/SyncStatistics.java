@@ -3,15 +3,30 @@ package org.ethereum.sync;
 /**
  * Manages sync measurements
  *
+ * Besides the counters it keeps moving averages of the peer responses:
+ * latency, bytes per second and headers/blocks per second.
+ * The averages survive {@link #reset()} and are used to size
+ * the requests sent to the peer, -1 means nothing is measured yet
+ *
  * @author Mikhail Kalinin
  * @since 20.08.2015
  */
 public class SyncStatistics {
+
+    // weight of the latest response in the moving averages
+    private static final double AVG_WEIGHT = 0.25;
+
     private long updatedAt;
     private long blocksCount;
     private long headersCount;
     private int headerBunchesCount;
 
+    private volatile long requestedAt;
+    private volatile double avgLatency = -1;
+    private volatile double avgBytesPerSecond = -1;
+    private volatile double avgHeadersPerSecond = -1;
+    private volatile double avgBlocksPerSecond = -1;
+
     public SyncStatistics() {
         reset();
     }
@@ -23,21 +38,60 @@ public class SyncStatistics {
         headerBunchesCount = 0;
     }
 
+    /**
+     * Marks the time the request is sent to the peer,
+     * the next response is measured against it
+     */
+    public void onRequestSent() {
+        requestedAt = System.currentTimeMillis();
+    }
+
     public void addBlocks(long cnt) {
         blocksCount += cnt;
         fixCommon(cnt);
     }
 
+    public void addBlocks(long cnt, long bytes) {
+        addBlocks(cnt);
+        long time = fixResponse(bytes);
+        if (time > 0) avgBlocksPerSecond = average(avgBlocksPerSecond, cnt * 1000d / time);
+    }
+
     public void addHeaders(long cnt) {
         headerBunchesCount++;
         headersCount += cnt;
         fixCommon(cnt);
     }
 
+    public void addHeaders(long cnt, long bytes) {
+        addHeaders(cnt);
+        long time = fixResponse(bytes);
+        if (time > 0) avgHeadersPerSecond = average(avgHeadersPerSecond, cnt * 1000d / time);
+    }
+
     private void fixCommon(long cnt) {
         updatedAt = System.currentTimeMillis();
     }
 
+    /**
+     * @return milliseconds the response took, 0 if there was no request to measure against
+     */
+    private long fixResponse(long bytes) {
+        if (requestedAt == 0) return 0;
+
+        long time = Math.max(System.currentTimeMillis() - requestedAt, 1);
+        requestedAt = 0;
+
+        avgLatency = average(avgLatency, time);
+        avgBytesPerSecond = average(avgBytesPerSecond, bytes * 1000d / time);
+
+        return time;
+    }
+
+    private static double average(double avg, double val) {
+        return avg < 0 ? val : avg + (val - avg) * AVG_WEIGHT;
+    }
+
     public long getBlocksCount() {
         return blocksCount;
     }
@@ -53,4 +107,20 @@ public class SyncStatistics {
     public int getHeaderBunchesCount() {
         return headerBunchesCount;
     }
+
+    public double getAvgLatency() {
+        return avgLatency;
+    }
+
+    public double getAvgBytesPerSecond() {
+        return avgBytesPerSecond;
+    }
+
+    public double getAvgHeadersPerSecond() {
+        return avgHeadersPerSecond;
+    }
+
+    public double getAvgBlocksPerSecond() {
+        return avgBlocksPerSecond;
+    }
 }
@@ -1,20 +1,33 @@
 package org.ethereum.trie;
 
 import org.ethereum.datasource.KeyValueDataSource;
-import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteArrayHashMap;
 import org.ethereum.util.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.util.encoders.Hex;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static java.lang.String.format;
-import static org.ethereum.util.ByteUtil.length;
-import static org.ethereum.util.ByteUtil.wrap;
 import static org.ethereum.util.Value.fromRlpEncoded;
 
 /**
+ * Trie node cache.
+ *
+ * Nodes are addressed by the hash of their encoding so a cached entry never
+ * changes its value, only its dirty flag. This allows readers to resolve
+ * nodes from the {@link ByteArrayHashMap} without any locking while the single writer
+ * (trie update, commit or undo) serializes on the cache monitor.
+ * Keys of the nodes which are not yet persisted are tracked by the writer
+ * in a separate set, so commit and undo don't have to scan the whole cache.
+ *
+ * By default all nodes are dropped on commit. With {@link #setMaxCacheSize(long)}
+ * clean nodes are kept between commits within the given byte budget and are
+ * evicted by a clock sweep: each hit sets the node referenced bit, the sweep
+ * clears it and evicts the clean nodes found unreferenced. Dirty nodes are
+ * never evicted, they leave the cache on commit or undo only.
+ *
  * @author Nick Savers
  * @since 20.05.2014
  */
@@ -22,19 +35,68 @@ public class Cache {
 
     private static final Logger logger = LoggerFactory.getLogger("general");
 
-    private KeyValueDataSource dataSource;
-    private Map<ByteArrayWrapper, Node> nodes = new HashMap<>();
-    private Set<ByteArrayWrapper> removedNodes = new HashSet<>();
-    private boolean isDirty;
-    
+    // rough estimate of the key, map entry and decoded value footprint of a node
+    private static final int NODE_OVERHEAD = 128;
+
+    private volatile KeyValueDataSource dataSource;
+    private final ByteArrayHashMap<Node> nodes = new ByteArrayHashMap<>(32);
+    // guarded by this
+    private final Set<byte[]> dirtyNodes = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(32));
+    private final Set<byte[]> removedNodes = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(32));
+    private volatile boolean isDirty;
+
+    private volatile long maxCacheSize;
+    private final AtomicLong cleanSize = new AtomicLong();
+    // written under this
+    private volatile long dirtySize;
+
+    // guarded by clockLock
+    private final Object clockLock = new Object();
+    private Iterator<Map.Entry<byte[], Node>> clockHand;
+
     public Cache(KeyValueDataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    /**
+     * Sets the byte budget for the clean nodes kept between commits,
+     * 0 drops all nodes on commit
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        evictIfNeeded();
+    }
+
+    public long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * @return estimated bytes held by the cached nodes
+     */
+    public long getCacheSize() {
+        return cleanSize.get() + dirtySize;
+    }
+
+    /**
+     * @return estimated bytes of the nodes pending commit
+     */
+    public long getDirtySize() {
+        return dirtySize;
+    }
+
+    /**
+     * The node is only dropped from the cache on commit since concurrent
+     * readers may still be walking the previous root. Without a database
+     * nothing is ever committed, so the node is dropped right away
+     */
     public synchronized void markRemoved(byte[] key) {
-        ByteArrayWrapper keyW = new ByteArrayWrapper(key);
-        removedNodes.add(keyW);
-        nodes.remove(keyW);
+        if (dataSource == null) {
+            forget(nodes.remove(key));
+            dirtyNodes.remove(key);
+        } else {
+            removedNodes.add(key);
+        }
     }
 
     /**
@@ -44,37 +106,65 @@ public class Cache {
      * @return keccak hash of RLP encoded node if length &gt; 32 otherwise return node itself
      */
     public synchronized Object put(Object o) {
-        Value value = new Value(o);
+        // an already encoded node keeps its encoding and hash
+        Value value = o instanceof Value ? (Value) o : new Value(o);
         byte[] enc = value.encode();
         if (enc.length >= 32) {
             byte[] sha = value.hash();
-            ByteArrayWrapper key = wrap(sha);
-            this.nodes.put(key, new Node(value, true));
-            this.removedNodes.remove(key);
-            this.isDirty = true;
+            putNode(sha, new Node(value, true));
+            this.removedNodes.remove(sha);
 
             return sha;
         }
         return value;
     }
 
-    public synchronized Value get(byte[] key) {
-        ByteArrayWrapper wrappedKey = wrap(key);
+    /**
+     * Doesn't lock, nodes loaded from the database are cached
+     * unless the writer has put the same node meanwhile
+     */
+    public Value get(byte[] key) {
         // First check if the key is the cache
-        Node node = this.nodes.get(wrappedKey);
+        Node node = this.nodes.get(key);
         if (node == null) {
-            byte[] data = (this.dataSource == null) ? null : this.dataSource.get(key);
-            node = new Node(fromRlpEncoded(data), false);
-
-            this.nodes.put(wrappedKey, node);
+            KeyValueDataSource db = this.dataSource;
+            byte[] data = (db == null) ? null : db.get(key);
+            Value value = fromRlpEncoded(data);
+            // missing nodes are not cached, the value can't be null in the map
+            if (value == null) return null;
+
+            node = new Node(value, false);
+            Node prev = this.nodes.putIfAbsent(key, node);
+            if (prev == null) {
+                cleanSize.addAndGet(sizeOf(node));
+                evictIfNeeded();
+            } else {
+                node = prev;
+            }
+        } else if (!node.isReferenced()) {
+            node.setReferenced(true);
         }
 
         return node.getValue();
     }
 
+    /**
+     * Puts a node keeping track of its dirty state, used when copying caches
+     */
+    public synchronized void putNode(byte[] key, Node node) {
+        forget(this.nodes.put(key, node));
+        if (node.isDirty()) {
+            this.dirtyNodes.add(key);
+            this.dirtySize += sizeOf(node);
+            this.isDirty = true;
+        } else {
+            cleanSize.addAndGet(sizeOf(node));
+        }
+    }
+
     public synchronized void delete(byte[] key) {
-        ByteArrayWrapper wrappedKey = wrap(key);
-        this.nodes.remove(wrappedKey);
+        forget(this.nodes.remove(key));
+        this.dirtyNodes.remove(key);
 
         if (dataSource != null) {
             this.dataSource.delete(key);
@@ -85,50 +175,58 @@ public class Cache {
         // Don't try to commit if it isn't dirty
         if ((dataSource == null) || !this.isDirty) return;
 
-        long start = System.nanoTime();
-
-        int batchMemorySize = 0;
         Map<byte[], byte[]> batch = new HashMap<>();
-        for (ByteArrayWrapper nodeKey : this.nodes.keySet()) {
+        for (byte[] nodeKey : this.dirtyNodes) {
             Node node = this.nodes.get(nodeKey);
+            if (node == null || !node.isDirty() || removedNodes.contains(nodeKey)) continue;
 
-            if (node == null || node.isDirty()) {
-                byte[] value;
-                if (node != null) {
-                    node.setDirty(false);
-                    value = node.getValue().encode();
-                } else {
-                    value = null;
-                }
-
-                byte[] key = nodeKey.getData();
-
-                batch.put(key, value);
-                batchMemorySize += length(key, value);
-            }
+            batch.put(nodeKey, node.getValue().encode());
         }
-        for (ByteArrayWrapper removedNode : removedNodes) {
-            batch.put(removedNode.getData(), null);
+        for (byte[] removedNode : removedNodes) {
+            batch.put(removedNode, null);
         }
 
+        // the batch goes to the database first so readers
+        // missing the cleared nodes can find them there
         this.dataSource.updateBatch(batch);
         this.isDirty = false;
-        this.nodes.clear();
+
+        if (maxCacheSize > 0) {
+            for (byte[] removedNode : removedNodes) {
+                forget(this.nodes.remove(removedNode));
+            }
+            // committed nodes stay in the cache as clean ones
+            for (byte[] nodeKey : this.dirtyNodes) {
+                Node node = this.nodes.get(nodeKey);
+                if (node == null || !node.isDirty()) continue;
+
+                cleanSize.addAndGet(sizeOf(node));
+                node.setDirty(false);
+            }
+        } else {
+            this.nodes.clear();
+            this.cleanSize.set(0);
+        }
+        this.dirtySize = 0;
+        this.dirtyNodes.clear();
         this.removedNodes.clear();
 
+        evictIfNeeded();
     }
 
     public synchronized void undo() {
-        Iterator<Map.Entry<ByteArrayWrapper, Node>> iter = this.nodes.entrySet().iterator();
-        while (iter.hasNext()) {
-            if (iter.next().getValue().isDirty()) {
-                iter.remove();
+        for (byte[] nodeKey : this.dirtyNodes) {
+            Node node = this.nodes.get(nodeKey);
+            if (node != null && node.isDirty()) {
+                this.nodes.remove(nodeKey, node);
             }
         }
+        this.dirtySize = 0;
+        this.dirtyNodes.clear();
         this.isDirty = false;
     }
 
-    public synchronized boolean isDirty() {
+    public boolean isDirty() {
         return isDirty;
     }
 
@@ -136,20 +234,75 @@ public class Cache {
         this.isDirty = isDirty;
     }
 
-    public synchronized Map<ByteArrayWrapper, Node> getNodes() {
+    /**
+     * Live view of the cached nodes. Nodes should be added
+     * with {@link #putNode} to keep the size accounting right
+     */
+    public Map<byte[], Node> getNodes() {
         return nodes;
     }
 
-    public synchronized KeyValueDataSource getDb() {
+    public KeyValueDataSource getDb() {
         return dataSource;
     }
 
+    /**
+     * Accounts a node which was dropped from the map by the writer
+     */
+    private void forget(Node node) {
+        if (node == null) return;
+        if (node.isDirty()) {
+            dirtySize -= sizeOf(node);
+        } else {
+            cleanSize.addAndGet(-sizeOf(node));
+        }
+    }
+
+    /**
+     * Clock sweep over the clean nodes until the cache fits the budget.
+     * A single thread sweeps at a time, the others don't wait for it.
+     */
+    private void evictIfNeeded() {
+        long max = maxCacheSize;
+        if (max <= 0 || cleanSize.get() <= max) return;
+
+        synchronized (clockLock) {
+            int evicted = 0;
+            // two full rounds are enough to clear all referenced bits
+            long steps = 2L * nodes.size();
+            while (cleanSize.get() > max && steps-- > 0) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = nodes.entrySet().iterator();
+                    if (!clockHand.hasNext()) break;
+                }
+
+                Map.Entry<byte[], Node> entry = clockHand.next();
+                Node node = entry.getValue();
+                if (node.isDirty()) continue;
+
+                if (node.isReferenced()) {
+                    node.setReferenced(false);
+                } else if (nodes.remove(entry.getKey(), node)) {
+                    cleanSize.addAndGet(-sizeOf(node));
+                    ++evicted;
+                }
+            }
+
+            if (logger.isTraceEnabled())
+                logger.trace("Trie cache: {} nodes evicted, size: {}", evicted, getCacheSize());
+        }
+    }
+
+    private static long sizeOf(Node node) {
+        return node.getValue().encode().length + NODE_OVERHEAD;
+    }
+
     public String cacheDump() {
         StringBuffer cacheDump = new StringBuffer();
-        for (ByteArrayWrapper key : nodes.keySet()) {
-            Node node = nodes.get(key);
+        for (Map.Entry<byte[], Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
             if (node.getValue() != null)
-                cacheDump.append(key.toString()).append(" : ").append(node.getValue().toString()).append("\n");
+                cacheDump.append(Hex.toHexString(entry.getKey())).append(" : ").append(node.getValue().toString()).append("\n");
         }
 
         return cacheDump.toString();
@@ -160,12 +313,12 @@ public class Cache {
 
         Map<byte[], byte[]> rows = new HashMap<>();
         if (this.dataSource == null) {
-            for (ByteArrayWrapper key : nodes.keySet()) {
-                Node node = nodes.get(key);
+            for (Map.Entry<byte[], Node> entry : nodes.entrySet()) {
+                Node node = entry.getValue();
                 if (node == null) {
-                    rows.put(key.getData(), null);
+                    rows.put(entry.getKey(), null);
                 }else if (!node.isDirty()) {
-                    rows.put(key.getData(), node.getValue().encode());
+                    rows.put(entry.getKey(), node.getValue().encode());
                 }
             }
         } else {
@@ -1,10 +1,20 @@
 package org.ethereum.trie;
 
 import org.ethereum.core.BlockHeader;
+import org.ethereum.datasource.Flushable;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPReader;
+import org.ethereum.util.RLPWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * The DataSource which doesn't immediately forward delete updates (unlike inserts)
@@ -15,11 +25,41 @@ import java.util.*;
  * E.g. if the key was deleted at block N and then inserted at block N + 10 this
  * delete is not passed.
  *
+ * By default the journal is kept in memory and the deletes are submitted
+ * within the [prune] call. With [withJournal] the reference counters and the
+ * block changes are kept in a separate DataSource and written there on [flush],
+ * so that only the block headers stay in memory and the journal survives restarts.
+ * With [withBackgroundPruning] the deletes are queued and submitted by a
+ * background thread in bounded batches, a queued key inserted again is not deleted.
+ *
+ * The size of the deleted values is taken from the sizes recorded when the keys
+ * were inserted within the journal, the keys inserted before are counted with
+ * the average size of the inserted values.
+ *
  * Created by Anton Nashatyrev on 01.07.2016.
  */
-public class JournalPruneDataSource implements KeyValueDataSource {
+public class JournalPruneDataSource implements KeyValueDataSource, Flushable {
+
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final byte[] BLOCKS_KEY = "blocks".getBytes();
+    private static final byte[] DELETES_KEY = "deletes".getBytes();
+    private static final byte[] SIZES_KEY = "sizes".getBytes();
+    private static final byte UPDATES_PREFIX = 'u';
+    private static final byte REF_PREFIX = 'r';
+
+    private static final ExecutorService pruner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "db-pruner");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     private class Updates {
         BlockHeader blockHeader;
+        // null when kept in the journal only
         Set<ByteArrayWrapper> insertedKeys = new HashSet<>();
         Set<ByteArrayWrapper> deletedKeys = new HashSet<>();
     }
@@ -27,6 +67,8 @@ public class JournalPruneDataSource implements KeyValueDataSource {
     private static class Ref {
         boolean dbRef;
         int journalRefs;
+        // size of the value, 0 if unknown
+        int size;
 
         public Ref(boolean dbRef) {
             this.dbRef = dbRef;
@@ -35,26 +77,106 @@ public class JournalPruneDataSource implements KeyValueDataSource {
         public int getTotRefs() {
             return journalRefs + (dbRef ? 1 : 0);
         }
+
+        byte[] encode() {
+            byte[] ret = Arrays.copyOf(ByteUtil.intToBytes(journalRefs), 9);
+            ret[4] = (byte) (dbRef ? 1 : 0);
+            System.arraycopy(ByteUtil.intToBytes(size), 0, ret, 5, 4);
+            return ret;
+        }
+
+        static Ref decode(byte[] encoded) {
+            Ref ret = new Ref(encoded[4] != 0);
+            ret.journalRefs = ByteUtil.byteArrayToInt(Arrays.copyOf(encoded, 4));
+            // the records written before have no size
+            if (encoded.length >= 9) ret.size = ByteUtil.byteArrayToInt(Arrays.copyOfRange(encoded, 5, 9));
+            return ret;
+        }
     }
 
+    // with the journal: the counters read or changed since the last flush, null if removed
     Map<ByteArrayWrapper, Ref> refCount = new HashMap<>();
 
     private KeyValueDataSource src;
+    private KeyValueDataSource journal;
     // block hash => updates
     private LinkedHashMap<ByteArrayWrapper, Updates> blockUpdates = new LinkedHashMap<>();
     private Updates currentUpdates = new Updates();
+    // pruned or rolled back blocks to be removed from the journal
+    private Set<ByteArrayWrapper> removedBlocks = new HashSet<>();
+
+    private int batchSize;
+    // key => size of the value
+    private Map<ByteArrayWrapper, Integer> pendingDeletes = new LinkedHashMap<>();
+    private boolean deletesScheduled;
+    private boolean closed;
+
+    private long prunedBlocks;
+    private long deletedKeys;
+    private long reclaimedBytes;
+    // totals of the inserted values, for the sizes not recorded
+    private long insertedValues;
+    private long insertedBytes;
 
     public JournalPruneDataSource(KeyValueDataSource src) {
         this.src = src;
     }
 
+    /**
+     * Keeps the journal in the given source, the journal stored there before is loaded
+     */
+    public synchronized JournalPruneDataSource withJournal(KeyValueDataSource journal) {
+        this.journal = journal;
+
+        byte[] blocks = journal.get(BLOCKS_KEY);
+        if (blocks != null) {
+            RLPReader hashes = new RLPReader(blocks).readList();
+            while (hashes.hasNext()) {
+                byte[] hash = hashes.readBytes();
+                Updates updates = new Updates();
+                updates.blockHeader = new BlockHeader(new RLPReader(journal.get(updatesKey(hash))).readList().readList());
+                updates.insertedKeys = null;
+                updates.deletedKeys = null;
+                blockUpdates.put(new ByteArrayWrapper(hash), updates);
+            }
+        }
+
+        byte[] sizes = journal.get(SIZES_KEY);
+        if (sizes != null) {
+            insertedValues = ByteUtil.byteArrayToLong(Arrays.copyOf(sizes, 8));
+            insertedBytes = ByteUtil.byteArrayToLong(Arrays.copyOfRange(sizes, 8, 16));
+        }
+
+        byte[] deletes = journal.get(DELETES_KEY);
+        if (deletes != null) {
+            Map<ByteArrayWrapper, Integer> keys = new LinkedHashMap<>();
+            for (ByteArrayWrapper key : decodeKeys(new RLPReader(deletes).readList())) {
+                keys.put(key, averageSize());
+            }
+            deleteKeys(keys);
+        }
+
+        logger.info("Prune journal {} loaded: {} blocks, {} pending deletes",
+                journal.getName(), blockUpdates.size(), pendingDeletes.size());
+        return this;
+    }
+
+    /**
+     * Submits the deletes from a background thread by the given number of keys at a time
+     */
+    public synchronized JournalPruneDataSource withBackgroundPruning(int batchSize) {
+        this.batchSize = batchSize;
+        if (!pendingDeletes.isEmpty()) scheduleDeletes();
+        return this;
+    }
+
     /*******  updates  *******/
 
     public synchronized byte[] put(byte[] key, byte[] value) {
         ByteArrayWrapper keyW = new ByteArrayWrapper(key);
         if (value != null) {
             currentUpdates.insertedKeys.add(keyW);
-            incRef(keyW);
+            incRef(keyW, value.length);
             return src.put(key, value);
         } else {
             currentUpdates.deletedKeys.add(keyW);
@@ -73,7 +195,7 @@ public class JournalPruneDataSource implements KeyValueDataSource {
             ByteArrayWrapper keyW = new ByteArrayWrapper(entry.getKey());
             if (entry.getValue() != null) {
                 currentUpdates.insertedKeys.add(keyW);
-                incRef(keyW);
+                incRef(keyW, entry.getValue().length);
                 insertsOnly.put(entry.getKey(), entry.getValue());
             } else {
                 currentUpdates.deletedKeys.add(keyW);
@@ -83,20 +205,48 @@ public class JournalPruneDataSource implements KeyValueDataSource {
         src.updateBatch(insertsOnly);
     }
 
-    private void incRef(ByteArrayWrapper keyW) {
-        Ref cnt = refCount.get(keyW);
+    private Ref getRef(ByteArrayWrapper keyW) {
+        if (journal == null || refCount.containsKey(keyW)) return refCount.get(keyW);
+
+        byte[] encoded = journal.get(refKey(keyW));
+        Ref ref = encoded == null ? null : Ref.decode(encoded);
+        refCount.put(keyW, ref);
+        return ref;
+    }
+
+    private void incRef(ByteArrayWrapper keyW, int size) {
+        // the key is inserted again, it must stay
+        boolean deleted = pendingDeletes.remove(keyW) != null;
+
+        Ref cnt = getRef(keyW);
         if (cnt == null) {
-            cnt = new Ref(src.get(keyW.getData()) != null);
+            // the queued key is counted as already deleted
+            cnt = new Ref(!deleted && src.get(keyW.getData()) != null);
             refCount.put(keyW, cnt);
         }
         cnt.journalRefs++;
+        cnt.size = size;
+        insertedValues++;
+        insertedBytes += size;
+    }
+
+    private int averageSize() {
+        return insertedValues == 0 ? 0 : (int) (insertedBytes / insertedValues);
+    }
+
+    private int sizeOf(Ref ref) {
+        return ref != null && ref.size > 0 ? ref.size : averageSize();
     }
 
     private Ref decRef(ByteArrayWrapper keyW) {
-        Ref cnt = refCount.get(keyW);
+        Ref cnt = getRef(keyW);
         cnt.journalRefs -= 1;
         if (cnt.journalRefs == 0) {
-            refCount.remove(keyW);
+            if (journal == null) {
+                refCount.remove(keyW);
+            } else {
+                refCount.put(keyW, null);
+            }
         }
         return cnt;
     }
@@ -109,24 +259,25 @@ public class JournalPruneDataSource implements KeyValueDataSource {
 
     public synchronized void prune(BlockHeader header) {
         ByteArrayWrapper blockHashW = new ByteArrayWrapper(header.getHash());
-        Updates updates = blockUpdates.remove(blockHashW);
+        Updates updates = removeUpdates(blockHashW);
         if (updates != null) {
             for (ByteArrayWrapper insertedKey : updates.insertedKeys) {
                 decRef(insertedKey).dbRef = true;
             }
 
-            Map<byte[], byte[]> batchRemove = new HashMap<>();
+            Map<ByteArrayWrapper, Integer> batchRemove = new LinkedHashMap<>();
             for (ByteArrayWrapper key : updates.deletedKeys) {
-                Ref ref = refCount.get(key);
+                Ref ref = getRef(key);
                 if (ref == null || ref.journalRefs == 0) {
-                    batchRemove.put(key.getData(), null);
+                    batchRemove.put(key, sizeOf(ref));
                 } else if (ref != null) {
                     ref.dbRef = false;
                 }
             }
-            src.updateBatch(batchRemove);
+            deleteKeys(batchRemove);
 
             rollbackForkBlocks(header.getNumber());
+            prunedBlocks++;
         }
     }
 
@@ -140,15 +291,164 @@ public class JournalPruneDataSource implements KeyValueDataSource {
 
     private synchronized void rollback(BlockHeader header) {
         ByteArrayWrapper blockHashW = new ByteArrayWrapper(header.getHash());
-        Updates updates = blockUpdates.remove(blockHashW);
-        Map<byte[], byte[]> batchRemove = new HashMap<>();
+        Updates updates = removeUpdates(blockHashW);
+        Map<ByteArrayWrapper, Integer> batchRemove = new LinkedHashMap<>();
         for (ByteArrayWrapper insertedKey : updates.insertedKeys) {
             Ref ref = decRef(insertedKey);
             if (ref.getTotRefs() == 0) {
-                batchRemove.put(insertedKey.getData(), null);
+                batchRemove.put(insertedKey, sizeOf(ref));
+            }
+        }
+        deleteKeys(batchRemove);
+    }
+
+    // removes the block from the journal, the changed keys are loaded if needed
+    private Updates removeUpdates(ByteArrayWrapper blockHashW) {
+        Updates updates = blockUpdates.remove(blockHashW);
+        if (updates != null && journal != null) {
+            removedBlocks.add(blockHashW);
+            if (updates.insertedKeys == null) {
+                RLPReader record = new RLPReader(journal.get(updatesKey(blockHashW.getData()))).readList();
+                record.skip();
+                updates.insertedKeys = decodeKeys(record.readList());
+                updates.deletedKeys = decodeKeys(record.readList());
             }
         }
+        return updates;
+    }
+
+    // key => size of the value
+    private void deleteKeys(Map<ByteArrayWrapper, Integer> keys) {
+        if (keys.isEmpty()) return;
+
+        if (batchSize > 0) {
+            pendingDeletes.putAll(keys);
+            scheduleDeletes();
+        } else {
+            deleteNow(keys);
+        }
+    }
+
+    private void deleteNow(Map<ByteArrayWrapper, Integer> keys) {
+        Map<byte[], byte[]> batchRemove = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, Integer> entry : keys.entrySet()) {
+            batchRemove.put(entry.getKey().getData(), null);
+            reclaimedBytes += entry.getValue();
+        }
         src.updateBatch(batchRemove);
+        deletedKeys += keys.size();
+    }
+
+    private void scheduleDeletes() {
+        if (deletesScheduled) return;
+        deletesScheduled = true;
+
+        pruner.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (deleteBatch()) {
+                        // the lock is released between the batches so the import can go on
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Pruning " + getName() + " failed", e);
+                    synchronized (JournalPruneDataSource.this) {
+                        deletesScheduled = false;
+                    }
+                }
+            }
+        });
+    }
+
+    // submits the next batch of the queued deletes, false if there are none
+    private synchronized boolean deleteBatch() {
+        if (pendingDeletes.isEmpty() || closed) {
+            deletesScheduled = false;
+            return false;
+        }
+
+        Map<ByteArrayWrapper, Integer> batch = new LinkedHashMap<>();
+        Iterator<Map.Entry<ByteArrayWrapper, Integer>> it = pendingDeletes.entrySet().iterator();
+        while (it.hasNext() && batch.size() < batchSize) {
+            Map.Entry<ByteArrayWrapper, Integer> entry = it.next();
+            batch.put(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        deleteNow(batch);
+        return true;
+    }
+
+    /**
+     * Writes the journal changes to the journal source, the source the keys
+     * are pruned from is flushed by its owner
+     */
+    @Override
+    public synchronized void flush() {
+        if (journal == null) return;
+
+        Map<byte[], byte[]> batch = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, Ref> entry : refCount.entrySet()) {
+            Ref ref = entry.getValue();
+            batch.put(refKey(entry.getKey()), ref == null ? null : ref.encode());
+        }
+        for (ByteArrayWrapper hash : removedBlocks) {
+            batch.put(updatesKey(hash.getData()), null);
+        }
+
+        List<ByteArrayWrapper> hashes = new ArrayList<>(blockUpdates.size());
+        for (Map.Entry<ByteArrayWrapper, Updates> entry : blockUpdates.entrySet()) {
+            Updates updates = entry.getValue();
+            if (updates.insertedKeys != null) {
+                byte[] record = RLP.encodeList(updates.blockHeader.getEncoded(),
+                        encodeKeys(updates.insertedKeys), encodeKeys(updates.deletedKeys));
+                batch.put(updatesKey(entry.getKey().getData()), record);
+                updates.insertedKeys = null;
+                updates.deletedKeys = null;
+            }
+            hashes.add(entry.getKey());
+        }
+        batch.put(BLOCKS_KEY, encodeKeys(hashes));
+        batch.put(DELETES_KEY, encodeKeys(pendingDeletes.keySet()));
+        batch.put(SIZES_KEY, ByteUtil.merge(ByteUtil.longToBytes(insertedValues), ByteUtil.longToBytes(insertedBytes)));
+
+        journal.updateBatch(batch);
+        refCount.clear();
+        removedBlocks.clear();
+    }
+
+    private static byte[] refKey(ByteArrayWrapper key) {
+        return prefixed(REF_PREFIX, key.getData());
+    }
+
+    private static byte[] updatesKey(byte[] blockHash) {
+        return prefixed(UPDATES_PREFIX, blockHash);
+    }
+
+    private static byte[] prefixed(byte prefix, byte[] key) {
+        byte[] ret = new byte[key.length + 1];
+        ret[0] = prefix;
+        System.arraycopy(key, 0, ret, 1, key.length);
+        return ret;
+    }
+
+    private static byte[] encodeKeys(Collection<ByteArrayWrapper> keys) {
+        int size = 0;
+        for (ByteArrayWrapper key : keys) {
+            size += RLPWriter.sizeOfElement(key.getData());
+        }
+        RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size)).writeListHeader(size);
+        for (ByteArrayWrapper key : keys) {
+            writer.writeElement(key.getData());
+        }
+        return writer.toByteArray();
+    }
+
+    private static Set<ByteArrayWrapper> decodeKeys(RLPReader keys) {
+        Set<ByteArrayWrapper> ret = new HashSet<>();
+        while (keys.hasNext()) {
+            ret.add(new ByteArrayWrapper(keys.readBytes()));
+        }
+        return ret;
     }
 
     public Map<ByteArrayWrapper, Ref> getRefCount() {
@@ -159,6 +459,37 @@ public class JournalPruneDataSource implements KeyValueDataSource {
         return blockUpdates;
     }
 
+    /***** metrics *****/
+
+    /**
+     * @return number of the blocks pruned since the start
+     */
+    public synchronized long getPrunedBlocks() {
+        return prunedBlocks;
+    }
+
+    /**
+     * @return number of the keys queued for the background deletion
+     */
+    public synchronized int getPendingDeletes() {
+        return pendingDeletes.size();
+    }
+
+    /**
+     * @return number of the keys deleted since the start
+     */
+    public synchronized long getDeletedKeys() {
+        return deletedKeys;
+    }
+
+    /**
+     * @return size of the values deleted since the start, estimated
+     *         for the keys inserted before the journal was kept
+     */
+    public synchronized long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
     /***** other *****/
 
     public byte[] get(byte[] key) {
@@ -181,10 +512,23 @@ public class JournalPruneDataSource implements KeyValueDataSource {
         return src.keys();
     }
 
-    public void close() {
+    public synchronized void close() {
+        closeJournal();
         src.close();
     }
 
+    /**
+     * Stops the background pruning and closes the journal source,
+     * the source the keys are pruned from is left to its owner
+     */
+    public synchronized void closeJournal() {
+        closed = true;
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
     public String getName() {
         return src.getName();
     }
@@ -46,7 +46,9 @@ public class Node {
 
     /* RLP encoded value of the Trie-node */
     private final Value value;
-    private boolean dirty;
+    private volatile boolean dirty;
+    /* set on each cache hit and cleared by the eviction sweep */
+    private volatile boolean referenced;
 
     public Node(Value val) {
         this(val, false);
@@ -69,6 +71,14 @@ public class Node {
         this.dirty = dirty;
     }
 
+    public boolean isReferenced() {
+        return referenced;
+    }
+
+    public void setReferenced(boolean referenced) {
+        this.referenced = referenced;
+    }
+
     public Value getValue() {
         return value;
     }
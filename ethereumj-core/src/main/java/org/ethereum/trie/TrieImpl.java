@@ -12,11 +12,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static java.util.Arrays.copyOfRange;
 import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
@@ -44,6 +43,12 @@ import static org.spongycastle.util.Arrays.concatenate;
  *
  * <b>Note:</b> the data isn't persisted unless `sync` is explicitly called.
  *
+ * Nodes created by updates are kept unhashed (as plain Object[] children of
+ * their parents) until the root hash is needed: {@link #getRootHash()}, sync,
+ * or access to the cache hash the modified part of the tree bottom-up once,
+ * instead of re-hashing the whole path on every update. Large batches of updates
+ * are hashed in parallel, one task per subtree below the top branch levels.
+ *
  * This Trie implementation supports node pruning (i.e. obsolete nodes are marked
  * for removal in the Cache and actually removed from the underlying storage
  * on [sync] call), but the algorithm is not suitable for the most general case.
@@ -62,10 +67,20 @@ public class TrieImpl implements Trie {
     private static byte PAIR_SIZE = 2;
     private static byte LIST_SIZE = 17;
 
+    // updates since the last hashing above which the subtrees are hashed in parallel
+    private static final int PARALLEL_HASH_THRESHOLD = 512;
+    // branch levels split into parallel tasks, up to 16^2 subtrees
+    private static final int PARALLEL_HASH_DEPTH = 2;
+
+    private static final ForkJoinPool hashPool = new ForkJoinPool();
+
     private Object prevRoot;
-    private Object root;
+    // written under the cache monitor, read without locking
+    private volatile Object root;
     private Cache cache;
     private boolean pruningEnabled;
+    // guarded by cache
+    private int unhashedUpdates;
 
     public TrieImpl(KeyValueDataSource db) {
         this(db, "");
@@ -85,7 +100,11 @@ public class TrieImpl implements Trie {
         this.cache = cache;
     }
 
+    /**
+     * Returns the cache holding all the nodes of the current root
+     */
     public Cache getCache() {
+        hashRoot();
         return this.cache;
     }
 
@@ -94,6 +113,7 @@ public class TrieImpl implements Trie {
     }
 
     public Object getRoot() {
+        hashRoot();
         return root;
     }
 
@@ -123,6 +143,15 @@ public class TrieImpl implements Trie {
         return this;
     }
 
+    /**
+     * Keeps up to the given number of bytes of clean nodes
+     * in the cache between commits
+     */
+    public TrieImpl withCacheSize(long cacheSize) {
+        this.cache.setMaxCacheSize(cacheSize);
+        return this;
+    }
+
     /**************************************
      * Public (query) interface functions *
      **************************************/
@@ -134,16 +163,19 @@ public class TrieImpl implements Trie {
         return this.get(key.getBytes());
     }
 
+    /**
+     * Doesn't lock the cache: nodes are immutable once hashed so the lookup
+     * walks a consistent tree from the root seen at the start of the call
+     * even while a writer is updating the trie.
+     */
     @Override
     public byte[] get(byte[] key) {
-        synchronized (cache) {
-            if (logger.isDebugEnabled())
-                logger.debug("Retrieving key {}", Hex.toHexString(key));
-            byte[] k = binToNibbles(key);
-            Value c = new Value(this.get(this.root, k));
+        if (logger.isDebugEnabled())
+            logger.debug("Retrieving key {}", Hex.toHexString(key));
+        byte[] k = binToNibbles(key);
+        Value c = new Value(this.get(this.root, k));
 
-            return c.asBytes();
-        }
+        return c.asBytes();
     }
 
     /**
@@ -164,6 +196,7 @@ public class TrieImpl implements Trie {
                 cache.markRemoved(getRootHash());
             }
             this.root = this.insertOrDelete(this.root, k, value);
+            ++unhashedUpdates;
             if (logger.isDebugEnabled()) {
                 logger.debug("Added key {} and value {}", Hex.toHexString(key), Hex.toHexString(value));
                 logger.debug("New root-hash: {}", Hex.toHexString(this.getRootHash()));
@@ -191,17 +224,17 @@ public class TrieImpl implements Trie {
 
     @Override
     public byte[] getRootHash() {
-        synchronized (cache) {
-            if (root == null
-                    || (root instanceof byte[] && ((byte[]) root).length == 0)
-                    || (root instanceof String && "".equals(root))) {
-                return EMPTY_TRIE_HASH;
-            } else if (root instanceof byte[]) {
-                return (byte[]) this.getRoot();
-            } else {
-                Value rootValue = new Value(this.getRoot());
-                return rootValue.hash();
-            }
+        hashRoot();
+        Object root = this.root;
+        if (root == null
+                || (root instanceof byte[] && ((byte[]) root).length == 0)
+                || (root instanceof String && "".equals(root))) {
+            return EMPTY_TRIE_HASH;
+        } else if (root instanceof byte[]) {
+            return (byte[]) root;
+        } else {
+            Value rootValue = new Value(root);
+            return rootValue.hash();
         }
     }
 
@@ -210,29 +243,26 @@ public class TrieImpl implements Trie {
      ****************************************/
 
     private Object get(Object node, byte[] key) {
-        synchronized (cache) {
-
-            // Return the node if key is empty (= found)
-            if (key.length == 0 || isEmptyNode(node)) {
-                return node;
-            }
+        // Return the node if key is empty (= found)
+        if (key.length == 0 || isEmptyNode(node)) {
+            return node;
+        }
 
-            Value currentNode = this.getNode(node);
-            if (currentNode == null) return null;
+        Value currentNode = this.getNode(node);
+        if (currentNode == null) return null;
 
-            if (currentNode.length() == PAIR_SIZE) {
-                // Decode the key
-                byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
-                Object v = currentNode.get(1).asObj();
+        if (currentNode.length() == PAIR_SIZE) {
+            // Decode the key
+            byte[] k = unpackToNibbles(currentNode.get(0).asBytes());
+            Object v = currentNode.get(1).asObj();
 
-                if (key.length >= k.length && Arrays.equals(k, copyOfRange(key, 0, k.length))) {
-                    return this.get(v, copyOfRange(key, k.length, key.length));
-                } else {
-                    return "";
-                }
+            if (key.length >= k.length && Arrays.equals(k, copyOfRange(key, 0, k.length))) {
+                return this.get(v, copyOfRange(key, k.length, key.length));
             } else {
-                return this.get(currentNode.get(key[0]).asObj(), copyOfRange(key, 1, key.length));
+                return "";
             }
+        } else {
+            return this.get(currentNode.get(key[0]).asObj(), copyOfRange(key, 1, key.length));
         }
     }
 
@@ -255,8 +285,7 @@ public class TrieImpl implements Trie {
         }
 
         if (isEmptyNode(node)) {
-            Object[] newNode = new Object[]{packNibbles(key), value};
-            return this.putToCache(newNode);
+            return new Object[]{packNibbles(key), value};
         }
 
         Value currentNode = this.getNode(node);
@@ -273,8 +302,10 @@ public class TrieImpl implements Trie {
 
             // Matching key pair (ie. there's already an object with this key)
             if (Arrays.equals(k, key)) {
-                Object[] newNode = new Object[]{packNibbles(key), value};
-                return this.putToCache(newNode);
+                if (v instanceof byte[] && value instanceof byte[] && Arrays.equals((byte[]) v, (byte[]) value)) {
+                    return node;
+                }
+                return new Object[]{packNibbles(key), value};
             }
 
             Object newHash;
@@ -283,11 +314,13 @@ public class TrieImpl implements Trie {
                 // Insert the hash, creating a new node
                 byte[] remainingKeypart = copyOfRange(key, matchingLength, key.length);
                 newHash = this.insert(v, remainingKeypart, value);
+                // nothing changed below, the node stays as it is
+                if (newHash == v) return node;
 
             } else {
 
                 // Expand the 2 length slice to a 17 length slice
-                // Create two nodes to putToCache into the new 17 length node
+                // Create two nodes to put into the new 17 length node
                 Object oldNode = this.insert("", copyOfRange(k, matchingLength + 1, k.length), v);
                 Object newNode = this.insert("", copyOfRange(key, matchingLength + 1, key.length), value);
 
@@ -297,17 +330,16 @@ public class TrieImpl implements Trie {
                 // Set the copied and new node
                 scaledSlice[k[matchingLength]] = oldNode;
                 scaledSlice[key[matchingLength]] = newNode;
-                newHash = this.putToCache(scaledSlice);
+                newHash = scaledSlice;
             }
 
-            markRemoved(currentNode.hash());
+            markRemoved(node);
 
             if (matchingLength == 0) {
                 // End of the chain, return
                 return newHash;
             } else {
-                Object[] newNode = new Object[]{packNibbles(copyOfRange(key, 0, matchingLength)), newHash};
-                return this.putToCache(newNode);
+                return new Object[]{packNibbles(copyOfRange(key, 0, matchingLength)), newHash};
             }
         } else {
 
@@ -315,16 +347,18 @@ public class TrieImpl implements Trie {
             Object[] newNode = copyNode(currentNode);
 
             // Replace the first nibble in the key
-            newNode[key[0]] = this.insert(currentNode.get(key[0]).asObj(), copyOfRange(key, 1, key.length), value);
+            Object oldChild = currentNode.get(key[0]).asObj();
+            newNode[key[0]] = this.insert(oldChild, copyOfRange(key, 1, key.length), value);
 
-            if (!FastByteComparisons.equal(getNode(newNode).hash(), currentNode.hash())) {
-                markRemoved(currentNode.hash());
-                if (!isEmptyNode(currentNode.get(key[0]))) {
-                    markRemoved(currentNode.get(key[0]).asBytes());
-                }
+            // nothing changed below, the node stays as it is
+            if (newNode[key[0]] == oldChild) return node;
+
+            markRemoved(node);
+            if (!isEmptyNode(oldChild)) {
+                markRemoved(oldChild);
             }
 
-            return this.putToCache(newNode);
+            return newNode;
         }
     }
 
@@ -360,8 +394,8 @@ public class TrieImpl implements Trie {
                 } else {
                     newNode = new Object[]{currentNode.get(0), hash};
                 }
-                markRemoved(currentNode.hash());
-                return this.putToCache(newNode);
+                markRemoved(node);
+                return newNode;
             } else {
                 return node;
             }
@@ -370,7 +404,11 @@ public class TrieImpl implements Trie {
             Object[] itemList = copyNode(currentNode);
 
             // Replace the first nibble in the key
-            itemList[key[0]] = this.delete(itemList[key[0]], copyOfRange(key, 1, key.length));
+            Object oldChild = itemList[key[0]];
+            itemList[key[0]] = this.delete(oldChild, copyOfRange(key, 1, key.length));
+
+            // nothing changed below, the node stays as it is
+            if (itemList[key[0]] == oldChild) return node;
 
             byte amount = -1;
             for (byte i = 0; i < LIST_SIZE; i++) {
@@ -399,17 +437,19 @@ public class TrieImpl implements Trie {
             }
 
 
-            if (!FastByteComparisons.equal(getNode(newNode).hash(), currentNode.hash())) {
-                markRemoved(currentNode.hash());
-            }
+            markRemoved(node);
 
-            return this.putToCache(newNode);
+            return newNode;
         }
     }
 
-    private void markRemoved(byte[] hash) {
-        if (pruningEnabled) {
-            cache.markRemoved(hash);
+    /**
+     * Marks the node as removed if it has been stored under its hash,
+     * nodes created since the last hashing never got to the cache
+     */
+    private void markRemoved(Object node) {
+        if (pruningEnabled && node instanceof byte[] && ((byte[]) node).length == 32) {
+            cache.markRemoved((byte[]) node);
         }
     }
 
@@ -436,8 +476,104 @@ public class TrieImpl implements Trie {
         return this.cache.get(keyBytes);
     }
 
-    private Object putToCache(Object node) {
-        return this.cache.put(node);
+    /**
+     * Hashes the nodes created by updates since the last call and puts them to the cache
+     */
+    private void hashRoot() {
+        if (!(this.root instanceof Object[])) return;
+
+        synchronized (cache) {
+            Object root = this.root;
+            if (!(root instanceof Object[])) return;
+
+            Queue<Value> hashed = new ConcurrentLinkedQueue<>();
+            if (unhashedUpdates >= PARALLEL_HASH_THRESHOLD) {
+                root = hashPool.invoke(new HashTask(root, 0, hashed));
+            } else {
+                root = hashNode(root, hashed);
+            }
+
+            for (Value node : hashed) {
+                cache.put(node);
+            }
+            this.root = root;
+            this.unhashedUpdates = 0;
+        }
+    }
+
+    /**
+     * Hashes the unhashed nodes of the subtree bottom-up, doesn't touch the cache
+     *
+     * @param hashed collects the nodes to be stored under their hashes
+     * @return the reference to the node for its parent: the keccak hash if the
+     *         RLP encoded node is 32 bytes or longer, the node itself otherwise
+     */
+    private static Object hashNode(Object node, Collection<Value> hashed) {
+        if (!(node instanceof Object[])) return node;
+
+        Object[] items = (Object[]) node;
+        Object[] children = items;
+        for (int i = 0; i < items.length; i++) {
+            Object child = hashNode(items[i], hashed);
+            if (child != items[i]) {
+                // nodes may be shared with readers and other tries, never modify them
+                if (children == items) children = items.clone();
+                children[i] = child;
+            }
+        }
+        return encode(children, hashed);
+    }
+
+    private static Object encode(Object[] node, Collection<Value> hashed) {
+        Value value = new Value(node);
+        if (value.encode().length >= 32) {
+            hashed.add(value);
+            return value.hash();
+        }
+        return value;
+    }
+
+    /**
+     * Hashes the subtrees of the top branch nodes in parallel
+     */
+    private static class HashTask extends RecursiveTask<Object> {
+
+        private final Object node;
+        private final int depth;
+        private final Queue<Value> hashed;
+
+        HashTask(Object node, int depth, Queue<Value> hashed) {
+            this.node = node;
+            this.depth = depth;
+            this.hashed = hashed;
+        }
+
+        @Override
+        protected Object compute() {
+            if (!(node instanceof Object[])) return node;
+
+            Object[] items = (Object[]) node;
+            if (depth >= PARALLEL_HASH_DEPTH || items.length != LIST_SIZE) {
+                List<Value> subtree = new ArrayList<>();
+                Object ret = hashNode(node, subtree);
+                hashed.addAll(subtree);
+                return ret;
+            }
+
+            HashTask[] tasks = new HashTask[LIST_SIZE];
+            for (int i = 0; i < LIST_SIZE; i++) {
+                if (items[i] instanceof Object[]) {
+                    tasks[i] = new HashTask(items[i], depth + 1, hashed);
+                    tasks[i].fork();
+                }
+            }
+
+            Object[] children = items.clone();
+            for (int i = LIST_SIZE - 1; i >= 0; i--) {
+                if (tasks[i] != null) children[i] = tasks[i].join();
+            }
+            return encode(children, hashed);
+        }
     }
 
     private boolean isEmptyNode(Object node) {
@@ -465,6 +601,7 @@ public class TrieImpl implements Trie {
     @Override
     public void sync() {
         synchronized (cache) {
+            hashRoot();
             this.cache.commit();
             this.prevRoot = this.root;
         }
@@ -475,6 +612,7 @@ public class TrieImpl implements Trie {
         synchronized (cache) {
             this.cache.undo();
             this.root = this.prevRoot;
+            this.unhashedUpdates = 0;
         }
     }
 
@@ -482,9 +620,8 @@ public class TrieImpl implements Trie {
     public TrieImpl copy() {
         synchronized (cache) {
             TrieImpl trie = new TrieImpl(this.cache.getDb(), this.root);
-            for (ByteArrayWrapper key : this.cache.getNodes().keySet()) {
-                Node node = this.cache.getNodes().get(key);
-                trie.cache.getNodes().put(key, node.copy());
+            for (Map.Entry<byte[], Node> entry : this.cache.getNodes().entrySet()) {
+                trie.cache.putNode(entry.getKey(), entry.getValue().copy());
             }
             return trie;
         }
@@ -519,19 +656,19 @@ public class TrieImpl implements Trie {
             this.scanTree(this.getRootHash(), collectAction);
 
             Set<ByteArrayWrapper> hashSet = collectAction.getCollectedHashes();
-            Map<ByteArrayWrapper, Node> nodes = this.getCache().getNodes();
-            Set<ByteArrayWrapper> toRemoveSet = new HashSet<>();
+            Map<byte[], Node> nodes = this.getCache().getNodes();
+            List<byte[]> toRemoveSet = new ArrayList<>();
 
-            for (ByteArrayWrapper key : nodes.keySet())
-                if (!hashSet.contains(key.getData()))
+            for (byte[] key : nodes.keySet())
+                if (!hashSet.contains(wrap(key)))
                     toRemoveSet.add(key);
 
-            for (ByteArrayWrapper key : toRemoveSet) {
-                this.getCache().delete(key.getData());
+            for (byte[] key : toRemoveSet) {
+                this.getCache().delete(key);
 
                 if (logger.isTraceEnabled())
                     logger.trace("Garbage collected node: [{}]",
-                            Hex.toHexString(key.getData()));
+                            Hex.toHexString(key));
             }
             logger.info("Garbage collected node list, size: [{}]", toRemoveSet.size());
             logger.info("Garbage collection time: [{}ms]", System.currentTimeMillis() - startTime);
@@ -584,7 +721,7 @@ public class TrieImpl implements Trie {
 
                 Value value = Value.fromRlpEncoded(val);
                 System.arraycopy(keysElement.getRLPData(), i * 32, key, 0, 32);
-                cache.getNodes().put(wrap(key), new Node(value));
+                cache.putNode(key, new Node(value));
             }
 
             this.deserializeRoot(root.getRLPData());
@@ -594,17 +731,17 @@ public class TrieImpl implements Trie {
     public byte[] serialize(){
 
         synchronized (cache) {
-            Map<ByteArrayWrapper, Node> map = getCache().getNodes();
+            // a snapshot, both passes below must see the same nodes in the same order
+            List<Map.Entry<byte[], Node>> entries = new ArrayList<>(getCache().getNodes().entrySet());
 
             int keysTotalSize = 0;
             int valsTotalSize = 0;
 
-            Set<ByteArrayWrapper> keys = map.keySet();
-            for (ByteArrayWrapper key : keys) {
-                Node node = map.get(key);
+            for (Map.Entry<byte[], Node> entry : entries) {
+                Node node = entry.getValue();
                 if (node == null) continue;
 
-                byte[] keyBytes = key.getData();
+                byte[] keyBytes = entry.getKey();
                 keysTotalSize += keyBytes.length;
 
                 byte[] valBytes = node.getValue().getData();
@@ -649,15 +786,16 @@ public class TrieImpl implements Trie {
 
             int k_1 = 0;
             int k_2 = 0;
-            for (ByteArrayWrapper key : keys) {
-                Node node = map.get(key);
+            for (Map.Entry<byte[], Node> entry : entries) {
+                Node node = entry.getValue();
                 if (node == null) continue;
 
-                System.arraycopy(key.getData(), 0, rlpData,
+                byte[] key = entry.getKey();
+                System.arraycopy(key, 0, rlpData,
                         (listHeader.length + keysHeader.length + k_1),
-                        key.getData().length);
+                        key.length);
 
-                k_1 += key.getData().length;
+                k_1 += key.length;
 
                 byte[] valBytes = RLP.encodeElement(node.getValue().getData());
 
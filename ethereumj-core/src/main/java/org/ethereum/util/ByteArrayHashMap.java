@@ -0,0 +1,334 @@
+package org.ethereum.util;
+
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hash map keyed by the content of byte arrays, meant to replace
+ * {@code Map<ByteArrayWrapper, V>} on hot paths.
+ *
+ * Keys of the length given on creation (20-byte addresses, 32-byte hashes)
+ * are copied into one flat array and looked up by open addressing with
+ * linear probing, so neither a lookup nor an insert allocates a wrapper.
+ * Keys of any other length are kept in a regular map on the side.
+ *
+ * Reads never lock and may run concurrently with the updates, which are
+ * synchronized on the map. Thus, like {@link Collections#synchronizedMap},
+ * iterating under {@code synchronized (map)} excludes the writers; otherwise
+ * the iterators are weakly consistent and never throw
+ * {@link ConcurrentModificationException}.
+ * A key is written before its value is published and a slot is never given
+ * to another key until the table is rebuilt, so a reader which has found
+ * a value can't see the key change under it. Removed entries leave
+ * a tombstone which is dropped by the next rebuild.
+ *
+ * Iterated keys are copies, null keys are not supported.
+ */
+public class ByteArrayHashMap<V> extends AbstractMap<byte[], V> {
+
+    private static final Object NULL = new Object();
+    private static final Object REMOVED = new Object();
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table {
+        final byte[] keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+
+        Table(int capacity, int keyLength) {
+            keys = new byte[capacity * keyLength];
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    private final int keyLength;
+    private volatile Table table;
+    // slots taken by keys including the removed ones, guarded by this
+    private int used;
+    private volatile int size;
+
+    // keys of another length
+    private final Map<ByteArrayWrapper, Object> other = new ConcurrentHashMap<>();
+
+    private Set<Entry<byte[], V>> entrySet;
+
+    public ByteArrayHashMap(int keyLength) {
+        this(keyLength, MIN_CAPACITY);
+    }
+
+    public ByteArrayHashMap(int keyLength, int expectedSize) {
+        if (keyLength <= 0) throw new IllegalArgumentException("Key length must be positive: " + keyLength);
+        this.keyLength = keyLength;
+        this.table = new Table(capacityFor(expectedSize), keyLength);
+    }
+
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    @Override
+    public int size() {
+        return size + other.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof byte[])) return null;
+        byte[] k = (byte[]) key;
+        if (k.length != keyLength) return unmask(other.get(new ByteArrayWrapper(k)));
+
+        Table t = table;
+        int slot = find(t, k);
+        return slot < 0 ? null : unmask(t.values.get(slot));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof byte[])) return false;
+        byte[] k = (byte[]) key;
+        if (k.length != keyLength) return other.containsKey(new ByteArrayWrapper(k));
+
+        Table t = table;
+        int slot = find(t, k);
+        return slot >= 0 && t.values.get(slot) != REMOVED;
+    }
+
+    @Override
+    public synchronized V put(byte[] key, V value) {
+        if (key.length != keyLength) return unmask(other.put(new ByteArrayWrapper(key), mask(value)));
+
+        Table t = table;
+        int slot = find(t, key);
+        if (slot >= 0) {
+            Object old = t.values.get(slot);
+            t.values.set(slot, mask(value));
+            if (old == REMOVED) size++;
+            return unmask(old);
+        }
+
+        if ((used + 1) * 4 > t.values.length() * 3) {
+            rebuild(size + 1);
+            t = table;
+            slot = find(t, key);
+        }
+
+        slot = -1 - slot;
+        System.arraycopy(key, 0, t.keys, slot * keyLength, keyLength);
+        // publishes the key to the readers
+        t.values.set(slot, mask(value));
+        used++;
+        size++;
+        return null;
+    }
+
+    /**
+     * Same as {@code ConcurrentMap.putIfAbsent}
+     */
+    public synchronized V putIfAbsent(byte[] key, V value) {
+        V old = get(key);
+        if (old == null && !containsKey(key)) put(key, value);
+        return old;
+    }
+
+    @Override
+    public synchronized V remove(Object key) {
+        if (!(key instanceof byte[])) return null;
+        byte[] k = (byte[]) key;
+        if (k.length != keyLength) return unmask(other.remove(new ByteArrayWrapper(k)));
+
+        Table t = table;
+        int slot = find(t, k);
+        if (slot < 0) return null;
+
+        Object old = t.values.get(slot);
+        if (old == REMOVED) return null;
+        t.values.set(slot, REMOVED);
+        size--;
+        return unmask(old);
+    }
+
+    /**
+     * Same as {@code ConcurrentMap.remove(key, value)}
+     */
+    public synchronized boolean remove(Object key, Object value) {
+        if (!containsKey(key) || !Objects.equals(get(key), value)) return false;
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public synchronized void clear() {
+        table = new Table(MIN_CAPACITY, keyLength);
+        used = 0;
+        size = 0;
+        other.clear();
+    }
+
+    @Override
+    public Set<Entry<byte[], V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<byte[], V>>() {
+                @Override
+                public Iterator<Entry<byte[], V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return ByteArrayHashMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    ByteArrayHashMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * @return slot of the key or (-1 - slot) of the free slot where it would go
+     */
+    private int find(Table t, byte[] key) {
+        int slot = hash(key) & t.mask;
+        while (true) {
+            // the value is read first, it guards the key bytes
+            if (t.values.get(slot) == null) return -1 - slot;
+            if (keyEquals(t.keys, slot * keyLength, key)) return slot;
+            slot = (slot + 1) & t.mask;
+        }
+    }
+
+    private boolean keyEquals(byte[] keys, int offset, byte[] key) {
+        return FastByteComparisons.compareTo(keys, offset, keyLength, key, 0, keyLength) == 0;
+    }
+
+    /**
+     * Copies the live entries to a new table which is published when complete,
+     * readers keep using the old one meanwhile
+     */
+    private void rebuild(int expectedSize) {
+        Table old = table;
+        Table t = new Table(capacityFor(expectedSize), keyLength);
+        int cnt = 0;
+        byte[] key = new byte[keyLength];
+        for (int i = 0; i < old.values.length(); i++) {
+            Object v = old.values.get(i);
+            if (v == null || v == REMOVED) continue;
+
+            System.arraycopy(old.keys, i * keyLength, key, 0, keyLength);
+            int slot = -1 - find(t, key);
+            System.arraycopy(key, 0, t.keys, slot * keyLength, keyLength);
+            t.values.set(slot, v);
+            cnt++;
+        }
+        table = t;
+        used = cnt;
+    }
+
+    /**
+     * The table is at most half full after a rebuild
+     */
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) capacity <<= 1;
+        return capacity;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 1;
+        int i = 0;
+        for (; i + 4 <= key.length; i += 4) {
+            h = 31 * h + ((key[i] << 24) | ((key[i + 1] & 0xFF) << 16) |
+                    ((key[i + 2] & 0xFF) << 8) | (key[i + 3] & 0xFF));
+        }
+        for (; i < key.length; i++) {
+            h = 31 * h + key[i];
+        }
+        // spread the high bits over the low ones used for the slot index
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V unmask(Object value) {
+        return value == NULL || value == REMOVED ? null : (V) value;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<byte[], V>> {
+        private final Table t = table;
+        private final Iterator<Entry<ByteArrayWrapper, Object>> otherIterator = other.entrySet().iterator();
+        private int slot = -1;
+        private Entry<byte[], V> next;
+        private Entry<byte[], V> last;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (++slot < t.values.length()) {
+                Object v = t.values.get(slot);
+                if (v == null || v == REMOVED) continue;
+
+                byte[] key = Arrays.copyOfRange(t.keys, slot * keyLength, (slot + 1) * keyLength);
+                next = new MapEntry(key, ByteArrayHashMap.<V>unmask(v));
+                return;
+            }
+            if (otherIterator.hasNext()) {
+                Entry<ByteArrayWrapper, Object> e = otherIterator.next();
+                next = new MapEntry(e.getKey().getData(), ByteArrayHashMap.<V>unmask(e.getValue()));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<byte[], V> next() {
+            if (next == null) throw new NoSuchElementException();
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) throw new IllegalStateException();
+            ByteArrayHashMap.this.remove(last.getKey());
+            last = null;
+        }
+    }
+
+    private final class MapEntry extends SimpleEntry<byte[], V> {
+        MapEntry(byte[] key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
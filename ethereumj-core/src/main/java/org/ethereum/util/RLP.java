@@ -669,27 +669,7 @@ public class RLP {
      * @return byte[] RLP encoded
      */
     public static byte[] encode(Object input) {
-        Value val = new Value(input);
-        if (val.isList()) {
-            List<Object> inputArray = val.asList();
-            if (inputArray.isEmpty()) {
-                return encodeLength(inputArray.size(), OFFSET_SHORT_LIST);
-            }
-            byte[] output = ByteUtil.EMPTY_BYTE_ARRAY;
-            for (Object object : inputArray) {
-                output = concatenate(output, encode(object));
-            }
-            byte[] prefix = encodeLength(output.length, OFFSET_SHORT_LIST);
-            return concatenate(prefix, output);
-        } else {
-            byte[] inputAsBytes = toBytes(input);
-            if (inputAsBytes.length == 1 && (inputAsBytes[0] & 0xff) <= 0x80) {
-                return inputAsBytes;
-            } else {
-                byte[] firstByte = encodeLength(inputAsBytes.length, OFFSET_SHORT_ITEM);
-                return concatenate(firstByte, inputAsBytes);
-            }
-        }
+        return new RLPWriter(RLPWriter.sizeOf(input)).write(input).toByteArray();
     }
 
     /**
@@ -974,7 +954,7 @@ public class RLP {
     /*
      *  Utility function to convert Objects into byte arrays
      */
-    private static byte[] toBytes(Object input) {
+    static byte[] toBytes(Object input) {
         if (input instanceof byte[]) {
             return (byte[]) input;
         } else if (input instanceof String) {
@@ -0,0 +1,233 @@
+package org.ethereum.util;
+
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static java.util.Arrays.copyOfRange;
+
+/**
+ * Cursor over RLP encoded data.
+ *
+ * Unlike {@link RLP#decode2(byte[])} doesn't build the tree of the elements
+ * and doesn't copy them: the elements are read one after another right from
+ * the source array. Offsets and lengths are available to the caller, integers
+ * are decoded in place and the lists the caller isn't interested in are skipped
+ * without looking inside.
+ *
+ * Items are returned the same way as {@link RLPItem#getRLPData()} does,
+ * i.e. null for an empty item.
+ */
+public class RLPReader {
+
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+    private static final int OFFSET_LONG_ITEM = 0xb7;
+    private static final int OFFSET_SHORT_LIST = 0xc0;
+    private static final int OFFSET_LONG_LIST = 0xf7;
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+
+    // prefix of the element at pos, decoded on the first request
+    private int payloadOffset = -1;
+    private int payloadLength;
+    private boolean list;
+
+    public RLPReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public RLPReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length + ", size: " + data.length);
+        }
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Reads the remaining bytes of the buffer,
+     * the buffer content is not copied unless it is a direct one
+     */
+    public static RLPReader wrap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new RLPReader(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return new RLPReader(data);
+    }
+
+    public boolean hasNext() {
+        return pos < end;
+    }
+
+    /**
+     * @return true if the next element is a list
+     */
+    public boolean isList() {
+        readPrefix();
+        return list;
+    }
+
+    /**
+     * @return the array the elements are read from
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return offset of the next element, prefix included
+     */
+    public int getOffset() {
+        return pos;
+    }
+
+    /**
+     * @return length of the next element, prefix included
+     */
+    public int getLength() {
+        readPrefix();
+        return payloadOffset + payloadLength - pos;
+    }
+
+    /**
+     * @return offset of the next element's content
+     */
+    public int getPayloadOffset() {
+        readPrefix();
+        return payloadOffset;
+    }
+
+    /**
+     * @return length of the next element's content
+     */
+    public int getPayloadLength() {
+        readPrefix();
+        return payloadLength;
+    }
+
+    /**
+     * Moves to the element following the next one
+     */
+    public void skip() {
+        readPrefix();
+        pos = payloadOffset + payloadLength;
+        payloadOffset = -1;
+    }
+
+    /**
+     * @return reader of the next element's items
+     */
+    public RLPReader readList() {
+        readPrefix();
+        if (!list) throw wrongEncoding("list expected");
+        RLPReader ret = new RLPReader(data, payloadOffset, payloadLength);
+        skip();
+        return ret;
+    }
+
+    /**
+     * @return content of the next item, null if it is empty
+     */
+    public byte[] readBytes() {
+        readItemPrefix();
+        byte[] ret = payloadLength == 0 ? null : copyOfRange(data, payloadOffset, payloadOffset + payloadLength);
+        skip();
+        return ret;
+    }
+
+    /**
+     * @return copy of the next element as it is encoded, prefix included
+     */
+    public byte[] readElement() {
+        byte[] ret = copyOfRange(data, pos, pos + getLength());
+        skip();
+        return ret;
+    }
+
+    /**
+     * Decodes the next item as an unsigned big endian number,
+     * the lowest 64 bits are returned for the longer ones
+     */
+    public long readLong() {
+        readItemPrefix();
+        long ret = 0;
+        for (int i = payloadOffset; i < payloadOffset + payloadLength; i++) {
+            ret = (ret << 8) | (data[i] & 0xFF);
+        }
+        skip();
+        return ret;
+    }
+
+    /**
+     * Decodes the next item as an unsigned big endian number,
+     * the lowest 32 bits are returned for the longer ones
+     */
+    public int readInt() {
+        return (int) readLong();
+    }
+
+    public BigInteger readBigInteger() {
+        byte[] bytes = readBytes();
+        return bytes == null ? BigInteger.ZERO : new BigInteger(1, bytes);
+    }
+
+    private void readItemPrefix() {
+        readPrefix();
+        if (list) throw wrongEncoding("item expected");
+    }
+
+    private void readPrefix() {
+        if (payloadOffset >= 0) return;
+        if (pos >= end) throw new IndexOutOfBoundsException("No more RLP elements");
+
+        int prefix = data[pos] & 0xFF;
+        if (prefix < OFFSET_SHORT_ITEM) {
+            list = false;
+            payloadOffset = pos;
+            payloadLength = 1;
+        } else if (prefix <= OFFSET_LONG_ITEM) {
+            list = false;
+            payloadOffset = pos + 1;
+            payloadLength = prefix - OFFSET_SHORT_ITEM;
+        } else if (prefix < OFFSET_SHORT_LIST) {
+            list = false;
+            readLongLength(prefix - OFFSET_LONG_ITEM);
+        } else if (prefix <= OFFSET_LONG_LIST) {
+            list = true;
+            payloadOffset = pos + 1;
+            payloadLength = prefix - OFFSET_SHORT_LIST;
+        } else {
+            list = true;
+            readLongLength(prefix - OFFSET_LONG_LIST);
+        }
+
+        if ((long) payloadOffset + payloadLength > end) {
+            payloadOffset = -1;
+            throw wrongEncoding("element exceeds its list");
+        }
+    }
+
+    private void readLongLength(int lengthOfLength) {
+        if (lengthOfLength > 4 || pos + lengthOfLength >= end) throw wrongEncoding("wrong length");
+
+        long length = 0;
+        for (int i = pos + 1; i <= pos + lengthOfLength; i++) {
+            length = (length << 8) | (data[i] & 0xFF);
+        }
+        if (length > Integer.MAX_VALUE) throw wrongEncoding("wrong length");
+
+        payloadOffset = pos + 1 + lengthOfLength;
+        payloadLength = (int) length;
+    }
+
+    private RuntimeException wrongEncoding(String message) {
+        return new RuntimeException("RLP wrong encoding, " + message + " at " + pos +
+                " (" + Hex.toHexString(data, pos, Math.min(end - pos, 64)) + ")");
+    }
+}
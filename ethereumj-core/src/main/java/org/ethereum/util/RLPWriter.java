@@ -0,0 +1,244 @@
+package org.ethereum.util;
+
+import java.math.BigInteger;
+
+import static java.util.Arrays.copyOfRange;
+import static org.spongycastle.util.BigIntegers.asUnsignedByteArray;
+
+/**
+ * Writes RLP elements one after another into a single array.
+ *
+ * The caller measures the encoding first with the {@code sizeOf...} methods
+ * and then writes it at once: list headers are written before the items
+ * and no intermediate array is created for the items or the nested lists,
+ * unlike with {@link RLP#encodeList(byte[]...)}.
+ *
+ * The encoding is the same as the one of {@link RLP#encodeElement(byte[])},
+ * {@link RLP#encodeBigInteger(BigInteger)}, {@link RLP#encodeList(byte[]...)}
+ * and {@link RLP#encode(Object)}.
+ */
+public class RLPWriter {
+
+    private static final int SIZE_THRESHOLD = 56;
+    private static final int OFFSET_SHORT_ITEM = 0x80;
+    private static final int OFFSET_LONG_ITEM = 0xb7;
+    private static final int OFFSET_SHORT_LIST = 0xc0;
+    private static final int OFFSET_LONG_LIST = 0xf7;
+
+    private final byte[] data;
+    private final int start;
+    private int pos;
+
+    public RLPWriter(int size) {
+        this(new byte[size], 0);
+    }
+
+    /**
+     * Writes into the given buffer starting from the offset,
+     * the buffer can be reused once the result is taken
+     */
+    public RLPWriter(byte[] buffer, int offset) {
+        this.data = buffer;
+        this.start = offset;
+        this.pos = offset;
+    }
+
+    /* ******************************************************
+     *                      MEASURING                       *
+     * ******************************************************/
+
+    /**
+     * @return size of the {@link #writeElement(byte[])} output
+     */
+    public static int sizeOfElement(byte[] item) {
+        if (item == null || item.length == 0) return 1;
+        if (item.length == 1 && (item[0] & 0xFF) < OFFSET_SHORT_ITEM) return 1;
+        return sizeOfPrefix(item.length) + item.length;
+    }
+
+    /**
+     * @return size of the {@link #writeLong(long)} output
+     */
+    public static int sizeOfLong(long value) {
+        if (value >= 0 && value < OFFSET_SHORT_ITEM) return 1;
+        return 1 + bytesOf(value);
+    }
+
+    /**
+     * @return size of the {@link #writeBigInteger(BigInteger)} output
+     */
+    public static int sizeOfBigInteger(BigInteger value) {
+        if (value.signum() == 0) return 1;
+        if (value.bitLength() <= 63) return sizeOfLong(value.longValue());
+        int length = (value.bitLength() + 7) / 8;
+        return sizeOfPrefix(length) + length;
+    }
+
+    /**
+     * @return size of a list with the given size of the encoded items
+     */
+    public static int sizeOfList(int payloadSize) {
+        return sizeOfPrefix(payloadSize) + payloadSize;
+    }
+
+    /**
+     * @return size of the {@link #write(Object)} output
+     */
+    public static int sizeOf(Object input) {
+        Object obj = unwrap(input);
+        if (isList(obj)) {
+            return sizeOfList(sizeOfItems((Object[]) obj));
+        } else {
+            byte[] bytes = RLP.toBytes(obj);
+            if (bytes.length == 1 && (bytes[0] & 0xFF) <= OFFSET_SHORT_ITEM) return 1;
+            return sizeOfPrefix(bytes.length) + bytes.length;
+        }
+    }
+
+    private static int sizeOfItems(Object[] items) {
+        int size = 0;
+        for (Object item : items) {
+            size += sizeOf(item);
+        }
+        return size;
+    }
+
+    private static Object unwrap(Object input) {
+        return input instanceof Value ? ((Value) input).asObj() : input;
+    }
+
+    // the same check as Value.isList() without wrapping the object
+    private static boolean isList(Object obj) {
+        return obj != null && obj.getClass().isArray() && !obj.getClass().getComponentType().isPrimitive();
+    }
+
+    private static int sizeOfPrefix(int length) {
+        return length < SIZE_THRESHOLD ? 1 : 1 + bytesOf(length);
+    }
+
+    private static int bytesOf(long value) {
+        return 8 - Long.numberOfLeadingZeros(value) / 8;
+    }
+
+    /* ******************************************************
+     *                       WRITING                        *
+     * ******************************************************/
+
+    public RLPWriter writeListHeader(int payloadSize) {
+        writePrefix(payloadSize, OFFSET_SHORT_LIST, OFFSET_LONG_LIST);
+        return this;
+    }
+
+    /**
+     * Writes the item the same way as {@link RLP#encodeElement(byte[])} does,
+     * null is written as an empty item
+     */
+    public RLPWriter writeElement(byte[] item) {
+        if (item == null || item.length == 0) {
+            data[pos++] = (byte) OFFSET_SHORT_ITEM;
+        } else if (item.length == 1 && (item[0] & 0xFF) < OFFSET_SHORT_ITEM) {
+            data[pos++] = item[0];
+        } else {
+            writePrefix(item.length, OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM);
+            System.arraycopy(item, 0, data, pos, item.length);
+            pos += item.length;
+        }
+        return this;
+    }
+
+    /**
+     * Writes the value as a big endian number without leading zeroes,
+     * the value is treated as unsigned
+     */
+    public RLPWriter writeLong(long value) {
+        if (value == 0) {
+            data[pos++] = (byte) OFFSET_SHORT_ITEM;
+        } else if (value > 0 && value < OFFSET_SHORT_ITEM) {
+            data[pos++] = (byte) value;
+        } else {
+            int length = bytesOf(value);
+            data[pos++] = (byte) (OFFSET_SHORT_ITEM + length);
+            writeNumber(value, length);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the number the same way as {@link RLP#encodeBigInteger(BigInteger)} does
+     */
+    public RLPWriter writeBigInteger(BigInteger value) {
+        if (value.signum() == 0) {
+            data[pos++] = (byte) OFFSET_SHORT_ITEM;
+        } else if (value.bitLength() <= 63) {
+            writeLong(value.longValue());
+        } else {
+            writeElement(asUnsignedByteArray(value));
+        }
+        return this;
+    }
+
+    /**
+     * Copies the already encoded element
+     */
+    public RLPWriter writeEncoded(byte[] element) {
+        System.arraycopy(element, 0, data, pos, element.length);
+        pos += element.length;
+        return this;
+    }
+
+    /**
+     * Writes the object the same way as {@link RLP#encode(Object)} does
+     */
+    public RLPWriter write(Object input) {
+        Object obj = unwrap(input);
+        if (isList(obj)) {
+            Object[] items = (Object[]) obj;
+            writeListHeader(sizeOfItems(items));
+            for (Object item : items) {
+                write(item);
+            }
+        } else {
+            byte[] bytes = RLP.toBytes(obj);
+            // unlike the elements a single 0x80 byte is written as it is
+            if (bytes.length == 1 && (bytes[0] & 0xFF) <= OFFSET_SHORT_ITEM) {
+                data[pos++] = bytes[0];
+            } else {
+                writePrefix(bytes.length, OFFSET_SHORT_ITEM, OFFSET_LONG_ITEM);
+                System.arraycopy(bytes, 0, data, pos, bytes.length);
+                pos += bytes.length;
+            }
+        }
+        return this;
+    }
+
+    private void writePrefix(int length, int shortOffset, int longOffset) {
+        if (length < SIZE_THRESHOLD) {
+            data[pos++] = (byte) (shortOffset + length);
+        } else {
+            int lengthOfLength = bytesOf(length);
+            data[pos++] = (byte) (longOffset + lengthOfLength);
+            writeNumber(length, lengthOfLength);
+        }
+    }
+
+    private void writeNumber(long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            data[pos++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public int size() {
+        return pos - start;
+    }
+
+    /**
+     * @return the written bytes, the buffer itself if it has been filled up exactly
+     */
+    public byte[] toByteArray() {
+        if (start == 0 && pos == data.length) return data;
+        return copyOfRange(data, start, pos);
+    }
+}
@@ -15,11 +15,12 @@ import java.util.List;
  */
 public class Value {
 
-    private Object value;
-    private byte[] rlp;
-    private byte[] sha3;
+    // lazily computed fields are volatile since trie nodes are shared between threads
+    private volatile Object value;
+    private volatile byte[] rlp;
+    private volatile byte[] sha3;
 
-    private boolean decoded = false;
+    private volatile boolean decoded = false;
 
     public static Value fromRlpEncoded(byte[] data) {
 
@@ -40,14 +41,12 @@ public class Value {
 
     public Value(Object obj) {
 
-        this.decoded = true;
-        if (obj == null) return;
-
         if (obj instanceof Value) {
             this.value = ((Value) obj).asObj();
         } else {
             this.value = obj;
         }
+        this.decoded = true;
     }
 
     /* *****************
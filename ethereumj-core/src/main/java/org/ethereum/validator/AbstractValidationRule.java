@@ -2,18 +2,59 @@ package org.ethereum.validator;
 
 import org.slf4j.Logger;
 
+import java.util.AbstractList;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
  * Holds errors list to share between all rules
  *
+ * The errors are kept per thread, so a rule may validate
+ * different entities on several threads at once
+ *
  * @author Mikhail Kalinin
  * @since 02.09.2015
  */
 public abstract class AbstractValidationRule implements ValidationRule {
 
-    protected List<String> errors = new LinkedList<>();
+    private final ThreadLocal<List<String>> threadErrors = new ThreadLocal<List<String>>() {
+        @Override
+        protected List<String> initialValue() {
+            return new LinkedList<>();
+        }
+    };
+
+    protected List<String> errors = new AbstractList<String>() {
+        @Override
+        public String get(int index) {
+            return threadErrors.get().get(index);
+        }
+
+        @Override
+        public int size() {
+            return threadErrors.get().size();
+        }
+
+        @Override
+        public void add(int index, String element) {
+            threadErrors.get().add(index, element);
+        }
+
+        @Override
+        public String set(int index, String element) {
+            return threadErrors.get().set(index, element);
+        }
+
+        @Override
+        public String remove(int index) {
+            return threadErrors.get().remove(index);
+        }
+
+        @Override
+        public void clear() {
+            threadErrors.get().clear();
+        }
+    };
 
     @Override
     public List<String> getErrors() {
@@ -193,34 +193,17 @@ public class DataWord implements Comparable<DataWord> {
 
         if (this.isZero()) return;
 
-        for (int i = 0; i < this.data.length; ++i) {
-            this.data[i] = (byte) ~this.data[i];
-        }
-
-        for (int i = this.data.length - 1; i >= 0; --i) {
-            this.data[i] = (byte) (1 + this.data[i] & 0xFF);
-            if (this.data[i] != 0) break;
-        }
+        WordMath.negate(this.data);
     }
 
     public void bnot() {
-        if (this.isZero()) {
-            this.data = ByteUtil.copyToArray(MAX_VALUE);
-            return;
+        for (int i = 0; i < this.data.length; ++i) {
+            this.data[i] = (byte) ~this.data[i];
         }
-        this.data = ByteUtil.copyToArray(MAX_VALUE.subtract(this.value()));
     }
 
-    // By   : Holger
-    // From : http://stackoverflow.com/a/24023466/459349
     public void add(DataWord word) {
-        byte[] result = new byte[32];
-        for (int i = 31, overflow = 0; i >= 0; i--) {
-            int v = (this.data[i] & 0xff) + (word.data[i] & 0xff) + overflow;
-            result[i] = (byte) v;
-            overflow = v >>> 8;
-        }
-        this.data = result;
+        WordMath.add(this.data, word.data);
     }
 
     // old add-method with BigInteger quick hack
@@ -229,94 +212,40 @@ public class DataWord implements Comparable<DataWord> {
         this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
     }
 
-    // TODO: mul can be done in more efficient way
-    // TODO:     with shift left shift right trick
-    // TODO      without BigInteger quick hack
     public void mul(DataWord word) {
-        BigInteger result = value().multiply(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.mul(this.data, word.data);
     }
 
-    // TODO: improve with no BigInteger
     public void div(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = value().divide(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.div(this.data, word.data);
     }
 
-    // TODO: improve with no BigInteger
     public void sDiv(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = sValue().divide(word.sValue());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.sDiv(this.data, word.data);
     }
 
-    // TODO: improve with no BigInteger
     public void sub(DataWord word) {
-        BigInteger result = value().subtract(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.sub(this.data, word.data);
     }
 
-    // TODO: improve with no BigInteger
     public void exp(DataWord word) {
-        BigInteger result = value().modPow(word.value(), _2_256);
-        this.data = ByteUtil.copyToArray(result);
+        WordMath.exp(this.data, word.data);
     }
 
-    // TODO: improve with no BigInteger
     public void mod(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = value().mod(word.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.mod(this.data, word.data);
     }
 
     public void sMod(DataWord word) {
-
-        if (word.isZero()) {
-            this.and(ZERO);
-            return;
-        }
-
-        BigInteger result = sValue().abs().mod(word.sValue().abs());
-        result = (sValue().signum() == -1) ? result.negate() : result;
-
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.sMod(this.data, word.data);
     }
 
     public void addmod(DataWord word1, DataWord word2) {
-        if (word2.isZero()) {
-            this.data = new byte[32];
-            return;
-        }
-
-        BigInteger result = value().add(word1.value()).mod(word2.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.addMod(this.data, word1.data, word2.data);
     }
 
     public void mulmod(DataWord word1, DataWord word2) {
-
-        if (this.isZero() || word1.isZero() || word2.isZero()) {
-            this.data = new byte[32];
-            return;
-        }
-
-        BigInteger result = value().multiply(word1.value()).mod(word2.value());
-        this.data = ByteUtil.copyToArray(result.and(MAX_VALUE));
+        WordMath.mulMod(this.data, word1.data, word2.data);
     }
 
     @JsonValue
@@ -374,7 +303,7 @@ public class DataWord implements Comparable<DataWord> {
     public void signExtend(byte k) {
         if (0 > k || k > 31)
             throw new IndexOutOfBoundsException();
-        byte mask = this.sValue().testBit((k * 8) + 7) ? (byte) 0xff : 0;
+        byte mask = this.data[31 - k] < 0 ? (byte) 0xff : 0;
         for (int i = 31; i > k; i--) {
             this.data[31 - i] = mask;
         }
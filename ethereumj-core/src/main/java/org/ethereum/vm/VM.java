@@ -15,7 +15,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.vm.OpCode.CALL;
 import static org.ethereum.vm.OpCode.CALLCODE;
@@ -76,6 +75,7 @@ public class VM {
     private static VMHook vmHook;
     private boolean vmTrace;
     private long dumpBlock;
+    private boolean predecode;
 
     private final SystemProperties config;
 
@@ -88,6 +88,7 @@ public class VM {
         this.config = config;
         vmTrace = config.vmTrace();
         dumpBlock = config.dumpBlock();
+        predecode = config.vmPredecode();
     }
 
     public void step(Program program) {
@@ -97,7 +98,7 @@ public class VM {
         }
 
         try {
-            OpCode op = OpCode.code(program.getCurrentOp());
+            OpCode op = predecode ? program.getCurrentOpCode() : OpCode.code(program.getCurrentOp());
             if (op == null) {
                 throw Program.Exception.invalidOpCode(program.getCurrentOp());
             }
@@ -121,7 +122,8 @@ public class VM {
             String hint = "";
             long callGas = 0, memWords = 0; // parameters for logging
             long gasCost = op.getTier().asInt();
-            long gasBefore = program.getGas().longValue();
+            boolean dump = dumpBlock >= 0 && program.getNumber().longValue() == dumpBlock;
+            long gasBefore = dump ? program.getGas().longValue() : 0;
             int stepBefore = program.getPC();
 
             /*DEBUG #POC9 if( op.asInt() == 96 || op.asInt() == -128 || op.asInt() == 57 || op.asInt() == 115) {
@@ -284,7 +286,7 @@ public class VM {
             }
 
             // Log debugging line for VM
-            if (program.getNumber().intValue() == dumpBlock)
+            if (dump)
                 this.dumpLine(op, gasBefore, gasCost + callGas, memWords, program);
 
             if (vmHook != null) {
@@ -612,9 +614,7 @@ public class VM {
                 case SHA3: {
                     DataWord memOffsetData = program.stackPop();
                     DataWord lengthData = program.stackPop();
-                    byte[] buffer = program.memoryChunk(memOffsetData.intValueSafe(), lengthData.intValueSafe());
-
-                    byte[] encoded = sha3(buffer);
+                    byte[] encoded = program.memoryHash(memOffsetData.intValueSafe(), lengthData.intValueSafe());
                     DataWord word = new DataWord(encoded);
 
                     if (logger.isInfoEnabled())
@@ -855,8 +855,7 @@ public class VM {
                 case DUP13: case DUP14: case DUP15: case DUP16:{
 
                     int n = op.val() - OpCode.DUP1.val() + 1;
-                    DataWord word_1 = stack.get(stack.size() - n);
-                    program.stackPush(word_1.clone());
+                    stack.dup(n);
                     program.step();
 
                 }   break;
@@ -1049,15 +1048,25 @@ public class VM {
                 case PUSH30:
                 case PUSH31:
                 case PUSH32: {
-                    program.step();
                     int nPush = op.val() - PUSH1.val() + 1;
 
-                    byte[] data = program.sweep(nPush);
+                    if (predecode) {
+                        DataWord data = program.getCurrentPushValue();
+                        program.setPC(program.getPC() + 1 + nPush);
 
-                    if (logger.isInfoEnabled())
-                        hint = "" + Hex.toHexString(data);
+                        if (logger.isInfoEnabled())
+                            hint = "" + data.shortHex();
 
-                    program.stackPush(data);
+                        program.stackPush(data);
+                    } else {
+                        program.step();
+                        byte[] data = program.sweep(nPush);
+
+                        if (logger.isInfoEnabled())
+                            hint = "" + Hex.toHexString(data);
+
+                        program.stackPush(data);
+                    }
                 }
                 break;
                 case JUMPDEST: {
@@ -0,0 +1,360 @@
+package org.ethereum.vm;
+
+/**
+ * 256-bit unsigned and two's complement signed arithmetic over
+ * big-endian 32-byte arrays, as used by {@link DataWord}.
+ *
+ * Numbers are unpacked into eight 32-bit limbs (least significant limb first),
+ * operated on with 64-bit intermediates and packed back into the
+ * destination array, so no {@link java.math.BigInteger} is involved.
+ * All results are taken modulo 2^256 as the EVM requires.
+ *
+ * Division uses Knuth's algorithm D (TAOCP vol. 2, 4.3.1) in the
+ * form given by Hacker's Delight (divmnu).
+ */
+final class WordMath {
+
+    static final int LIMBS = 8;
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private WordMath() {
+    }
+
+    /**
+     * a = a + b (mod 2^256)
+     */
+    static void add(byte[] a, byte[] b) {
+        int carry = 0;
+        for (int i = 31; i >= 0; i--) {
+            int v = (a[i] & 0xff) + (b[i] & 0xff) + carry;
+            a[i] = (byte) v;
+            carry = v >>> 8;
+        }
+    }
+
+    /**
+     * a = a - b (mod 2^256)
+     */
+    static void sub(byte[] a, byte[] b) {
+        int borrow = 0;
+        for (int i = 31; i >= 0; i--) {
+            int v = (a[i] & 0xff) - (b[i] & 0xff) - borrow;
+            a[i] = (byte) v;
+            borrow = (v >> 8) & 1;
+        }
+    }
+
+    /**
+     * a = -a (mod 2^256)
+     */
+    static void negate(byte[] a) {
+        int carry = 1;
+        for (int i = 31; i >= 0; i--) {
+            int v = ((~a[i]) & 0xff) + carry;
+            a[i] = (byte) v;
+            carry = v >>> 8;
+        }
+    }
+
+    /**
+     * a = a * b (mod 2^256)
+     */
+    static void mul(byte[] a, byte[] b) {
+        int[] x = toLimbs(a);
+        int[] y = toLimbs(b);
+        int[] r = new int[LIMBS];
+        mulLow(x, y, r);
+        fromLimbs(r, a);
+    }
+
+    /**
+     * a = a / b, unsigned; a = 0 if b == 0
+     */
+    static void div(byte[] a, byte[] b) {
+        int[] u = toLimbs(a);
+        int[] v = toLimbs(b);
+        int[] q = new int[LIMBS];
+        divmod(u, significant(u), v, significant(v), q, null);
+        fromLimbs(q, a);
+    }
+
+    /**
+     * a = a % b, unsigned; a = 0 if b == 0
+     */
+    static void mod(byte[] a, byte[] b) {
+        int[] u = toLimbs(a);
+        int[] v = toLimbs(b);
+        int[] r = new int[LIMBS];
+        divmod(u, significant(u), v, significant(v), null, r);
+        fromLimbs(r, a);
+    }
+
+    /**
+     * a = a / b, signed, truncating toward zero; a = 0 if b == 0
+     * (-2^255 / -1 wraps around to -2^255)
+     */
+    static void sDiv(byte[] a, byte[] b) {
+        boolean aNeg = isNegative(a);
+        boolean bNeg = isNegative(b);
+        int[] u = toLimbs(a);
+        int[] v = toLimbs(b);
+        if (aNeg) negate(u);
+        if (bNeg) negate(v);
+        int[] q = new int[LIMBS];
+        divmod(u, significant(u), v, significant(v), q, null);
+        if (aNeg != bNeg) negate(q);
+        fromLimbs(q, a);
+    }
+
+    /**
+     * a = a % b, signed, the result takes the sign of the dividend; a = 0 if b == 0
+     */
+    static void sMod(byte[] a, byte[] b) {
+        boolean aNeg = isNegative(a);
+        int[] u = toLimbs(a);
+        int[] v = toLimbs(b);
+        if (aNeg) negate(u);
+        if (isNegative(b)) negate(v);
+        int[] r = new int[LIMBS];
+        divmod(u, significant(u), v, significant(v), null, r);
+        if (aNeg) negate(r);
+        fromLimbs(r, a);
+    }
+
+    /**
+     * a = (a + b) % m, the intermediate sum is not truncated; a = 0 if m == 0
+     */
+    static void addMod(byte[] a, byte[] b, byte[] m) {
+        int[] x = toLimbs(a);
+        int[] y = toLimbs(b);
+        int[] u = new int[LIMBS + 1];
+        long carry = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long t = (x[i] & MASK) + (y[i] & MASK) + carry;
+            u[i] = (int) t;
+            carry = t >>> 32;
+        }
+        u[LIMBS] = (int) carry;
+        int[] v = toLimbs(m);
+        int[] r = new int[LIMBS];
+        divmod(u, significant(u), v, significant(v), null, r);
+        fromLimbs(r, a);
+    }
+
+    /**
+     * a = (a * b) % m, the intermediate product is not truncated; a = 0 if m == 0
+     */
+    static void mulMod(byte[] a, byte[] b, byte[] m) {
+        int[] x = toLimbs(a);
+        int[] y = toLimbs(b);
+        int[] u = new int[2 * LIMBS];
+        for (int i = 0; i < LIMBS; i++) {
+            long carry = 0;
+            long xi = x[i] & MASK;
+            if (xi == 0) continue;
+            for (int j = 0; j < LIMBS; j++) {
+                long t = xi * (y[j] & MASK) + (u[i + j] & MASK) + carry;
+                u[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+            u[i + LIMBS] = (int) carry;
+        }
+        int[] v = toLimbs(m);
+        int[] r = new int[LIMBS];
+        divmod(u, significant(u), v, significant(v), null, r);
+        fromLimbs(r, a);
+    }
+
+    /**
+     * a = a ^ e (mod 2^256), left-to-right square-and-multiply
+     */
+    static void exp(byte[] a, byte[] e) {
+        int[] base = toLimbs(a);
+        int[] result = new int[LIMBS];
+        int[] tmp = new int[LIMBS];
+        result[0] = 1;
+
+        int i = 0;
+        while (i < 32 && e[i] == 0) i++;
+        for (; i < 32; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                mulLow(result, result, tmp);
+                int[] swap = result; result = tmp; tmp = swap;
+                if (((e[i] >>> bit) & 1) != 0) {
+                    mulLow(result, base, tmp);
+                    swap = result; result = tmp; tmp = swap;
+                }
+            }
+        }
+        fromLimbs(result, a);
+    }
+
+    static boolean isNegative(byte[] a) {
+        return a[0] < 0;
+    }
+
+    /**
+     * r = x * y truncated to 8 limbs, r must not alias x or y
+     */
+    private static void mulLow(int[] x, int[] y, int[] r) {
+        for (int i = 0; i < LIMBS; i++) r[i] = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long xi = x[i] & MASK;
+            if (xi == 0) continue;
+            long carry = 0;
+            for (int j = 0; j < LIMBS - i; j++) {
+                long t = xi * (y[j] & MASK) + (r[i + j] & MASK) + carry;
+                r[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+        }
+    }
+
+    /**
+     * Two's complement negation of the low 8 limbs in place
+     */
+    private static void negate(int[] x) {
+        long carry = 1;
+        for (int i = 0; i < LIMBS; i++) {
+            long t = ((~x[i]) & MASK) + carry;
+            x[i] = (int) t;
+            carry = t >>> 32;
+        }
+    }
+
+    /**
+     * Number of limbs up to and including the most significant non-zero one
+     */
+    private static int significant(int[] x) {
+        int n = x.length;
+        while (n > 0 && x[n - 1] == 0) n--;
+        return n;
+    }
+
+    /**
+     * Divides the m-limb number u by the n-limb number v.
+     * The quotient (m - n + 1 limbs) goes to q and the remainder (n limbs) to r,
+     * either of which may be null when not needed. Both are left zeroed when
+     * v is zero, which matches the EVM convention for division by zero.
+     * The caller supplies q and r zero filled; u is not modified.
+     */
+    private static void divmod(int[] u, int m, int[] v, int n, int[] q, int[] r) {
+        if (n == 0) return;
+
+        if (m < n) {
+            if (r != null) System.arraycopy(u, 0, r, 0, m);
+            return;
+        }
+
+        if (n == 1) {
+            long d = v[0] & MASK;
+            long k = 0;
+            for (int j = m - 1; j >= 0; j--) {
+                long num = (k << 32) | (u[j] & MASK);
+                long qj = divideUnsigned(num, d);
+                if (q != null) q[j] = (int) qj;
+                k = num - qj * d;
+            }
+            if (r != null) r[0] = (int) k;
+            return;
+        }
+
+        // normalize so that the top bit of the divisor is set
+        int s = Integer.numberOfLeadingZeros(v[n - 1]);
+        int[] vn = new int[n];
+        for (int i = n - 1; i > 0; i--)
+            vn[i] = (v[i] << s) | (int) ((v[i - 1] & MASK) >>> (32 - s));
+        vn[0] = v[0] << s;
+
+        int[] un = new int[m + 1];
+        un[m] = (int) ((u[m - 1] & MASK) >>> (32 - s));
+        for (int i = m - 1; i > 0; i--)
+            un[i] = (u[i] << s) | (int) ((u[i - 1] & MASK) >>> (32 - s));
+        un[0] = u[0] << s;
+
+        long vTop = vn[n - 1] & MASK;
+        long vNext = vn[n - 2] & MASK;
+
+        for (int j = m - n; j >= 0; j--) {
+            // estimate the quotient digit
+            long num = ((un[j + n] & MASK) << 32) | (un[j + n - 1] & MASK);
+            long qhat = divideUnsigned(num, vTop);
+            long rhat = num - qhat * vTop;
+
+            while (qhat > MASK ||
+                    unsignedGreater(qhat * vNext, (rhat << 32) | (un[j + n - 2] & MASK))) {
+                qhat--;
+                rhat += vTop;
+                if (rhat > MASK) break;
+            }
+
+            // multiply and subtract
+            long borrow = 0;
+            long t;
+            for (int i = 0; i < n; i++) {
+                long p = qhat * (vn[i] & MASK);
+                t = (un[i + j] & MASK) - borrow - (p & MASK);
+                un[i + j] = (int) t;
+                borrow = (p >>> 32) - (t >> 32);
+            }
+            t = (un[j + n] & MASK) - borrow;
+            un[j + n] = (int) t;
+
+            // the estimate was one too large, add back
+            if (t < 0) {
+                qhat--;
+                long carry = 0;
+                for (int i = 0; i < n; i++) {
+                    t = (un[i + j] & MASK) + (vn[i] & MASK) + carry;
+                    un[i + j] = (int) t;
+                    carry = t >>> 32;
+                }
+                un[j + n] += (int) carry;
+            }
+
+            if (q != null) q[j] = (int) qhat;
+        }
+
+        if (r != null) {
+            for (int i = 0; i < n - 1; i++)
+                r[i] = (un[i] >>> s) | (int) ((un[i + 1] & MASK) << (32 - s));
+            r[n - 1] = un[n - 1] >>> s;
+        }
+    }
+
+    /**
+     * Unsigned 64-bit by (at most) 32-bit division
+     */
+    private static long divideUnsigned(long num, long d) {
+        if (num >= 0) return num / d;
+        long quotient = ((num >>> 1) / d) << 1;
+        long rem = num - quotient * d;
+        return rem >= d || rem < 0 ? quotient + 1 : quotient;
+    }
+
+    private static boolean unsignedGreater(long a, long b) {
+        return (a + Long.MIN_VALUE) > (b + Long.MIN_VALUE);
+    }
+
+    private static int[] toLimbs(byte[] a) {
+        int[] x = new int[LIMBS];
+        for (int i = 0; i < LIMBS; i++) {
+            int off = 28 - 4 * i;
+            x[i] = (a[off] << 24) | ((a[off + 1] & 0xff) << 16) |
+                    ((a[off + 2] & 0xff) << 8) | (a[off + 3] & 0xff);
+        }
+        return x;
+    }
+
+    private static void fromLimbs(int[] x, byte[] a) {
+        for (int i = 0; i < LIMBS; i++) {
+            int off = 28 - 4 * i;
+            int v = x[i];
+            a[off] = (byte) (v >>> 24);
+            a[off + 1] = (byte) (v >>> 16);
+            a[off + 2] = (byte) (v >>> 8);
+            a[off + 3] = (byte) v;
+        }
+    }
+}
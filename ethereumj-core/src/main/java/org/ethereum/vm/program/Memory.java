@@ -1,24 +1,35 @@
 package org.ethereum.vm.program;
 
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.vm.DataWord;
 import org.ethereum.vm.program.listener.ProgramListener;
 import org.ethereum.vm.program.listener.ProgramListenerAware;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import static java.lang.Math.ceil;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.String.format;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.ethereum.util.ByteUtil.oneByteToHexString;
 
+/**
+ * EVM memory kept in a single contiguous array.
+ *
+ * The backing array grows geometrically while {@link #size()} follows the
+ * word aligned EVM view of memory, so reads and writes are plain array copies
+ * and a word read is a single {@code System.arraycopy}.
+ */
 public class Memory implements ProgramListenerAware {
 
     private static final int CHUNK_SIZE = 1024;
     private static final int WORD_SIZE = 32;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - CHUNK_SIZE;
 
-    private List<byte[]> chunks = new LinkedList<>();
+    private byte[] buffer = EMPTY_BYTE_ARRAY;
     private int softSize;
     private ProgramListener programListener;
 
@@ -31,27 +42,7 @@ public class Memory implements ProgramListenerAware {
         if (size <= 0) return EMPTY_BYTE_ARRAY;
 
         extend(address, size);
-        byte[] data = new byte[size];
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
-        int toGrab = data.length;
-        int start = 0;
-
-        while (toGrab > 0) {
-            int copied = grabMax(chunkIndex, chunkOffset, toGrab, data, start);
-
-            // read next chunk from the start
-            ++chunkIndex;
-            chunkOffset = 0;
-
-            // mark remind
-            toGrab -= copied;
-            start += copied;
-        }
-
-        return data;
+        return Arrays.copyOfRange(buffer, address, address + size);
     }
 
     public void write(int address, byte[] data, int dataSize, boolean limited) {
@@ -62,27 +53,14 @@ public class Memory implements ProgramListenerAware {
         if (!limited)
             extend(address, dataSize);
 
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
-
         int toCapture = 0;
         if (limited)
             toCapture = (address + dataSize > softSize) ? softSize - address : dataSize;
         else
             toCapture = dataSize;
 
-        int start = 0;
-        while (toCapture > 0) {
-            int captured = captureMax(chunkIndex, chunkOffset, toCapture, data, start);
-
-            // capture next chunk
-            ++chunkIndex;
-            chunkOffset = 0;
-
-            // mark remind
-            toCapture -= captured;
-            start += captured;
-        }
+        if (toCapture > 0)
+            System.arraycopy(data, 0, buffer, address, toCapture);
 
         if (programListener != null) programListener.onMemoryWrite(address, data, dataSize);
     }
@@ -98,12 +76,11 @@ public class Memory implements ProgramListenerAware {
 
         final int newSize = address + size;
 
-        int toAllocate = newSize - internalSize();
-        if (toAllocate > 0) {
-            addChunks((int) ceil((double) toAllocate / CHUNK_SIZE));
+        if (newSize > buffer.length) {
+            grow(newSize);
         }
 
-        toAllocate = newSize - softSize;
+        int toAllocate = newSize - softSize;
         if (toAllocate > 0) {
             toAllocate = (int) ceil((double) toAllocate / WORD_SIZE) * WORD_SIZE;
             softSize += toAllocate;
@@ -113,18 +90,25 @@ public class Memory implements ProgramListenerAware {
     }
 
     public DataWord readWord(int address) {
-        return new DataWord(read(address, 32));
+        extend(address, WORD_SIZE);
+        byte[] word = new byte[WORD_SIZE];
+        System.arraycopy(buffer, address, word, 0, WORD_SIZE);
+        return new DataWord(word);
     }
 
-    // just access expecting all data valid
-    public byte readByte(int address) {
-
-        int chunkIndex = address / CHUNK_SIZE;
-        int chunkOffset = address % CHUNK_SIZE;
+    /**
+     * Keccak-256 of the given memory region, hashed in place without copying it out
+     */
+    public byte[] sha3(int address, int size) {
+        if (size <= 0) return HashUtil.sha3(EMPTY_BYTE_ARRAY);
 
-        byte[] chunk = chunks.get(chunkIndex);
+        extend(address, size);
+        return HashUtil.sha3(buffer, address, size);
+    }
 
-        return chunk[chunkOffset];
+    // just access expecting all data valid
+    public byte readByte(int address) {
+        return buffer[address];
     }
 
     @Override
@@ -161,36 +145,26 @@ public class Memory implements ProgramListenerAware {
         return softSize;
     }
 
+    /**
+     * Memory space reserved for the program, counted in {@value #CHUNK_SIZE} byte chunks
+     */
     public int internalSize() {
-        return chunks.size() * CHUNK_SIZE;
+        return (int) ceil((double) softSize / CHUNK_SIZE) * CHUNK_SIZE;
     }
 
+    /**
+     * Copies of the reserved memory split into {@value #CHUNK_SIZE} byte chunks, used mostly for testing
+     */
     public List<byte[]> getChunks() {
-        return new LinkedList<>(chunks);
-    }
-
-    private int captureMax(int chunkIndex, int chunkOffset, int size, byte[] src, int srcPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toCapture = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(src, srcPos, chunk, chunkOffset, toCapture);
-        return toCapture;
-    }
-
-    private int grabMax(int chunkIndex, int chunkOffset, int size, byte[] dest, int destPos) {
-
-        byte[] chunk = chunks.get(chunkIndex);
-        int toGrab = min(size, chunk.length - chunkOffset);
-
-        System.arraycopy(chunk, chunkOffset, dest, destPos, toGrab);
-
-        return toGrab;
+        List<byte[]> chunks = new LinkedList<>();
+        for (int offset = 0; offset < internalSize(); offset += CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(buffer, offset, offset + CHUNK_SIZE));
+        }
+        return chunks;
     }
 
-    private void addChunks(int num) {
-        for (int i = 0; i < num; ++i) {
-            chunks.add(new byte[CHUNK_SIZE]);
-        }
+    private void grow(int minCapacity) {
+        long capacity = max((long) buffer.length * 2, (long) ceil((double) minCapacity / CHUNK_SIZE) * CHUNK_SIZE);
+        buffer = Arrays.copyOf(buffer, (int) min(capacity, max(MAX_CAPACITY, minCapacity)));
     }
 }
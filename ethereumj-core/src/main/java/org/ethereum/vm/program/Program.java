@@ -2,6 +2,7 @@ package org.ethereum.vm.program;
 
 import org.ethereum.config.CommonConfig;
 import org.ethereum.config.SystemProperties;
+import org.ethereum.core.AccountState;
 import org.ethereum.core.Repository;
 import org.ethereum.core.Transaction;
 import org.ethereum.crypto.HashUtil;
@@ -23,7 +24,6 @@ import org.ethereum.vm.trace.ProgramTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
-import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.ByteArrayOutputStream;
 import java.math.BigInteger;
@@ -79,10 +79,9 @@ public class Program {
     private byte previouslyExecutedOp;
     private boolean stopped;
 
-    private Set<Integer> jumpdest = new HashSet<>();
+    private ProgramPrecompile programPrecompile;
 
-    @Autowired
-    CommonConfig commonConfig = CommonConfig.getDefault();
+    private final CommonConfig commonConfig;
 
     private final SystemProperties config;
 
@@ -95,7 +94,21 @@ public class Program {
     }
 
     public Program(byte[] ops, ProgramInvoke programInvoke, Transaction transaction, SystemProperties config) {
+        this(null, ops, programInvoke, transaction, config);
+    }
+
+    /**
+     * @param codeHash hash of the deployed code being run, allows reusing its
+     *                 cached {@link ProgramPrecompile}; null for init code
+     */
+    public Program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke, Transaction transaction, SystemProperties config) {
+        this(codeHash, ops, programInvoke, transaction, config, CommonConfig.getDefault());
+    }
+
+    public Program(byte[] codeHash, byte[] ops, ProgramInvoke programInvoke, Transaction transaction,
+                   SystemProperties config, CommonConfig commonConfig) {
         this.config = config;
+        this.commonConfig = commonConfig;
         this.invoke = programInvoke;
         this.transaction = transaction;
 
@@ -106,8 +119,7 @@ public class Program {
         this.stack = setupProgramListener(new Stack());
         this.storage = setupProgramListener(new Storage(programInvoke));
         this.trace = new ProgramTrace(config, programInvoke);
-
-        precompile();
+        this.programPrecompile = ProgramPrecompile.compile(codeHash, this.ops);
     }
 
     public int getCallDeep() {
@@ -151,6 +163,20 @@ public class Program {
         return isEmpty(ops) ? 0 : ops[pc];
     }
 
+    /**
+     * Same as {@link #getCurrentOp()} but resolved from the pre-decoded code
+     */
+    public OpCode getCurrentOpCode() {
+        return isEmpty(ops) ? OpCode.STOP : programPrecompile.getOpCode(ops, pc);
+    }
+
+    /**
+     * @return a copy of the pre-decoded value pushed by the current PUSH instruction
+     */
+    public DataWord getCurrentPushValue() {
+        return programPrecompile.getPushValue(ops, pc).clone();
+    }
+
     /**
      * Last Op can only be set publicly (no getLastOp method), is used for logging.
      */
@@ -307,6 +333,13 @@ public class Program {
         return memory.read(offset, size);
     }
 
+    /**
+     * Keccak-256 of a memory chunk, computed without copying the chunk out
+     */
+    public byte[] memoryHash(int offset, int size) {
+        return memory.sha3(offset, size);
+    }
+
     /**
      * Allocates extra memory in the program for
      * a specified size, calculated from a given offset
@@ -537,7 +570,7 @@ public class Program {
                     msg.getGas(), contextBalance, data, track, this.invoke.getBlockStore(), byTestingSuite());
 
             VM vm = commonConfig.vm();
-            Program program = commonConfig.program(programCode, programInvoke, internalTx);
+            Program program = commonConfig.program(codeHash(codeAddress), programCode, programInvoke, internalTx);
             vm.play(program);
             result = program.getResult();
 
@@ -833,20 +866,6 @@ public class Program {
         return trace;
     }
 
-    public void precompile() {
-        for (int i = 0; i < ops.length; ++i) {
-
-            OpCode op = OpCode.code(ops[i]);
-            if (op == null) continue;
-
-            if (op.equals(OpCode.JUMPDEST)) jumpdest.add(i);
-
-            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
-                i += op.asInt() - OpCode.PUSH1.asInt() + 1;
-            }
-        }
-    }
-
     static String formatBinData(byte[] binData, int startPC) {
         StringBuilder ret = new StringBuilder();
         for (int i = 0; i < binData.length; i += 16) {
@@ -1026,12 +1045,17 @@ public class Program {
         this.listener = listener;
     }
 
+    private byte[] codeHash(byte[] address) {
+        AccountState accountState = getStorage().getAccountState(address);
+        return accountState == null ? null : accountState.getCodeHash();
+    }
+
     public int verifyJumpDest(DataWord nextPC) {
         if (nextPC.bytesOccupied() > 4) {
             throw Program.Exception.badJumpDestination(-1);
         }
         int ret = nextPC.intValue();
-        if (!jumpdest.contains(ret)) {
+        if (!programPrecompile.hasJumpDest(ret)) {
             throw Program.Exception.badJumpDestination(ret);
         }
         return ret;
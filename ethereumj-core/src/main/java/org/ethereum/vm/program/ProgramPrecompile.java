@@ -0,0 +1,210 @@
+package org.ethereum.vm.program;
+
+import org.apache.commons.collections4.map.LRUMap;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.OpCode;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_DATA_HASH;
+import static org.ethereum.util.ByteUtil.isNullOrZeroArray;
+
+/**
+ * Result of a single pass over contract code: valid JUMPDEST positions and
+ * the offsets where instructions start, i.e. everything which is not
+ * PUSH immediate data.
+ *
+ * Analyses of deployed code are immutable and shared between executions
+ * through a bounded LRU cache keyed by the code hash, so popular contracts
+ * are only walked once. The same goes for the pre-decoded opcodes and PUSH
+ * values used when {@code vm.predecode} is enabled, these take a few words
+ * per code byte, so they are kept for a limited total code size and the
+ * oldest ones are dropped and decoded again when needed.
+ */
+public class ProgramPrecompile {
+
+    private static final int CACHE_SIZE = 4096;
+    // total size of the code kept pre-decoded
+    private static final long DECODED_CODE_LIMIT = 8 * 1024 * 1024;
+
+    private static final Map<ByteArrayWrapper, ProgramPrecompile> cache =
+            Collections.synchronizedMap(new LRUMap<ByteArrayWrapper, ProgramPrecompile>(CACHE_SIZE));
+
+    // guarded by itself, in the order of decoding
+    private static final Map<ProgramPrecompile, Boolean> decodedQueue = new LinkedHashMap<>();
+    private static long decodedCodeSize;
+
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
+
+    private final int codeLength;
+    private final BitSet jumpdest = new BitSet();
+    private final BitSet instructions = new BitSet();
+
+    // pre-decoded form, built on demand by predecode()
+    private volatile Decoded decoded;
+
+    private static class Decoded {
+        final OpCode[] opCodes;
+        final DataWord[] pushValues;
+
+        Decoded(OpCode[] opCodes, DataWord[] pushValues) {
+            this.opCodes = opCodes;
+            this.pushValues = pushValues;
+        }
+    }
+
+    private ProgramPrecompile(byte[] ops) {
+        this.codeLength = ops.length;
+
+        for (int i = 0; i < ops.length; ++i) {
+            instructions.set(i);
+
+            OpCode op = OpCode.code(ops[i]);
+            if (op == null) continue;
+
+            if (op == OpCode.JUMPDEST) jumpdest.set(i);
+
+            if (op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
+                i += op.asInt() - OpCode.PUSH1.asInt() + 1;
+            }
+        }
+    }
+
+    /**
+     * Analyses the code without touching the cache, used for init code
+     * and whenever the code hash is unknown
+     */
+    public static ProgramPrecompile compile(byte[] ops) {
+        return new ProgramPrecompile(ops);
+    }
+
+    /**
+     * Returns the cached analysis for the code with the given hash
+     * or analyses and caches it
+     */
+    public static ProgramPrecompile compile(byte[] codeHash, byte[] ops) {
+        if (isNullOrZeroArray(codeHash) || Arrays.equals(codeHash, EMPTY_DATA_HASH)) {
+            return compile(ops);
+        }
+
+        ByteArrayWrapper key = new ByteArrayWrapper(codeHash);
+        ProgramPrecompile ret = cache.get(key);
+
+        // the length check guards against a hash which doesn't belong to the code
+        if (ret != null && ret.codeLength == ops.length) {
+            cacheHits.incrementAndGet();
+            return ret;
+        }
+
+        cacheMisses.incrementAndGet();
+        ret = new ProgramPrecompile(ops);
+        cache.put(key, ret);
+        return ret;
+    }
+
+    public boolean hasJumpDest(int pc) {
+        return pc >= 0 && jumpdest.get(pc);
+    }
+
+    /**
+     * @return true if an instruction starts at the given offset,
+     *         false for PUSH data and offsets out of the code
+     */
+    public boolean isInstruction(int pc) {
+        return pc >= 0 && instructions.get(pc);
+    }
+
+    /**
+     * Decodes every opcode and PUSH immediate of the code once so the
+     * interpreter doesn't have to do it again on every step.
+     * Does nothing if the code has already been decoded.
+     */
+    public void predecode(byte[] ops) {
+        getDecoded(ops);
+    }
+
+    private synchronized Decoded getDecoded(byte[] ops) {
+        Decoded ret = decoded;
+        if (ret != null) return ret;
+
+        OpCode[] codes = new OpCode[ops.length];
+        DataWord[] values = new DataWord[ops.length];
+        for (int i = 0; i < ops.length; ++i) {
+            OpCode op = OpCode.code(ops[i]);
+            codes[i] = op;
+
+            if (op != null && instructions.get(i) &&
+                    op.asInt() >= OpCode.PUSH1.asInt() && op.asInt() <= OpCode.PUSH32.asInt()) {
+                int nPush = op.asInt() - OpCode.PUSH1.asInt() + 1;
+                // a truncated PUSH at the end of the code is padded with zeroes on the right
+                values[i] = new DataWord(Arrays.copyOfRange(ops, i + 1, i + 1 + nPush));
+            }
+        }
+
+        ret = new Decoded(codes, values);
+        decoded = ret;
+        addDecoded(this);
+        return ret;
+    }
+
+    private static void addDecoded(ProgramPrecompile precompile) {
+        synchronized (decodedQueue) {
+            decodedQueue.put(precompile, Boolean.TRUE);
+            decodedCodeSize += precompile.codeLength;
+
+            Iterator<ProgramPrecompile> it = decodedQueue.keySet().iterator();
+            while (decodedCodeSize > DECODED_CODE_LIMIT && it.hasNext()) {
+                ProgramPrecompile oldest = it.next();
+                // the arrays taken by the running programs stay valid
+                oldest.decoded = null;
+                decodedCodeSize -= oldest.codeLength;
+                it.remove();
+            }
+        }
+    }
+
+    public OpCode getOpCode(byte[] ops, int pc) {
+        Decoded d = decoded;
+        if (d == null) d = getDecoded(ops);
+        return d.opCodes[pc];
+    }
+
+    /**
+     * @return the word pushed by the PUSH instruction at the given offset,
+     *         shared between executions so it must not be modified
+     */
+    public DataWord getPushValue(byte[] ops, int pc) {
+        Decoded d = decoded;
+        if (d == null) d = getDecoded(ops);
+        return d.pushValues[pc];
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public static int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @return total size of the code kept pre-decoded
+     */
+    public static long getDecodedCodeSize() {
+        synchronized (decodedQueue) {
+            return decodedCodeSize;
+        }
+    }
+}
@@ -4,7 +4,24 @@ import org.ethereum.vm.DataWord;
 import org.ethereum.vm.program.listener.ProgramListener;
 import org.ethereum.vm.program.listener.ProgramListenerAware;
 
-public class Stack extends java.util.Stack<DataWord> implements ProgramListenerAware {
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * EVM operand stack backed by a fixed array of {@link #MAX_SIZE} slots.
+ *
+ * A program is always executed by a single thread so, unlike
+ * {@link java.util.Stack}, nothing here is synchronized.
+ * Index 0 is the bottom of the stack, {@code size() - 1} is the top.
+ */
+public class Stack implements ProgramListenerAware, Iterable<DataWord> {
+
+    public static final int MAX_SIZE = 1024;
+
+    private final DataWord[] slots = new DataWord[MAX_SIZE];
+    private int size;
 
     private ProgramListener programListener;
 
@@ -13,27 +30,91 @@ public class Stack extends java.util.Stack<DataWord> implements ProgramListenerA
         this.programListener = listener;
     }
 
-    @Override
-    public synchronized DataWord pop() {
+    public DataWord pop() {
+        if (size == 0) throw new EmptyStackException();
         if (programListener != null) programListener.onStackPop();
-        return super.pop();
+        DataWord item = slots[--size];
+        slots[size] = null;
+        return item;
     }
 
-    @Override
     public DataWord push(DataWord item) {
+        if (size == MAX_SIZE) {
+            throw new IllegalStateException("Stack overflow: " + MAX_SIZE + " elements limit");
+        }
         if (programListener != null) programListener.onStackPush(item);
-        return super.push(item);
+        slots[size++] = item;
+        return item;
+    }
+
+    public DataWord peek() {
+        if (size == 0) throw new EmptyStackException();
+        return slots[size - 1];
+    }
+
+    /**
+     * Pushes a copy of the n-th word counting from the top, {@code dup(1)} duplicates the top
+     */
+    public void dup(int n) {
+        push(get(size - n).clone());
     }
 
     public void swap(int from, int to) {
         if (isAccessible(from) && isAccessible(to) && (from != to)) {
             if (programListener != null) programListener.onStackSwap(from, to);
-            DataWord tmp = get(from);
-            set(from, set(to, tmp));
+            DataWord tmp = slots[from];
+            slots[from] = slots[to];
+            slots[to] = tmp;
         }
     }
 
+    public DataWord get(int index) {
+        if (!isAccessible(index)) throw new ArrayIndexOutOfBoundsException(index);
+        return slots[index];
+    }
+
+    public DataWord set(int index, DataWord item) {
+        DataWord old = get(index);
+        slots[index] = item;
+        return old;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public DataWord[] toArray() {
+        return Arrays.copyOf(slots, size);
+    }
+
+    @Override
+    public Iterator<DataWord> iterator() {
+        return new Iterator<DataWord>() {
+            int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public DataWord next() {
+                if (next >= size) throw new NoSuchElementException();
+                return slots[next++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     private boolean isAccessible(int from) {
-        return from >= 0 && from < size();
+        return from >= 0 && from < size;
     }
 }
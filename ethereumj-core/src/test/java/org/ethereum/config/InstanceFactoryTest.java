@@ -0,0 +1,141 @@
+package org.ethereum.config;
+
+import org.ethereum.core.*;
+import org.ethereum.core.genesis.GenesisLoader;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.db.BlockStore;
+import org.ethereum.db.BlockStoreDummy;
+import org.ethereum.db.RepositoryImpl;
+import org.ethereum.db.RepositoryTrack;
+import org.ethereum.listener.EthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
+import org.ethereum.vm.program.invoke.ProgramInvokeFactoryImpl;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class InstanceFactoryTest {
+
+    @Test
+    public void testOverride() {
+        final AtomicInteger factories = new AtomicInteger();
+        final AtomicInteger tracks = new AtomicInteger();
+        CommonConfig commonConfig = new CommonConfig() {
+            @Override
+            public InstanceFactory instanceFactory() {
+                factories.incrementAndGet();
+                return new DefaultInstanceFactory(SystemProperties.getDefault(), this) {
+                    @Override
+                    public RepositoryTrack repositoryTrack(Repository parent) {
+                        tracks.incrementAndGet();
+                        return super.repositoryTrack(parent);
+                    }
+                };
+            }
+        };
+
+        Repository track = commonConfig.repositoryTrack(new RepositoryImpl(new HashMapDB(), new HashMapDB()));
+        // nested tracks come from the same factory
+        track.startTracking().startTracking();
+        commonConfig.vm();
+        commonConfig.contractDetailsImpl();
+
+        assertEquals(3, tracks.get());
+        assertEquals(1, factories.get());
+    }
+
+    /**
+     * The per-transaction objects as they used to be created
+     */
+    @Configuration
+    static class PrototypeConfig {
+        @Bean
+        @Scope("prototype")
+        public TransactionExecutor transactionExecutor(Transaction tx, byte[] coinbase, Repository track, BlockStore blockStore,
+                                                       ProgramInvokeFactory programInvokeFactory, Block currentBlock,
+                                                       EthereumListener listener, long gasUsedInTheBlock) {
+            return new TransactionExecutor(tx, coinbase, track, blockStore, programInvokeFactory,
+                    currentBlock, listener, gasUsedInTheBlock);
+        }
+
+        @Bean
+        @Scope("prototype")
+        public RepositoryTrack repositoryTrack(Repository parent) {
+            return new RepositoryTrack(parent);
+        }
+    }
+
+    @Test
+    public void testPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            int cnt = 20_000;
+            Block block = GenesisLoader.loadGenesis(getClass().getResourceAsStream("/genesis/genesis-light-sb.json"));
+            BlockStore blockStore = new BlockStoreDummy();
+            ProgramInvokeFactory programInvokeFactory = new ProgramInvokeFactoryImpl();
+            EthereumListener listener = new EthereumListenerAdapter();
+            byte[] coinbase = new byte[20];
+            byte[] receiver = ECKey.fromPrivate(BigInteger.TEN).getAddress();
+
+            AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext(PrototypeConfig.class);
+            InstanceFactory factory = new DefaultInstanceFactory(SystemProperties.getDefault(), CommonConfig.getDefault());
+
+            for (int round = 0; round < 4; round++) {
+                boolean spring = round % 2 == 0;
+
+                ECKey sender = new ECKey();
+                RepositoryImpl repository = new RepositoryImpl(new HashMapDB(), new HashMapDB());
+                Repository init = repository.startTracking();
+                init.addBalance(sender.getAddress(), BigInteger.TEN.pow(24));
+                init.commit();
+
+                // signing is left out of the measurement
+                Transaction[] txs = new Transaction[cnt];
+                for (int i = 0; i < cnt; i++) {
+                    txs[i] = new Transaction(ByteUtil.longToBytesNoLeadZeroes(i), ByteUtil.longToBytesNoLeadZeroes(1),
+                            ByteUtil.longToBytesNoLeadZeroes(21_000), receiver, ByteUtil.longToBytesNoLeadZeroes(1), null);
+                    txs[i].sign(sender);
+                    txs[i].getSender();
+                }
+
+                long s = System.nanoTime();
+                for (Transaction tx : txs) {
+                    Repository track;
+                    TransactionExecutor executor;
+                    if (spring) {
+                        track = ctx.getBean(RepositoryTrack.class, repository);
+                        executor = (TransactionExecutor) ctx.getBean("transactionExecutor", tx, coinbase, track,
+                                blockStore, programInvokeFactory, block, listener, 0L);
+                    } else {
+                        track = factory.repositoryTrack(repository);
+                        executor = factory.transactionExecutor(tx, coinbase, track,
+                                blockStore, programInvokeFactory, block, listener, 0);
+                    }
+                    executor.init();
+                    executor.execute();
+                    executor.go();
+                    executor.finalization();
+                    track.commit();
+                }
+                long time = System.nanoTime() - s;
+
+                assertEquals(BigInteger.valueOf(cnt), repository.getBalance(receiver));
+                System.out.printf("%s: %d ns/tx%n", spring ? "Prototype beans" : "Instance factory", time / cnt);
+            }
+            ctx.close();
+        } else {
+            System.out.println("InstanceFactory performance test is disabled.");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.ethereum.core;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.config.blockchain.FrontierConfig;
+import org.ethereum.config.net.MainNetConfig;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.ethereum.vm.DataWord;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ethereum.util.blockchain.EtherUtil.Unit.ETHER;
+import static org.ethereum.util.blockchain.EtherUtil.convert;
+import static org.junit.Assert.*;
+
+public class ParallelBlockExecutorTest {
+
+    // stores the caller at the row given by the first word of the call data:
+    // CALLER PUSH1 0 CALLDATALOAD SSTORE
+    private static final byte[] STORE_CALLER_INIT_CODE = Hex.decode("6433600035556000526005601bf3");
+
+    private static final byte[] COINBASE = Hex.decode("ffffffffffffffffffffffffffffffffffffffff");
+
+    private final Map<ByteArrayWrapper, Long> nonces = new HashMap<>();
+
+    @BeforeClass
+    public static void setup() {
+        SystemProperties.getDefault().setBlockchainConfig(new FrontierConfig(new FrontierConfig.FrontierConstants() {
+            @Override
+            public BigInteger getMINIMUM_DIFFICULTY() {
+                return BigInteger.ONE;
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        SystemProperties.getDefault().setBlockchainConfig(MainNetConfig.INSTANCE);
+    }
+
+    @After
+    public void disable() {
+        SystemProperties.getDefault().overrideParams("vm.parallel.enabled", "false");
+    }
+
+    private Transaction createTx(StandaloneBlockchain sb, ECKey sender, byte[] to, BigInteger value, byte[] data) {
+        ByteArrayWrapper key = new ByteArrayWrapper(sender.getAddress());
+        Long nonce = nonces.get(key);
+        if (nonce == null) nonce = sb.getBlockchain().getRepository().getNonce(sender.getAddress()).longValue();
+        nonces.put(key, nonce + 1);
+        return sb.createTransaction(sender, nonce, to, value, data);
+    }
+
+    private static ECKey[] createKeys(int cnt) {
+        ECKey[] keys = new ECKey[cnt];
+        for (int i = 0; i < cnt; i++) {
+            keys[i] = ECKey.fromPrivate(BigInteger.valueOf(1000 + i));
+        }
+        return keys;
+    }
+
+    private static byte[] row(int i) {
+        return new DataWord(i).getData();
+    }
+
+    private void assertImported(List<Block> blocks, StandaloneBlockchain sb) {
+        for (Block block : blocks) {
+            // receipts, logs bloom and state root are checked by the import
+            assertEquals(ImportResult.IMPORTED_BEST, sb.getBlockchain().tryToConnect(block));
+        }
+    }
+
+    @Test
+    public void testSameResultAsSerial() {
+        StandaloneBlockchain serial = new StandaloneBlockchain();
+        ECKey[] senders = createKeys(8);
+        ECKey[] receivers = createKeys(16);
+        List<Block> blocks = new ArrayList<>();
+
+        // all from the same sender
+        for (ECKey sender : senders) {
+            serial.submitTransaction(createTx(serial, serial.getSender(), sender.getAddress(),
+                    convert(1, ETHER), new byte[0]));
+        }
+        blocks.add(serial.createBlock());
+
+        for (int i = 0; i < 6; i++) {
+            serial.submitTransaction(createTx(serial, senders[i], receivers[8 + i].getAddress(),
+                    BigInteger.valueOf(1000), new byte[0]));
+        }
+        // the same receiver
+        serial.submitTransaction(createTx(serial, senders[6], receivers[8].getAddress(),
+                BigInteger.valueOf(1000), new byte[0]));
+        // the next nonce of a sender
+        serial.submitTransaction(createTx(serial, senders[0], receivers[15].getAddress(),
+                BigInteger.valueOf(1000), new byte[0]));
+        Transaction create = createTx(serial, senders[7], null, BigInteger.ZERO, STORE_CALLER_INIT_CODE);
+        serial.submitTransaction(create);
+        blocks.add(serial.createBlock());
+
+        byte[] contract = create.getContractAddress();
+        // different rows of the same contract
+        for (int i = 0; i < 4; i++) {
+            serial.submitTransaction(createTx(serial, senders[i], contract, BigInteger.ZERO, row(i)));
+        }
+        // a row written in the same block
+        serial.submitTransaction(createTx(serial, senders[4], contract, BigInteger.ZERO, row(0)));
+        // the coinbase has got the fees of the preceding transactions
+        serial.submitTransaction(createTx(serial, senders[5], COINBASE, BigInteger.valueOf(1000), new byte[0]));
+        serial.submitTransaction(createTx(serial, senders[6], receivers[9].getAddress(),
+                BigInteger.valueOf(1000), new byte[0]));
+        blocks.add(serial.createBlock());
+
+        SystemProperties.getDefault().overrideParams("vm.parallel.enabled", "true");
+        StandaloneBlockchain parallel = new StandaloneBlockchain();
+        assertImported(blocks, parallel);
+
+        assertArrayEquals(serial.getBlockchain().getRepository().getRoot(),
+                parallel.getBlockchain().getRepository().getRoot());
+        assertEquals(new DataWord(senders[4].getAddress()),
+                parallel.getBlockchain().getRepository().getStorageValue(contract, new DataWord(0)));
+
+        ParallelBlockExecutor executor = parallel.getBlockchain().getParallelExecutor();
+        assertTrue(executor.getSpeculatedCount() > 0);
+        assertTrue(executor.getReexecutedCount() > 0);
+        assertEquals(8 + 9 + 7, executor.getSpeculatedCount() + executor.getReexecutedCount());
+    }
+
+    @Test
+    public void testPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            int blocksCnt = 20;
+            int txCnt = 200;
+
+            StandaloneBlockchain source = new StandaloneBlockchain().withGasLimit(100_000);
+            ECKey[] senders = createKeys(txCnt);
+            List<Block> blocks = new ArrayList<>();
+
+            for (ECKey sender : senders) {
+                source.submitTransaction(createTx(source, source.getSender(), sender.getAddress(),
+                        convert(1, ETHER), new byte[0]));
+            }
+            Transaction create = createTx(source, source.getSender(), null, BigInteger.ZERO, STORE_CALLER_INIT_CODE);
+            source.submitTransaction(create);
+            blocks.add(source.createBlock());
+
+            // independent transfers and storage writes
+            for (int b = 0; b < blocksCnt; b++) {
+                for (int i = 0; i < txCnt; i++) {
+                    byte[] to = i % 2 == 0 ? senders[(i + 1) % txCnt].getAddress() : create.getContractAddress();
+                    byte[] data = i % 2 == 0 ? new byte[0] : row(b * txCnt + i);
+                    source.submitTransaction(createTx(source, senders[i], to, BigInteger.valueOf(i % 2 == 0 ? 1 : 0), data));
+                }
+                blocks.add(source.createBlock());
+            }
+
+            for (int round = 0; round < 2; round++) {
+                StandaloneBlockchain serial = new StandaloneBlockchain();
+                long s = System.nanoTime();
+                assertImported(blocks, serial);
+                long serialTime = System.nanoTime() - s;
+
+                SystemProperties.getDefault().overrideParams("vm.parallel.enabled", "true");
+                StandaloneBlockchain parallel = new StandaloneBlockchain();
+                s = System.nanoTime();
+                assertImported(blocks, parallel);
+                long parallelTime = System.nanoTime() - s;
+                SystemProperties.getDefault().overrideParams("vm.parallel.enabled", "false");
+
+                ParallelBlockExecutor executor = parallel.getBlockchain().getParallelExecutor();
+                System.out.printf("Serial: %d ms, parallel: %d ms, speculated: %d, re-executed: %d%n",
+                        serialTime / 1_000_000, parallelTime / 1_000_000,
+                        executor.getSpeculatedCount(), executor.getReexecutedCount());
+            }
+        } else {
+            System.out.println("ParallelBlockExecutor performance test is disabled.");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.ethereum.core;
+
+import org.ethereum.crypto.ECKey;
+import org.ethereum.util.ByteUtil;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SenderRecoveryTest {
+
+    private static List<Transaction> createTxs(int firstKey, int cnt) {
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < cnt; i++) {
+            ECKey key = ECKey.fromPrivate(BigInteger.valueOf(firstKey + i));
+            Transaction tx = new Transaction(ByteUtil.longToBytesNoLeadZeroes(i), ByteUtil.longToBytesNoLeadZeroes(1),
+                    ByteUtil.longToBytesNoLeadZeroes(21_000), new byte[20], ByteUtil.longToBytesNoLeadZeroes(1), null);
+            tx.sign(key);
+            txs.add(tx);
+        }
+        return txs;
+    }
+
+    @Test
+    public void testRecover() {
+        SenderRecovery recovery = SenderRecovery.getInstance();
+        List<Transaction> txs = createTxs(5000, 16);
+
+        long recovered = recovery.getRecoveredCount();
+        recovery.recover(txs);
+        assertEquals(recovered + txs.size(), recovery.getRecoveredCount());
+
+        for (int i = 0; i < txs.size(); i++) {
+            assertArrayEquals(ECKey.fromPrivate(BigInteger.valueOf(5000 + i)).getAddress(), txs.get(i).getSender());
+        }
+
+        // the same transactions decoded again, as when received within a block
+        List<Transaction> decoded = new ArrayList<>();
+        for (Transaction tx : txs) decoded.add(new Transaction(tx.getEncoded()));
+
+        long hits = recovery.getCacheHits();
+        recovery.recover(decoded);
+        assertEquals(recovered + txs.size(), recovery.getRecoveredCount());
+        assertEquals(hits + txs.size(), recovery.getCacheHits());
+        for (int i = 0; i < txs.size(); i++) {
+            assertArrayEquals(txs.get(i).getSender(), decoded.get(i).getSender());
+        }
+    }
+
+    @Test
+    public void testResign() {
+        Transaction tx = createTxs(6000, 1).get(0);
+        tx.getSender();
+
+        ECKey other = ECKey.fromPrivate(BigInteger.valueOf(7000));
+        tx.sign(other);
+        assertArrayEquals(other.getAddress(), tx.getSender());
+        assertArrayEquals(other.getAddress(), new Transaction(tx.getEncoded()).getSender());
+    }
+
+    @Test
+    public void testPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            int cnt = 10_000;
+            for (int round = 0; round < 3; round++) {
+                List<Transaction> txs = new ArrayList<>();
+                for (Transaction tx : createTxs(1, cnt)) txs.add(new Transaction(tx.getEncoded()));
+                List<Transaction> batch = new ArrayList<>();
+                for (Transaction tx : createTxs(1, cnt)) batch.add(new Transaction(tx.getEncoded()));
+                // different signatures each round
+                for (Transaction tx : txs) tx.sign(new ECKey());
+                for (Transaction tx : batch) tx.sign(new ECKey());
+
+                long s = System.nanoTime();
+                for (Transaction tx : txs) tx.getSender();
+                long serial = System.nanoTime() - s;
+
+                s = System.nanoTime();
+                SenderRecovery.getInstance().recover(batch);
+                long parallel = System.nanoTime() - s;
+
+                System.out.printf("Serial: %d us/tx, batch: %d us/tx%n", serial / cnt / 1000, parallel / cnt / 1000);
+            }
+            System.out.println(SenderRecovery.getInstance());
+        } else {
+            System.out.println("SenderRecovery performance test is disabled.");
+        }
+    }
+}
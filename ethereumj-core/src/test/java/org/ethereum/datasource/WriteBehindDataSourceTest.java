@@ -0,0 +1,289 @@
+package org.ethereum.datasource;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.ethereum.TestUtils.randomBytes;
+import static org.junit.Assert.*;
+
+public class WriteBehindDataSourceTest {
+
+    @Test
+    public void testReadYourWrites() {
+        HashMapDB db = new HashMapDB();
+        WriteBehindDataSource ds = new WriteBehindDataSource(db, 4);
+
+        byte[] key = randomBytes(32);
+        byte[] value = randomBytes(32);
+        ds.put(key, value);
+
+        assertArrayEquals(value, ds.get(key));
+        assertNull(db.get(key));
+
+        ds.flushAndWait();
+        assertArrayEquals(value, db.get(key));
+        assertEquals(0, ds.getPendingCount());
+        assertEquals(0, ds.getPendingSize());
+    }
+
+    @Test
+    public void testDeleteHidesPersistedValue() {
+        HashMapDB db = new HashMapDB();
+        byte[] key = randomBytes(32);
+        db.put(key, randomBytes(32));
+
+        WriteBehindDataSource ds = new WriteBehindDataSource(db, 4);
+        ds.delete(key);
+        assertNull(ds.get(key));
+        assertNotNull(db.get(key));
+
+        ds.flushAndWait();
+        assertNull(db.get(key));
+        assertEquals(0, ds.keys().size());
+    }
+
+    @Test
+    public void testKeysDontFlush() throws InterruptedException {
+        final CountDownLatch writerReleased = new CountDownLatch(1);
+        HashMapDB db = new HashMapDB() {
+            @Override
+            public void updateBatch(Map<byte[], byte[]> rows) {
+                try {
+                    writerReleased.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.updateBatch(rows);
+            }
+        };
+        byte[] persisted = randomBytes(32);
+        byte[] deleted = randomBytes(32);
+        db.put(persisted, randomBytes(32));
+        db.put(deleted, randomBytes(32));
+
+        WriteBehindGroup group = new WriteBehindGroup(4);
+        WriteBehindDataSource ds = new WriteBehindDataSource(db, group);
+        byte[] frozen = randomBytes(32);
+        ds.put(frozen, randomBytes(32));
+        // the memtable is frozen, its write is held back
+        group.flush();
+        assertEquals(1, ds.getPendingCount());
+
+        group.beginFlush();
+        byte[] added = randomBytes(32);
+        ds.put(added, randomBytes(32));
+        ds.delete(deleted);
+
+        Set<ByteArrayWrapper> keys = new HashSet<>();
+        for (byte[] key : ds.keys()) keys.add(new ByteArrayWrapper(key));
+        assertEquals(3, keys.size());
+        assertTrue(keys.contains(new ByteArrayWrapper(persisted)));
+        assertTrue(keys.contains(new ByteArrayWrapper(frozen)));
+        assertTrue(keys.contains(new ByteArrayWrapper(added)));
+        // nothing more is frozen in the middle of the group flush
+        assertEquals(1, ds.getPendingCount());
+        assertEquals(2, db.keys().size());
+        group.endFlush();
+
+        writerReleased.countDown();
+        group.flushAndWait();
+        assertEquals(3, db.keys().size());
+        assertEquals(3, ds.keys().size());
+    }
+
+    @Test
+    public void testBatchesArePersistedWhole() {
+        final AtomicInteger batches = new AtomicInteger();
+        HashMapDB db = new HashMapDB() {
+            @Override
+            public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+                batches.incrementAndGet();
+                super.updateBatch(rows);
+            }
+        };
+        WriteBehindDataSource ds = new WriteBehindDataSource(db, 4);
+
+        Map<byte[], byte[]> rows = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            rows.put(randomBytes(32), randomBytes(32));
+        }
+        ds.updateBatch(rows);
+        ds.flushAndWait();
+
+        assertEquals(1, batches.get());
+        assertEquals(100, db.keys().size());
+    }
+
+    @Test
+    public void testLatestWriteWins() {
+        HashMapDB db = new HashMapDB();
+        WriteBehindDataSource ds = new WriteBehindDataSource(db, 16);
+
+        byte[] key = randomBytes(32);
+        byte[] last = null;
+        for (int i = 0; i < 10; i++) {
+            last = randomBytes(32);
+            ds.put(key, last);
+            assertArrayEquals(last, ds.get(key));
+        }
+        ds.flushAndWait();
+        assertArrayEquals(last, db.get(key));
+    }
+
+    @Test
+    public void testBackpressure() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        HashMapDB db = new HashMapDB() {
+            @Override
+            public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.updateBatch(rows);
+            }
+        };
+        final WriteBehindDataSource ds = new WriteBehindDataSource(db, 2);
+
+        // two memtables fill the queue while the writer is stuck
+        ds.put(randomBytes(32), randomBytes(32));
+        ds.flush();
+        ds.put(randomBytes(32), randomBytes(32));
+        ds.flush();
+        assertEquals(2, ds.getPendingCount());
+
+        final byte[] key = randomBytes(32);
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                ds.put(key, randomBytes(32));
+                ds.flush();
+                written.countDown();
+            }
+        };
+        t.start();
+
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+
+        ds.flushAndWait();
+        assertEquals(3, db.keys().size());
+        assertNotNull(db.get(key));
+    }
+
+    @Test
+    public void testWriteErrorIsReported() {
+        HashMapDB db = new HashMapDB() {
+            @Override
+            public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+                throw new RuntimeException("disk full");
+            }
+        };
+        WriteBehindDataSource ds = new WriteBehindDataSource(db, 4);
+
+        byte[] key = randomBytes(32);
+        byte[] value = randomBytes(32);
+        ds.put(key, value);
+        try {
+            ds.flushAndWait();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+        // the data which couldn't be written is still readable
+        assertArrayEquals(value, ds.get(key));
+    }
+
+    @Test
+    public void testGroupIsFlushedTogether() {
+        WriteBehindGroup group = new WriteBehindGroup(4);
+        HashMapDB db1 = new HashMapDB();
+        HashMapDB db2 = new HashMapDB();
+        WriteBehindDataSource ds1 = new WriteBehindDataSource(db1, group);
+        WriteBehindDataSource ds2 = new WriteBehindDataSource(db2, group);
+
+        group.beginFlush();
+        ds1.put(randomBytes(32), randomBytes(32));
+        // deferred till the end of the group flush
+        ds1.flush();
+        assertEquals(0, ds1.getPendingCount());
+        ds2.put(randomBytes(32), randomBytes(32));
+        group.endFlush();
+
+        group.flushAndWait();
+        assertEquals(1, db1.keys().size());
+        assertEquals(1, db2.keys().size());
+
+        // a flush of any source flushes the whole group
+        ds2.put(randomBytes(32), randomBytes(32));
+        ds1.flushAndWait();
+        assertEquals(2, db2.keys().size());
+    }
+
+    @Test
+    public void testGroupRecovery() {
+        final AtomicBoolean crash = new AtomicBoolean(true);
+        HashMapDB log = new HashMapDB();
+        HashMapDB db1 = new NamedDB("one");
+        HashMapDB db2 = new NamedDB("two") {
+            @Override
+            public synchronized void updateBatch(Map<byte[], byte[]> rows) {
+                if (crash.get()) throw new RuntimeException("crash");
+                super.updateBatch(rows);
+            }
+        };
+
+        WriteBehindGroup group = new WriteBehindGroup(4).withLog(log);
+        WriteBehindDataSource ds1 = new WriteBehindDataSource(db1, group);
+        WriteBehindDataSource ds2 = new WriteBehindDataSource(db2, group);
+
+        byte[] key1 = randomBytes(32);
+        byte[] key2 = randomBytes(32);
+        ds1.put(key1, randomBytes(32));
+        ds2.put(key2, randomBytes(32));
+        try {
+            group.flushAndWait();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("crash", e.getCause().getMessage());
+        }
+        assertNotNull(db1.get(key1));
+        assertNull(db2.get(key2));
+        assertEquals(2, log.keys().size());
+
+        // restart, the store missing the write gets it from the log
+        crash.set(false);
+        WriteBehindGroup restarted = new WriteBehindGroup(4).withLog(log);
+        new WriteBehindDataSource(db1, restarted).init();
+        new WriteBehindDataSource(db2, restarted).init();
+
+        assertNotNull(db1.get(key1));
+        assertNotNull(db2.get(key2));
+        assertEquals(0, log.keys().size());
+    }
+
+    static class NamedDB extends HashMapDB {
+        private final String name;
+
+        NamedDB(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
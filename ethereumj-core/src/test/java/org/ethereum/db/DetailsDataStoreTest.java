@@ -138,6 +138,46 @@ public class DetailsDataStoreTest {
         assertNull(contractDetails);
     }
 
+    @Test
+    public void testPrefetch() {
+
+        KeyValueDataSource db = new HashMapDB();
+        DetailsDataStore dds = new DetailsDataStore();
+        dds.withDb(db, new HashMapDB());
+
+        byte[] c_key = Hex.decode("1a2b");
+        byte[] code = Hex.decode("60606060");
+
+        ContractDetails contractDetails = new ContractDetailsImpl();
+        contractDetails.setCode(code);
+        contractDetails.put(new DataWord(Hex.decode("11")), new DataWord(Hex.decode("aa")));
+        dds.update(c_key, contractDetails);
+        dds.flush();
+
+        // missing details are not kept
+        dds.prefetch(Hex.decode("3c4d"));
+        assertNull(dds.get(Hex.decode("3c4d")));
+
+        dds.prefetch(c_key);
+        ContractDetails prefetched = dds.get(c_key);
+        assertArrayEquals(contractDetails.getEncoded(), prefetched.getEncoded());
+        assertArrayEquals(code, prefetched.getCode());
+
+        // a newer version replaces the prefetched one
+        dds.flush();
+        dds.prefetch(c_key);
+        ContractDetails updated = new ContractDetailsImpl();
+        updated.setCode(code);
+        updated.put(new DataWord(Hex.decode("11")), new DataWord(Hex.decode("bb")));
+        dds.update(c_key, updated);
+        dds.flush();
+        assertEquals(new DataWord(Hex.decode("bb")), dds.get(c_key).get(new DataWord(Hex.decode("11"))));
+
+        dds.prefetch(c_key);
+        dds.remove(c_key);
+        assertNull(dds.get(c_key));
+    }
+
     @Ignore // Temporary ignore, need to fix according to a new 'one-db' details storage
     @Test
     public void testExternalStorage() throws InterruptedException {
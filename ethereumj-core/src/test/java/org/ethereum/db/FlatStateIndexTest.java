@@ -0,0 +1,276 @@
+package org.ethereum.db;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.HashMapDB;
+import org.ethereum.datasource.KeyValueDataSource;
+import org.ethereum.datasource.LevelDbDataSource;
+import org.ethereum.util.FileUtil;
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.junit.Assert.*;
+
+public class FlatStateIndexTest {
+
+    private static byte[] address(int i) {
+        byte[] ret = new byte[20];
+        ret[0] = (byte) (i >> 8);
+        ret[19] = (byte) i;
+        return ret;
+    }
+
+    private static byte[] root(int i) {
+        byte[] ret = new byte[32];
+        ret[0] = (byte) i;
+        return ret;
+    }
+
+    @Test
+    public void testApplyAndMove() {
+        SnapshotLayers layers = new SnapshotLayers(16);
+        FlatStateIndex index = new FlatStateIndex(new HashMapDB(), 16);
+        assertTrue(index.isAt(EMPTY_TRIE_HASH));
+
+        byte[] cow = address(1);
+        DataWord key = new DataWord(1);
+
+        SnapshotLayers.Diff diff1 = new SnapshotLayers.Diff();
+        diff1.updateAccount(cow, new byte[]{1});
+        diff1.updateStorage(cow, key, new DataWord(10));
+        layers.addLayer(EMPTY_TRIE_HASH, root(1), diff1);
+        index.apply(EMPTY_TRIE_HASH, root(1), diff1);
+
+        // the account is deleted and created anew
+        SnapshotLayers.Diff diff2 = new SnapshotLayers.Diff();
+        diff2.deleteAccount(cow);
+        diff2.updateAccount(cow, new byte[]{2});
+        layers.addLayer(root(1), root(2), diff2);
+        index.apply(root(1), root(2), diff2);
+
+        assertArrayEquals(new byte[]{2}, index.getAccount(cow));
+        assertEquals(DataWord.ZERO, index.getStorageValue(cow, key));
+
+        // a fork from the first block
+        SnapshotLayers.Diff diff2b = new SnapshotLayers.Diff();
+        diff2b.updateStorage(cow, key, new DataWord(20));
+        layers.addLayer(root(1), root(3), diff2b);
+
+        assertTrue(index.moveTo(root(3), layers));
+        assertArrayEquals(new byte[]{1}, index.getAccount(cow));
+        assertEquals(new DataWord(20), index.getStorageValue(cow, key));
+
+        assertTrue(index.moveTo(root(2), layers));
+        assertArrayEquals(new byte[]{2}, index.getAccount(cow));
+        assertEquals(DataWord.ZERO, index.getStorageValue(cow, key));
+
+        assertTrue(index.moveTo(EMPTY_TRIE_HASH, layers));
+        assertEquals(0, index.getAccount(cow).length);
+
+        // unknown state
+        assertFalse(index.moveTo(root(4), layers));
+        assertTrue(index.isAt(EMPTY_TRIE_HASH));
+    }
+
+    @Test
+    public void testPersisted() {
+        HashMapDB db = new HashMapDB();
+        FlatStateIndex index = new FlatStateIndex(db, 16);
+
+        SnapshotLayers.Diff diff = new SnapshotLayers.Diff();
+        diff.updateAccount(address(1), new byte[]{1});
+        index.apply(EMPTY_TRIE_HASH, root(1), diff);
+
+        // nothing is written until flushed
+        assertTrue(new FlatStateIndex(db, 16).isAt(EMPTY_TRIE_HASH));
+
+        index.flush();
+        FlatStateIndex reopened = new FlatStateIndex(db, 16);
+        assertTrue(reopened.isAt(root(1)));
+        assertArrayEquals(new byte[]{1}, reopened.getAccount(address(1)));
+    }
+
+    private static void applyBlock(Random rnd, int accounts, Repository... repos) {
+        List<Repository> tracks = new ArrayList<>();
+        for (Repository repo : repos) tracks.add(repo.startTracking());
+
+        for (int i = 0; i < 20; i++) {
+            byte[] addr = address(rnd.nextInt(accounts));
+            int op = rnd.nextInt(10);
+            DataWord key = new DataWord(rnd.nextInt(8));
+            DataWord value = new DataWord(rnd.nextInt(3));
+            BigInteger balance = BigInteger.valueOf(rnd.nextInt(100));
+            for (Repository track : tracks) {
+                if (op == 0) {
+                    if (track.isExist(addr)) track.delete(addr);
+                } else if (op < 5) {
+                    track.addStorageRow(addr, key, value);
+                } else {
+                    track.addBalance(addr, balance);
+                }
+            }
+        }
+
+        for (Repository track : tracks) track.commit();
+        for (Repository repo : repos) ((RepositoryImpl) repo).commitBlock(null);
+    }
+
+    private static void assertSameState(RepositoryImpl expected, RepositoryImpl actual, int accounts) {
+        assertArrayEquals(expected.getRoot(), actual.getRoot());
+        // the contract details loaded by the track read the storage as the VM does
+        Repository track = actual.startTracking();
+        for (int i = 0; i < accounts; i++) {
+            byte[] addr = address(i);
+            assertEquals(expected.getBalance(addr), actual.getBalance(addr));
+            assertEquals(expected.isExist(addr), actual.isExist(addr));
+            for (int k = 0; k < 8; k++) {
+                assertEquals(expected.getStorageValue(addr, new DataWord(k)), actual.getStorageValue(addr, new DataWord(k)));
+                assertEquals(expected.getStorageValue(addr, new DataWord(k)), track.getStorageValue(addr, new DataWord(k)));
+            }
+        }
+        track.rollback();
+    }
+
+    @Test
+    public void testRepository() {
+        int accounts = 30;
+        Random rnd = new Random(1);
+
+        RepositoryImpl trieOnly = new RepositoryImpl(new HashMapDB(), new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(new HashMapDB(), new HashMapDB())
+                .withFlatIndex(new HashMapDB());
+
+        List<byte[]> roots = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            applyBlock(rnd, accounts, trieOnly, repository);
+            assertSameState(trieOnly, repository, accounts);
+            roots.add(repository.getRoot());
+        }
+        assertTrue(repository.getFlatIndex().isAt(repository.getRoot()));
+        assertEquals(0, repository.verifyFlatIndex());
+
+        // a fork from the fifth block
+        trieOnly.syncToRoot(roots.get(4));
+        repository.syncToRoot(roots.get(4));
+        assertTrue(repository.getFlatIndex().isAt(roots.get(4)));
+        for (int i = 0; i < 3; i++) {
+            applyBlock(rnd, accounts, trieOnly, repository);
+            assertSameState(trieOnly, repository, accounts);
+        }
+        assertEquals(0, repository.verifyFlatIndex());
+
+        // back to the first branch
+        trieOnly.syncToRoot(roots.get(9));
+        repository.syncToRoot(roots.get(9));
+        assertSameState(trieOnly, repository, accounts);
+        assertEquals(0, repository.verifyFlatIndex());
+
+        repository.rebuildFlatIndex();
+        assertTrue(repository.getFlatIndex().isAt(roots.get(9)));
+        assertSameState(trieOnly, repository, accounts);
+        assertEquals(0, repository.verifyFlatIndex());
+    }
+
+    @Test
+    public void testBackgroundRebuild() throws InterruptedException {
+        int accounts = 30;
+        Random rnd = new Random(2);
+
+        RepositoryImpl trieOnly = new RepositoryImpl(new HashMapDB(), new HashMapDB());
+        RepositoryImpl repository = new RepositoryImpl(new HashMapDB(), new HashMapDB());
+        for (int i = 0; i < 5; i++) {
+            applyBlock(rnd, accounts, trieOnly, repository);
+        }
+
+        // the index enabled on the existing state is rebuilt with the next block,
+        // the state is read from the trie meanwhile
+        repository.withFlatIndex(new HashMapDB());
+        for (int i = 0; i < 3; i++) {
+            applyBlock(rnd, accounts, trieOnly, repository);
+            assertSameState(trieOnly, repository, accounts);
+        }
+
+        for (int i = 0; i < 100 && repository.isFlatIndexRebuilding(); i++) {
+            Thread.sleep(50);
+        }
+        assertFalse(repository.isFlatIndexRebuilding());
+        assertTrue(repository.getFlatIndex().isAt(repository.getRoot()));
+        assertSameState(trieOnly, repository, accounts);
+        assertEquals(0, repository.verifyFlatIndex());
+    }
+
+    private static KeyValueDataSource levelDb(String name) {
+        LevelDbDataSource ds = new LevelDbDataSource(name);
+        ds.init();
+        return ds;
+    }
+
+    // the stores are reopened so the state caches and the snapshot layers are empty
+    private static RepositoryImpl openRepository(boolean flatIndex) {
+        RepositoryImpl repository = new RepositoryImpl(new DetailsDataStore().withDb(levelDb("details"),
+                levelDb("storage")), levelDb("state"), false);
+        return flatIndex ? repository.withFlatIndex(levelDb("flatstate")) : repository;
+    }
+
+    private static long readTime(Repository repository, int accounts, int reads) {
+        Random rnd = new Random();
+        long s = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            int n = rnd.nextInt(accounts);
+            repository.getBalance(address(n));
+            repository.getStorageValue(address(n), new DataWord(n));
+        }
+        return (System.nanoTime() - s) / reads / 2;
+    }
+
+    @Test
+    public void testPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            int accounts = 100_000;
+            int reads = 1_000_000;
+            String testDir = "test_db_" + new BigInteger(32, new Random());
+            SystemProperties.getDefault().setDataBaseDir(testDir);
+
+            try {
+                RepositoryImpl repository = openRepository(true);
+                Repository track = repository.startTracking();
+                for (int i = 0; i < accounts; i++) {
+                    track.addBalance(address(i), BigInteger.ONE);
+                    track.addStorageRow(address(i), new DataWord(i), new DataWord(i + 1));
+                }
+                track.commit();
+                repository.commitBlock(null);
+                repository.flush();
+                byte[] root = repository.getRoot();
+                repository.close();
+
+                RepositoryImpl trieOnly = openRepository(false);
+                trieOnly.syncToRoot(root);
+                for (int round = 0; round < 3; round++) {
+                    System.out.printf("Trie: %d ns/read%n", readTime(trieOnly, accounts, reads));
+                }
+                trieOnly.close();
+
+                repository = openRepository(true);
+                repository.syncToRoot(root);
+                assertTrue(repository.getFlatIndex().isAt(root));
+                for (int round = 0; round < 3; round++) {
+                    System.out.printf("Flat index: %d ns/read%n", readTime(repository, accounts, reads));
+                }
+                repository.close();
+            } finally {
+                FileUtil.recursiveDelete(testDir);
+            }
+        } else {
+            System.out.println("FlatStateIndex performance test is disabled.");
+        }
+    }
+}
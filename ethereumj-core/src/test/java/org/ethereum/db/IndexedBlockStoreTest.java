@@ -5,9 +5,12 @@ import org.ethereum.config.blockchain.FrontierConfig;
 import org.ethereum.config.net.MainNetConfig;
 import org.ethereum.core.Block;
 import org.ethereum.core.Genesis;
+import org.ethereum.datasource.DataSourceArray;
 import org.ethereum.datasource.HashMapDB;
 import org.ethereum.datasource.KeyValueDataSource;
 import org.ethereum.datasource.LevelDbDataSource;
+import org.ethereum.datasource.ObjectDataSource;
+import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FileUtil;
 import org.ethereum.util.blockchain.StandaloneBlockchain;
 import org.junit.*;
@@ -25,6 +28,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
 
+import static java.math.BigInteger.ONE;
 import static java.math.BigInteger.ZERO;
 import static org.ethereum.TestUtils.*;
 import static org.ethereum.util.ByteUtil.wrap;
@@ -1048,9 +1052,95 @@ public class IndexedBlockStoreTest {
         Assert.assertTrue(sb4.isEqual(b4_));
     }
 
+    @Test // index of the previous versions is converted
+    public void test10() {
+
+        HashMapDB indexDB = new HashMapDB();
+        HashMapDB blocksDB = new HashMapDB();
+
+        DataSourceArray<List<IndexedBlockStore.BlockInfo>> oldIndex = new DataSourceArray<>(
+                new ObjectDataSource<>(indexDB, IndexedBlockStore.BLOCK_INFO_SERIALIZER));
+        BigInteger cummDiff = ZERO;
+        byte[] forkHash = Hex.decode("00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff");
+        for (int i = 0; i < 100; ++i) {
+            Block block = blocks.get(i);
+            cummDiff = cummDiff.add(block.getCumulativeDifficulty());
+            blocksDB.put(block.getHash(), block.getEncoded());
+
+            List<IndexedBlockStore.BlockInfo> level = new ArrayList<>();
+            if (i == 50) {
+                IndexedBlockStore.BlockInfo fork = new IndexedBlockStore.BlockInfo();
+                fork.setHash(forkHash);
+                fork.setCummDifficulty(BigInteger.TEN);
+                fork.setMainChain(false);
+                level.add(fork);
+            }
+            IndexedBlockStore.BlockInfo main = new IndexedBlockStore.BlockInfo();
+            main.setHash(block.getHash());
+            main.setCummDifficulty(cummDiff);
+            main.setMainChain(true);
+            level.add(main);
+            oldIndex.set(i, level);
+        }
+
+        for (int reopen = 0; reopen < 2; ++reopen) {
+            IndexedBlockStore indexedBlockStore = new IndexedBlockStore();
+            indexedBlockStore.init(indexDB, blocksDB);
 
-// todo: test this
+            assertEquals(99, indexedBlockStore.getMaxNumber());
+            assertEquals(cummDiff, indexedBlockStore.getTotalDifficulty());
+            assertEquals(cummDiff, indexedBlockStore.getTotalDifficultyForHash(blocks.get(99).getHash()));
+            assertEquals(BigInteger.TEN, indexedBlockStore.getTotalDifficultyForHash(forkHash));
+            assertTrue(blocks.get(99).isEqual(indexedBlockStore.getBestBlock()));
 
-//    public byte[] getBlockHashByNumber(long blockNumber)
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(Hex.toHexString(blocks.get(i).getHash()),
+                        Hex.toHexString(indexedBlockStore.getBlockHashByNumber(i)));
+            }
+            assertEquals(null, indexedBlockStore.getBlockHashByNumber(100));
+
+            List<byte[]> level = indexedBlockStore.getHashesByNumber(50);
+            assertEquals(2, level.size());
+            assertEquals(Hex.toHexString(blocks.get(50).getHash()), Hex.toHexString(level.get(0)));
+            assertEquals(Hex.toHexString(forkHash), Hex.toHexString(level.get(1)));
+
+            assertEquals(100, indexedBlockStore.getListHashesStartWith(0, 1000).size());
+        }
+
+        // the old records are removed
+        assertEquals(null, indexDB.get(ByteUtil.intToBytes(0)));
+    }
 
+    @Test // fork blocks are moved to the main chain and back
+    public void test11() {
+
+        IndexedBlockStore indexedBlockStore = new IndexedBlockStore();
+        indexedBlockStore.init(new HashMapDB(), new HashMapDB());
+
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        Block b1 = bc.createBlock();
+        Block b2 = bc.createBlock();
+        Block b2_ = bc.createForkBlock(b1);
+        Block b3_ = bc.createForkBlock(b2_);
+
+        indexedBlockStore.saveBlock(bc.getBlockchain().getBlockByNumber(0), ONE, true);
+        indexedBlockStore.saveBlock(b1, BigInteger.valueOf(2), true);
+        indexedBlockStore.saveBlock(b2, BigInteger.valueOf(3), true);
+        indexedBlockStore.saveBlock(b2_, BigInteger.valueOf(3), false);
+        indexedBlockStore.saveBlock(b3_, BigInteger.valueOf(4), false);
+
+        assertTrue(b2.isEqual(indexedBlockStore.getBestBlock()));
+        assertEquals(BigInteger.valueOf(3), indexedBlockStore.getTotalDifficulty());
+        assertEquals(2, indexedBlockStore.getBlocksByNumber(2).size());
+
+        indexedBlockStore.reBranch(b3_);
+
+        assertTrue(b3_.isEqual(indexedBlockStore.getBestBlock()));
+        assertEquals(BigInteger.valueOf(4), indexedBlockStore.getTotalDifficulty());
+        assertEquals(Hex.toHexString(b2_.getHash()), Hex.toHexString(indexedBlockStore.getBlockHashByNumber(2)));
+        List<byte[]> level = indexedBlockStore.getHashesByNumber(2);
+        assertEquals(2, level.size());
+        assertEquals(Hex.toHexString(b2.getHash()), Hex.toHexString(level.get(1)));
+        assertEquals(3, indexedBlockStore.getListHashesStartWith(1, 10).size());
+    }
 }
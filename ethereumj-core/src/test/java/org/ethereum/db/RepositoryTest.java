@@ -922,6 +922,76 @@ public class RepositoryTest {
     }
 
 
+    @Test // testing for snapshot layers
+    public void test21() {
+
+        RepositoryImpl repository = new RepositoryImpl(new HashMapDB(), new HashMapDB());
+
+        byte[] cow = Hex.decode("CD2A3D9F938E13CD947EC05ABC7FE734DF8DD826");
+        byte[] horse = Hex.decode("13978AEE95F38490E9769C39B2773ED763D9CD5F");
+
+        DataWord cowKey1 = new DataWord("c1");
+        DataWord cowKey2 = new DataWord("c2");
+        DataWord cowVal1 = new DataWord("c0a1");
+        DataWord cowVal0 = new DataWord("c0a0");
+
+        Repository track = repository.startTracking();
+        track.addBalance(horse, BigInteger.ONE);
+        track.addStorageRow(cow, cowKey1, cowVal0);
+        track.commit();
+        repository.commitBlock(null);
+        byte[] root1 = repository.getRoot();
+        assertNotNull(repository.getSnapshotLayers().getLayer(root1));
+
+        track = repository.startTracking();
+        track.addBalance(cow, BigInteger.TEN);
+        track.addStorageRow(cow, cowKey2, cowVal1);
+        track.commit();
+        repository.commitBlock(null);
+        byte[] root2 = repository.getRoot();
+        assertNotNull(repository.getSnapshotLayers().getLayer(root2));
+
+        track = repository.startTracking();
+        track.delete(horse);
+        track.addStorageRow(cow, cowKey1, cowVal1);
+        track.commit();
+        repository.commitBlock(null);
+        byte[] root3 = repository.getRoot();
+
+        // a fork from the second block
+        repository.syncToRoot(root2);
+        track = repository.startTracking();
+        track.addBalance(horse, BigInteger.TEN);
+        track.commit();
+        repository.commitBlock(null);
+        byte[] root3b = repository.getRoot();
+        assertEquals(4, repository.getSnapshotLayers().size());
+
+        Repository snapshot = repository.getSnapshotTo(root2);
+        assertEquals(BigInteger.TEN, snapshot.getBalance(cow));
+        assertEquals(BigInteger.ONE, snapshot.getBalance(horse));
+        assertEquals(cowVal0, snapshot.getStorageValue(cow, cowKey1));
+        assertEquals(cowVal1, snapshot.getStorageValue(cow, cowKey2));
+
+        snapshot = repository.getSnapshotTo(root3);
+        assertFalse(snapshot.isExist(horse));
+        assertEquals(BigInteger.ZERO, snapshot.getBalance(horse));
+        assertEquals(cowVal1, snapshot.getStorageValue(cow, cowKey1));
+        assertEquals(cowVal1, snapshot.getStorageValue(cow, cowKey2));
+
+        snapshot = repository.getSnapshotTo(root3b);
+        assertEquals(BigInteger.valueOf(11), snapshot.getBalance(horse));
+        assertEquals(BigInteger.TEN, snapshot.getBalance(cow));
+        assertEquals(cowVal0, snapshot.getStorageValue(cow, cowKey1));
+
+        // the snapshot is read from the trie once changed
+        snapshot = repository.getSnapshotTo(root3);
+        snapshot.addBalance(cow, BigInteger.ONE);
+        assertEquals(BigInteger.valueOf(11), snapshot.getBalance(cow));
+        assertEquals(cowVal1, snapshot.getStorageValue(cow, cowKey1));
+    }
+
+
     @Test // testing for snapshot
     public void testMultiThread() throws InterruptedException {
         final RepositoryImpl repository = new RepositoryImpl(new HashMapDB(), new HashMapDB());
@@ -0,0 +1,99 @@
+package org.ethereum.db;
+
+import org.ethereum.vm.DataWord;
+import org.junit.Test;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.junit.Assert.*;
+
+public class SnapshotLayersTest {
+
+    private static byte[] address(int i) {
+        byte[] ret = new byte[20];
+        ret[19] = (byte) i;
+        return ret;
+    }
+
+    private static byte[] root(int i) {
+        byte[] ret = new byte[32];
+        ret[0] = (byte) i;
+        return ret;
+    }
+
+    private static SnapshotLayers.Diff diff(byte[] addr, int value) {
+        SnapshotLayers.Diff diff = new SnapshotLayers.Diff();
+        diff.updateAccount(addr, new byte[]{(byte) value});
+        return diff;
+    }
+
+    @Test
+    public void testLookup() {
+        SnapshotLayers layers = new SnapshotLayers(16);
+        byte[] cow = address(1);
+        byte[] horse = address(2);
+        DataWord key1 = new DataWord(1);
+        DataWord key2 = new DataWord(2);
+
+        SnapshotLayers.Diff diff1 = diff(cow, 1);
+        diff1.updateStorage(cow, key1, new DataWord(10));
+        diff1.updateStorage(cow, key2, new DataWord(20));
+        layers.addLayer(EMPTY_TRIE_HASH, root(1), diff1);
+
+        layers.addLayer(root(1), root(2), diff(horse, 2));
+
+        // the account is deleted and created anew
+        SnapshotLayers.Diff diff3 = new SnapshotLayers.Diff();
+        diff3.deleteAccount(cow);
+        diff3.updateAccount(cow, new byte[]{3});
+        diff3.updateStorage(cow, key2, new DataWord(30));
+        layers.addLayer(root(2), root(3), diff3);
+
+        SnapshotLayers.Layer layer2 = layers.getLayer(root(2));
+        assertArrayEquals(new byte[]{1}, layer2.getAccount(cow));
+        assertArrayEquals(new byte[]{2}, layer2.getAccount(horse));
+        assertEquals(new DataWord(10), layer2.getStorageValue(cow, key1));
+        assertNull(layer2.getAccount(address(3)));
+        assertNull(layer2.getStorageValue(horse, key1));
+
+        SnapshotLayers.Layer layer3 = layers.getLayer(root(3));
+        assertArrayEquals(new byte[]{3}, layer3.getAccount(cow));
+        assertEquals(DataWord.ZERO, layer3.getStorageValue(cow, key1));
+        assertEquals(new DataWord(30), layer3.getStorageValue(cow, key2));
+
+        // the layers above are not seen from below
+        assertNull(layers.getLayer(root(1)).getAccount(horse));
+    }
+
+    @Test
+    public void testForkEviction() {
+        SnapshotLayers layers = new SnapshotLayers(3);
+        byte[] cow = address(1);
+
+        layers.addLayer(EMPTY_TRIE_HASH, root(1), diff(cow, 1));
+        layers.addLayer(root(1), root(2), diff(cow, 2));
+        layers.addLayer(root(2), root(3), diff(cow, 3));
+
+        // a fork from the first block doesn't push the head layers out
+        layers.addLayer(root(1), root(12), diff(cow, 12));
+        assertEquals(4, layers.size());
+        assertNotNull(layers.getLayer(root(1)));
+        assertArrayEquals(new byte[]{12}, layers.getLayer(root(12)).getAccount(cow));
+        assertArrayEquals(new byte[]{3}, layers.getLayer(root(3)).getAccount(cow));
+
+        // the head moves on, the layers too far from it are dropped
+        layers.addLayer(root(3), root(4), new SnapshotLayers.Diff());
+        assertNull(layers.getLayer(root(1)));
+        assertNotNull(layers.getLayer(root(12)));
+        assertEquals(4, layers.size());
+
+        layers.addLayer(root(4), root(5), new SnapshotLayers.Diff());
+        assertNull(layers.getLayer(root(2)));
+        assertNull(layers.getLayer(root(12)));
+        assertEquals(3, layers.size());
+
+        // the change of the dropped layer is to be read from the trie
+        assertArrayEquals(new byte[]{3}, layers.getLayer(root(5)).getAccount(cow));
+        layers.addLayer(root(5), root(6), new SnapshotLayers.Diff());
+        assertNull(layers.getLayer(root(6)).getAccount(cow));
+    }
+}
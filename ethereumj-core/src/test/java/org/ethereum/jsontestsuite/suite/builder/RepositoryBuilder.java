@@ -5,18 +5,17 @@ import org.ethereum.datasource.HashMapDB;
 import org.ethereum.db.*;
 import org.ethereum.core.Repository;
 import org.ethereum.jsontestsuite.suite.model.AccountTck;
+import org.ethereum.util.ByteArrayHashMap;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import static org.ethereum.jsontestsuite.suite.Utils.parseData;
-import static org.ethereum.util.ByteUtil.wrap;
 
 public class RepositoryBuilder {
 
     public static Repository build(Map<String, AccountTck> accounts){
-        HashMap<ByteArrayWrapper, AccountState> stateBatch = new HashMap<>();
-        HashMap<ByteArrayWrapper, ContractDetails> detailsBatch = new HashMap<>();
+        ByteArrayHashMap<AccountState> stateBatch = new ByteArrayHashMap<>(20);
+        ByteArrayHashMap<ContractDetails> detailsBatch = new ByteArrayHashMap<>(20);
 
         for (String address : accounts.keySet()) {
 
@@ -26,12 +25,12 @@ public class RepositoryBuilder {
             AccountState state = stateWrap.getAccountState();
             ContractDetails details = stateWrap.getContractDetails();
 
-            stateBatch.put(wrap(parseData(address)), state);
+            stateBatch.put(parseData(address), state);
 
             ContractDetailsCacheImpl detailsCache = new ContractDetailsCacheImpl(details);
             detailsCache.setDirty(true);
 
-            detailsBatch.put(wrap(parseData(address)), detailsCache);
+            detailsBatch.put(parseData(address), detailsCache);
         }
 
         RepositoryImpl repositoryDummy = new RepositoryImpl(new HashMapDB().setClearOnClose(false),
@@ -6,14 +6,23 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.config.blockchain.FrontierConfig;
 import org.ethereum.config.net.MainNetConfig;
 import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
 import org.ethereum.mine.Ethash;
 import org.ethereum.mine.EthashAlgo;
+import org.ethereum.mine.EthashDataset;
+import org.ethereum.mine.EthashMiner;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FastByteComparisons;
+import org.ethereum.validator.BlockHeaderRule;
+import org.ethereum.validator.BlockHeaderValidator;
+import org.ethereum.validator.ProofOfWorkRule;
 import org.junit.*;
 import org.spongycastle.util.encoders.Hex;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -105,6 +114,51 @@ public class EthashTest {
         System.out.println(Hex.toHexString(pair.getRight()));
     }
 
+    @Test
+    public void datasetFileTest() throws IOException {
+        EthashAlgo ethash = new EthashAlgo();
+        byte[] seed = "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~".getBytes();
+        long cacheSize = 1024;
+        long fullSize = 1024 * 32;
+        int hashBytes = ethash.getParams().getHASH_BYTES();
+        int[] cache = ethash.makeCache(cacheSize, seed);
+        int[] expected = new int[(int) (fullSize / 4)];
+        for (int i = 0; i < fullSize / hashBytes; i++) {
+            int[] item = ethash.calcDatasetItem(cache, i);
+            System.arraycopy(item, 0, expected, i * item.length, item.length);
+        }
+        assertArrayEquals(expected, ethash.calcDataset(fullSize, cache));
+
+        File file = File.createTempFile("mine-dag", ".dat");
+        file.deleteOnExit();
+
+        EthashDataset dataset = EthashDataset.create(file, 0, fullSize, hashBytes);
+        ethash.calcDataset(cache, dataset, 3);
+        // not complete yet
+        Assert.assertNull(EthashDataset.open(file, 0, fullSize, hashBytes));
+        dataset.complete();
+        dataset.close();
+
+        Assert.assertNull(EthashDataset.open(file, 30000, fullSize, hashBytes));
+        dataset = EthashDataset.open(file, 0, fullSize, hashBytes);
+        int[] item = new int[hashBytes / 4];
+        for (int i = 0; i < dataset.getItemCount(); i++) {
+            dataset.getItem(i, item, 0);
+            assertArrayEquals(ethash.calcDatasetItem(cache, i), item);
+        }
+
+        byte[] blockHash = "~~~X~~~~~~~~~~~~~~~~~~~~~~~~~~~~".getBytes();
+        long nonce = 0x7c7c597cL;
+        Pair<byte[], byte[]> pair = ethash.hashimotoFull(fullSize, dataset, blockHash, longToBytes(nonce));
+        Assert.assertArrayEquals(pair.getLeft(), Hex.decode("d7b668b90c2f26961d98d7dd244f5966368165edbce8cb8162dd282b6e5a8eae"));
+        Assert.assertArrayEquals(pair.getRight(), Hex.decode("b8cb1cb3ac1a7a6e12c4bc90f2779ef97e661f7957619e677636509d2f26055c"));
+        dataset.close();
+
+        EthashDataset.writeCache(file, 0, cache);
+        assertArrayEquals(cache, EthashDataset.readCache(file, 0, cacheSize));
+        Assert.assertNull(EthashDataset.readCache(file, 1, cacheSize));
+    }
+
     @Test
     public void cacheTestFast() {
         EthashAlgo ethash = new EthashAlgo();
@@ -216,6 +270,26 @@ public class EthashTest {
         }
     }
 
+    @Test
+    public void epochCacheTest() {
+        SystemProperties config = SystemProperties.getDefault();
+        Ethash epoch1 = Ethash.getForBlock(config, 45_000);
+        Ethash epoch2 = Ethash.getForBlock(config, 60_000);
+        Assert.assertSame(epoch2, Ethash.getForBlock(config, 65_000));
+        // headers from both epochs are served from the cache
+        Assert.assertSame(epoch1, Ethash.getForBlock(config, 59_000));
+
+        // close to the next epoch it is prepared in background
+        Assert.assertSame(epoch2, Ethash.getForBlock(config, 89_500));
+        Ethash epoch3 = Ethash.getForBlock(config, 90_000);
+        Assert.assertNotNull(epoch3.getCacheLight());
+        Assert.assertSame(epoch3, Ethash.getForBlock(config, 90_001));
+
+        // the least recently used epoch is dropped
+        Ethash.getForBlock(config, 120_000);
+        Assert.assertNotSame(epoch1, Ethash.getForBlock(config, 45_000));
+    }
+
     @Ignore // takes ~20 min
     @Test
     public void changeEpochTest()throws Exception {
@@ -320,4 +394,53 @@ public class EthashTest {
         System.out.println();
         System.out.println("Mined 100 blocks in " + (System.currentTimeMillis() - s) / 1000 + " sec");
     }
+
+    @Test
+    @Ignore
+    public void hashRateTest() {
+        Block b = new Block(Hex.decode("f9021af90215a0809870664d9a43cf1827aa515de6374e2fad1bf64290a9f261dd49c525d6a0efa01dcc4de8dec75d7aab85b567b6ccd41ad312451b948a7413f0a142fd40d4934794f927a40c8b7f6e07c5af7fa2155b4864a4112b13a010c8ec4f62ecea600c616443bcf527d97e5b1c5bb4a9769c496d1bf32636c95da056e81f171bcc55a6ff8345e692c0f86e5b48e01b996cadc001622fb5e363b421a056e81f171bcc55a6ff8345e692c0f86e5b48e01b996cadc001622fb5e363b421b901000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000086015a1c28ae5e82bf958302472c808455c4e47b99476574682f76312e302e312f6c696e75782f676f312e342e32a0788ac534cb2f6a226a01535e29b11a96602d447aed972463b5cbcc7dd5d633f288e2ff1b6435006517c0c0"));
+        BlockHeader header = b.getHeader();
+        SystemProperties config = SystemProperties.getDefault();
+
+        EthashMiner miner = new EthashMiner(config);
+        Assert.assertTrue(miner.validate(header));
+        BlockHeaderValidator validator = new BlockHeaderValidator(
+                Arrays.asList((BlockHeaderRule) new ProofOfWorkRule()));
+
+        Ethash ethash = Ethash.getForBlock(config, b.getNumber());
+        long nonce = ByteUtil.byteArrayToLong(b.getNonce());
+        for (int round = 0; round < 3; round++) {
+            int cnt = 0;
+            long s = System.nanoTime();
+            while (System.nanoTime() - s < 5_000_000_000L) {
+                miner.validate(header);
+                cnt++;
+            }
+            System.out.printf("EthashMiner.validate: %.1f hashes/sec%n", cnt * 1e9 / (System.nanoTime() - s));
+
+            cnt = 0;
+            s = System.nanoTime();
+            while (System.nanoTime() - s < 5_000_000_000L) {
+                ethash.hashimotoLight(header, nonce + cnt);
+                cnt++;
+            }
+            System.out.printf("Light mining: %.1f hashes/sec%n", cnt * 1e9 / (System.nanoTime() - s));
+
+            cnt = 0;
+            s = System.nanoTime();
+            while (System.nanoTime() - s < 5_000_000_000L) {
+                ethash.hashimotoFull(header, nonce + cnt);
+                cnt++;
+            }
+            System.out.printf("Full mining: %.1f hashes/sec%n", cnt * 1e9 / (System.nanoTime() - s));
+
+            cnt = 0;
+            s = System.nanoTime();
+            while (System.nanoTime() - s < 1_000_000_000L) {
+                validator.validate(header);
+                cnt++;
+            }
+            System.out.printf("BlockHeaderValidator PoW: %.1f headers/sec%n", cnt * 1e9 / (System.nanoTime() - s));
+        }
+    }
 }
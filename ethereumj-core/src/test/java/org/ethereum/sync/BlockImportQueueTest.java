@@ -0,0 +1,66 @@
+package org.ethereum.sync;
+
+import org.ethereum.TestUtils;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockWrapper;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BlockImportQueueTest {
+
+    byte[] peer0 = new byte[32];
+
+    @Test
+    public void test1() throws InterruptedException {
+        List<Block> chain = TestUtils.getRandomChain(new byte[32], 0, 3);
+        long twoBlocksSize = chain.get(0).getEncoded().length + chain.get(1).getEncoded().length;
+
+        final BlockImportQueue queue = new BlockImportQueue(twoBlocksSize);
+        queue.put(new BlockWrapper(chain.get(0), peer0));
+        assertFalse(queue.isFull());
+        queue.put(new BlockWrapper(chain.get(1), peer0));
+        assertTrue(queue.isFull());
+        assertEquals(2, queue.size());
+
+        final BlockWrapper third = new BlockWrapper(chain.get(2), peer0);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(third);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+
+        // the queue is over the budget, the producer waits
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals(2, queue.size());
+
+        assertArrayEquals(chain.get(0).getHash(), queue.take().getBlock().getHash());
+
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(2, queue.size());
+        assertArrayEquals(chain.get(1).getHash(), queue.take().getBlock().getHash());
+        assertArrayEquals(chain.get(2).getHash(), queue.take().getBlock().getHash());
+        assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    public void test2() throws InterruptedException {
+        List<Block> chain = TestUtils.getRandomChain(new byte[32], 0, 1);
+
+        // the empty queue takes the block whatever its size
+        BlockImportQueue queue = new BlockImportQueue(1);
+        queue.put(new BlockWrapper(chain.get(0), peer0));
+        assertTrue(queue.isFull());
+        assertEquals(chain.get(0).getEncoded().length, queue.getBytes());
+    }
+}
@@ -162,7 +162,84 @@ public class JournalPruneTest {
         assertEquals(0, jds.getRefCount().size());
     }
 
+    @Test
+    public void journalTest() {
+        HashMapDB db = new HashMapDB();
+        HashMapDB journal = new HashMapDB();
+        StringJDS jds = new StringJDS(db);
+        jds.withJournal(journal);
+
+        putKeys(db, "a1", "a2", "a3");
+
+        jds.put("a4");
+        jds.put("a1");
+        jds.delete("a2");
+        jds.storeBlockChanges(createHeader(1, 0));
+        jds.put("a5");
+        jds.delete("a3");
+        jds.put("a2");
+        jds.put("a1");
+        jds.storeBlockChanges(createHeader(1, 1));
+        jds.delete("a4");
+        jds.storeBlockChanges(createHeader(2, 0));
+        jds.flush();
+
+        // restart
+        jds = new StringJDS(db);
+        jds.withJournal(journal);
+        assertEquals(3, jds.getBlockUpdates().size());
+
+        jds.prune(createHeader(1, 0));
+        checkDb(db, "a1", "a3", "a4");
+        jds.flush();
+
+        jds = new StringJDS(db);
+        jds.withJournal(journal);
+        assertEquals(1, jds.getBlockUpdates().size());
+
+        jds.prune(createHeader(2, 0));
+        checkDb(db, "a1", "a3");
+        jds.flush();
+
+        assertEquals(0, jds.getBlockUpdates().size());
+        assertEquals(0, jds.getRefCount().size());
+        // counted since the restart
+        assertEquals(1, jds.getPrunedBlocks());
+        assertEquals(1, jds.getDeletedKeys());
+        // the size of a4 isn't journaled anymore, the average of the inserted values is taken
+        assertEquals(2, jds.getReclaimedBytes());
+        // only the empty block index, the empty delete queue and the insert totals are left
+        assertEquals(3, journal.getSize());
+    }
+
+    @Test
+    public void backgroundTest() throws InterruptedException {
+        HashMapDB db = new HashMapDB();
+        StringJDS jds = new StringJDS(db);
+        jds.withBackgroundPruning(1);
+
+        putKeys(db, "a1", "a2", "a3");
 
+        jds.delete("a1");
+        jds.delete("a2");
+        jds.delete("a3");
+        jds.storeBlockChanges(createHeader(1, 0));
+        jds.storeBlockChanges(createHeader(2, 0));
+
+        synchronized (jds) {
+            jds.prune(createHeader(1, 0));
+            // queued but not deleted yet, inserted again
+            jds.put("a2");
+        }
+        jds.storeBlockChanges(createHeader(3, 0));
+
+        for (int i = 0; i < 100 && jds.getPendingDeletes() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, jds.getPendingDeletes());
+        checkDb(db, "a2");
+        assertEquals(2, jds.getDeletedKeys());
+    }
 
     public BlockHeader createHeader(int num, int fork) {
         byte[] coinbase = new byte[32];
@@ -25,8 +25,14 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.ethereum.util.ByteUtil.intToBytes;
 import static org.junit.Assert.*;
 
 public class TrieTest {
@@ -1390,4 +1396,175 @@ public class TrieTest {
         assertArrayEquals(trie.get(Hex.decode("6e92718d00dae27b2a96f6853a0bf11ded08bc658b2e75904ca0344df5aff9ae")),
                 Hex.decode("00000000000000000000000000000000000000000000002f0000000000000000"));
     }
+
+    @Test
+    public void testParallelRootHash() {
+        // hashed after each update
+        TrieImpl trie1 = new SecureTrie(new HashMapDB());
+        // hashed once, in parallel
+        TrieImpl trie2 = new SecureTrie(new HashMapDB());
+
+        Random rnd = new Random(0);
+        for (int i = 0; i < 3000; i++) {
+            byte[] key = intToBytes(rnd.nextInt(2000));
+            byte[] value = rnd.nextInt(5) == 0 ? EMPTY_BYTE_ARRAY : sha3(intToBytes(i));
+            trie1.update(key, value);
+            trie1.getRootHash();
+            trie2.update(key, value);
+        }
+
+        assertArrayEquals(trie1.getRootHash(), trie2.getRootHash());
+
+        trie1.sync();
+        trie2.sync();
+        assertArrayEquals(trie1.getRootHash(), new SecureTrie(trie2.getCache().getDb(), trie2.getRootHash()).getRootHash());
+        for (int i = 0; i < 2000; i++) {
+            assertArrayEquals(trie1.get(intToBytes(i)), trie2.get(intToBytes(i)));
+        }
+    }
+
+    @Test
+    public void testRootHashPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            Random rnd = new Random(0);
+            byte[][] keys = new byte[10_000][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = sha3(intToBytes(rnd.nextInt()));
+            }
+
+            for (int round = 0; round < 10; round++) {
+                TrieImpl trie = new SecureTrie(new HashMapDB());
+                long start = System.nanoTime();
+                for (byte[] key : keys) {
+                    trie.update(key, key);
+                }
+                trie.getRootHash();
+                long time = System.nanoTime() - start;
+                System.out.printf("%d updates + root hash: %d ms%n", keys.length, time / 1_000_000);
+            }
+        } else {
+            System.out.println("Root hash performance test is disabled.");
+        }
+    }
+
+    @Test
+    public void testCacheSizeBudget() {
+        long budget = 64 * 1024;
+        TrieImpl trie = new SecureTrie(new HashMapDB()).withCacheSize(budget);
+
+        for (int i = 0; i < 5000; i++) {
+            trie.update(intToBytes(i), sha3(intToBytes(i)));
+            if (i % 100 == 0) {
+                trie.sync();
+                assertEquals(0, trie.getCache().getDirtySize());
+                assertTrue(trie.getCache().getCacheSize() <= budget);
+            }
+        }
+        // dirty nodes are never evicted
+        assertTrue(trie.getCache().getDirtySize() > 0);
+        trie.sync();
+        assertTrue(trie.getCache().getCacheSize() <= budget);
+        assertNotEquals(0, trie.getCache().getNodes().size());
+
+        for (int i = 0; i < 5000; i++) {
+            assertArrayEquals(sha3(intToBytes(i)), trie.get(intToBytes(i)));
+        }
+        assertTrue(trie.getCache().getCacheSize() <= budget);
+    }
+
+    @Test
+    public void testConcurrentReadsDuringImport() throws InterruptedException {
+        final TrieImpl trie = new SecureTrie(new HashMapDB());
+        final int stable = 500;
+        for (int i = 0; i < stable; i++) {
+            trie.update(intToBytes(i), sha3(intToBytes(i)));
+        }
+        trie.sync();
+
+        final AtomicBoolean importing = new AtomicBoolean(true);
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    Random rnd = new Random(getId());
+                    while (importing.get()) {
+                        int i = rnd.nextInt(stable);
+                        try {
+                            if (!Arrays.equals(sha3(intToBytes(i)), trie.get(intToBytes(i)))) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int i = stable; i < stable + 5000; i++) {
+            trie.update(intToBytes(i), sha3(intToBytes(i)));
+            if (i % 500 == 0) trie.sync();
+        }
+        importing.set(false);
+        for (Thread reader : readers) reader.join();
+
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void testConcurrentReadPerformance() throws InterruptedException {
+        boolean enabled = false;
+
+        if (enabled) {
+            final int readerThreads = 8;
+            final int accounts = 100_000;
+            final TrieImpl trie = new SecureTrie(new HashMapDB());
+            for (int i = 0; i < accounts; i++) {
+                trie.update(intToBytes(i), sha3(intToBytes(i)));
+            }
+            trie.sync();
+
+            final AtomicBoolean importing = new AtomicBoolean(true);
+            final AtomicLong reads = new AtomicLong();
+            List<Thread> readers = new ArrayList<>();
+            for (int t = 0; t < readerThreads; t++) {
+                Thread reader = new Thread() {
+                    @Override
+                    public void run() {
+                        Random rnd = new Random(getId());
+                        long cnt = 0;
+                        while (importing.get()) {
+                            trie.get(intToBytes(rnd.nextInt(accounts)));
+                            cnt++;
+                        }
+                        reads.addAndGet(cnt);
+                    }
+                };
+                reader.start();
+                readers.add(reader);
+            }
+
+            // the importer: blocks of 200 updates followed by a commit
+            long start = System.nanoTime();
+            Random rnd = new Random(0);
+            for (int i = 0; i < 50_000; i++) {
+                trie.update(intToBytes(rnd.nextInt(accounts * 2)), sha3(intToBytes(i)));
+                if (i % 200 == 0) trie.sync();
+            }
+            long time = System.nanoTime() - start;
+            importing.set(false);
+            for (Thread reader : readers) reader.join();
+
+            System.out.printf("Import: %d ms, %d reader threads: %d reads/sec%n", time / 1_000_000,
+                    readerThreads, reads.get() * 1_000_000_000L / time);
+        } else {
+            System.out.println("Concurrent trie read performance test is disabled.");
+        }
+    }
 }
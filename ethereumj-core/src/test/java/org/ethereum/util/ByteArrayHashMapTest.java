@@ -0,0 +1,249 @@
+package org.ethereum.util;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.junit.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ByteArrayHashMapTest {
+
+    private static byte[] key(int i, int length) {
+        byte[] key = new byte[length];
+        new Random(i).nextBytes(key);
+        return key;
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        ByteArrayHashMap<Integer> map = new ByteArrayHashMap<>(32);
+        int cnt = 10_000;
+        for (int i = 0; i < cnt; i++) {
+            assertNull(map.put(key(i, 32), i));
+        }
+        assertEquals(cnt, map.size());
+
+        for (int i = 0; i < cnt; i++) {
+            // a different array with the same content
+            assertEquals(i, (int) map.get(key(i, 32)));
+        }
+        assertNull(map.get(key(cnt, 32)));
+
+        for (int i = 0; i < cnt; i += 2) {
+            assertEquals(i, (int) map.remove(key(i, 32)));
+        }
+        assertEquals(cnt / 2, map.size());
+
+        for (int i = 0; i < cnt; i++) {
+            assertEquals(i % 2 == 0 ? null : (Integer) i, map.get(key(i, 32)));
+        }
+
+        // removed keys may come back
+        assertNull(map.put(key(0, 32), -1));
+        assertEquals(-1, (int) map.get(key(0, 32)));
+        assertEquals(cnt / 2 + 1, map.size());
+    }
+
+    @Test
+    public void testKeyIsCopied() {
+        ByteArrayHashMap<String> map = new ByteArrayHashMap<>(20);
+        byte[] key = key(1, 20);
+        map.put(key, "a");
+        key[0]++;
+        assertNull(map.get(key));
+        key[0]--;
+        assertEquals("a", map.get(key));
+    }
+
+    @Test
+    public void testNullValues() {
+        ByteArrayHashMap<byte[]> map = new ByteArrayHashMap<>(32);
+        map.put(key(1, 32), null);
+        assertTrue(map.containsKey(key(1, 32)));
+        assertNull(map.get(key(1, 32)));
+        assertFalse(map.containsKey(key(2, 32)));
+        assertEquals(1, map.size());
+
+        map.remove(key(1, 32));
+        assertFalse(map.containsKey(key(1, 32)));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testOtherKeyLength() {
+        ByteArrayHashMap<String> map = new ByteArrayHashMap<>(32);
+        map.put(key(1, 32), "32");
+        map.put(key(1, 8), "8");
+        map.put(new byte[0], "0");
+        map.put(new byte[0], null);
+
+        assertEquals(3, map.size());
+        assertEquals("32", map.get(key(1, 32)));
+        assertEquals("8", map.get(key(1, 8)));
+        assertTrue(map.containsKey(new byte[0]));
+        assertNull(map.get(new byte[0]));
+        assertNull(map.get("not a key"));
+
+        Set<ByteArrayWrapper> keys = new HashSet<>();
+        for (byte[] k : map.keySet()) keys.add(new ByteArrayWrapper(k));
+        assertEquals(3, keys.size());
+        assertTrue(keys.contains(new ByteArrayWrapper(key(1, 8))));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(key(1, 8)));
+    }
+
+    @Test
+    public void testIteration() {
+        ByteArrayHashMap<Integer> map = new ByteArrayHashMap<>(20);
+        for (int i = 0; i < 1000; i++) {
+            map.put(key(i, 20), i);
+        }
+
+        int sum = 0;
+        Iterator<Map.Entry<byte[], Integer>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<byte[], Integer> entry = it.next();
+            assertArrayEquals(key(entry.getValue(), 20), entry.getKey());
+            sum += entry.getValue();
+            if (entry.getValue() % 10 == 0) it.remove();
+            else if (entry.getValue() % 10 == 1) entry.setValue(-entry.getValue());
+        }
+        assertEquals(999 * 1000 / 2, sum);
+        assertEquals(900, map.size());
+        assertEquals(-1, (int) map.get(key(1, 20)));
+        assertFalse(map.containsKey(key(10, 20)));
+
+        // the set view keeps the content semantics
+        Set<byte[]> set = Collections.newSetFromMap(new ByteArrayHashMap<Boolean>(20));
+        set.add(key(1, 20));
+        assertTrue(set.contains(key(1, 20)));
+        assertFalse(set.add(key(1, 20)));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testConditionalUpdates() {
+        ByteArrayHashMap<String> map = new ByteArrayHashMap<>(32);
+        assertNull(map.putIfAbsent(key(1, 32), "a"));
+        assertEquals("a", map.putIfAbsent(key(1, 32), "b"));
+        assertFalse(map.remove(key(1, 32), "b"));
+        assertTrue(map.remove(key(1, 32), "a"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final ByteArrayHashMap<Integer> map = new ByteArrayHashMap<>(32);
+        final int cnt = 20_000;
+        final byte[][] keys = new byte[cnt][];
+        for (int i = 0; i < cnt; i++) keys[i] = key(i, 32);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                @Override
+                public void run() {
+                    Random rnd = new Random();
+                    while (!done.get()) {
+                        int i = rnd.nextInt(cnt);
+                        Integer v = map.get(keys[i]);
+                        // a key is only ever mapped to its own index
+                        if (v != null && v != i) failures.incrementAndGet();
+                    }
+                }
+            };
+            readers[r].start();
+        }
+
+        // the table is rebuilt many times while being read
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < cnt; i++) map.put(keys[i], i);
+            for (int i = 0; i < cnt; i += 3) map.remove(keys[i]);
+        }
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+
+        assertEquals(0, failures.get());
+        assertEquals(cnt - (cnt + 2) / 3, map.size());
+    }
+
+    @Test
+    public void testPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            int cnt = 1_000_000;
+            int rounds = 10;
+            byte[][] keys = new byte[cnt][];
+            byte[][] lookups = new byte[cnt][];
+            for (int i = 0; i < cnt; i++) {
+                keys[i] = key(i, 32);
+            }
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < cnt; i++) order.add(i);
+            Collections.shuffle(order, new Random(0));
+            for (int i = 0; i < cnt; i++) {
+                // looked up in random order with other arrays, like keys coming from the network or the database
+                lookups[i] = keys[order.get(i)].clone();
+            }
+
+            for (int warmup = 0; warmup < 2; warmup++) {
+                long heap = usedHeap();
+                Map<ByteArrayWrapper, Integer> wrapped = new HashMap<>();
+                long gc = gcCount();
+                long s = System.nanoTime();
+                for (int i = 0; i < cnt; i++) wrapped.put(new ByteArrayWrapper(keys[i]), i);
+                long insert = System.nanoTime() - s;
+                long footprint = usedHeap() - heap;
+                s = System.nanoTime();
+                long sum = 0;
+                for (int r = 0; r < rounds; r++)
+                    for (int i = 0; i < cnt; i++) sum += wrapped.get(new ByteArrayWrapper(lookups[i]));
+                long lookup = System.nanoTime() - s;
+                System.out.printf("HashMap<ByteArrayWrapper>: insert %d ns/op, lookup %d ns/op, GCs: %d, heap: %d bytes/entry (%d)%n",
+                        insert / cnt, lookup / cnt / rounds, gcCount() - gc, footprint / cnt, sum);
+                wrapped = null;
+
+                heap = usedHeap();
+                ByteArrayHashMap<Integer> flat = new ByteArrayHashMap<>(32);
+                gc = gcCount();
+                s = System.nanoTime();
+                for (int i = 0; i < cnt; i++) flat.put(keys[i], i);
+                insert = System.nanoTime() - s;
+                footprint = usedHeap() - heap;
+                s = System.nanoTime();
+                sum = 0;
+                for (int r = 0; r < rounds; r++)
+                    for (int i = 0; i < cnt; i++) sum += flat.get(lookups[i]);
+                lookup = System.nanoTime() - s;
+                System.out.printf("ByteArrayHashMap:          insert %d ns/op, lookup %d ns/op, GCs: %d, heap: %d bytes/entry (%d)%n",
+                        insert / cnt, lookup / cnt / rounds, gcCount() - gc, footprint / cnt, sum);
+            }
+        } else {
+            System.out.println("ByteArrayHashMap performance test is disabled.");
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long gcCount() {
+        long cnt = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            cnt += gc.getCollectionCount();
+        }
+        return cnt;
+    }
+}
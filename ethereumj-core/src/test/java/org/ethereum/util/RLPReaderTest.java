@@ -0,0 +1,194 @@
+package org.ethereum.util;
+
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RLPReaderTest {
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] ret = new byte[length];
+        for (int i = 0; i < length; i++) ret[i] = (byte) (seed + i);
+        return ret;
+    }
+
+    private static byte[] sample() {
+        return RLP.encodeList(
+                RLP.encodeElement(bytes(32, 1)),
+                RLP.encodeElement(null),
+                RLP.encodeElement(new byte[]{0x05}),
+                RLP.encodeElement(new byte[]{(byte) 0x85}),
+                RLP.encodeElement(bytes(100, 7)),
+                RLP.encodeList(
+                        RLP.encodeBigInteger(BigInteger.valueOf(1_000_000)),
+                        RLP.encodeList()
+                ),
+                RLP.encodeList(RLP.encodeElement(bytes(1000, 3)), RLP.encodeElement(bytes(2, 9)))
+        );
+    }
+
+    // reads the same way as RLPList/RLPItem
+    private static void assertSame(RLPList expected, RLPReader reader) {
+        for (RLPElement element : expected) {
+            assertTrue(reader.hasNext());
+            if (element instanceof RLPList) {
+                assertTrue(reader.isList());
+                assertArrayEquals(element.getRLPData(), copyElement(reader));
+                assertSame((RLPList) element, reader.readList());
+            } else {
+                assertFalse(reader.isList());
+                assertArrayEquals(element.getRLPData(), reader.readBytes());
+            }
+        }
+        assertFalse(reader.hasNext());
+    }
+
+    private static byte[] copyElement(RLPReader reader) {
+        byte[] ret = new byte[reader.getLength()];
+        System.arraycopy(reader.getData(), reader.getOffset(), ret, 0, ret.length);
+        return ret;
+    }
+
+    @Test
+    public void testSameAsDecode2() {
+        byte[] encoded = sample();
+        assertSame(RLP.decode2(encoded), new RLPReader(encoded));
+    }
+
+    @Test
+    public void testRead() {
+        RLPReader reader = new RLPReader(sample()).readList();
+
+        assertEquals(32, reader.getPayloadLength());
+        assertEquals(reader.getOffset() + 1, reader.getPayloadOffset());
+        reader.skip();
+        assertEquals(0, reader.readLong());
+        assertEquals(5, reader.readInt());
+        assertEquals(BigInteger.valueOf(0x85), reader.readBigInteger());
+        assertEquals(102, reader.getLength());
+        assertArrayEquals(RLP.encodeElement(bytes(100, 7)), reader.readElement());
+
+        RLPReader inner = reader.readList();
+        assertEquals(1_000_000, inner.readLong());
+        assertFalse(inner.readList().hasNext());
+        assertFalse(inner.hasNext());
+
+        // a long list is skipped without being looked into
+        assertEquals(1000 + 3 + 3 + 3, reader.getLength());
+        reader.skip();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testBounds() {
+        byte[] encoded = sample();
+        byte[] padded = new byte[encoded.length + 20];
+        System.arraycopy(encoded, 0, padded, 10, encoded.length);
+
+        assertSame(RLP.decode2(encoded), new RLPReader(padded, 10, encoded.length));
+        assertSame(RLP.decode2(encoded), RLPReader.wrap(ByteBuffer.wrap(padded, 10, encoded.length)));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.length);
+        direct.put(encoded).flip();
+        assertSame(RLP.decode2(encoded), RLPReader.wrap(direct));
+    }
+
+    @Test
+    public void testWrongEncoding() {
+        byte[] encoded = sample();
+        try {
+            // the last item doesn't fit
+            new RLPReader(encoded, 0, encoded.length - 1).readList();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("RLP wrong encoding"));
+        }
+
+        try {
+            new RLPReader(Hex.decode("c3830102")).readList().readBytes();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("RLP wrong encoding"));
+        }
+
+        try {
+            new RLPReader(Hex.decode("820102")).readList();
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("RLP wrong encoding"));
+        }
+
+        try {
+            new RLPReader(new byte[0]).readBytes();
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    private static int traverse(RLPReader reader) {
+        int items = 0;
+        while (reader.hasNext()) {
+            if (reader.isList()) {
+                items += traverse(reader.readList());
+            } else {
+                reader.readBytes();
+                items++;
+            }
+        }
+        return items;
+    }
+
+    private static int traverse(RLPList list) {
+        int items = 0;
+        for (RLPElement element : list) {
+            items += element instanceof RLPList ? traverse((RLPList) element) : 1;
+        }
+        return items;
+    }
+
+    @Test
+    public void testPerformance() throws IOException, URISyntaxException {
+        boolean enabled = false;
+
+        if (enabled) {
+            URL blocksUrl = ClassLoader.getSystemResource("blockstore/light-load.dmp");
+            List<byte[]> blocks = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(blocksUrl.toURI()))) {
+                if (!line.isEmpty()) blocks.add(Hex.decode(line));
+            }
+
+            int rounds = 20_000;
+            for (int warmup = 0; warmup < 3; warmup++) {
+                long items = 0;
+                long s = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    for (byte[] block : blocks) items += traverse(RLP.decode2(block));
+                }
+                long tree = System.nanoTime() - s;
+
+                s = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    for (byte[] block : blocks) items -= traverse(new RLPReader(block));
+                }
+                long cursor = System.nanoTime() - s;
+
+                assertEquals(0, items);
+                long cnt = (long) rounds * blocks.size();
+                System.out.printf("RLP.decode2: %d ns/block, RLPReader: %d ns/block%n", tree / cnt, cursor / cnt);
+            }
+        } else {
+            System.out.println("RLPReader performance test is disabled.");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.ethereum.util;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RLPWriterTest {
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] ret = new byte[length];
+        for (int i = 0; i < length; i++) ret[i] = (byte) (seed + i);
+        return ret;
+    }
+
+    private static List<byte[]> items() {
+        List<byte[]> ret = new ArrayList<>();
+        ret.add(null);
+        ret.add(new byte[0]);
+        ret.add(new byte[]{0x00});
+        ret.add(new byte[]{0x7f});
+        ret.add(new byte[]{(byte) 0x80});
+        ret.add(new byte[]{0x00, 0x01});
+        ret.add(bytes(55, 1));
+        ret.add(bytes(56, 1));
+        ret.add(bytes(255, 1));
+        ret.add(bytes(256, 1));
+        ret.add(bytes(70_000, 1));
+        return ret;
+    }
+
+    private static List<BigInteger> numbers() {
+        List<BigInteger> ret = new ArrayList<>();
+        for (long l : new long[]{0, 1, 0x7f, 0x80, 0xff, 0x100, 0xffff, Integer.MAX_VALUE, Long.MAX_VALUE}) {
+            ret.add(BigInteger.valueOf(l));
+        }
+        ret.add(BigInteger.ONE.shiftLeft(63));
+        ret.add(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE));
+        return ret;
+    }
+
+    @Test
+    public void testElement() {
+        for (byte[] item : items()) {
+            byte[] expected = RLP.encodeElement(item);
+            assertEquals(expected.length, RLPWriter.sizeOfElement(item));
+            assertArrayEquals(expected, new RLPWriter(expected.length).writeElement(item).toByteArray());
+        }
+    }
+
+    @Test
+    public void testNumbers() {
+        for (BigInteger number : numbers()) {
+            byte[] expected = RLP.encodeBigInteger(number);
+            assertEquals(expected.length, RLPWriter.sizeOfBigInteger(number));
+            assertArrayEquals(expected, new RLPWriter(expected.length).writeBigInteger(number).toByteArray());
+
+            if (number.bitLength() <= 63) {
+                assertEquals(expected.length, RLPWriter.sizeOfLong(number.longValue()));
+                assertArrayEquals(expected, new RLPWriter(expected.length).writeLong(number.longValue()).toByteArray());
+            }
+        }
+        // the same as the other unsigned 64 bit numbers
+        byte[] expected = RLP.encodeBigInteger(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE));
+        assertEquals(expected.length, RLPWriter.sizeOfLong(-1));
+        assertArrayEquals(expected, new RLPWriter(expected.length).writeLong(-1).toByteArray());
+    }
+
+    @Test
+    public void testList() {
+        List<byte[]> items = items();
+        byte[][] encoded = new byte[items.size()][];
+        int payloadSize = 0;
+        for (int i = 0; i < items.size(); i++) {
+            encoded[i] = RLP.encodeElement(items.get(i));
+            payloadSize += RLPWriter.sizeOfElement(items.get(i));
+        }
+        byte[] expected = RLP.encodeList(RLP.encodeList(), RLP.encodeList(encoded), RLP.encodeElement(bytes(3, 5)));
+
+        int listSize = RLPWriter.sizeOfList(payloadSize);
+        int size = RLPWriter.sizeOfList(0) + listSize + RLPWriter.sizeOfElement(bytes(3, 5));
+        assertEquals(expected.length, RLPWriter.sizeOfList(size));
+
+        RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+        writer.writeListHeader(size)
+                .writeListHeader(0)
+                .writeListHeader(payloadSize);
+        for (byte[] item : items) writer.writeElement(item);
+        writer.writeEncoded(RLP.encodeElement(bytes(3, 5)));
+
+        assertEquals(expected.length, writer.size());
+        assertArrayEquals(expected, writer.toByteArray());
+    }
+
+    @Test
+    public void testObject() {
+        Object[] node = new Object[]{bytes(20, 1), new Object[]{"dog", 0, 15, 1024L}, new byte[]{(byte) 0x80},
+                new Value(new Object[]{BigInteger.TEN, bytes(100, 2)}), new Object[0]};
+
+        byte[] expected = RLP.encodeList(
+                RLP.encodeElement(bytes(20, 1)),
+                RLP.encodeList(RLP.encodeElement("dog".getBytes()), RLP.encodeElement(null),
+                        RLP.encodeElement(new byte[]{15}), RLP.encodeElement(new byte[]{4, 0})),
+                // RLP.encode() writes a single 0x80 byte as it is
+                new byte[]{(byte) 0x80},
+                RLP.encodeList(RLP.encodeElement(new byte[]{10}), RLP.encodeElement(bytes(100, 2))),
+                RLP.encodeList());
+
+        assertEquals(expected.length, RLPWriter.sizeOf(node));
+        assertArrayEquals(expected, new RLPWriter(expected.length).write(node).toByteArray());
+        assertArrayEquals(expected, RLP.encode(node));
+        assertArrayEquals(expected, new Value(node).encode());
+    }
+
+    @Test
+    public void testReuseBuffer() {
+        byte[] buffer = new byte[1024];
+        for (byte[] item : items()) {
+            byte[] expected = RLP.encodeElement(item);
+            if (expected.length + 10 > buffer.length) continue;
+
+            RLPWriter writer = new RLPWriter(buffer, 10);
+            writer.writeElement(item);
+            assertEquals(expected.length, writer.size());
+            assertArrayEquals(expected, writer.toByteArray());
+        }
+    }
+
+    @Test
+    public void testPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            List<byte[]> items = new ArrayList<>();
+            for (int i = 0; i < 15; i++) items.add(bytes(i % 3 == 0 ? 32 : 4, i));
+
+            int rounds = 5_000_000;
+            for (int warmup = 0; warmup < 3; warmup++) {
+                long sum = 0;
+                long s = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    byte[][] encoded = new byte[items.size()][];
+                    for (int i = 0; i < items.size(); i++) encoded[i] = RLP.encodeElement(items.get(i));
+                    sum += RLP.encodeList(encoded).length;
+                }
+                long concat = System.nanoTime() - s;
+
+                s = System.nanoTime();
+                for (int r = 0; r < rounds; r++) {
+                    int size = 0;
+                    for (byte[] item : items) size += RLPWriter.sizeOfElement(item);
+                    RLPWriter writer = new RLPWriter(RLPWriter.sizeOfList(size));
+                    writer.writeListHeader(size);
+                    for (byte[] item : items) writer.writeElement(item);
+                    sum -= writer.toByteArray().length;
+                }
+                long single = System.nanoTime() - s;
+
+                assertEquals(0, sum);
+                System.out.printf("RLP.encodeList: %d ns/list, RLPWriter: %d ns/list%n", concat / rounds, single / rounds);
+            }
+        } else {
+            System.out.println("RLPWriter performance test is disabled.");
+        }
+    }
+}
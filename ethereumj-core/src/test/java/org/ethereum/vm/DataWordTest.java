@@ -1,10 +1,12 @@
 package org.ethereum.vm;
 
+import org.ethereum.util.ByteUtil;
 import org.junit.Test;
 
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -393,6 +395,155 @@ public class DataWordTest {
         assertTrue(wr.isZero());
     }
 
+    @Test
+    public void testSDivOverflow() {
+        // -2^255 / -1 doesn't fit into 256 bits and wraps around to -2^255
+        DataWord x = new DataWord(Hex.decode("8000000000000000000000000000000000000000000000000000000000000000"));
+        DataWord y = new DataWord(Hex.decode("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff"));
+
+        x.sDiv(y);
+
+        assertEquals("8000000000000000000000000000000000000000000000000000000000000000", x.toString());
+    }
+
+    @Test
+    public void testSModNegative() {
+        // -7 % 3 == -1
+        DataWord x = new DataWord(Hex.decode("fffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff9"));
+        DataWord y = new DataWord(Hex.decode("03"));
+
+        x.sMod(y);
+
+        assertEquals("ffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff", x.toString());
+    }
+
+    @Test
+    public void testArithmeticAgainstBigInteger() {
+        Random rnd = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            byte[] a = randomWord(rnd);
+            byte[] b = randomWord(rnd);
+            byte[] m = randomWord(rnd);
+            BigInteger ua = new BigInteger(1, a), ub = new BigInteger(1, b), um = new BigInteger(1, m);
+            BigInteger sa = new BigInteger(a), sb = new BigInteger(b);
+            boolean bZero = ub.signum() == 0, mZero = um.signum() == 0;
+
+            DataWord w = new DataWord(a.clone());
+            w.add(new DataWord(b.clone()));
+            assertEquals(ua.add(ub).and(DataWord.MAX_VALUE), w.value());
+
+            w = new DataWord(a.clone());
+            w.sub(new DataWord(b.clone()));
+            assertEquals(ua.subtract(ub).and(DataWord.MAX_VALUE), w.value());
+
+            w = new DataWord(a.clone());
+            w.mul(new DataWord(b.clone()));
+            assertEquals(ua.multiply(ub).and(DataWord.MAX_VALUE), w.value());
+
+            w = new DataWord(a.clone());
+            w.div(new DataWord(b.clone()));
+            assertEquals(bZero ? BigInteger.ZERO : ua.divide(ub), w.value());
+
+            w = new DataWord(a.clone());
+            w.mod(new DataWord(b.clone()));
+            assertEquals(bZero ? BigInteger.ZERO : ua.mod(ub), w.value());
+
+            w = new DataWord(a.clone());
+            w.sDiv(new DataWord(b.clone()));
+            assertEquals(bZero ? BigInteger.ZERO : sa.divide(sb).and(DataWord.MAX_VALUE), w.value());
+
+            BigInteger sMod = bZero ? BigInteger.ZERO : sa.abs().mod(sb.abs());
+            if (sa.signum() < 0) sMod = sMod.negate();
+            w = new DataWord(a.clone());
+            w.sMod(new DataWord(b.clone()));
+            assertEquals(sMod.and(DataWord.MAX_VALUE), w.value());
+
+            w = new DataWord(a.clone());
+            w.addmod(new DataWord(b.clone()), new DataWord(m.clone()));
+            assertEquals(mZero ? BigInteger.ZERO : ua.add(ub).mod(um), w.value());
+
+            w = new DataWord(a.clone());
+            w.mulmod(new DataWord(b.clone()), new DataWord(m.clone()));
+            assertEquals(mZero ? BigInteger.ZERO : ua.multiply(ub).mod(um), w.value());
+
+            w = new DataWord(a.clone());
+            w.exp(new DataWord(b.clone()));
+            assertEquals(ua.modPow(ub, DataWord._2_256), w.value());
+        }
+    }
+
+    /**
+     * Mixes full width, short and edge-case words so that
+     * every branch of the division is exercised
+     */
+    private static byte[] randomWord(Random rnd) {
+        byte[] word = new byte[32];
+        switch (rnd.nextInt(4)) {
+            case 0:
+                rnd.nextBytes(word);
+                break;
+            case 1:
+                for (int i = 32 - rnd.nextInt(9); i < 32; i++) word[i] = (byte) rnd.nextInt();
+                break;
+            case 2:
+                java.util.Arrays.fill(word, (byte) 0xff);
+                word[rnd.nextInt(32)] = (byte) rnd.nextInt();
+                break;
+            default:
+                word[rnd.nextInt(32)] = (byte) (1 << rnd.nextInt(8));
+        }
+        return word;
+    }
+
+    @Test
+    public void testArithmeticPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            byte[] one = Hex.decode("0131544101315441013154410131544101315441013154410131544101315441");
+            byte[] two = Hex.decode("00000000000000000000000000000000000000000000000000000000deadbeef");
+            DataWord w2 = new DataWord(two);
+            BigInteger b1 = new BigInteger(1, one), b2 = new BigInteger(1, two);
+
+            int ITERATIONS = 10000000;
+
+            long now1 = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                DataWord x = new DataWord(one.clone());
+                x.mul(w2);
+                x.div(w2);
+                x.mod(w2);
+            }
+            System.out.println("MUL/DIV/MOD words: " + (System.currentTimeMillis() - now1) + "ms");
+
+            long now2 = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                DataWord x = new DataWord(one.clone());
+                BigInteger r = x.value().multiply(b2).and(DataWord.MAX_VALUE);
+                r = r.divide(b2);
+                r = r.mod(b2);
+                ByteUtil.copyToArray(r);
+            }
+            System.out.println("MUL/DIV/MOD BigInteger: " + (System.currentTimeMillis() - now2) + "ms");
+
+            long now3 = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                DataWord x = new DataWord(one.clone());
+                x.exp(w2);
+            }
+            System.out.println("EXP words: " + (System.currentTimeMillis() - now3) + "ms");
+
+            long now4 = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS / 10; i++) {
+                ByteUtil.copyToArray(b1.modPow(b2, DataWord._2_256));
+            }
+            System.out.println("EXP BigInteger: " + (System.currentTimeMillis() - now4) + "ms");
+        } else {
+            System.out.println("Arithmetic performance test is disabled.");
+        }
+    }
+
     public static BigInteger pow(BigInteger x, BigInteger y) {
         if (y.compareTo(BigInteger.ZERO) < 0)
             throw new IllegalArgumentException();
@@ -1,5 +1,6 @@
 package org.ethereum.vm;
 
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.vm.program.Memory;
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
@@ -511,6 +512,22 @@ public class MemoryTest {
         assertTrue(zero == 10);
     }
 
+    @Test
+    public void memorySha3() {
+
+        Memory memoryBuffer = new Memory();
+        byte[] data = new byte[3000];
+        for (int i = 0; i < data.length; ++i) data[i] = (byte) i;
 
+        memoryBuffer.write(100, data, data.length, false);
 
-}
\ No newline at end of file
+        assertArrayEquals(HashUtil.sha3(memoryBuffer.read(1000, 1500)), memoryBuffer.sha3(1000, 1500));
+        assertArrayEquals(HashUtil.sha3(new byte[0]), memoryBuffer.sha3(4000, 0));
+        assertEquals(3104, memoryBuffer.size());
+
+        // hashing past the end extends memory just like reading does
+        memoryBuffer.sha3(3100, 100);
+        assertEquals(3200, memoryBuffer.size());
+        assertEquals(4 * CHUNK_SIZE, memoryBuffer.internalSize());
+    }
+}
@@ -0,0 +1,73 @@
+package org.ethereum.vm;
+
+import org.ethereum.vm.program.ProgramPrecompile;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.junit.Assert.*;
+
+public class ProgramPrecompileTest {
+
+    @Test
+    public void testJumpDestAnalysis() {
+        // PUSH2 0x5b5b JUMPDEST PUSH1 0x5b STOP JUMPDEST
+        byte[] code = Hex.decode("615b5b5b605b005b");
+
+        ProgramPrecompile precompile = ProgramPrecompile.compile(code);
+
+        assertFalse(precompile.hasJumpDest(1));
+        assertFalse(precompile.hasJumpDest(2));
+        assertTrue(precompile.hasJumpDest(3));
+        assertFalse(precompile.hasJumpDest(5));
+        assertTrue(precompile.hasJumpDest(7));
+        assertFalse(precompile.hasJumpDest(8));
+        assertFalse(precompile.hasJumpDest(-1));
+
+        assertTrue(precompile.isInstruction(0));
+        assertFalse(precompile.isInstruction(1));
+        assertTrue(precompile.isInstruction(4));
+        assertFalse(precompile.isInstruction(5));
+        assertTrue(precompile.isInstruction(6));
+        assertFalse(precompile.isInstruction(8));
+    }
+
+    @Test
+    public void testCacheByCodeHash() {
+        byte[] code = Hex.decode("60015b600101");
+        byte[] codeHash = sha3(code);
+
+        long misses = ProgramPrecompile.getCacheMisses();
+        long hits = ProgramPrecompile.getCacheHits();
+
+        ProgramPrecompile first = ProgramPrecompile.compile(codeHash, code);
+        ProgramPrecompile second = ProgramPrecompile.compile(codeHash, code.clone());
+
+        assertSame(first, second);
+        assertEquals(misses + 1, ProgramPrecompile.getCacheMisses());
+        assertEquals(hits + 1, ProgramPrecompile.getCacheHits());
+
+        // code without a known hash is never cached
+        assertNotSame(ProgramPrecompile.compile(code), ProgramPrecompile.compile(code));
+    }
+
+    @Test
+    public void testPredecodeLimit() {
+        // PUSH1 0x2a followed by zeroes, i.e. STOPs
+        byte[] code = new byte[1024 * 1024];
+        code[0] = 0x60;
+        code[1] = 0x2a;
+
+        ProgramPrecompile first = ProgramPrecompile.compile(code);
+        first.predecode(code);
+        for (int i = 0; i < 16; i++) {
+            ProgramPrecompile.compile(code).predecode(code);
+        }
+        assertTrue(ProgramPrecompile.getDecodedCodeSize() <= 8 * 1024 * 1024);
+
+        // the dropped code is decoded again
+        assertEquals(OpCode.PUSH1, first.getOpCode(code, 0));
+        assertEquals(new DataWord(0x2a), first.getPushValue(code, 0));
+        assertEquals(OpCode.STOP, first.getOpCode(code, 2));
+    }
+}
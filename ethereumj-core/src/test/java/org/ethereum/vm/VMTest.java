@@ -1,5 +1,7 @@
 package org.ethereum.vm;
 
+import com.typesafe.config.ConfigFactory;
+import org.ethereum.config.SystemProperties;
 import org.ethereum.core.Repository;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.vm.program.Program;
@@ -1187,6 +1189,97 @@ public class VMTest {
         assertEquals(top, Hex.toHexString(program.stackPop().getData()));
     }
 
+    @Test // pre-decoded mode must behave exactly as the plain one
+    public void testPredecodedMode() {
+        SystemProperties predecodeConfig = new SystemProperties(ConfigFactory.parseString("vm.predecode = true"));
+        String[] codes = {
+                // countdown loop from 10 using JUMPI
+                "600a5b600190038060025700",
+                // PUSH32 followed by a PUSH2 truncated by the end of the code
+                "7f0102030405060708090a0b0c0d0e0f101112131415161718191a1b1c1d1e1f2061ab",
+                // jump into PUSH data
+                "600456605b00"
+        };
+
+        for (String code : codes) {
+            Program plain = new Program(Hex.decode(code), invoke);
+            new VM().play(plain);
+
+            Program predecoded = new Program(Hex.decode(code), invoke);
+            new VM(predecodeConfig).play(predecoded);
+
+            assertArrayEquals(plain.getStack().toArray(), predecoded.getStack().toArray());
+            assertEquals(plain.getResult().getGasUsed(), predecoded.getResult().getGasUsed());
+            assertEquals(plain.getPC(), predecoded.getPC());
+            assertEquals(plain.getResult().getException() == null, predecoded.getResult().getException() == null);
+        }
+    }
+
+    @Test // PUSH/DUP/SWAP/POP dispatch throughput
+    public void testStackOpsPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            // PUSH1 0x01 PUSH1 0x02 DUP2 SWAP1 DUP1 ADD POP POP POP, repeated
+            StringBuilder code = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                code.append("6001600281908001505050");
+            }
+            byte[] ops = Hex.decode(code.toString());
+            invoke.setGas(Long.MAX_VALUE / 2);
+
+            VM vm = new VM();
+            int ITERATIONS = 2000;
+            long steps = 0;
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                program = new Program(ops, invoke);
+                while (!program.isStopped()) {
+                    vm.step(program);
+                    ++steps;
+                }
+            }
+            long time = System.currentTimeMillis() - start;
+            System.out.println("Executed " + steps + " ops in " + time + "ms, " + (steps / Math.max(time, 1)) + " ops/ms");
+        } else {
+            System.out.println("Stack ops performance test is disabled.");
+        }
+    }
+
+    @Test // MLOAD/MSTORE/SHA3 over a few KB of memory
+    public void testMemoryOpsPerformance() {
+        boolean enabled = false;
+
+        if (enabled) {
+            StringBuilder code = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                String from = String.format("%04x", (i * 32) % 4096);
+                String to = String.format("%04x", (i * 64 + 16) % 4096);
+                // PUSH2 from MLOAD PUSH2 to MSTORE PUSH1 0x40 PUSH2 from SHA3 POP
+                code.append("61").append(from).append("51")
+                    .append("61").append(to).append("52")
+                    .append("6040").append("61").append(from).append("2050");
+            }
+            byte[] ops = Hex.decode(code.toString());
+            invoke.setGas(Long.MAX_VALUE / 2);
+
+            VM vm = new VM();
+            int ITERATIONS = 2000;
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < ITERATIONS; i++) {
+                program = new Program(ops, invoke);
+                while (!program.isStopped()) {
+                    vm.step(program);
+                }
+            }
+            System.out.println("Memory ops: " + (System.currentTimeMillis() - start) + "ms");
+        } else {
+            System.out.println("Memory ops performance test is disabled.");
+        }
+    }
+
     @Test(expected = StackTooSmallException.class)  // SWAPN OP mal data
     public void testSWAPN_2() {
 